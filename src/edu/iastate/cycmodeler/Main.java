@@ -1,170 +1,205 @@
 package edu.iastate.cycmodeler;
 
-import java.awt.CardLayout;
-import java.awt.Dimension;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.Insets;
-
-import javax.swing.JFrame;
-import javax.swing.SwingUtilities;
-import javax.swing.WindowConstants;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
 
+import edu.iastate.cycmodeler.logic.BatchBuild;
+import edu.iastate.cycmodeler.logic.BuildService;
 import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.cycmodeler.util.MyParameters;
-import edu.iastate.cycmodeler.view.DefaultController;
-import edu.iastate.cycmodeler.view.LoginPanel;
-import edu.iastate.cycmodeler.view.MainCardPanel;
-import edu.iastate.cycmodeler.view.OptionPanel;
+import edu.iastate.cycmodeler.view.GuiLauncher;
 import edu.iastate.javacyco.JavacycConnection;
 
 /**
- * Main class for the CycModeler class.
+ * Main class for the CycModeler class.  Runs headless from the command line, the graphical interface is started with --gui or through
+ * GuiLauncher.
+ * 
+ * Usage:
+ *   Main CONFIGFILE REACTIONCONFIGFILE    Build one model
+ *   Main --jobs JOBFILE                   Build a model for each line of the job file
+ *   Main --gui                            Start the graphical interface
+ *   Main --serve PORT WORKDIRECTORY [THREADS [KBHOST:KBPORT]]
+ *                                         Run the local build service, see BuildService. With KBHOST:KBPORT every build connects to
+ *                                         that server instead of the HOST and PORT of its settings, such as a stand-in knowledge base
+ * 
+ * Each line of a job file holds the paths of a config file and a reaction config file, separated by tabs or spaces.  Blank lines and lines
+ * starting with # are skipped, and relative paths are taken from the directory of the job file.  Jobs run in order, and a failed job does
+ * not stop the ones after it.
  * 
  * @author Jesse R. Walsh
  *
  */
 public class Main {
-	static {
-		/**
-	     * The following static block is needed in order to load the
-	     * the libSBML Java module when the application starts.
-	     */
-	    String varname;
-	    String shlibname;
+	public static final int EXIT_SUCCESS = 0;
+	public static final int EXIT_FAILURE = 1;
+	public static final int EXIT_USAGE = 2;
 	
-	    if (System.getProperty("mrj.version") != null) {
-	      varname = "DYLD_LIBRARY_PATH";    // We're on a Mac.
-	      shlibname = "libsbmlj.jnilib and/or libsbml.dylib";
-	    }
-	    else {
-	      varname = "LD_LIBRARY_PATH";      // We're not on a Mac.
-	      shlibname = "libsbmlj.so and/or libsbml.so";
-	    }
-	
-	    try {
-	      System.loadLibrary("sbmlj");
-	      // For extra safety, check that the jar file is in the classpath.
-	      Class.forName("org.sbml.libsbml.libsbml");
-	    }
-	    catch (UnsatisfiedLinkError e) {
-	      System.err.println("Error encountered while attempting to load libSBML:");
-	      e.printStackTrace();
-	      System.err.println("Please check the value of your " + varname +
-				 " environment variable and/or" +
-	                         " your 'java.library.path' system property" +
-	                         " (depending on which one you are using) to" +
-	                         " make sure it lists all the directories needed to" +
-	                         " find the " + shlibname + " library file and the" +
-	                         " libraries it depends upon (e.g., the XML parser).");
-	      System.exit(1);
-	    }
-	    catch (ClassNotFoundException e) {
-	      e.printStackTrace();
-	      System.err.println("Error: unable to load the file libsbmlj.jar." +
-	                         " It is likely your -classpath option and/or" +
-	                         " CLASSPATH environment variable do not" +
-	                         " include the path to the file libsbmlj.jar.");
-	      System.exit(1);
-	    }
-	    catch (SecurityException e) {
-	      System.err.println("Error encountered while attempting to load libSBML:");
-	      e.printStackTrace();
-	      System.err.println("Could not load the libSBML library files due to a"+
-	                         " security exception.\n");
-	      System.exit(1);
-	    }
+	/**
+	 * Run the build service until the JVM is stopped.
+	 */
+	private static void serve(String[] args) {
+		int port;
+		int threads = 2;
+		BuildService.ConnectionFactory connectionFactory = BuildService.DEFAULT_CONNECTIONS;
+		try {
+			port = Integer.parseInt(args[1]);
+			if (args.length >= 4) threads = Integer.parseInt(args[3]);
+			if (args.length == 5) {
+				int separator = args[4].lastIndexOf(':');
+				if (separator <= 0) throw new NumberFormatException(args[4]);
+				connectionFactory = BuildService.connectionsTo(args[4].substring(0, separator), Integer.parseInt(args[4].substring(separator + 1)));
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("PORT, THREADS and KBPORT must be numbers, and the knowledge base given as KBHOST:KBPORT");
+			System.exit(EXIT_USAGE);
+			return;
+		}
+		
+		final BuildService service;
+		try {
+			service = new BuildService(port, Math.max(1, threads), BuildService.DEFAULT_QUEUE_LIMIT, new File(args[2]), connectionFactory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(EXIT_FAILURE);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				service.stop();
+			}
+		});
+		service.start();
 	}
 	
 	/**
-	 * Main method for the CycModeler class.  This method initializes a connection object and calls the run() method.
+	 * Main method for the CycModeler class.  Exits with EXIT_SUCCESS if every model was built, EXIT_FAILURE if any build failed and
+	 * EXIT_USAGE if the arguments or job file could not be read.
 	 * 
-	 * @param args Not used
+	 * @param args Command line arguments, see the class description
 	 */
 	public static void main(String[] args) {
-		if(args.length<1) {
-			System.out.println("Usage: Main CONFIGFILE REACTIONCONFIGFILE");
-			System.exit(0);
+		if (args.length == 1 && args[0].equals("--gui")) {
+			GuiLauncher.main(args);
+			return;
 		}
-		String configFile = args[0];
-		String reactionConfigFile = args[1];
 		
-		SwingUtilities.invokeLater(new Runnable() {
-		    public void run() {
-		        createAndShowGUI();
-		    }
-		});
+		System.setProperty("java.awt.headless", "true");
+		if (args.length >= 3 && args.length <= 5 && args[0].equals("--serve")) {
+			serve(args);
+			return;
+		}
 		
+		ArrayList<String[]> jobs;
+		if (args.length == 2 && args[0].equals("--jobs")) {
+			jobs = readJobFile(args[1]);
+			if (jobs == null) System.exit(EXIT_USAGE);
+		} else if (args.length == 2 && !args[0].startsWith("--")) {
+			jobs = new ArrayList<String[]>();
+			jobs.add(new String[] {args[0], args[1]});
+		} else {
+			System.out.println("Usage: Main CONFIGFILE REACTIONCONFIGFILE");
+			System.out.println("       Main --jobs JOBFILE");
+			System.out.println("       Main --gui");
+			System.out.println("       Main --serve PORT WORKDIRECTORY [THREADS [KBHOST:KBPORT]]");
+			System.exit(EXIT_USAGE);
+			return;
+		}
+		
+		int failed = 0;
+		for (int i = 0; i < jobs.size(); i++) {
+			String configFile = jobs.get(i)[0];
+			String reactionConfigFile = jobs.get(i)[1];
+			if (jobs.size() > 1) System.out.println("Job " + (i + 1) + " of " + jobs.size() + " : " + configFile + " " + reactionConfigFile);
+			
+			Long start = System.currentTimeMillis();
+			boolean built = false;
+			if (!new File(configFile).isFile()) System.err.println("Config file not found : " + configFile);
+			else if (!new File(reactionConfigFile).isFile()) System.err.println("Reaction config file not found : " + reactionConfigFile);
+			else built = run(configFile, reactionConfigFile);
+			Long stop = System.currentTimeMillis();
+			Long runtime = (stop - start) / 1000;
+			System.out.println("Runtime is " + runtime + " seconds.");
+			if (!built) failed++;
+		}
 		
-//		Long start = System.currentTimeMillis();
-//		run(configFile, reactionConfigFile);
-//		Long stop = System.currentTimeMillis();
-//		Long runtime = (stop - start) / 1000;
-//		System.out.println("Runtime is " + runtime + " seconds.");
+		if (jobs.size() > 1) System.out.println((jobs.size() - failed) + " of " + jobs.size() + " jobs succeeded");
+		System.exit(failed == 0 ? EXIT_SUCCESS : EXIT_FAILURE);
 	}
 	
-	private static void createAndShowGUI() {
-//		run(configFile, reactionConfigFile);
-		DefaultController controller = new DefaultController();
-		
-		MainCardPanel cardPanel = new MainCardPanel();
-		cardPanel.add(new LoginPanel(controller), MainCardPanel.loginCard);
-		cardPanel.add(new OptionPanel(controller), MainCardPanel.optionCard);
-		
-		controller.setMainCardPanel(cardPanel);
-		
-		JFrame displayFrame = new JFrame("CycBrowser");
-		controller.setMainJFrame(displayFrame);
-		
-		displayFrame.setResizable(false);
-		displayFrame.setPreferredSize(new Dimension(835, 435));
-		GridBagLayout gridBagLayout = new GridBagLayout();
-		gridBagLayout.columnWidths = new int[]{800, 0};
-		gridBagLayout.rowHeights = new int[]{35, 400, 30, 0};
-		gridBagLayout.columnWeights = new double[]{0.0, Double.MIN_VALUE};
-		gridBagLayout.rowWeights = new double[]{0.0, 0.0, 0.0, Double.MIN_VALUE};
-		displayFrame.getContentPane().setLayout(gridBagLayout);
-		
-		GridBagConstraints gbc_toolPanel = new GridBagConstraints();
-		gbc_toolPanel.fill = GridBagConstraints.HORIZONTAL;
-		gbc_toolPanel.anchor = GridBagConstraints.NORTH;
-		gbc_toolPanel.insets = new Insets(0, 0, 5, 0);
-		gbc_toolPanel.gridx = 0;
-		gbc_toolPanel.gridy = 0;
-		
-		GridBagConstraints gbc_cardPanel = new GridBagConstraints();
-		gbc_cardPanel.fill = GridBagConstraints.HORIZONTAL;
-		gbc_cardPanel.anchor = GridBagConstraints.NORTH;
-		gbc_cardPanel.insets = new Insets(0, 0, 5, 0);
-		gbc_cardPanel.gridx = 0;
-		gbc_cardPanel.gridy = 1;
-		displayFrame.getContentPane().add(cardPanel, gbc_cardPanel);
-		
-		GridBagConstraints gbc_statusPanel = new GridBagConstraints();
-		gbc_statusPanel.fill = GridBagConstraints.HORIZONTAL;
-		gbc_statusPanel.anchor = GridBagConstraints.NORTH;
-		gbc_statusPanel.gridx = 0;
-		gbc_statusPanel.gridy = 2;
-		
-        displayFrame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        displayFrame.pack();
-        
-        displayFrame.setLocationRelativeTo(null);
-        displayFrame.setVisible(true);
+	/**
+	 * Read a job file.
+	 * 
+	 * @param fileName Path of the job file
+	 * @return Config file and reaction config file of each job, or null if the file cannot be read or a line does not hold two paths
+	 */
+	private static ArrayList<String[]> readJobFile(String fileName) {
+		File jobFile = new File(fileName);
+		File directory = jobFile.getAbsoluteFile().getParentFile();
+		ArrayList<String[]> jobs = new ArrayList<String[]>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(jobFile));
+			String text = null;
+			int lineNumber = 0;
+			while ((text = reader.readLine()) != null) {
+				lineNumber++;
+				text = text.trim();
+				if (text.length() == 0 || text.startsWith("#")) continue;
+				String[] fields = text.contains("\t") ? text.split("\t+") : text.split("\\s+");
+				if (fields.length != 2) {
+					System.err.println("Job file line " + lineNumber + " must hold a config file and a reaction config file : " + text);
+					return null;
+				}
+				jobs.add(new String[] {resolve(directory, fields[0].trim()), resolve(directory, fields[1].trim())});
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unable to read job file : " + fileName);
+			return null;
+		} finally {
+			try {
+				if (reader != null) reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return jobs;
+	}
+	
+	private static String resolve(File directory, String path) {
+		File file = new File(path);
+		if (file.isAbsolute()) return path;
+		return new File(directory, path).getPath();
 	}
 	
 	/**
-	 * This method initializes a CycModeler object and calls its methods.
+	 * This method initializes a CycModeler object and calls its methods.  If the config file lists BATCHORGANISMS, a model is built for
+	 * each of them instead of for ORGANISM.
+	 * 
+	 * @return True if every model was built
 	 */
-	public static void run(String configFile, String reactionConfigFile) {
+	public static boolean run(String configFile, String reactionConfigFile) {
 		MyParameters parameters = new MyParameters();
+		parameters.initHeadlessDefault();
 		parameters.initializeFromConfigFile(configFile);
 		
-		JavacycConnection conn = new JavacycConnection(parameters.Host, parameters.Port);
-//		JavacycConnection conn = new JavacycConnection(parameters.Host, parameters.Port, parameters.User, parameters.Password);
-		conn.selectOrganism(parameters.Organism);
+		if (parameters.BatchOrganisms.size() > 0) {
+			return new BatchBuild(configFile, reactionConfigFile, parameters.BatchOrganisms, parameters.BatchThreads).run().isEmpty();
+		}
 		
-		CycModeler modeler = new CycModeler(conn, parameters);
-		modeler.createModel(reactionConfigFile);
+		try {
+			JavacycConnection conn = new JavacycConnection(parameters.Host, parameters.Port);
+//			JavacycConnection conn = new JavacycConnection(parameters.Host, parameters.Port, parameters.User, parameters.Password);
+			conn.selectOrganism(parameters.Organism);
+			
+			CycModeler modeler = new CycModeler(conn, parameters);
+			return modeler.createModel(reactionConfigFile);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return false;
+		}
 	}
 }
@@ -2,16 +2,17 @@ package edu.iastate.cycmodeler;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
-import org.sbml.libsbml.SBMLDocument;
-import org.sbml.libsbml.SBMLWriter;
-
+import edu.iastate.cycmodeler.analysis.RevisedSimplex;
 import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.cycmodeler.model.InstantiatedReactionInstance;
 import edu.iastate.cycmodeler.model.MetaboliteInstance;
 import edu.iastate.cycmodeler.model.ReactionInstance;
 import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
 import edu.iastate.cycmodeler.util.MyParameters;
 import edu.iastate.javacyco.Frame;
 import edu.iastate.javacyco.JavacycConnection;
@@ -21,59 +22,12 @@ import edu.iastate.javacyco.Reaction;
 public class Test {
 	static private JavacycConnection conn = null;
 	
-	static {
-		/**
-	     * The following static block is needed in order to load the
-	     * the libSBML Java module when the application starts.
-	     */
-	    String varname;
-	    String shlibname;
-	
-	    if (System.getProperty("mrj.version") != null) {
-	      varname = "DYLD_LIBRARY_PATH";    // We're on a Mac.
-	      shlibname = "libsbmlj.jnilib and/or libsbml.dylib";
-	    }
-	    else {
-	      varname = "LD_LIBRARY_PATH";      // We're not on a Mac.
-	      shlibname = "libsbmlj.so and/or libsbml.so";
-	    }
-	
-	    try {
-	      System.loadLibrary("sbmlj");
-	      // For extra safety, check that the jar file is in the classpath.
-	      Class.forName("org.sbml.libsbml.libsbml");
-	    }
-	    catch (UnsatisfiedLinkError e) {
-	      System.err.println("Error encountered while attempting to load libSBML:");
-	      e.printStackTrace();
-	      System.err.println("Please check the value of your " + varname +
-				 " environment variable and/or" +
-	                         " your 'java.library.path' system property" +
-	                         " (depending on which one you are using) to" +
-	                         " make sure it lists all the directories needed to" +
-	                         " find the " + shlibname + " library file and the" +
-	                         " libraries it depends upon (e.g., the XML parser).");
-	      System.exit(1);
-	    }
-	    catch (ClassNotFoundException e) {
-	      e.printStackTrace();
-	      System.err.println("Error: unable to load the file libsbmlj.jar." +
-	                         " It is likely your -classpath option and/or" +
-	                         " CLASSPATH environment variable do not" +
-	                         " include the path to the file libsbmlj.jar.");
-	      System.exit(1);
-	    }
-	    catch (SecurityException e) {
-	      System.err.println("Error encountered while attempting to load libSBML:");
-	      e.printStackTrace();
-	      System.err.println("Could not load the libSBML library files due to a"+
-	                         " security exception.\n");
-	      System.exit(1);
-	    }
-	}
-	
 	public static void main(String[] args) {
 		System.out.println("TESTING MODE");
+		if (args.length > 0 && args[0].equals("simplex")) {
+			testDegenerateSimplex();
+			return;
+		}
 		Long start = System.currentTimeMillis();
 		conn = new JavacycConnection("jrwalsh.student.iastate.edu",4444);
 		conn.selectOrganism("ECOLI");
@@ -124,4 +78,67 @@ public class Test {
 			e1.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Solver checks on degenerate problems, which do not need a database connection.  Beale's example cycles under Dantzig pricing without
+	 * anti-cycling, and the random network, with reversible fluxes starting strictly between their bounds, used to stall at the iteration
+	 * limit.
+	 */
+	public static void testDegenerateSimplex() {
+		// Beale: max 3/4 v0 - 20 v1 + 1/2 v2 - 6 v3, with two inequality rows closed by the slack fluxes v4 and v5, optimum 5/4
+		StoichiometricMatrix beale = new StoichiometricMatrix(new String[] {"V0", "V1", "V2", "V3", "S1", "S2"}, new String[] {"R1", "R2"},
+				new int[] {0, 2, 4, 6, 8, 9, 10}, new int[] {0, 1, 0, 1, 0, 1, 0, 1, 0, 1},
+				new double[] {0.25, 0.5, -8, -12, -1, -0.5, 9, 3, 1, 1},
+				new double[] {0, 0, 0, 0, 0, 0}, new double[] {1000, 1000, 1, 1000, 1000, 1000}, new boolean[6]);
+		RevisedSimplex solver = new RevisedSimplex(beale);
+		solver.setObjective(new double[] {0.75, -20, 0.5, -6, 0, 0});
+		checkSolution("Beale", beale, solver, solver.maximize(), 1.25);
+		
+		// Random network of 558 reactions, a quarter of the species with an exchange reaction and half of the other reactions reversible
+		int n = 558;
+		int m = n * 2 / 3;
+		int exchanges = m / 8;
+		Random random = new Random(4);
+		int[] colPtr = new int[n + 1];
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		ArrayList<Double> values = new ArrayList<Double>();
+		double[] lower = new double[n];
+		double[] upper = new double[n];
+		for (int j = 0; j < n; j++) {
+			TreeMap<Integer, Double> column = new TreeMap<Integer, Double>();
+			if (j >= n - exchanges) {
+				column.put(random.nextInt(m), -1.0);
+				lower[j] = random.nextBoolean() ? -10 : 0;
+			} else {
+				int size = 2 + random.nextInt(3);
+				for (int k = 0; k < size; k++) column.put(random.nextInt(m), (k % 2 == 0 ? -1.0 : 1.0) * (1 + random.nextInt(2)));
+				lower[j] = random.nextBoolean() ? -1000 : 0;
+			}
+			upper[j] = 1000;
+			rows.addAll(column.keySet());
+			values.addAll(column.values());
+			colPtr[j + 1] = rows.size();
+		}
+		int[] rowIdx = new int[rows.size()];
+		double[] value = new double[rows.size()];
+		for (int k = 0; k < rowIdx.length; k++) {
+			rowIdx[k] = rows.get(k);
+			value[k] = values.get(k);
+		}
+		String[] reactionIDs = new String[n];
+		for (int j = 0; j < n; j++) reactionIDs[j] = "R" + j;
+		String[] speciesIDs = new String[m];
+		for (int i = 0; i < m; i++) speciesIDs[i] = "M" + i;
+		StoichiometricMatrix network = new StoichiometricMatrix(reactionIDs, speciesIDs, colPtr, rowIdx, value, lower, upper, new boolean[n]);
+		solver = new RevisedSimplex(network);
+		solver.setObjective(1);
+		checkSolution("Random network", network, solver, solver.maximize(), 750);
+	}
+	
+	private static void checkSolution(String name, StoichiometricMatrix matrix, RevisedSimplex solver, RevisedSimplex.Status status, double expected) {
+		double residual = 0;
+		for (double v : matrix.multiply(solver.getFluxes())) residual = Math.max(residual, Math.abs(v));
+		boolean passed = status == RevisedSimplex.Status.OPTIMAL && Math.abs(solver.getObjectiveValue() - expected) < 1e-6 && residual < 1e-6;
+		System.out.println(name + " : " + status + " " + solver.getObjectiveValue() + " in " + solver.getIterations() + " pivots, " + (passed ? "passed" : "FAILED, expected " + expected));
+	}
 }
@@ -0,0 +1,173 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Connected components of the species-reaction graph of a network, ignoring currency metabolites.  A network built from a sensible config
+ * is mostly one large component, and a pathway which has come loose shows up as a new small component, so the component count is a cheap
+ * early check on a config change.
+ *
+ * Nodes are the reactions and the species (a metabolite in a compartment), and each reaction is joined to each of its species.  Components
+ * are found with an array-based union-find, using union by size and path halving, which takes near-linear time in the number of
+ * reaction-species pairs.
+ *
+ * @author Jesse Walsh
+ */
+public class ConnectedComponents {
+	public static final String FILE_SUFFIX = ".components";
+
+	private ArrayList<Component> components_;
+
+	/**
+	 * @param reactionNetwork Network to analyze
+	 * @param excludedMetaboliteIDs Compound frame IDs which do not join reactions, such as currency metabolites. May be null
+	 */
+	public ConnectedComponents(ReactionNetwork reactionNetwork, Set<String> excludedMetaboliteIDs) {
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactions);
+		int n = reactions.size();
+
+		// Number species after the reactions
+		HashMap<String, Integer> speciesNodes = new HashMap<String, Integer>();
+		ArrayList<MetaboliteInstance> species = new ArrayList<MetaboliteInstance>();
+		int[] parent = new int[n];
+		int[] size = new int[n];
+		for (int j = 0; j < n; j++) {
+			parent[j] = j;
+			size[j] = 1;
+		}
+		for (int j = 0; j < n; j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			ArrayList<MetaboliteInstance> metabolites = new ArrayList<MetaboliteInstance>(reaction.getOrderedReactants());
+			metabolites.addAll(reaction.getOrderedProducts());
+			for (MetaboliteInstance metabolite : metabolites) {
+				if (excludedMetaboliteIDs != null && excludedMetaboliteIDs.contains(metabolite.getMetaboliteID())) continue;
+				String speciesID = metabolite.generateSpeciesID();
+				Integer node = speciesNodes.get(speciesID);
+				if (node == null) {
+					node = n + species.size();
+					speciesNodes.put(speciesID, node);
+					species.add(metabolite);
+					if (node >= parent.length) {
+						parent = Arrays.copyOf(parent, parent.length * 2);
+						size = Arrays.copyOf(size, size.length * 2);
+					}
+					parent[node] = node;
+					size[node] = 1;
+				}
+				union(parent, size, j, node);
+			}
+		}
+
+		// Collect the members of each component
+		HashMap<Integer, Component> byRoot = new HashMap<Integer, Component>();
+		components_ = new ArrayList<Component>();
+		for (int j = 0; j < n; j++) {
+			Component component = getComponent(byRoot, find(parent, j));
+			component.reactionIDs.add(reactionIDs.get(j));
+			if (reactions.get(j).reactionLocation_ != null) component.compartments.add(reactions.get(j).reactionLocation_);
+		}
+		for (int s = 0; s < species.size(); s++) {
+			Component component = getComponent(byRoot, find(parent, n + s));
+			component.speciesIDs.add(species.get(s).generateSpeciesID());
+			if (species.get(s).compartment_ != null) component.compartments.add(species.get(s).compartment_);
+		}
+		Collections.sort(components_, new Comparator<Component>() {
+			public int compare(Component a, Component b) {
+				if (a.reactionIDs.size() != b.reactionIDs.size()) return b.reactionIDs.size() - a.reactionIDs.size();
+				return b.speciesIDs.size() - a.speciesIDs.size();
+			}
+		});
+	}
+
+	private Component getComponent(HashMap<Integer, Component> byRoot, int root) {
+		Component component = byRoot.get(root);
+		if (component == null) {
+			component = new Component();
+			byRoot.put(root, component);
+			components_.add(component);
+		}
+		return component;
+	}
+
+	private static int find(int[] parent, int node) {
+		while (parent[node] != node) {
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	private static void union(int[] parent, int[] size, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA == rootB) return;
+		if (size[rootA] < size[rootB]) {
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+	}
+
+	/**
+	 * Write every component with its compartments and members, largest first.
+	 */
+	public void write(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+		try {
+			for (int c = 0; c < components_.size(); c++) {
+				Component component = components_.get(c);
+				out.println("# Component " + (c + 1) + " : " + component.reactionIDs.size() + " reactions, " + component.speciesIDs.size() + " species, compartments " + component.compartments);
+				for (String reactionID : component.reactionIDs) out.println("R\t" + reactionID);
+				for (String speciesID : component.speciesIDs) out.println("S\t" + speciesID);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Components, largest first. Every component has at least one reaction
+	 */
+	public ArrayList<Component> getComponents() {
+		return components_;
+	}
+
+	public int getComponentCount() {
+		return components_.size();
+	}
+
+	/**
+	 * @return Number of reactions which share no non-excluded species with any other reaction
+	 */
+	public int getIsolatedReactionCount() {
+		int isolated = 0;
+		for (Component component : components_) if (component.reactionIDs.size() == 1) isolated++;
+		return isolated;
+	}
+
+	// Internal Classes
+	public static class Component {
+		public ArrayList<String> reactionIDs = new ArrayList<String>();
+		public ArrayList<String> speciesIDs = new ArrayList<String>();
+		public TreeSet<String> compartments = new TreeSet<String>();
+	}
+}
@@ -0,0 +1,159 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Currency metabolites: cofactors, carriers and small inorganics such as ATP, NAD and water which take part in a large share of all
+ * reactions.  Graph searches over a network should not pass through them, since one step through ATP connects almost every pathway to
+ * every other.
+ *
+ * Rather than relying on a fixed list, currency metabolites can be detected from the network itself.  The degree of each metabolite, the
+ * number of reactions it takes part in, is counted in a single pass over the edges of a NetworkGraph, along with how many reactions consume
+ * and produce it.  A metabolite is flagged as currency when its degree is at least minDegree and at least minFraction of all reactions.
+ * Requiring both keeps small networks, where every metabolite is in a large fraction of reactions, from being flagged entirely.
+ *
+ * @author Jesse Walsh
+ */
+public class CurrencyMetabolites {
+	/**
+	 * Compound frame IDs treated as currency metabolites when no other list is given.
+	 */
+	public static final Set<String> DEFAULT_IDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			"ADP", "AMP", "ATP", "NAD", "NADH", "NADP", "NADPH", "OXYGEN-MOLECULE", "PROTON", "|Pi|", "NAD-P-OR-NOP", "NADH-P-OR-NOP",
+			"PROT-CYS", "|Charged-SEC-tRNAs|", "|Demethylated-methyl-acceptors|", "|L-seryl-SEC-tRNAs|", "|Methylated-methyl-acceptors|",
+			"|Quinones|", "|Reduced-Quinones|", "|SEC-tRNAs|", "|Ubiquinols|", "|Ubiquinones|", "ENZYME-S-SULFANYLCYSTEINE", "WATER",
+			"CARBON-DIOXIDE", "PPI")));
+
+	private NetworkGraph graph_;
+	private int[] degree_;
+	private int[] consumedBy_;
+	private int[] producedBy_;
+	private int threshold_;
+	private HashSet<String> currencyIDs_;
+
+	/**
+	 * Count metabolite degrees in a network and flag currency metabolites.
+	 *
+	 * @param graph Graph of the network
+	 * @param minDegree Least number of reactions a currency metabolite takes part in
+	 * @param minFraction Least fraction of all reactions a currency metabolite takes part in
+	 */
+	public CurrencyMetabolites(NetworkGraph graph, int minDegree, float minFraction) {
+		this.graph_ = graph;
+		int metabolites = graph.getMetaboliteCount();
+		degree_ = new int[metabolites];
+		consumedBy_ = new int[metabolites];
+		producedBy_ = new int[metabolites];
+
+		// One pass over the reaction -> metabolite edges. A metabolite listed on both sides of a reaction counts once toward its degree
+		int[] reactionStart = graph.getReactionStart();
+		int[] reactantEnd = graph.getReactantEnd();
+		int[] reactionMetabolites = graph.getReactionMetabolites();
+		int[] lastReaction = new int[metabolites];
+		Arrays.fill(lastReaction, -1);
+		for (int j = 0; j < graph.getReactionCount(); j++) {
+			for (int k = reactionStart[j]; k < reactionStart[j + 1]; k++) {
+				int metabolite = reactionMetabolites[k];
+				if (k < reactantEnd[j]) consumedBy_[metabolite]++;
+				else producedBy_[metabolite]++;
+				if (lastReaction[metabolite] != j) {
+					degree_[metabolite]++;
+					lastReaction[metabolite] = j;
+				}
+			}
+		}
+
+		threshold_ = Math.max(minDegree, (int) Math.ceil(minFraction * graph.getReactionCount()));
+		currencyIDs_ = new HashSet<String>();
+		for (int i = 0; i < metabolites; i++) {
+			if (degree_[i] >= threshold_) currencyIDs_.add(graph.getMetaboliteID(i));
+		}
+	}
+
+	/**
+	 * Detect the currency metabolites of a network using the CURRENCYMINDEGREE and CURRENCYMINFRACTION parameters.
+	 */
+	public static CurrencyMetabolites detect(ReactionNetwork reactionNetwork) {
+		return new CurrencyMetabolites(new NetworkGraph(reactionNetwork), CycModeler.getParameters().CurrencyMinDegree, CycModeler.getParameters().CurrencyMinFraction);
+	}
+
+	/**
+	 * Frame IDs of the metabolites flagged as currency.  The set can be passed as the exclusion set of NetworkGraph.expand and
+	 * ReactionNetwork.extractSubNetwork.
+	 *
+	 * @return Unmodifiable set of compound frame IDs
+	 */
+	public Set<String> getCurrencyIDs() {
+		return Collections.unmodifiableSet(currencyIDs_);
+	}
+
+	/**
+	 * Flagged currency metabolites together with DEFAULT_IDS, for networks where some known currency metabolites are not used often enough
+	 * to be flagged.
+	 *
+	 * @return New set of compound frame IDs
+	 */
+	public Set<String> getCurrencyIDsWithDefaults() {
+		HashSet<String> currencyIDs = new HashSet<String>(currencyIDs_);
+		currencyIDs.addAll(DEFAULT_IDS);
+		return currencyIDs;
+	}
+
+	public boolean isCurrency(String metaboliteID) {
+		return currencyIDs_.contains(metaboliteID);
+	}
+
+	/**
+	 * @return Number of reactions a metabolite takes part in, 0 if it is not in the network
+	 */
+	public int getDegree(String metaboliteID) {
+		int metabolite = graph_.getMetaboliteNumber(metaboliteID);
+		return metabolite == -1 ? 0 : degree_[metabolite];
+	}
+
+	public int getConsumedBy(String metaboliteID) {
+		int metabolite = graph_.getMetaboliteNumber(metaboliteID);
+		return metabolite == -1 ? 0 : consumedBy_[metabolite];
+	}
+
+	public int getProducedBy(String metaboliteID) {
+		int metabolite = graph_.getMetaboliteNumber(metaboliteID);
+		return metabolite == -1 ? 0 : producedBy_[metabolite];
+	}
+
+	/**
+	 * Degree distribution of the network.
+	 *
+	 * @return Array where element d is the number of metabolites taking part in exactly d reactions
+	 */
+	public int[] getDegreeDistribution() {
+		int maxDegree = 0;
+		for (int degree : degree_) maxDegree = Math.max(maxDegree, degree);
+		int[] distribution = new int[maxDegree + 1];
+		for (int degree : degree_) distribution[degree]++;
+		return distribution;
+	}
+
+	/**
+	 * Degree a metabolite must reach to be flagged, the larger of minDegree and minFraction of the reaction count.
+	 */
+	public int getThreshold() {
+		return threshold_;
+	}
+
+	public void printDegreeStatistics() {
+		System.out.println("Metabolites : " + graph_.getMetaboliteCount());
+		System.out.println("Reactions : " + graph_.getReactionCount());
+		System.out.println("Currency threshold : " + threshold_ + " reactions");
+		System.out.println("Currency metabolites : " + currencyIDs_.size());
+		for (int i = 0; i < degree_.length; i++) {
+			if (degree_[i] >= threshold_) System.out.println("\t" + graph_.getMetaboliteID(i) + "\t" + degree_[i] + "\t" + consumedBy_[i] + "\t" + producedBy_[i]);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+
+/**
+ * Topological dead-end detection.  A species which no active reaction can produce, or none can consume, cannot be at steady state with any
+ * flux through its reactions, so every reaction using it is blocked.  Blocking those reactions can leave further species dead, and the
+ * process repeats until nothing changes.
+ *
+ * Each species keeps a count of the active reactions which can produce it, which can consume it, and which use it at all.  The direction a
+ * reaction can run comes from its flux bounds, so a reversible reaction can both produce and consume each of its species.  A species used by
+ * a single reaction is dead even if that reaction is reversible.  Species of the boundary compartment are buffered and are never dead, which
+ * lets exchange reactions supply and drain the network.  Blocking a reaction decrements the counts of its species and puts any species that
+ * becomes dead on a worklist, so the whole pass takes time linear in the size of the stoichiometric matrix.
+ *
+ * This is a purely structural check.  It finds a subset of the reactions flux variability analysis would report as blocked, without solving
+ * anything.
+ *
+ * @author Jesse Walsh
+ */
+public class DeadEndAnalysis {
+	public static final String FILE_SUFFIX = ".deadends";
+
+	private StoichiometricMatrix matrix_;
+	private ArrayList<AbstractReactionInstance> reactions_;
+	private boolean[] deadSpecies_;
+	private boolean[] blockedReactions_;
+	private ArrayList<String> deadEndSpeciesIDs_;
+	private ArrayList<AbstractReactionInstance> blockedReactionList_;
+
+	public DeadEndAnalysis(ReactionNetwork reactionNetwork) {
+		this.matrix_ = StoichiometricMatrix.fromNetwork(reactionNetwork).withoutSpecies(reactionNetwork.getBoundarySpeciesIDs());
+		this.reactions_ = reactionNetwork.getOrderedReactions();
+		run();
+	}
+
+	private void run() {
+		int m = matrix_.getSpeciesCount();
+		int n = matrix_.getReactionCount();
+		int[] colPtr = matrix_.getColumnPointers();
+		int[] rowIdx = matrix_.getRowIndices();
+		double[] values = matrix_.getValues();
+		int[] rowPtr = matrix_.getRowPointers();
+		int[] colIdx = matrix_.getColumnIndices();
+		double[] rowValues = matrix_.getRowValues();
+		boolean[] forward = new boolean[n];
+		boolean[] backward = new boolean[n];
+		for (int j = 0; j < n; j++) {
+			forward[j] = matrix_.getUpperBounds()[j] > 0;
+			backward[j] = matrix_.getLowerBounds()[j] < 0;
+		}
+
+		// Count the ways each species can be produced and consumed
+		int[] producers = new int[m];
+		int[] consumers = new int[m];
+		int[] users = new int[m];
+		blockedReactions_ = new boolean[n];
+		for (int j = 0; j < n; j++) {
+			if (!forward[j] && !backward[j]) {
+				blockedReactions_[j] = true;
+				continue;
+			}
+			for (int k = colPtr[j]; k < colPtr[j + 1]; k++) {
+				int i = rowIdx[k];
+				users[i]++;
+				if (produces(values[k], forward[j], backward[j])) producers[i]++;
+				if (produces(-values[k], forward[j], backward[j])) consumers[i]++;
+			}
+		}
+
+		// Worklist of dead species
+		deadSpecies_ = new boolean[m];
+		int[] worklist = new int[m];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < m; i++) {
+			if (users[i] > 0 && isDead(producers[i], consumers[i], users[i])) {
+				deadSpecies_[i] = true;
+				worklist[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int species = worklist[head++];
+			for (int r = rowPtr[species]; r < rowPtr[species + 1]; r++) {
+				int j = colIdx[r];
+				if (blockedReactions_[j]) continue;
+				blockedReactions_[j] = true;
+				for (int k = colPtr[j]; k < colPtr[j + 1]; k++) {
+					int i = rowIdx[k];
+					users[i]--;
+					if (produces(values[k], forward[j], backward[j])) producers[i]--;
+					if (produces(-values[k], forward[j], backward[j])) consumers[i]--;
+					if (!deadSpecies_[i] && isDead(producers[i], consumers[i], users[i])) {
+						deadSpecies_[i] = true;
+						worklist[tail++] = i;
+					}
+				}
+			}
+		}
+
+		deadEndSpeciesIDs_ = new ArrayList<String>();
+		for (int i = 0; i < m; i++) if (deadSpecies_[i]) deadEndSpeciesIDs_.add(matrix_.getSpeciesIDs()[i]);
+		blockedReactionList_ = new ArrayList<AbstractReactionInstance>();
+		for (int j = 0; j < n; j++) if (blockedReactions_[j]) blockedReactionList_.add(reactions_.get(j));
+	}
+
+	/**
+	 * @return True if a reaction with this coefficient for a species, running in the allowed directions, can produce the species
+	 */
+	private static boolean produces(double coefficient, boolean forward, boolean backward) {
+		return (coefficient > 0 && forward) || (coefficient < 0 && backward);
+	}
+
+	private static boolean isDead(int producers, int consumers, int users) {
+		return producers == 0 || consumers == 0 || users == 1;
+	}
+
+	/**
+	 * Write the dead-end species and blocked reactions, one ID per line under a heading for each.
+	 */
+	public void write(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+		try {
+			out.println("# Dead-end species : " + deadEndSpeciesIDs_.size());
+			for (String speciesID : deadEndSpeciesIDs_) out.println(speciesID);
+			out.println("# Blocked reactions : " + blockedReactionList_.size());
+			String[] reactionIDs = matrix_.getReactionIDs();
+			for (int j = 0; j < reactionIDs.length; j++) if (blockedReactions_[j]) out.println(reactionIDs[j]);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Species IDs of the dead-end species
+	 */
+	public ArrayList<String> getDeadEndSpeciesIDs() {
+		return deadEndSpeciesIDs_;
+	}
+
+	/**
+	 * @return Reactions which cannot carry flux, in canonical order
+	 */
+	public ArrayList<AbstractReactionInstance> getBlockedReactions() {
+		return blockedReactionList_;
+	}
+}
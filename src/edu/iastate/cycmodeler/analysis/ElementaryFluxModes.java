@@ -0,0 +1,484 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+
+/**
+ * Elementary flux mode enumeration with the double description method, for networks of a few hundred reactions such as a sub-network
+ * extracted around a pathway.  Modes of larger networks are usually too many to enumerate.
+ *
+ * Reversible reactions are split into a forward and a backward column, so every flux is nonnegative and the flux space is a pointed cone.
+ * Enumeration starts from a kernel basis of the stoichiometric matrix in reduced row echelon form, which already satisfies the
+ * nonnegativity of the free columns, and then enforces the remaining columns one at a time.  For each one, every pair of a mode with
+ * positive and a mode with negative flux is combined if the two are adjacent.  Pairs are checked with the rank bound first and then with the
+ * combinatorial test, which looks for a third mode whose support lies within the union of theirs.  That search runs over a bit-pattern tree
+ * of the mode supports, which prunes whole subtrees of modes using a reaction outside the union.  Pairs are spread over a pool of workers
+ * and the tree is only read while they run.
+ *
+ * The number of intermediate modes is capped, which bounds memory at about the cap times eight bytes per column, and enumeration stops
+ * when the cap is reached.  Modes of the final step are streamed to the output file without being kept, one tab separated line per mode of
+ * reaction IDs and fluxes as "ID*flux", scaled so the smallest flux is one.  The forward and backward columns of a reversible reaction
+ * form a trivial cycle, which is left out.
+ *
+ * @author Jesse Walsh
+ */
+public class ElementaryFluxModes {
+	public static final String FILE_SUFFIX = ".efm";
+	public static final double ZERO_TOLERANCE = 1e-10;
+	public static final int LEAF_SIZE = 16;
+	public static final int CHUNK_SIZE = 16;
+
+	private String[] reactionIDs_;
+	private int[] columnReaction_;
+	private boolean[] columnBackward_;
+	private double[][] stoichiometry_;
+	private int threads_;
+	private int maxModes_;
+	private ArrayList<double[]> modes_;
+
+	/**
+	 * @param reactionNetwork Network to analyze. Species of the boundary compartment are left out, so exchange reactions are free
+	 * @param threads Number of workers
+	 * @param maxModes Largest number of intermediate modes to keep before giving up
+	 */
+	public ElementaryFluxModes(ReactionNetwork reactionNetwork, int threads, int maxModes) {
+		StoichiometricMatrix matrix = StoichiometricMatrix.fromNetwork(reactionNetwork).withoutSpecies(reactionNetwork.getBoundarySpeciesIDs());
+		this.reactionIDs_ = matrix.getReactionIDs();
+		this.threads_ = Math.max(1, threads);
+		this.maxModes_ = maxModes;
+
+		// One column for each direction a reaction can run
+		int n = matrix.getReactionCount();
+		ArrayList<Integer> columnReaction = new ArrayList<Integer>();
+		ArrayList<Boolean> columnBackward = new ArrayList<Boolean>();
+		for (int j = 0; j < n; j++) {
+			if (matrix.getUpperBounds()[j] > 0) {
+				columnReaction.add(j);
+				columnBackward.add(false);
+			}
+			if (matrix.getLowerBounds()[j] < 0) {
+				columnReaction.add(j);
+				columnBackward.add(true);
+			}
+		}
+		int columns = columnReaction.size();
+		this.columnReaction_ = new int[columns];
+		this.columnBackward_ = new boolean[columns];
+		for (int c = 0; c < columns; c++) {
+			columnReaction_[c] = columnReaction.get(c);
+			columnBackward_[c] = columnBackward.get(c);
+		}
+
+		int[] colPtr = matrix.getColumnPointers();
+		int[] rowIdx = matrix.getRowIndices();
+		double[] values = matrix.getValues();
+		this.stoichiometry_ = new double[matrix.getSpeciesCount()][columns];
+		for (int c = 0; c < columns; c++) {
+			int j = columnReaction_[c];
+			for (int k = colPtr[j]; k < colPtr[j + 1]; k++) stoichiometry_[rowIdx[k]][c] = columnBackward_[c] ? -values[k] : values[k];
+		}
+	}
+
+	/**
+	 * Enumerate the elementary flux modes.
+	 *
+	 * @param outputFileName File to stream modes to, or null
+	 * @param keepModes If true, also keep the modes for getModes
+	 * @return Number of modes, or -1 if the number of intermediate modes went over the cap
+	 * @throws IOException
+	 */
+	public long enumerate(String outputFileName, boolean keepModes) throws IOException {
+		int columns = columnReaction_.length;
+		int words = (columns + 63) / 64;
+		modes_ = keepModes ? new ArrayList<double[]>() : null;
+
+		// Kernel basis, with an identity on the free columns
+		double[][] reduced = new double[stoichiometry_.length][];
+		for (int i = 0; i < stoichiometry_.length; i++) reduced[i] = stoichiometry_[i].clone();
+		int[] pivotColumns = rowReduce(reduced);
+		boolean[] isPivot = new boolean[columns];
+		for (int p : pivotColumns) isPivot[p] = true;
+		ArrayList<Mode> modes = new ArrayList<Mode>();
+		long[] processed = new long[words];
+		for (int f = 0; f < columns; f++) {
+			if (isPivot[f]) continue;
+			double[] flux = new double[columns];
+			flux[f] = 1;
+			for (int r = 0; r < pivotColumns.length; r++) flux[pivotColumns[r]] = -reduced[r][f];
+			modes.add(new Mode(flux, words));
+			processed[f >> 6] |= 1L << f;
+		}
+		int dimension = modes.size();
+
+		PrintWriter out = outputFileName == null ? null : new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), "UTF-8"));
+		try {
+			ArrayList<Integer> remaining = new ArrayList<Integer>();
+			for (int p : pivotColumns) remaining.add(p);
+			long count = 0;
+			while (true) {
+				if (remaining.isEmpty()) {
+					for (Mode mode : modes) if (emit(mode, out)) count++;
+					return count;
+				}
+				int column = nextColumn(modes, remaining);
+				remaining.remove(Integer.valueOf(column));
+				boolean last = remaining.isEmpty();
+
+				ArrayList<Mode> positive = new ArrayList<Mode>();
+				ArrayList<Mode> negative = new ArrayList<Mode>();
+				ArrayList<Mode> next = new ArrayList<Mode>();
+				for (Mode mode : modes) {
+					if (mode.flux[column] > ZERO_TOLERANCE) positive.add(mode);
+					else if (mode.flux[column] < -ZERO_TOLERANCE) negative.add(mode);
+					else {
+						mode.flux[column] = 0;
+						mode.support[column >> 6] &= ~(1L << column);
+					}
+					if (mode.flux[column] >= 0) next.add(mode);
+				}
+				BitPatternTree tree = new BitPatternTree(modes, processed);
+				long generated = combine(positive, negative, column, processed, dimension, tree, next, last ? out : null, last, next.size());
+				if (generated < 0) {
+					System.err.println("Elementary flux mode enumeration stopped at " + maxModes_ + " intermediate modes");
+					return -1;
+				}
+				processed[column >> 6] |= 1L << column;
+				if (last) {
+					count += generated;
+					for (Mode mode : next) if (emit(mode, out)) count++;
+					return count;
+				}
+				modes = next;
+			}
+		} finally {
+			if (out != null) out.close();
+		}
+	}
+
+	/**
+	 * Column to enforce next, the one with the fewest pairs to combine.
+	 */
+	private static int nextColumn(ArrayList<Mode> modes, ArrayList<Integer> remaining) {
+		int best = remaining.get(0);
+		long bestPairs = Long.MAX_VALUE;
+		for (int column : remaining) {
+			long positive = 0;
+			long negative = 0;
+			for (Mode mode : modes) {
+				if (mode.flux[column] > ZERO_TOLERANCE) positive++;
+				else if (mode.flux[column] < -ZERO_TOLERANCE) negative++;
+			}
+			if (positive * negative < bestPairs) {
+				bestPairs = positive * negative;
+				best = column;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Combine the adjacent pairs of modes with positive and negative flux through a column.  New modes are added to next, or on the last step
+	 * streamed to the output.
+	 *
+	 * @return Number of new modes, or -1 if the cap was reached
+	 */
+	private long combine(final ArrayList<Mode> positive, final ArrayList<Mode> negative, final int column, final long[] processed, final int dimension, final BitPatternTree tree, final ArrayList<Mode> next, final PrintWriter out, final boolean last, final int kept) throws IOException {
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+		final AtomicLong total = new AtomicLong(kept);
+		final AtomicLong emitted = new AtomicLong(0);
+		int workers = Math.max(1, Math.min(threads_, (positive.size() + CHUNK_SIZE - 1) / CHUNK_SIZE));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			ArrayList<Future<ArrayList<Mode>>> futures = new ArrayList<Future<ArrayList<Mode>>>();
+			for (int w = 0; w < workers; w++) {
+				futures.add(executor.submit(new Callable<ArrayList<Mode>>() {
+					public ArrayList<Mode> call() throws Exception {
+						ArrayList<Mode> generated = new ArrayList<Mode>();
+						long[] union = new long[processed.length];
+						int start;
+						while ((start = nextChunk.getAndAdd(CHUNK_SIZE)) < positive.size()) {
+							int end = Math.min(start + CHUNK_SIZE, positive.size());
+							for (int p = start; p < end; p++) {
+								Mode x = positive.get(p);
+								for (Mode y : negative) {
+									int zeros = 0;
+									for (int k = 0; k < union.length; k++) {
+										union[k] = (x.support[k] | y.support[k]) & processed[k];
+										zeros += Long.bitCount(processed[k] & ~union[k]);
+									}
+									if (zeros < dimension - 2) continue;
+									if (tree.hasSubset(union, processed, x, y)) continue;
+									Mode mode = Mode.combine(x, y, column);
+									if (last) {
+										if (emit(mode, out)) emitted.incrementAndGet();
+									} else {
+										if (total.incrementAndGet() > maxModes_) return null;
+										generated.add(mode);
+									}
+								}
+							}
+						}
+						return generated;
+					}
+				}));
+			}
+			boolean overflow = false;
+			for (Future<ArrayList<Mode>> future : futures) {
+				ArrayList<Mode> generated = future.get();
+				if (generated == null) overflow = true;
+				else next.addAll(generated);
+			}
+			if (overflow) return -1;
+			return last ? emitted.get() : total.get() - kept;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during elementary flux mode enumeration");
+		} catch (ExecutionException e) {
+			throw new IOException("Elementary flux mode enumeration failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Keep a mode of the last step for getModes.
+	 *
+	 * @return True if the mode is not the trivial cycle of a reversible reaction
+	 */
+	private synchronized boolean keep(Mode mode) {
+		double[] fluxes = toReactionFluxes(mode);
+		if (fluxes == null) return false;
+		modes_.add(fluxes);
+		return true;
+	}
+
+	/**
+	 * Write a final mode and keep it if asked.
+	 *
+	 * @return True if the mode is not the trivial cycle of a reversible reaction
+	 */
+	private boolean emit(Mode mode, PrintWriter out) {
+		String line = format(mode);
+		if (line == null) return false;
+		if (out != null) {
+			synchronized (out) {
+				out.println(line);
+			}
+		}
+		if (modes_ != null) keep(mode);
+		return true;
+	}
+
+	/**
+	 * @return Tab separated "ID*flux" pairs of the mode, or null for the trivial cycle of a reversible reaction
+	 */
+	private String format(Mode mode) {
+		double[] fluxes = toReactionFluxes(mode);
+		if (fluxes == null) return null;
+		StringBuilder line = new StringBuilder();
+		for (int j = 0; j < fluxes.length; j++) {
+			if (fluxes[j] == 0) continue;
+			if (line.length() > 0) line.append('\t');
+			line.append(reactionIDs_[j]).append('*').append(fluxes[j]);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Fold the forward and backward columns back into one flux per reaction, scaled so the smallest flux is one.
+	 *
+	 * @return Fluxes in the column order of the stoichiometric matrix, or null for the trivial cycle of a reversible reaction
+	 */
+	private double[] toReactionFluxes(Mode mode) {
+		double[] fluxes = new double[reactionIDs_.length];
+		double smallest = Double.POSITIVE_INFINITY;
+		int reactions = 0;
+		for (int c = 0; c < mode.flux.length; c++) {
+			if (mode.flux[c] <= ZERO_TOLERANCE) continue;
+			int j = columnReaction_[c];
+			if (fluxes[j] != 0) return null;
+			fluxes[j] = columnBackward_[c] ? -mode.flux[c] : mode.flux[c];
+			smallest = Math.min(smallest, mode.flux[c]);
+			reactions++;
+		}
+		if (reactions == 0) return null;
+		for (int j = 0; j < fluxes.length; j++) fluxes[j] /= smallest;
+		return fluxes;
+	}
+
+	/**
+	 * Reduce a matrix to reduced row echelon form in place, with partial pivoting.
+	 *
+	 * @return Pivot column of each nonzero row, in row order
+	 */
+	private static int[] rowReduce(double[][] a) {
+		int rows = a.length;
+		int columns = rows == 0 ? 0 : a[0].length;
+		ArrayList<Integer> pivots = new ArrayList<Integer>();
+		int row = 0;
+		for (int c = 0; c < columns && row < rows; c++) {
+			int best = row;
+			for (int i = row + 1; i < rows; i++) if (Math.abs(a[i][c]) > Math.abs(a[best][c])) best = i;
+			if (Math.abs(a[best][c]) <= ZERO_TOLERANCE) continue;
+			double[] swap = a[row];
+			a[row] = a[best];
+			a[best] = swap;
+			double pivot = a[row][c];
+			for (int k = 0; k < columns; k++) a[row][k] /= pivot;
+			for (int i = 0; i < rows; i++) {
+				if (i == row || a[i][c] == 0) continue;
+				double factor = a[i][c];
+				for (int k = 0; k < columns; k++) a[i][k] -= factor * a[row][k];
+			}
+			pivots.add(c);
+			row++;
+		}
+		int[] result = new int[pivots.size()];
+		for (int i = 0; i < result.length; i++) result[i] = pivots.get(i);
+		return result;
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Modes of the last enumeration run with keepModes, as fluxes in the column order of the stoichiometric matrix
+	 */
+	public ArrayList<double[]> getModes() {
+		return modes_;
+	}
+
+	/**
+	 * @return Reaction IDs, in the order of the fluxes of each mode
+	 */
+	public String[] getReactionIDs() {
+		return reactionIDs_;
+	}
+
+	// Internal Classes
+	/**
+	 * A mode over the split columns, with its support as a bit pattern.
+	 */
+	private static class Mode {
+		public double[] flux;
+		public long[] support;
+
+		public Mode(double[] flux, int words) {
+			this.flux = flux;
+			this.support = new long[words];
+			for (int c = 0; c < flux.length; c++) {
+				if (Math.abs(flux[c]) > ZERO_TOLERANCE) support[c >> 6] |= 1L << c;
+				else flux[c] = 0;
+			}
+		}
+
+		/**
+		 * Combine a mode with positive and a mode with negative flux through a column into one with none, scaled so its largest flux is one.
+		 */
+		public static Mode combine(Mode x, Mode y, int column) {
+			double a = -y.flux[column];
+			double b = x.flux[column];
+			double[] flux = new double[x.flux.length];
+			double largest = 0;
+			for (int c = 0; c < flux.length; c++) {
+				flux[c] = a * x.flux[c] + b * y.flux[c];
+				largest = Math.max(largest, Math.abs(flux[c]));
+			}
+			flux[column] = 0;
+			for (int c = 0; c < flux.length; c++) {
+				flux[c] /= largest;
+				if (Math.abs(flux[c]) <= ZERO_TOLERANCE) flux[c] = 0;
+			}
+			return new Mode(flux, x.support.length);
+		}
+	}
+
+	/**
+	 * Binary tree over the supports of a set of modes, restricted to the processed columns.  Each node splits its modes on one column and
+	 * keeps the columns every mode below it uses, so a subset search can skip a node when any of those is outside the set searched for.
+	 */
+	private static class BitPatternTree {
+		private Node root_;
+		private long[] mask_;
+
+		public BitPatternTree(ArrayList<Mode> modes, long[] mask) {
+			this.mask_ = mask;
+			ArrayList<Integer> columns = new ArrayList<Integer>();
+			for (int w = 0; w < mask.length; w++) {
+				for (int b = 0; b < 64; b++) if ((mask[w] & (1L << b)) != 0) columns.add(w * 64 + b);
+			}
+			this.root_ = build(new ArrayList<Mode>(modes), columns, 0);
+		}
+
+		private Node build(ArrayList<Mode> modes, ArrayList<Integer> columns, int depth) {
+			Node node = new Node();
+			node.common = new long[mask_.length];
+			for (int w = 0; w < mask_.length; w++) node.common[w] = mask_[w];
+			for (Mode mode : modes) {
+				for (int w = 0; w < mask_.length; w++) node.common[w] &= mode.support[w];
+			}
+			if (modes.size() <= LEAF_SIZE) {
+				node.modes = modes;
+				return node;
+			}
+			for (int d = depth; d < columns.size(); d++) {
+				int column = columns.get(d);
+				ArrayList<Mode> without = new ArrayList<Mode>();
+				ArrayList<Mode> with = new ArrayList<Mode>();
+				for (Mode mode : modes) {
+					if ((mode.support[column >> 6] & (1L << column)) != 0) with.add(mode);
+					else without.add(mode);
+				}
+				if (with.isEmpty() || without.isEmpty()) continue;
+				node.column = column;
+				node.without = build(without, columns, d + 1);
+				node.with = build(with, columns, d + 1);
+				return node;
+			}
+			node.modes = modes;
+			return node;
+		}
+
+		/**
+		 * @return True if a mode other than x and y has its support, within the mask, inside the given set of columns
+		 */
+		public boolean hasSubset(long[] set, long[] mask, Mode x, Mode y) {
+			return hasSubset(root_, set, mask, x, y);
+		}
+
+		private static boolean hasSubset(Node node, long[] set, long[] mask, Mode x, Mode y) {
+			for (int w = 0; w < set.length; w++) if ((node.common[w] & ~set[w]) != 0) return false;
+			if (node.modes != null) {
+				for (Mode mode : node.modes) {
+					if (mode == x || mode == y) continue;
+					boolean subset = true;
+					for (int w = 0; w < set.length && subset; w++) subset = (mode.support[w] & mask[w] & ~set[w]) == 0;
+					if (subset) return true;
+				}
+				return false;
+			}
+			if (hasSubset(node.without, set, mask, x, y)) return true;
+			return (set[node.column >> 6] & (1L << node.column)) != 0 && hasSubset(node.with, set, mask, x, y);
+		}
+
+		private static class Node {
+			public long[] common;
+			public int column;
+			public Node without;
+			public Node with;
+			public ArrayList<Mode> modes;
+		}
+	}
+}
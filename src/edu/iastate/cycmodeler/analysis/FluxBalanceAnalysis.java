@@ -0,0 +1,113 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+
+/**
+ * Flux balance analysis of a reaction network with the embedded RevisedSimplex solver, so that a model can be checked for growth, or any
+ * other objective, without exporting it to an external solver.  Flux bounds are those the network would be written with.  Species of the
+ * boundary compartment are left out of the steady state constraints, so exchange reactions can carry flux.
+ *
+ * @author Jesse Walsh
+ */
+public class FluxBalanceAnalysis {
+	private StoichiometricMatrix matrix_;
+	private ArrayList<AbstractReactionInstance> reactions_;
+	private RevisedSimplex solver_;
+
+	public FluxBalanceAnalysis(ReactionNetwork reactionNetwork) {
+		this.matrix_ = StoichiometricMatrix.fromNetwork(reactionNetwork).withoutSpecies(reactionNetwork.getBoundarySpeciesIDs());
+		this.reactions_ = reactionNetwork.getOrderedReactions();
+		this.solver_ = new RevisedSimplex(matrix_);
+	}
+
+	/**
+	 * Find a reaction by its reaction ID, as written to SBML, or by the frame ID of the database reaction it was made from.
+	 *
+	 * @return Column of the reaction in the stoichiometric matrix, or -1 if it is not in the network
+	 */
+	public int findReaction(String reactionID) {
+		int reaction = matrix_.getReactionIndex(reactionID);
+		if (reaction != -1) return reaction;
+		return findReaction(reactions_, null, reactionID);
+	}
+
+	/**
+	 * Find a reaction of an ordered reaction list the way findReaction does, for writers which mark the objective reaction.
+	 *
+	 * @param reactions Reactions in network order
+	 * @param reactionIDs Unique reaction IDs of the reactions, as given by ReactionNetwork.generateUniqueReactionIDs. May be null
+	 * @param reactionID Reaction ID or frame ID to find
+	 * @return Position of the reaction in the list, or -1 if it is not in the list
+	 */
+	public static int findReaction(List<AbstractReactionInstance> reactions, List<String> reactionIDs, String reactionID) {
+		int reaction = reactionIDs == null ? -1 : reactionIDs.indexOf(reactionID);
+		if (reaction != -1) return reaction;
+		for (int j = 0; j < reactions.size(); j++) {
+			AbstractReactionInstance candidate = reactions.get(j);
+			if (reactionID.equals(candidate.generateReactionID()) || reactionID.equals(NetworkGraph.getFrameID(candidate))) return j;
+		}
+		return -1;
+	}
+
+	/**
+	 * Maximize the flux through a reaction.
+	 *
+	 * @param objectiveReactionID Reaction ID or frame ID of the objective reaction
+	 * @return Solution, or null if the reaction is not in the network
+	 */
+	public Solution optimize(String objectiveReactionID) {
+		int objective = findReaction(objectiveReactionID);
+		if (objective == -1) return null;
+		solver_.setObjective(objective);
+		RevisedSimplex.Status status = solver_.maximize();
+		return new Solution(status, status == RevisedSimplex.Status.OPTIMAL ? solver_.getObjectiveValue() : 0, solver_.getFluxes(), solver_.getIterations());
+	}
+
+	/**
+	 * Check whether the network can carry flux through a reaction, such as a biomass reaction.
+	 *
+	 * @param objectiveReactionID Reaction ID or frame ID of the objective reaction
+	 * @param minimumFlux Least flux which counts as feasible
+	 * @return True if the maximum flux through the reaction is at least minimumFlux
+	 */
+	public boolean isFeasible(String objectiveReactionID, double minimumFlux) {
+		Solution solution = optimize(objectiveReactionID);
+		return solution != null && solution.status == RevisedSimplex.Status.OPTIMAL && solution.objectiveValue >= minimumFlux;
+	}
+
+
+	// Getters and Setters
+	public StoichiometricMatrix getMatrix() {
+		return matrix_;
+	}
+
+	/**
+	 * Solver over the network, holding the basis of the last solve.  Changes to its bounds carry over to later calls to optimize.
+	 */
+	public RevisedSimplex getSolver() {
+		return solver_;
+	}
+
+	// Internal Classes
+	/**
+	 * Result of a flux balance problem.  Fluxes are in the column order of the stoichiometric matrix.
+	 */
+	public static class Solution {
+		public RevisedSimplex.Status status;
+		public double objectiveValue;
+		public double[] fluxes;
+		public int iterations;
+
+		public Solution(RevisedSimplex.Status status, double objectiveValue, double[] fluxes, int iterations) {
+			this.status = status;
+			this.objectiveValue = objectiveValue;
+			this.fluxes = fluxes;
+			this.iterations = iterations;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Flux variability analysis: the minimum and maximum flux through every reaction of a network, optionally while the objective reaction
+ * keeps at least a fraction of its optimum.  That is two linear programs per reaction, all over the same constraints, so they are spread
+ * over a pool of workers each holding its own copy of the solver.  Workers take reactions in chunks of consecutive columns and every solve
+ * starts from the basis of the one before, so most solves need only a few pivots.  Every solution found is also a feasible flux for the
+ * other reactions, and a reaction whose flux reaches one of its bounds in any solution has that bound as its minimum or maximum, so its
+ * problem is not solved again.
+ *
+ * Results are written to the output file as each reaction completes, one tab separated line per reaction:
+ *
+ *   reaction ID, minimum flux, maximum flux, status
+ *
+ * where status is OK, BLOCKED for reactions which can carry no flux, or the solver status if a problem could not be solved.  Lines are in
+ * order of completion, not reaction order.  The blocked and the unsolved reactions are also listed in Results, and can be written to
+ * files of their own, so that a reaction whose range is unknown is not taken for blocked or free.
+ *
+ * @author Jesse Walsh
+ */
+public class FluxVariabilityAnalysis {
+	public static final String FILE_SUFFIX = ".fva";
+	public static final int CHUNK_SIZE = 16;
+	public static final double BLOCKED_TOLERANCE = 1e-8;
+	private static final int AT_LOWER = 1;
+	private static final int AT_UPPER = 2;
+
+	private FluxBalanceAnalysis fba_;
+	private int threads_;
+
+	/**
+	 * @param reactionNetwork Network to analyze
+	 * @param threads Number of workers
+	 */
+	public FluxVariabilityAnalysis(ReactionNetwork reactionNetwork, int threads) {
+		this.fba_ = new FluxBalanceAnalysis(reactionNetwork);
+		this.threads_ = Math.max(1, threads);
+	}
+
+	/**
+	 * Run the analysis.
+	 *
+	 * @param objectiveReactionID Reaction ID or frame ID of the objective reaction, or null to leave the flux space unconstrained
+	 * @param fractionOfOptimum Least fraction of the optimal objective flux every solution must keep. Ignored without an objective
+	 * @param outputFileName File to stream results to, or null to only return them
+	 * @return Results, or null if the objective reaction is not in the network or cannot be optimized
+	 * @throws IOException
+	 */
+	public Results run(String objectiveReactionID, double fractionOfOptimum, String outputFileName) throws IOException {
+		final String[] reactionIDs = fba_.getMatrix().getReactionIDs();
+		RevisedSimplex base = fba_.getSolver();
+
+		// Constrain the objective
+		if (objectiveReactionID != null) {
+			FluxBalanceAnalysis.Solution optimum = fba_.optimize(objectiveReactionID);
+			if (optimum == null) {
+				System.err.println("Objective reaction " + objectiveReactionID + " is not in the network");
+				return null;
+			}
+			if (optimum.status != RevisedSimplex.Status.OPTIMAL) {
+				System.err.println("Flux balance problem is " + optimum.status + ", cannot run flux variability analysis");
+				return null;
+			}
+			int objective = fba_.findReaction(objectiveReactionID);
+			double minimum = fractionOfOptimum * optimum.objectiveValue - RevisedSimplex.FEASIBILITY_TOLERANCE;
+			if (minimum > base.getLowerBound(objective)) base.setBounds(objective, minimum, base.getUpperBound(objective));
+		} else {
+			base.setObjective(new double[reactionIDs.length]);
+			if (base.maximize() != RevisedSimplex.Status.OPTIMAL) {
+				System.err.println("Flux balance problem is " + base.getStatus() + ", cannot run flux variability analysis");
+				return null;
+			}
+		}
+
+		final AtomicIntegerArray reachedBounds = new AtomicIntegerArray(reactionIDs.length);
+		markReachedBounds(base, reachedBounds);
+		final Results results = new Results(reactionIDs.length);
+		final PrintWriter out = outputFileName == null ? null : new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), "UTF-8"));
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+		int workers = Math.min(threads_, (reactionIDs.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+		try {
+			ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int w = 0; w < workers; w++) {
+				final RevisedSimplex solver = new RevisedSimplex(base);
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						int solved = 0;
+						int start;
+						while ((start = nextChunk.getAndAdd(CHUNK_SIZE)) < reactionIDs.length) {
+							int end = Math.min(start + CHUNK_SIZE, reactionIDs.length);
+							for (int j = start; j < end; j++) {
+								solver.setObjective(j);
+								RevisedSimplex.Status minStatus = RevisedSimplex.Status.OPTIMAL;
+								double minimum = solver.getLowerBound(j);
+								if ((reachedBounds.get(j) & AT_LOWER) == 0) {
+									minStatus = solver.minimize();
+									minimum = solveValue(solver, minStatus, Double.NEGATIVE_INFINITY);
+									if (minStatus == RevisedSimplex.Status.OPTIMAL) markReachedBounds(solver, reachedBounds);
+								}
+								RevisedSimplex.Status maxStatus = RevisedSimplex.Status.OPTIMAL;
+								double maximum = solver.getUpperBound(j);
+								if ((reachedBounds.get(j) & AT_UPPER) == 0) {
+									maxStatus = solver.maximize();
+									maximum = solveValue(solver, maxStatus, Double.POSITIVE_INFINITY);
+									if (maxStatus == RevisedSimplex.Status.OPTIMAL) markReachedBounds(solver, reachedBounds);
+								}
+								String status = results.set(j, minimum, maximum, minStatus, maxStatus);
+								if (out != null) {
+									synchronized (out) {
+										out.println(reactionIDs[j] + "\t" + minimum + "\t" + maximum + "\t" + status);
+									}
+								}
+								solved++;
+							}
+							if (out != null) {
+								synchronized (out) {
+									out.flush();
+								}
+							}
+						}
+						return solved;
+					}
+				}));
+			}
+			for (Future<Integer> future : futures) future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during flux variability analysis");
+		} catch (ExecutionException e) {
+			throw new IOException("Flux variability analysis failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			if (out != null) out.close();
+		}
+
+		for (int j = 0; j < reactionIDs.length; j++) {
+			if (results.isUnsolved(j)) results.unsolvedReactionIDs.add(reactionIDs[j]);
+			else if (results.isBlocked(j)) results.blockedReactionIDs.add(reactionIDs[j]);
+		}
+		return results;
+	}
+
+	/**
+	 * Note every reaction whose flux in the current solution of a solver is on its lower or upper bound.
+	 */
+	private static void markReachedBounds(RevisedSimplex solver, AtomicIntegerArray reachedBounds) {
+		for (int k = 0; k < reachedBounds.length(); k++) {
+			double flux = solver.getFlux(k);
+			int reached = 0;
+			if (flux <= solver.getLowerBound(k) + RevisedSimplex.PRIMAL_TOLERANCE) reached |= AT_LOWER;
+			if (flux >= solver.getUpperBound(k) - RevisedSimplex.PRIMAL_TOLERANCE) reached |= AT_UPPER;
+			if (reached == 0 || (reachedBounds.get(k) & reached) == reached) continue;
+			int current;
+			do {
+				current = reachedBounds.get(k);
+			} while (!reachedBounds.compareAndSet(k, current, current | reached));
+		}
+	}
+
+	private static double solveValue(RevisedSimplex solver, RevisedSimplex.Status status, double unbounded) {
+		if (status == RevisedSimplex.Status.OPTIMAL) return solver.getObjectiveValue();
+		if (status == RevisedSimplex.Status.UNBOUNDED) return unbounded;
+		return Double.NaN;
+	}
+
+	/**
+	 * Write the blocked reactions of an analysis, one reaction ID per line.
+	 */
+	public static void writeBlockedReactions(Results results, String fileName) throws IOException {
+		writeReactionIDs(results.blockedReactionIDs, fileName);
+	}
+
+	/**
+	 * Write the reactions of an analysis whose minimum or maximum could not be solved, one reaction ID per line.
+	 */
+	public static void writeUnsolvedReactions(Results results, String fileName) throws IOException {
+		writeReactionIDs(results.unsolvedReactionIDs, fileName);
+	}
+
+	private static void writeReactionIDs(ArrayList<String> reactionIDs, String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+		try {
+			for (String reactionID : reactionIDs) out.println(reactionID);
+		} finally {
+			out.close();
+		}
+	}
+
+	public FluxBalanceAnalysis getFluxBalanceAnalysis() {
+		return fba_;
+	}
+
+	// Internal Classes
+	/**
+	 * Minimum and maximum flux of each reaction, in the column order of the stoichiometric matrix.  A flux is NaN if its problem could not
+	 * be solved, and such a reaction is listed as unsolved rather than blocked.
+	 */
+	public static class Results {
+		public double[] minimum;
+		public double[] maximum;
+		public ArrayList<String> blockedReactionIDs;
+		public ArrayList<String> unsolvedReactionIDs;
+		public int failed;
+
+		public Results(int reactions) {
+			this.minimum = new double[reactions];
+			this.maximum = new double[reactions];
+			Arrays.fill(minimum, Double.NaN);
+			Arrays.fill(maximum, Double.NaN);
+			this.blockedReactionIDs = new ArrayList<String>();
+			this.unsolvedReactionIDs = new ArrayList<String>();
+			this.failed = 0;
+		}
+
+		private synchronized String set(int reaction, double min, double max, RevisedSimplex.Status minStatus, RevisedSimplex.Status maxStatus) {
+			minimum[reaction] = min;
+			maximum[reaction] = max;
+			if (Double.isNaN(min) || Double.isNaN(max)) {
+				failed++;
+				return Double.isNaN(min) ? minStatus.toString() : maxStatus.toString();
+			}
+			return isBlocked(reaction) ? "BLOCKED" : "OK";
+		}
+
+		/**
+		 * @return True if the minimum or maximum flux of the reaction could not be solved
+		 */
+		public boolean isUnsolved(int reaction) {
+			return Double.isNaN(minimum[reaction]) || Double.isNaN(maximum[reaction]);
+		}
+
+		/**
+		 * @return True if the reaction can carry no flux
+		 */
+		public boolean isBlocked(int reaction) {
+			return Math.abs(minimum[reaction]) <= BLOCKED_TOLERANCE && Math.abs(maximum[reaction]) <= BLOCKED_TOLERANCE;
+		}
+	}
+}
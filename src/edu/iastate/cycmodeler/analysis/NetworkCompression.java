@@ -0,0 +1,303 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.LumpedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Lossless compression of a reaction network for flux analysis.  Two kinds of reactions are taken out of the network:
+ *
+ *   Blocked reactions, found by DeadEndAnalysis, are removed.
+ *   A species used by exactly two reactions fixes the ratio of their fluxes at steady state, so the two are replaced by one
+ *   LumpedReactionInstance.  Repeating this collapses an unbranched chain of any length into a single reaction.
+ *
+ * The two steps feed each other, since a lumped reaction whose members can only run in opposite directions is blocked, and removing it
+ * can leave further dead ends, so they are repeated until the network stops changing.  Each pass lumps pairs which share no reaction, so a
+ * chain of n reactions takes about log n passes.
+ *
+ * Species of the boundary compartment are never lumped away, and neither are exchange reactions or the protected reactions, so the inputs,
+ * outputs and objective of the network keep their IDs.  Protected reactions are never removed either, a blocked protected reaction is kept
+ * and a warning printed, since a model without its objective cannot be solved and the user should see why it carries no flux.  Every flux
+ * distribution of the compressed network maps back onto the original reactions through the member scales of the lumped reactions, and
+ * removed reactions carry no flux.
+ *
+ * @author Jesse Walsh
+ */
+public class NetworkCompression {
+	public static final String FILE_SUFFIX = ".compression";
+	public static final double BOUND_TOLERANCE = 1e-9;
+
+	private HashSet<String> boundarySpeciesIDs_;
+	private ArrayList<AbstractReactionInstance> reactions_;
+	private ArrayList<LumpedReactionInstance> lumpedReactions_;
+	private ArrayList<AbstractReactionInstance> removedReactions_;
+	private int passes_;
+
+	/**
+	 * @param reactionNetwork Network to compress. It is not changed
+	 * @param protectedReactionIDs Reaction IDs or frame IDs of reactions which must not be lumped, such as the objective. May be null
+	 */
+	public NetworkCompression(ReactionNetwork reactionNetwork, Collection<String> protectedReactionIDs) {
+		this.boundarySpeciesIDs_ = reactionNetwork.getBoundarySpeciesIDs();
+		this.removedReactions_ = new ArrayList<AbstractReactionInstance>();
+		this.passes_ = 0;
+
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		HashSet<AbstractReactionInstance> pinned = new HashSet<AbstractReactionInstance>();
+		HashSet<AbstractReactionInstance> protectedReactions = new HashSet<AbstractReactionInstance>();
+		for (AbstractReactionInstance reaction : reactions) {
+			if (isExchange(reaction)) pinned.add(reaction);
+			else if (protectedReactionIDs != null && (protectedReactionIDs.contains(reaction.generateReactionID()) || protectedReactionIDs.contains(NetworkGraph.getFrameID(reaction)))) {
+				pinned.add(reaction);
+				protectedReactions.add(reaction);
+			}
+		}
+		HashSet<AbstractReactionInstance> warned = new HashSet<AbstractReactionInstance>();
+
+		boolean changed = true;
+		while (changed) {
+			passes_++;
+			ReactionNetwork working = new ReactionNetwork();
+			working.addReactions(reactions);
+
+			// Remove blocked reactions
+			ArrayList<AbstractReactionInstance> blocked = new DeadEndAnalysis(working).getBlockedReactions();
+			for (AbstractReactionInstance reaction : protectedReactions) {
+				if (blocked.remove(reaction) && warned.add(reaction)) System.err.println("Protected reaction is blocked and cannot carry flux, keeping it : " + reaction.generateReactionID());
+			}
+			working.Reactions.removeAll(blocked);
+			for (AbstractReactionInstance reaction : blocked) removeReaction(reaction);
+
+			// Lump pairs of fully coupled reactions
+			reactions = working.getOrderedReactions();
+			int before = reactions.size();
+			reactions = lumpCoupledPairs(reactions, pinned);
+			changed = blocked.size() > 0 || reactions.size() < before;
+		}
+
+		this.reactions_ = reactions;
+		this.lumpedReactions_ = new ArrayList<LumpedReactionInstance>();
+		for (AbstractReactionInstance reaction : reactions_) if (reaction instanceof LumpedReactionInstance) lumpedReactions_.add((LumpedReactionInstance) reaction);
+	}
+
+	private boolean isExchange(AbstractReactionInstance reaction) {
+		for (MetaboliteInstance metabolite : reaction.getOrderedReactants()) if (boundarySpeciesIDs_.contains(metabolite.generateSpeciesID())) return true;
+		for (MetaboliteInstance metabolite : reaction.getOrderedProducts()) if (boundarySpeciesIDs_.contains(metabolite.generateSpeciesID())) return true;
+		return false;
+	}
+
+	private void removeReaction(AbstractReactionInstance reaction) {
+		if (reaction instanceof LumpedReactionInstance) removedReactions_.addAll(((LumpedReactionInstance) reaction).getMembers());
+		else removedReactions_.add(reaction);
+	}
+
+	/**
+	 * One pass of lumping.  Species are visited in the order they first appear in the reactions, so the result does not depend on hashing.
+	 */
+	private ArrayList<AbstractReactionInstance> lumpCoupledPairs(ArrayList<AbstractReactionInstance> reactions, HashSet<AbstractReactionInstance> pinned) {
+		ArrayList<HashMap<String, Integer>> columns = new ArrayList<HashMap<String, Integer>>();
+		HashMap<String, MetaboliteInstance> speciesByID = new HashMap<String, MetaboliteInstance>();
+		LinkedHashMap<String, ArrayList<Integer>> users = new LinkedHashMap<String, ArrayList<Integer>>();
+		for (int j = 0; j < reactions.size(); j++) {
+			HashMap<String, Integer> column = netCoefficients(reactions.get(j), speciesByID);
+			columns.add(column);
+			for (MetaboliteInstance metabolite : reactions.get(j).getOrderedReactants()) addUser(users, column, metabolite.generateSpeciesID(), j);
+			for (MetaboliteInstance metabolite : reactions.get(j).getOrderedProducts()) addUser(users, column, metabolite.generateSpeciesID(), j);
+		}
+
+		boolean[] lumped = new boolean[reactions.size()];
+		ArrayList<AbstractReactionInstance> result = new ArrayList<AbstractReactionInstance>();
+		for (String speciesID : users.keySet()) {
+			ArrayList<Integer> speciesUsers = users.get(speciesID);
+			if (speciesUsers.size() != 2 || boundarySpeciesIDs_.contains(speciesID)) continue;
+			int a = speciesUsers.get(0);
+			int b = speciesUsers.get(1);
+			if (lumped[a] || lumped[b] || pinned.contains(reactions.get(a)) || pinned.contains(reactions.get(b))) continue;
+			lumped[a] = true;
+			lumped[b] = true;
+			LumpedReactionInstance lump = lump(reactions.get(a), columns.get(a), reactions.get(b), columns.get(b), speciesID, speciesByID);
+			if (lump == null) {
+				removeReaction(reactions.get(a));
+				removeReaction(reactions.get(b));
+			} else result.add(lump);
+		}
+		for (int j = 0; j < reactions.size(); j++) if (!lumped[j]) result.add(reactions.get(j));
+		return result;
+	}
+
+	private static void addUser(LinkedHashMap<String, ArrayList<Integer>> users, HashMap<String, Integer> column, String speciesID, int reaction) {
+		if (!column.containsKey(speciesID)) return;
+		ArrayList<Integer> speciesUsers = users.get(speciesID);
+		if (speciesUsers == null) {
+			speciesUsers = new ArrayList<Integer>();
+			users.put(speciesID, speciesUsers);
+		}
+		if (!speciesUsers.contains(reaction)) speciesUsers.add(reaction);
+	}
+
+	/**
+	 * @return Net coefficient of each species in the reaction, negative for reactants. Species on both sides with no net change are left out
+	 */
+	private static HashMap<String, Integer> netCoefficients(AbstractReactionInstance reaction, HashMap<String, MetaboliteInstance> speciesByID) {
+		HashMap<String, Integer> column = new HashMap<String, Integer>();
+		for (MetaboliteInstance metabolite : reaction.getOrderedReactants()) addCoefficient(column, speciesByID, metabolite, -metabolite.coefficient_);
+		for (MetaboliteInstance metabolite : reaction.getOrderedProducts()) addCoefficient(column, speciesByID, metabolite, metabolite.coefficient_);
+		ArrayList<String> cancelled = new ArrayList<String>();
+		for (String speciesID : column.keySet()) if (column.get(speciesID) == 0) cancelled.add(speciesID);
+		for (String speciesID : cancelled) column.remove(speciesID);
+		return column;
+	}
+
+	private static void addCoefficient(HashMap<String, Integer> column, HashMap<String, MetaboliteInstance> speciesByID, MetaboliteInstance metabolite, int coefficient) {
+		String speciesID = metabolite.generateSpeciesID();
+		if (!speciesByID.containsKey(speciesID)) speciesByID.put(speciesID, metabolite);
+		Integer current = column.get(speciesID);
+		column.put(speciesID, (current == null ? 0 : current) + coefficient);
+	}
+
+	/**
+	 * Lump two reactions which share a species no other reaction uses.  The lumped column is ka * a + kb * b with the shared species
+	 * cancelled, divided by the greatest common divisor of its coefficients.  The lumped flux bounds are the tightest that keep both members
+	 * within their own bounds.
+	 *
+	 * @return Lumped reaction, or null if the pair is blocked
+	 */
+	private static LumpedReactionInstance lump(AbstractReactionInstance a, HashMap<String, Integer> columnA, AbstractReactionInstance b, HashMap<String, Integer> columnB, String sharedSpeciesID, HashMap<String, MetaboliteInstance> speciesByID) {
+		int coefficientA = columnA.get(sharedSpeciesID);
+		int coefficientB = columnB.get(sharedSpeciesID);
+		int divisor = gcd(Math.abs(coefficientA), Math.abs(coefficientB));
+		int ka = Math.abs(coefficientB) / divisor;
+		int kb = (coefficientA > 0) != (coefficientB > 0) ? Math.abs(coefficientA) / divisor : -Math.abs(coefficientA) / divisor;
+
+		LinkedHashMap<String, Integer> column = new LinkedHashMap<String, Integer>();
+		for (String speciesID : columnA.keySet()) column.put(speciesID, ka * columnA.get(speciesID));
+		for (String speciesID : columnB.keySet()) {
+			Integer current = column.get(speciesID);
+			column.put(speciesID, (current == null ? 0 : current) + kb * columnB.get(speciesID));
+		}
+		int common = 0;
+		HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
+		HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
+		for (Integer coefficient : column.values()) common = gcd(common, Math.abs(coefficient));
+		if (common == 0) return null;
+		for (String speciesID : column.keySet()) {
+			int coefficient = column.get(speciesID) / common;
+			if (coefficient < 0) reactants.add(speciesByID.get(speciesID).withCoefficient(-coefficient));
+			else if (coefficient > 0) products.add(speciesByID.get(speciesID).withCoefficient(coefficient));
+		}
+
+		double scaleA = (double) ka / common;
+		double scaleB = (double) kb / common;
+		double lowerBound = Math.max(lowerLimit(a, scaleA), lowerLimit(b, scaleB));
+		double upperBound = Math.min(upperLimit(a, scaleA), upperLimit(b, scaleB));
+		if (lowerBound > upperBound + BOUND_TOLERANCE) return null;
+		if (Math.abs(lowerBound) <= BOUND_TOLERANCE && Math.abs(upperBound) <= BOUND_TOLERANCE) return null;
+
+		ArrayList<AbstractReactionInstance> members = new ArrayList<AbstractReactionInstance>();
+		ArrayList<Double> scales = new ArrayList<Double>();
+		addMembers(members, scales, a, scaleA);
+		addMembers(members, scales, b, scaleB);
+		return new LumpedReactionInstance(LumpedReactionInstance.generateLumpedID(members.get(0)), a.reactionLocation_, reactants, products, lowerBound, upperBound, members, scales);
+	}
+
+	private static void addMembers(ArrayList<AbstractReactionInstance> members, ArrayList<Double> scales, AbstractReactionInstance reaction, double scale) {
+		if (reaction instanceof LumpedReactionInstance) {
+			LumpedReactionInstance lumped = (LumpedReactionInstance) reaction;
+			members.addAll(lumped.getMembers());
+			for (Double memberScale : lumped.getScales()) scales.add(memberScale * scale);
+		} else {
+			members.add(reaction);
+			scales.add(scale);
+		}
+	}
+
+	/**
+	 * @return Least lumped flux which keeps a member running at scale times the lumped flux within its bounds
+	 */
+	private static double lowerLimit(AbstractReactionInstance reaction, double scale) {
+		return scale > 0 ? reaction.getLowerBound() / scale : reaction.getUpperBound() / scale;
+	}
+
+	/**
+	 * @return Greatest lumped flux which keeps a member running at scale times the lumped flux within its bounds
+	 */
+	private static double upperLimit(AbstractReactionInstance reaction, double scale) {
+		return scale > 0 ? reaction.getUpperBound() / scale : reaction.getLowerBound() / scale;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Write the compression map.  Each lumped reaction is followed by one tab separated line per member:
+	 *
+	 *   lumped reaction ID, member reaction ID, member flux per unit lumped flux
+	 *
+	 * and the removed reactions are listed at the end, one reaction ID per line.
+	 */
+	public void write(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+		try {
+			out.println("# Lumped reactions : " + lumpedReactions_.size() + " (" + getLumpedMemberCount() + " original reactions)");
+			for (LumpedReactionInstance lumped : lumpedReactions_) {
+				for (int i = 0; i < lumped.getMembers().size(); i++) {
+					out.println(lumped.generateReactionID() + "\t" + lumped.getMembers().get(i).generateReactionID() + "\t" + lumped.getScales().get(i));
+				}
+			}
+			out.println("# Removed reactions : " + removedReactions_.size());
+			for (AbstractReactionInstance reaction : removedReactions_) out.println(reaction.generateReactionID());
+		} finally {
+			out.close();
+		}
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Reactions of the compressed network
+	 */
+	public ArrayList<AbstractReactionInstance> getReactions() {
+		return reactions_;
+	}
+
+	public ArrayList<LumpedReactionInstance> getLumpedReactions() {
+		return lumpedReactions_;
+	}
+
+	/**
+	 * @return Number of original reactions replaced by lumped reactions
+	 */
+	public int getLumpedMemberCount() {
+		int count = 0;
+		for (LumpedReactionInstance lumped : lumpedReactions_) count += lumped.getMembers().size();
+		return count;
+	}
+
+	/**
+	 * @return Original reactions removed as blocked
+	 */
+	public ArrayList<AbstractReactionInstance> getRemovedReactions() {
+		return removedReactions_;
+	}
+
+	public int getPasses() {
+		return passes_;
+	}
+}
@@ -0,0 +1,314 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Structural diff between two reaction networks, such as two nightly builds of the same model, or a build and an archived SBML file.
+ *
+ * Each network is first reduced to a Snapshot holding one ReactionSummary per reaction, keyed by reaction ID.  Two snapshots are then
+ * compared with a series of hash joins, each pairing the reactions left over by the joins before it, from the most to the least specific
+ * key:
+ *   1) stoichiometric key, the sorted species IDs and coefficients of both sides, together with the frame key
+ *   2) stoichiometric key alone, for renamed reactions
+ *   3) frame key, the reaction ID before a _N suffix was added to make it unique together with the reaction location, for reactions whose
+ *      stoichiometry changed
+ *   4) reaction ID
+ * Generated reaction IDs are joined on last because the _N suffixes shift whenever a reaction with the same base ID is added or removed,
+ * which would pair unrelated reactions.  Pairs which differ in ID, name, stoichiometry, bounds, reversibility or gene rule are reported as
+ * modified, and whatever is left unpaired is added or removed.  Every join is linear in the number of reactions, and a snapshot can be kept
+ * and compared against any number of other snapshots.
+ *
+ * The stoichiometric key ignores the reaction type and location, so that networks built from the database compare cleanly with networks
+ * read back from saved models.
+ *
+ * @author Jesse Walsh
+ */
+public class NetworkDiff {
+	public static final String CHANGE_ID = "id";
+	public static final String CHANGE_NAME = "name";
+	public static final String CHANGE_STOICHIOMETRY = "stoichiometry";
+	public static final String CHANGE_BOUNDS = "bounds";
+	public static final String CHANGE_REVERSIBILITY = "reversibility";
+	public static final String CHANGE_GENE_RULE = "gene rule";
+
+	private static final int JOIN_STOICHIOMETRY_AND_FRAME = 0;
+	private static final int JOIN_STOICHIOMETRY = 1;
+	private static final int JOIN_FRAME = 2;
+	private static final int JOIN_ID = 3;
+
+	private ArrayList<ReactionSummary> addedReactions_;
+	private ArrayList<ReactionSummary> removedReactions_;
+	private ArrayList<ReactionChange> modifiedReactions_;
+	private ArrayList<String> addedSpecies_;
+	private ArrayList<String> removedSpecies_;
+	private int unchangedReactions_;
+
+	/**
+	 * Compare two networks.
+	 *
+	 * @param oldNetwork Earlier network
+	 * @param newNetwork Later network
+	 */
+	public NetworkDiff(ReactionNetwork oldNetwork, ReactionNetwork newNetwork) {
+		this(summarize(oldNetwork), summarize(newNetwork));
+	}
+
+	/**
+	 * Compare two snapshots.
+	 *
+	 * @param oldSnapshot Snapshot of the earlier network
+	 * @param newSnapshot Snapshot of the later network
+	 */
+	public NetworkDiff(Snapshot oldSnapshot, Snapshot newSnapshot) {
+		addedReactions_ = new ArrayList<ReactionSummary>();
+		removedReactions_ = new ArrayList<ReactionSummary>();
+		modifiedReactions_ = new ArrayList<ReactionChange>();
+		addedSpecies_ = new ArrayList<String>();
+		removedSpecies_ = new ArrayList<String>();
+		unchangedReactions_ = 0;
+
+		// 1) Join the reactions on ever less specific keys
+		ArrayList<ReactionSummary> unmatchedOld = new ArrayList<ReactionSummary>(oldSnapshot.reactions.values());
+		LinkedHashMap<String, ReactionSummary> unmatchedNew = new LinkedHashMap<String, ReactionSummary>(newSnapshot.reactions);
+		unmatchedOld = join(unmatchedOld, unmatchedNew, JOIN_STOICHIOMETRY_AND_FRAME);
+		unmatchedOld = join(unmatchedOld, unmatchedNew, JOIN_STOICHIOMETRY);
+		unmatchedOld = join(unmatchedOld, unmatchedNew, JOIN_FRAME);
+		unmatchedOld = join(unmatchedOld, unmatchedNew, JOIN_ID);
+		removedReactions_.addAll(unmatchedOld);
+		addedReactions_.addAll(unmatchedNew.values());
+
+		// 2) Species
+		for (String speciesID : newSnapshot.species) if (!oldSnapshot.species.contains(speciesID)) addedSpecies_.add(speciesID);
+		for (String speciesID : oldSnapshot.species) if (!newSnapshot.species.contains(speciesID)) removedSpecies_.add(speciesID);
+	}
+
+	/**
+	 * Compare two saved models, each either an SBML file or a binary network file.
+	 *
+	 * @param oldFileName Path of the earlier model
+	 * @param newFileName Path of the later model
+	 * @return Differences between the models, or null if either file could not be read
+	 */
+	public static NetworkDiff compareFiles(String oldFileName, String newFileName) {
+		ReactionNetwork oldNetwork = CycModeler.readNetwork(oldFileName);
+		ReactionNetwork newNetwork = CycModeler.readNetwork(newFileName);
+		if (oldNetwork == null || newNetwork == null) return null;
+		return new NetworkDiff(oldNetwork, newNetwork);
+	}
+
+	/**
+	 * Pair reactions with the same join key.  Paired new reactions are removed from unmatchedNew.
+	 *
+	 * @return Old reactions left unpaired, in their original order
+	 */
+	private ArrayList<ReactionSummary> join(ArrayList<ReactionSummary> unmatchedOld, LinkedHashMap<String, ReactionSummary> unmatchedNew, int join) {
+		HashMap<String, ArrayList<ReactionSummary>> newByKey = new HashMap<String, ArrayList<ReactionSummary>>();
+		for (ReactionSummary newReaction : unmatchedNew.values()) {
+			String key = joinKey(newReaction, join);
+			ArrayList<ReactionSummary> bucket = newByKey.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<ReactionSummary>();
+				newByKey.put(key, bucket);
+			}
+			bucket.add(newReaction);
+		}
+
+		ArrayList<ReactionSummary> leftOver = new ArrayList<ReactionSummary>();
+		for (ReactionSummary oldReaction : unmatchedOld) {
+			ArrayList<ReactionSummary> bucket = newByKey.get(joinKey(oldReaction, join));
+			if (bucket == null || bucket.isEmpty()) leftOver.add(oldReaction);
+			else {
+				ReactionSummary newReaction = bucket.remove(0);
+				unmatchedNew.remove(newReaction.id);
+				comparePair(oldReaction, newReaction);
+			}
+		}
+		return leftOver;
+	}
+
+	private static String joinKey(ReactionSummary reaction, int join) {
+		switch (join) {
+			case JOIN_STOICHIOMETRY_AND_FRAME: return reaction.stoichiometricKey + "|" + reaction.frameKey;
+			case JOIN_STOICHIOMETRY: return reaction.stoichiometricKey;
+			case JOIN_FRAME: return reaction.frameKey;
+			default: return reaction.id;
+		}
+	}
+
+	private void comparePair(ReactionSummary oldReaction, ReactionSummary newReaction) {
+		ArrayList<String> changes = new ArrayList<String>();
+		if (!oldReaction.id.equals(newReaction.id)) changes.add(CHANGE_ID);
+		if (!equal(oldReaction.name, newReaction.name)) changes.add(CHANGE_NAME);
+		if (!oldReaction.stoichiometricKey.equals(newReaction.stoichiometricKey)) changes.add(CHANGE_STOICHIOMETRY);
+		if (oldReaction.lowerBound != newReaction.lowerBound || oldReaction.upperBound != newReaction.upperBound) changes.add(CHANGE_BOUNDS);
+		if (oldReaction.reversible != newReaction.reversible) changes.add(CHANGE_REVERSIBILITY);
+		if (!equal(oldReaction.geneRule, newReaction.geneRule)) changes.add(CHANGE_GENE_RULE);
+
+		if (changes.isEmpty()) unchangedReactions_++;
+		else modifiedReactions_.add(new ReactionChange(oldReaction, newReaction, changes));
+	}
+
+	private static boolean equal(String a, String b) {
+		if (a == null) return b == null;
+		return a.equals(b);
+	}
+
+	/**
+	 * Reduce a network to the summary used for comparison.  Gene rules and names are resolved here, so networks built from the database
+	 * need the connection open, but the snapshot itself does not.
+	 *
+	 * @param reactionNetwork Network to summarize
+	 * @return Snapshot of the network
+	 */
+	public static Snapshot summarize(ReactionNetwork reactionNetwork) {
+		Snapshot snapshot = new Snapshot();
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactions);
+		for (int j = 0; j < reactions.size(); j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			ReactionSummary summary = new ReactionSummary();
+			summary.id = reactionIDs.get(j);
+			summary.name = reaction.name_;
+			String location = reaction.reactionLocation_ == null ? CycModeler.getParameters().DefaultCompartment : reaction.reactionLocation_;
+			summary.frameKey = frameKey(reaction) + "|" + location;
+			summary.stoichiometricKey = stoichiometricKey(reaction);
+			summary.lowerBound = reaction.getLowerBound();
+			summary.upperBound = reaction.getUpperBound();
+			summary.reversible = reaction.reversible_;
+			summary.geneRule = reaction.getGeneProteinReactionRule();
+			if (summary.geneRule == null) summary.geneRule = "";
+			snapshot.reactions.put(summary.id, summary);
+
+			for (MetaboliteInstance reactant : reaction.getOrderedReactants()) snapshot.species.add(reactant.generateSpeciesID());
+			for (MetaboliteInstance product : reaction.getOrderedProducts()) snapshot.species.add(product.generateSpeciesID());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reaction ID without the _N suffix of generateUniqueReactionIDs.  Reactions read back from a saved model only have the unique ID, so
+	 * the suffix is stripped from it.
+	 */
+	private static String frameKey(AbstractReactionInstance reaction) {
+		String reactionID = reaction.generateReactionID();
+		if (reaction instanceof ImportedReactionInstance) return reactionID.replaceFirst("_[0-9]+$", "");
+		return reactionID;
+	}
+
+	/**
+	 * Key identifying the stoichiometry of a reaction: the sorted species IDs and coefficients of each side.
+	 */
+	public static String stoichiometricKey(AbstractReactionInstance reaction) {
+		String key = "";
+		for (MetaboliteInstance reactant : reaction.getOrderedReactants()) key += reactant.generateSpeciesID() + "*" + reactant.coefficient_ + " ";
+		key += "=>";
+		for (MetaboliteInstance product : reaction.getOrderedProducts()) key += " " + product.generateSpeciesID() + "*" + product.coefficient_;
+		return key;
+	}
+
+	/**
+	 * @return True if the networks have the same reactions and species
+	 */
+	public boolean isEmpty() {
+		return addedReactions_.isEmpty() && removedReactions_.isEmpty() && modifiedReactions_.isEmpty() && addedSpecies_.isEmpty() && removedSpecies_.isEmpty();
+	}
+
+	/**
+	 * @return Printable report of the differences
+	 */
+	public String report() {
+		String output = "";
+		output += "Unchanged reactions : " + unchangedReactions_ + "\n";
+		output += "Added reactions : " + addedReactions_.size() + "\n";
+		output += "Removed reactions : " + removedReactions_.size() + "\n";
+		output += "Modified reactions : " + modifiedReactions_.size() + "\n";
+		output += "Added species : " + addedSpecies_.size() + "\n";
+		output += "Removed species : " + removedSpecies_.size() + "\n";
+		StringBuilder details = new StringBuilder();
+		for (ReactionSummary reaction : addedReactions_) details.append("+\t" + reaction.id + "\t" + reaction.stoichiometricKey + "\n");
+		for (ReactionSummary reaction : removedReactions_) details.append("-\t" + reaction.id + "\t" + reaction.stoichiometricKey + "\n");
+		for (ReactionChange change : modifiedReactions_) details.append("~\t" + change.toString() + "\n");
+		for (String species : addedSpecies_) details.append("+\t" + species + "\n");
+		for (String species : removedSpecies_) details.append("-\t" + species + "\n");
+		return output + details.toString();
+	}
+
+
+	// Getters and Setters
+	public ArrayList<ReactionSummary> getAddedReactions() {
+		return addedReactions_;
+	}
+	public ArrayList<ReactionSummary> getRemovedReactions() {
+		return removedReactions_;
+	}
+	public ArrayList<ReactionChange> getModifiedReactions() {
+		return modifiedReactions_;
+	}
+	public ArrayList<String> getAddedSpecies() {
+		return addedSpecies_;
+	}
+	public ArrayList<String> getRemovedSpecies() {
+		return removedSpecies_;
+	}
+	public int getUnchangedReactionCount() {
+		return unchangedReactions_;
+	}
+
+
+	// Internal Classes
+	/**
+	 * The parts of a network that are compared, with nothing that needs the database.
+	 */
+	public static class Snapshot {
+		public LinkedHashMap<String, ReactionSummary> reactions = new LinkedHashMap<String, ReactionSummary>();
+		public LinkedHashSet<String> species = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * The compared properties of one reaction.
+	 */
+	public static class ReactionSummary {
+		public String id;
+		public String name;
+		public String frameKey;
+		public String stoichiometricKey;
+		public double lowerBound;
+		public double upperBound;
+		public boolean reversible;
+		public String geneRule;
+	}
+
+	/**
+	 * A reaction present in both networks with at least one change.
+	 */
+	public static class ReactionChange {
+		public ReactionSummary oldReaction;
+		public ReactionSummary newReaction;
+		public ArrayList<String> changes;
+
+		public ReactionChange(ReactionSummary oldReaction, ReactionSummary newReaction, ArrayList<String> changes) {
+			this.oldReaction = oldReaction;
+			this.newReaction = newReaction;
+			this.changes = changes;
+		}
+
+		@Override
+		public String toString() {
+			String output = oldReaction.id;
+			if (!oldReaction.id.equals(newReaction.id)) output += " -> " + newReaction.id;
+			output += "\t" + changes;
+			if (changes.contains(CHANGE_BOUNDS)) output += "\t[" + oldReaction.lowerBound + ", " + oldReaction.upperBound + "] -> [" + newReaction.lowerBound + ", " + newReaction.upperBound + "]";
+			if (changes.contains(CHANGE_GENE_RULE)) output += "\t" + oldReaction.geneRule + " -> " + newReaction.geneRule;
+			return output;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.InstantiatedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Metabolite-reaction bipartite graph of a ReactionNetwork, held as compressed adjacency arrays.  Reactions are numbered in the canonical
+ * order of the network and metabolites in order of first appearance.  Metabolite nodes are compounds, not species, so a compound in two
+ * compartments is a single node, which is how currency metabolites such as ATP are usually listed.
+ *
+ * Building the graph is one pass over the reactions, and every query afterwards works on int arrays and bitsets without touching the
+ * database, so the graph can be built once and queried many times.
+ *
+ * @author Jesse Walsh
+ */
+public class NetworkGraph {
+	private ArrayList<AbstractReactionInstance> reactions_;
+	private ArrayList<String> metaboliteIDs_;
+	private HashMap<String, Integer> metaboliteNumbers_;
+	private HashMap<String, Integer> reactionNumbers_;
+
+	// Reaction -> metabolites, reactants first. reactantEnd_[j] splits the reactants of reaction j from its products
+	private int[] reactionStart_;
+	private int[] reactantEnd_;
+	private int[] reactionMetabolites_;
+
+	// Metabolite -> reactions, each reaction once per metabolite
+	private int[] metaboliteStart_;
+	private int[] metaboliteReactions_;
+
+	public NetworkGraph(ReactionNetwork reactionNetwork) {
+		reactions_ = reactionNetwork.getOrderedReactions();
+		metaboliteIDs_ = new ArrayList<String>();
+		metaboliteNumbers_ = new HashMap<String, Integer>();
+		reactionNumbers_ = new HashMap<String, Integer>();
+
+		// Reaction -> metabolite adjacency. A compound on both sides of a reaction (a transport) is listed on both sides
+		reactionStart_ = new int[reactions_.size() + 1];
+		reactantEnd_ = new int[reactions_.size()];
+		ArrayList<Integer> adjacency = new ArrayList<Integer>();
+		for (int j = 0; j < reactions_.size(); j++) {
+			AbstractReactionInstance reaction = reactions_.get(j);
+			addReactionNumber(reaction.generateReactionID(), j);
+			String frameID = getFrameID(reaction);
+			if (frameID != null) addReactionNumber(frameID, j);
+
+			reactionStart_[j] = adjacency.size();
+			addMetabolites(reaction.getOrderedReactants(), adjacency);
+			reactantEnd_[j] = adjacency.size();
+			addMetabolites(reaction.getOrderedProducts(), adjacency);
+		}
+		reactionStart_[reactions_.size()] = adjacency.size();
+		reactionMetabolites_ = new int[adjacency.size()];
+		for (int k = 0; k < reactionMetabolites_.length; k++) reactionMetabolites_[k] = adjacency.get(k);
+
+		// Metabolite -> reaction adjacency, by counting sort over the reaction -> metabolite lists
+		int[] degree = new int[metaboliteIDs_.size()];
+		int[] lastReaction = new int[metaboliteIDs_.size()];
+		Arrays.fill(lastReaction, -1);
+		for (int j = 0; j < reactions_.size(); j++) {
+			for (int k = reactionStart_[j]; k < reactionStart_[j + 1]; k++) {
+				int metabolite = reactionMetabolites_[k];
+				if (lastReaction[metabolite] != j) {
+					degree[metabolite]++;
+					lastReaction[metabolite] = j;
+				}
+			}
+		}
+		metaboliteStart_ = new int[metaboliteIDs_.size() + 1];
+		for (int i = 0; i < degree.length; i++) metaboliteStart_[i + 1] = metaboliteStart_[i] + degree[i];
+		metaboliteReactions_ = new int[metaboliteStart_[metaboliteIDs_.size()]];
+		int[] next = new int[metaboliteIDs_.size()];
+		System.arraycopy(metaboliteStart_, 0, next, 0, next.length);
+		Arrays.fill(lastReaction, -1);
+		for (int j = 0; j < reactions_.size(); j++) {
+			for (int k = reactionStart_[j]; k < reactionStart_[j + 1]; k++) {
+				int metabolite = reactionMetabolites_[k];
+				if (lastReaction[metabolite] != j) {
+					metaboliteReactions_[next[metabolite]++] = j;
+					lastReaction[metabolite] = j;
+				}
+			}
+		}
+	}
+
+	private void addMetabolites(ArrayList<MetaboliteInstance> metabolites, ArrayList<Integer> adjacency) {
+		for (MetaboliteInstance metabolite : metabolites) {
+			String metaboliteID = metabolite.getMetaboliteID();
+			Integer number = metaboliteNumbers_.get(metaboliteID);
+			if (number == null) {
+				number = metaboliteIDs_.size();
+				metaboliteIDs_.add(metaboliteID);
+				metaboliteNumbers_.put(metaboliteID, number);
+			}
+			adjacency.add(number);
+		}
+	}
+
+	private void addReactionNumber(String reactionID, int reactionNumber) {
+		if (!reactionNumbers_.containsKey(reactionID)) reactionNumbers_.put(reactionID, reactionNumber);
+	}
+
+	/**
+	 * Frame ID of the database reaction a reaction instance was made from, or null if it was not made from one.  Reactions rebuilt from a
+	 * build cache give the frame ID they were saved with, so incremental and full builds resolve the same IDs.
+	 */
+	public static String getFrameID(AbstractReactionInstance reaction) {
+		if (reaction instanceof ReactionInstance && ((ReactionInstance) reaction).reactionFrame_ != null) return ((ReactionInstance) reaction).reactionFrame_.getLocalID();
+		if (reaction instanceof InstantiatedReactionInstance && ((InstantiatedReactionInstance) reaction).getParentReactionFrame() != null) return ((InstantiatedReactionInstance) reaction).getParentReactionFrame().getLocalID();
+		if (reaction instanceof ImportedReactionInstance) return ((ImportedReactionInstance) reaction).getSourceFrameID();
+		return null;
+	}
+
+
+	// Queries
+	/**
+	 * Reactions matching any of a list of IDs.  An ID matches a reaction if it is the reaction ID, or the frame ID of the database reaction
+	 * it was made from.  When several reaction instances share a frame ID (one per location, or instantiations of a generic reaction) all
+	 * of them match.
+	 *
+	 * @param reactionIDs Reaction IDs or reaction frame IDs
+	 * @return Numbers of the matching reactions
+	 */
+	public BitSet findReactions(Collection<String> reactionIDs) {
+		HashSet<String> ids = new HashSet<String>(reactionIDs);
+		BitSet found = new BitSet(reactions_.size());
+		for (int j = 0; j < reactions_.size(); j++) {
+			AbstractReactionInstance reaction = reactions_.get(j);
+			if (ids.contains(reaction.generateReactionID()) || ids.contains(getFrameID(reaction))) found.set(j);
+		}
+		return found;
+	}
+
+	/**
+	 * Expand a set of reactions by k hops, where one hop goes from a reaction to each metabolite it uses and on to every other reaction
+	 * using that metabolite.  Excluded metabolites, typically currency metabolites, are never crossed, otherwise one hop through ATP or
+	 * water would reach most of the network.
+	 *
+	 * @param seedReactions Reactions to start from
+	 * @param hops Number of hops, 0 returns the seeds
+	 * @param excludedMetaboliteIDs Metabolite frame IDs not to cross, may be null
+	 * @return Numbers of the seed reactions and every reaction reached
+	 */
+	public BitSet expand(BitSet seedReactions, int hops, Set<String> excludedMetaboliteIDs) {
+		boolean[] blocked = new boolean[metaboliteIDs_.size()];
+		if (excludedMetaboliteIDs != null) {
+			for (String metaboliteID : excludedMetaboliteIDs) {
+				Integer number = metaboliteNumbers_.get(metaboliteID);
+				if (number != null) blocked[number] = true;
+			}
+		}
+
+		BitSet reached = (BitSet) seedReactions.clone();
+		BitSet frontier = (BitSet) seedReactions.clone();
+		boolean[] visitedMetabolites = new boolean[metaboliteIDs_.size()];
+		for (int hop = 0; hop < hops && !frontier.isEmpty(); hop++) {
+			BitSet nextFrontier = new BitSet(reactions_.size());
+			for (int j = frontier.nextSetBit(0); j >= 0; j = frontier.nextSetBit(j + 1)) {
+				for (int k = reactionStart_[j]; k < reactionStart_[j + 1]; k++) {
+					int metabolite = reactionMetabolites_[k];
+					if (blocked[metabolite] || visitedMetabolites[metabolite]) continue;
+					visitedMetabolites[metabolite] = true;
+					for (int l = metaboliteStart_[metabolite]; l < metaboliteStart_[metabolite + 1]; l++) {
+						int reaction = metaboliteReactions_[l];
+						if (!reached.get(reaction)) {
+							reached.set(reaction);
+							nextFrontier.set(reaction);
+						}
+					}
+				}
+			}
+			frontier = nextFrontier;
+		}
+		return reached;
+	}
+
+	/**
+	 * New network holding a subset of the reactions of this graph.  The reaction instances are shared with the original network, not
+	 * copied.
+	 *
+	 * @param reactionNumbers Reactions to include
+	 * @return Network of the selected reactions
+	 */
+	public ReactionNetwork toReactionNetwork(BitSet reactionNumbers) {
+		ArrayList<AbstractReactionInstance> reactions = new ArrayList<AbstractReactionInstance>(reactionNumbers.cardinality());
+		for (int j = reactionNumbers.nextSetBit(0); j >= 0; j = reactionNumbers.nextSetBit(j + 1)) reactions.add(reactions_.get(j));
+		ReactionNetwork reactionNetwork = new ReactionNetwork();
+		reactionNetwork.Reactions.addAll(reactions);
+		return reactionNetwork;
+	}
+
+
+	// Getters and Setters
+	public int getReactionCount() {
+		return reactions_.size();
+	}
+
+	public int getMetaboliteCount() {
+		return metaboliteIDs_.size();
+	}
+
+	public AbstractReactionInstance getReaction(int reactionNumber) {
+		return reactions_.get(reactionNumber);
+	}
+
+	/**
+	 * @return Number of the reaction with this reaction ID or frame ID, or -1 if there is none
+	 */
+	public int getReactionNumber(String reactionID) {
+		Integer number = reactionNumbers_.get(reactionID);
+		return number == null ? -1 : number;
+	}
+
+	public String getMetaboliteID(int metaboliteNumber) {
+		return metaboliteIDs_.get(metaboliteNumber);
+	}
+
+	/**
+	 * @return Number of the metabolite with this frame ID, or -1 if it is not in the network
+	 */
+	public int getMetaboliteNumber(String metaboliteID) {
+		Integer number = metaboliteNumbers_.get(metaboliteID);
+		return number == null ? -1 : number;
+	}
+
+	/**
+	 * Start offsets into getReactionMetabolites, one per reaction plus a final end offset.
+	 */
+	public int[] getReactionStart() {
+		return reactionStart_;
+	}
+
+	/**
+	 * End offset of the reactants of each reaction in getReactionMetabolites.  The products follow, up to the start of the next reaction.
+	 */
+	public int[] getReactantEnd() {
+		return reactantEnd_;
+	}
+
+	public int[] getReactionMetabolites() {
+		return reactionMetabolites_;
+	}
+
+	/**
+	 * Start offsets into getMetaboliteReactions, one per metabolite plus a final end offset.
+	 */
+	public int[] getMetaboliteStart() {
+		return metaboliteStart_;
+	}
+
+	public int[] getMetaboliteReactions() {
+		return metaboliteReactions_;
+	}
+}
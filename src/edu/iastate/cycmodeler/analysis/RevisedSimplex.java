@@ -0,0 +1,853 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+
+/**
+ * Revised simplex solver for the flux balance linear program
+ *
+ *   optimize  c'v  subject to  Sv = 0,  lb <= v <= ub
+ *
+ * where S is the sparse stoichiometric matrix of a network.  The solver prices directly over the compressed columns of S.  The basis is
+ * held as a sparse LU factorization, built by left-looking elimination with partial pivoting, and each pivot appends an eta vector to it
+ * (the product form of the inverse).  Each column is eliminated against only the earlier columns of L it reaches, found by a depth first
+ * search (Gilbert and Peierls), so a factorization costs time in proportion to its floating point work rather than to the cube of the
+ * number of species.  The basis is refactored every REFACTOR_INTERVAL pivots, which bounds both the eta file and the rounding error.
+ *
+ * Variables are bounded, and the usual start is every flux at the value in its bounds closest to 0, with an all artificial basis.  When
+ * 0 is not within the bounds of some flux (a forced maintenance flux, say) a phase one over the artificial variables finds a feasible
+ * start.  Reversible fluxes start at 0, strictly between their bounds, so before each phase every such flux is moved onto a bound or into
+ * the basis.  From then on every nonbasic variable is on a bound.
+ *
+ * The last basis is kept between solves.  Changing only the objective keeps the basis feasible and the next solve starts from it, which
+ * is what makes repeated solves over the same network, as in flux variability analysis, cheap.  Changing bounds keeps the basis if it is
+ * still feasible and otherwise starts over.
+ *
+ * Dantzig pricing is used, and the leaving variable is chosen with Harris' two pass ratio test.  Metabolic networks are highly degenerate,
+ * with many fluxes at zero at once, and after a run of degenerate pivots the bounds of the basic variables are perturbed by small random
+ * amounts so that the following steps make progress.  The perturbation is removed at the end of the phase and the phase finished from
+ * the resulting basis.  If the perturbed variables still stall, Bland's rule with the textbook ratio test takes over.
+ *
+ * A solver is not thread safe. Use the copy constructor to give each thread its own.
+ *
+ * @author Jesse Walsh
+ */
+public class RevisedSimplex {
+	public static final double PRIMAL_TOLERANCE = 1e-9;
+	public static final double DUAL_TOLERANCE = 1e-9;
+	public static final double PIVOT_TOLERANCE = 1e-7;
+	public static final double FEASIBILITY_TOLERANCE = 1e-6;
+	private static final double SINGULAR_TOLERANCE = 1e-11;
+	private static final int REFACTOR_INTERVAL = 100;
+	private static final int DEGENERATE_LIMIT = 50;
+	private static final double PERTURBATION = 1e-7;
+
+	// Problem, shared between copies
+	private int m_;
+	private int n_;
+	private int[] colPtr_;
+	private int[] rowIdx_;
+	private double[] values_;
+
+	// Structural variables are 0 to n-1, artificial variable i is n+i with column artificialSign_[i] * e_i
+	private double[] lower_;
+	private double[] upper_;
+	private double[] objective_;
+	private double[] artificialSign_;
+
+	// Current basis. basis_[p] is the variable at basis position p, basicRow_[j] the position of variable j or -1
+	private double[] x_;
+	private int[] basis_;
+	private int[] basicRow_;
+	private boolean hasBasis_;
+	private boolean boundsChanged_;
+
+	// Bounds before perturbation, or null while the bounds are not perturbed
+	private double[] unperturbedLower_;
+	private double[] unperturbedUpper_;
+	private boolean perturbationAllowed_;
+	private Random random_;
+
+	// Factorization of the basis, B Q = P L U, and the eta file of pivots since
+	private int[] stepPosition_;
+	private int[] stepRow_;
+	private int[] lStart_;
+	private int[] lRow_;
+	private double[] lValue_;
+	private int[] uStart_;
+	private int[] uStep_;
+	private double[] uValue_;
+	private double[] uDiagonal_;
+	private ArrayList<Eta> etas_;
+
+	private Status status_;
+	private int iterations_;
+	private int maxIterations_;
+
+	/**
+	 * Solver for the flux balance problem of a stoichiometric matrix, with the flux bounds of the matrix and a zero objective.
+	 */
+	public RevisedSimplex(StoichiometricMatrix matrix) {
+		this.m_ = matrix.getSpeciesCount();
+		this.n_ = matrix.getReactionCount();
+		this.colPtr_ = matrix.getColumnPointers();
+		this.rowIdx_ = matrix.getRowIndices();
+		this.values_ = matrix.getValues();
+
+		this.lower_ = new double[n_ + m_];
+		this.upper_ = new double[n_ + m_];
+		System.arraycopy(matrix.getLowerBounds(), 0, lower_, 0, n_);
+		System.arraycopy(matrix.getUpperBounds(), 0, upper_, 0, n_);
+		this.objective_ = new double[n_];
+		this.artificialSign_ = new double[m_];
+		this.maxIterations_ = 20 * (m_ + n_) + 1000;
+		this.hasBasis_ = false;
+		this.etas_ = new ArrayList<Eta>();
+	}
+
+	/**
+	 * Copy of a solver, including its bounds, objective and current basis.  The copy can be used from another thread.
+	 */
+	public RevisedSimplex(RevisedSimplex other) {
+		this.m_ = other.m_;
+		this.n_ = other.n_;
+		this.colPtr_ = other.colPtr_;
+		this.rowIdx_ = other.rowIdx_;
+		this.values_ = other.values_;
+
+		this.lower_ = other.lower_.clone();
+		this.upper_ = other.upper_.clone();
+		this.objective_ = other.objective_.clone();
+		this.artificialSign_ = other.artificialSign_.clone();
+		this.maxIterations_ = other.maxIterations_;
+		this.hasBasis_ = other.hasBasis_;
+		this.boundsChanged_ = other.boundsChanged_;
+		this.etas_ = new ArrayList<Eta>();
+		if (other.hasBasis_) {
+			this.x_ = other.x_.clone();
+			this.basis_ = other.basis_.clone();
+			this.basicRow_ = other.basicRow_.clone();
+		}
+	}
+
+	/**
+	 * Set the bounds of a flux.
+	 */
+	public void setBounds(int reaction, double lowerBound, double upperBound) {
+		lower_[reaction] = lowerBound;
+		upper_[reaction] = upperBound;
+		boundsChanged_ = true;
+	}
+
+	public double getLowerBound(int reaction) {
+		return lower_[reaction];
+	}
+
+	public double getUpperBound(int reaction) {
+		return upper_[reaction];
+	}
+
+	/**
+	 * Set the objective to the flux through a single reaction.
+	 */
+	public void setObjective(int reaction) {
+		Arrays.fill(objective_, 0);
+		objective_[reaction] = 1;
+	}
+
+	/**
+	 * Set the objective coefficient of each flux.
+	 */
+	public void setObjective(double[] coefficients) {
+		System.arraycopy(coefficients, 0, objective_, 0, n_);
+	}
+
+	public Status maximize() {
+		return solve(1);
+	}
+
+	public Status minimize() {
+		return solve(-1);
+	}
+
+	/**
+	 * @return Value of the objective at the current solution
+	 */
+	public double getObjectiveValue() {
+		double value = 0;
+		for (int j = 0; j < n_; j++) if (objective_[j] != 0) value += objective_[j] * x_[j];
+		return value;
+	}
+
+	/**
+	 * @return Flux through each reaction at the current solution
+	 */
+	public double[] getFluxes() {
+		return Arrays.copyOf(x_, n_);
+	}
+
+	public double getFlux(int reaction) {
+		return x_[reaction];
+	}
+
+	public Status getStatus() {
+		return status_;
+	}
+
+	/**
+	 * @return Number of pivots and bound flips done by the last solve
+	 */
+	public int getIterations() {
+		return iterations_;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations_ = maxIterations;
+	}
+
+
+	// Simplex
+	private Status solve(double sense) {
+		iterations_ = 0;
+		status_ = solveFrom(sense, false, true);
+		if (status_ == Status.NUMERICAL_ERROR) status_ = solveFrom(sense, true, false);
+		if (status_ != Status.OPTIMAL) hasBasis_ = false;
+		return status_;
+	}
+
+	private Status solveFrom(double sense, boolean cold, boolean perturb) {
+		if (cold || !hasBasis_) coldStart();
+		else if (!factor()) coldStart();
+		else if (boundsChanged_ && !restoreFeasibility()) coldStart();
+		boundsChanged_ = false;
+
+		// Phase one, drive the artificial variables to zero
+		double[] cost = new double[n_ + m_];
+		if (artificialInfeasibility() > PRIMAL_TOLERANCE) {
+			for (int i = 0; i < m_; i++) {
+				upper_[n_ + i] = Double.POSITIVE_INFINITY;
+				cost[n_ + i] = 1;
+			}
+			Status status = runPhase(cost, perturb);
+			if (status != Status.OPTIMAL) return status;
+			if (artificialInfeasibility() > FEASIBILITY_TOLERANCE) return Status.INFEASIBLE;
+		}
+
+		// Phase two, artificial variables are fixed at zero
+		for (int i = 0; i < m_; i++) {
+			upper_[n_ + i] = 0;
+			if (basicRow_[n_ + i] == -1) x_[n_ + i] = 0;
+			cost[n_ + i] = 0;
+		}
+		for (int j = 0; j < n_; j++) cost[j] = -sense * objective_[j];
+		return runPhase(cost, perturb);
+	}
+
+	/**
+	 * Run one phase to optimality.  If perturb is set and the bounds were perturbed to get out of a degenerate vertex, the original bounds
+	 * are put back at the end, the nonbasic variables moved onto them, and the phase run again from the resulting basis without
+	 * perturbation.  This usually takes few or no pivots.
+	 *
+	 * @return NUMERICAL_ERROR if the basis is no longer feasible once the perturbation is removed
+	 */
+	private Status runPhase(double[] cost, boolean perturb) {
+		perturbationAllowed_ = perturb;
+		random_ = new Random(m_ + 31L * n_);
+		Status status = iterate(cost);
+		perturbationAllowed_ = false;
+		if (!removePerturbation() || status != Status.OPTIMAL) return status;
+		for (int p = 0; p < m_; p++) {
+			int b = basis_[p];
+			if (x_[b] < lower_[b] - FEASIBILITY_TOLERANCE || x_[b] > upper_[b] + FEASIBILITY_TOLERANCE) return Status.NUMERICAL_ERROR;
+		}
+		return iterate(cost);
+	}
+
+	/**
+	 * Start from every flux at the value in its bounds closest to 0, with the artificial variables as the basis taking up any imbalance.
+	 */
+	private void coldStart() {
+		x_ = new double[n_ + m_];
+		basis_ = new int[m_];
+		basicRow_ = new int[n_ + m_];
+		Arrays.fill(basicRow_, -1);
+
+		double[] residual = new double[m_];
+		for (int j = 0; j < n_; j++) {
+			x_[j] = Math.max(lower_[j], Math.min(upper_[j], 0));
+			if (x_[j] == 0) continue;
+			for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) residual[rowIdx_[k]] -= values_[k] * x_[j];
+		}
+		for (int i = 0; i < m_; i++) {
+			artificialSign_[i] = residual[i] >= 0 ? 1 : -1;
+			x_[n_ + i] = Math.abs(residual[i]);
+			lower_[n_ + i] = 0;
+			upper_[n_ + i] = Double.POSITIVE_INFINITY;
+			basis_[i] = n_ + i;
+			basicRow_[n_ + i] = i;
+		}
+		hasBasis_ = true;
+		factor();
+	}
+
+	/**
+	 * After bounds have changed, move nonbasic variables back within their bounds and recompute the basic variables.
+	 *
+	 * @return True if the current basis is still feasible
+	 */
+	private boolean restoreFeasibility() {
+		for (int j = 0; j < n_; j++) {
+			if (basicRow_[j] == -1) x_[j] = Math.max(lower_[j], Math.min(upper_[j], x_[j]));
+		}
+		refreshBasicValues();
+		for (int p = 0; p < m_; p++) {
+			int b = basis_[p];
+			if (x_[b] < lower_[b] - FEASIBILITY_TOLERANCE || x_[b] > upper_[b] + FEASIBILITY_TOLERANCE) return false;
+		}
+		return true;
+	}
+
+	private double artificialInfeasibility() {
+		double sum = 0;
+		for (int i = 0; i < m_; i++) sum += Math.abs(x_[n_ + i]);
+		return sum;
+	}
+
+	private Status iterate(double[] cost) {
+		double[] y = new double[m_];
+		double[] alpha = new double[m_];
+		Status status = moveToBounds(cost, y, alpha);
+		if (status != null) return status;
+		int degenerate = 0;
+
+		while (true) {
+			if (iterations_ >= maxIterations_) return Status.ITERATION_LIMIT;
+			if (etas_.size() >= REFACTOR_INTERVAL) {
+				if (!factor()) return Status.NUMERICAL_ERROR;
+				refreshBasicValues();
+			}
+			if (degenerate > DEGENERATE_LIMIT && perturbBasicBounds()) degenerate = 0;
+			boolean bland = degenerate > DEGENERATE_LIMIT;
+
+			// Simplex multipliers, B'y = c_B
+			for (int p = 0; p < m_; p++) y[p] = cost[basis_[p]];
+			btran(y);
+
+			// Pricing
+			int entering = -1;
+			double enteringCost = 0;
+			for (int j = 0; j < n_ + m_; j++) {
+				if (basicRow_[j] != -1) continue;
+				double d = cost[j] - columnDot(j, y);
+				boolean eligible = (d < -DUAL_TOLERANCE && x_[j] < upper_[j] - PRIMAL_TOLERANCE) || (d > DUAL_TOLERANCE && x_[j] > lower_[j] + PRIMAL_TOLERANCE);
+				if (!eligible) continue;
+				if (bland) {
+					entering = j;
+					enteringCost = d;
+					break;
+				}
+				if (Math.abs(d) > Math.abs(enteringCost)) {
+					entering = j;
+					enteringCost = d;
+				}
+			}
+			if (entering == -1) return Status.OPTIMAL;
+			double direction = enteringCost < 0 ? 1 : -1;
+
+			enteringColumn(entering, alpha);
+			int leaving = ratioTest(entering, direction, alpha, bland);
+			double step = stepLength(entering, direction, alpha, leaving);
+			if (step == Double.POSITIVE_INFINITY) return Status.UNBOUNDED;
+			move(entering, direction, alpha, leaving, step);
+			degenerate = step <= PRIMAL_TOLERANCE ? degenerate + 1 : 0;
+		}
+	}
+
+	/**
+	 * Move each nonbasic flux lying strictly between its bounds, as a cold start leaves every reversible flux at 0, to one of its bounds
+	 * or into the basis.  Each move is a simplex step in a direction that does not worsen the objective, the shorter one if the reduced
+	 * cost is zero.  Bland's rule only prevents cycling when every nonbasic variable is at a bound, and the pivots made by iterate keep them
+	 * there.  A free flux that nothing blocks in either direction is left where it is.
+	 *
+	 * @return UNBOUNDED if a flux can improve the objective without limit, NUMERICAL_ERROR if the basis became singular, otherwise null
+	 */
+	private Status moveToBounds(double[] cost, double[] y, double[] alpha) {
+		for (int j = 0; j < n_; j++) {
+			if (basicRow_[j] != -1 || x_[j] <= lower_[j] + PRIMAL_TOLERANCE || x_[j] >= upper_[j] - PRIMAL_TOLERANCE) continue;
+			if (etas_.size() >= REFACTOR_INTERVAL) {
+				if (!factor()) return Status.NUMERICAL_ERROR;
+				refreshBasicValues();
+			}
+			for (int p = 0; p < m_; p++) y[p] = cost[basis_[p]];
+			btran(y);
+			double d = cost[j] - columnDot(j, y);
+
+			enteringColumn(j, alpha);
+			double direction = d > DUAL_TOLERANCE ? -1 : 1;
+			int leaving = ratioTest(j, direction, alpha, false);
+			double step = stepLength(j, direction, alpha, leaving);
+			if (Math.abs(d) <= DUAL_TOLERANCE) {
+				int otherLeaving = ratioTest(j, -direction, alpha, false);
+				double otherStep = stepLength(j, -direction, alpha, otherLeaving);
+				if (otherStep < step) {
+					direction = -direction;
+					leaving = otherLeaving;
+					step = otherStep;
+				}
+				if (step == Double.POSITIVE_INFINITY) continue;
+			}
+			if (step == Double.POSITIVE_INFINITY) return Status.UNBOUNDED;
+			move(j, direction, alpha, leaving, step);
+		}
+		return null;
+	}
+
+	/**
+	 * Relax the finite bounds of every basic variable not already perturbed by a small random amount, so that basic variables sitting on a
+	 * bound at a degenerate vertex move off it and the following steps have nonzero length.  The leaving variable of a later pivot is put on
+	 * its perturbed bound, so nonbasic variables stay on a bound.
+	 *
+	 * @return True if any bound was changed
+	 */
+	private boolean perturbBasicBounds() {
+		if (!perturbationAllowed_) return false;
+		if (unperturbedLower_ == null) {
+			unperturbedLower_ = lower_.clone();
+			unperturbedUpper_ = upper_.clone();
+		}
+		boolean changed = false;
+		for (int p = 0; p < m_; p++) {
+			int b = basis_[p];
+			if (lower_[b] != unperturbedLower_[b] || upper_[b] != unperturbedUpper_[b]) continue;
+			if (lower_[b] != Double.NEGATIVE_INFINITY) {
+				lower_[b] -= PERTURBATION * (1 + random_.nextDouble());
+				changed = true;
+			}
+			if (upper_[b] != Double.POSITIVE_INFINITY) {
+				upper_[b] += PERTURBATION * (1 + random_.nextDouble());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Put back the bounds from before perturbBasicBounds, move the nonbasic variables onto them and recompute the basic variables.
+	 *
+	 * @return False if the bounds were not perturbed
+	 */
+	private boolean removePerturbation() {
+		if (unperturbedLower_ == null) return false;
+		lower_ = unperturbedLower_;
+		upper_ = unperturbedUpper_;
+		unperturbedLower_ = null;
+		unperturbedUpper_ = null;
+		for (int j = 0; j < n_ + m_; j++) {
+			if (basicRow_[j] == -1) x_[j] = Math.max(lower_[j], Math.min(upper_[j], x_[j]));
+		}
+		refreshBasicValues();
+		return true;
+	}
+
+	/**
+	 * Column of a variable in the current basis, B alpha = A_j.
+	 */
+	private void enteringColumn(int entering, double[] alpha) {
+		Arrays.fill(alpha, 0);
+		if (entering < n_) {
+			for (int k = colPtr_[entering]; k < colPtr_[entering + 1]; k++) alpha[rowIdx_[k]] = values_[k];
+		} else alpha[entering - n_] = artificialSign_[entering - n_];
+		ftran(alpha);
+	}
+
+	/**
+	 * Choose the basic variable that leaves when the entering variable moves in direction.
+	 *
+	 * Normally Harris' ratio test is used.  The first pass finds the longest step allowed with the bounds relaxed by PRIMAL_TOLERANCE, the
+	 * second takes the largest pivot among the rows blocking within that step, which keeps small pivots out of the factorization.  Under
+	 * Bland's rule the textbook test is used instead, the smallest ratio with ties going to the lowest numbered variable.
+	 *
+	 * @return Basis position of the leaving variable, or -1 if the entering variable reaches its own opposite bound first or nothing blocks
+	 */
+	private int ratioTest(int entering, double direction, double[] alpha, boolean bland) {
+		double ownStep = direction > 0 ? upper_[entering] - x_[entering] : x_[entering] - lower_[entering];
+		int leaving = -1;
+		if (bland) {
+			double minStep = ownStep;
+			for (int p = 0; p < m_; p++) {
+				double ratio = blockingRatio(p, alpha[p] * direction, 0);
+				if (ratio < minStep) minStep = ratio;
+			}
+			if (minStep == ownStep) return -1;
+			for (int p = 0; p < m_; p++) {
+				if ((leaving == -1 || basis_[p] < basis_[leaving]) && blockingRatio(p, alpha[p] * direction, 0) <= minStep + PRIMAL_TOLERANCE) leaving = p;
+			}
+			return leaving;
+		}
+
+		double maxStep = ownStep;
+		for (int p = 0; p < m_; p++) {
+			double ratio = blockingRatio(p, alpha[p] * direction, PRIMAL_TOLERANCE);
+			if (ratio < maxStep) maxStep = ratio;
+		}
+		if (maxStep >= ownStep) return -1;
+		double largestPivot = 0;
+		for (int p = 0; p < m_; p++) {
+			if (Math.abs(alpha[p]) > largestPivot && blockingRatio(p, alpha[p] * direction, 0) <= maxStep) {
+				leaving = p;
+				largestPivot = Math.abs(alpha[p]);
+			}
+		}
+		return leaving;
+	}
+
+	/**
+	 * @return Step the entering variable takes when the variable at position leaving, as chosen by ratioTest, leaves the basis
+	 */
+	private double stepLength(int entering, double direction, double[] alpha, int leaving) {
+		if (leaving == -1) return direction > 0 ? upper_[entering] - x_[entering] : x_[entering] - lower_[entering];
+		return Math.max(blockingRatio(leaving, alpha[leaving] * direction, 0), 0);
+	}
+
+	/**
+	 * Move the entering variable by step and update the basic variables.  If a basic variable leaves it is put on the bound it reached and
+	 * the entering variable takes its place in the basis, otherwise the entering variable has reached its own bound.
+	 */
+	private void move(int entering, double direction, double[] alpha, int leaving, double step) {
+		x_[entering] += direction * step;
+		for (int p = 0; p < m_; p++) {
+			if (alpha[p] != 0) x_[basis_[p]] -= step * direction * alpha[p];
+		}
+		iterations_++;
+		if (leaving == -1) {
+			x_[entering] = direction > 0 ? upper_[entering] : lower_[entering];
+			return;
+		}
+
+		int b = basis_[leaving];
+		x_[b] = alpha[leaving] * direction > 0 ? lower_[b] : upper_[b];
+		basicRow_[b] = -1;
+		basis_[leaving] = entering;
+		basicRow_[entering] = leaving;
+		etas_.add(new Eta(leaving, alpha));
+	}
+
+	/**
+	 * Step the entering variable can take before the basic variable at position p reaches a bound, with the bounds relaxed by tolerance.
+	 *
+	 * @param a Rate at which the basic variable decreases as the entering variable moves
+	 */
+	private double blockingRatio(int p, double a, double tolerance) {
+		int b = basis_[p];
+		if (a > PIVOT_TOLERANCE && lower_[b] != Double.NEGATIVE_INFINITY) return (x_[b] - lower_[b] + tolerance) / a;
+		if (a < -PIVOT_TOLERANCE && upper_[b] != Double.POSITIVE_INFINITY) return (upper_[b] - x_[b] + tolerance) / -a;
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private double columnDot(int j, double[] y) {
+		if (j >= n_) return artificialSign_[j - n_] * y[j - n_];
+		double dot = 0;
+		for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) dot += values_[k] * y[rowIdx_[k]];
+		return dot;
+	}
+
+	/**
+	 * Recompute the basic variables from the nonbasic ones, B x_B = -N x_N, to stop rounding errors building up.
+	 */
+	private void refreshBasicValues() {
+		double[] rhs = new double[m_];
+		for (int j = 0; j < n_; j++) {
+			if (basicRow_[j] != -1 || x_[j] == 0) continue;
+			for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) rhs[rowIdx_[k]] -= values_[k] * x_[j];
+		}
+		for (int i = 0; i < m_; i++) {
+			if (basicRow_[n_ + i] == -1 && x_[n_ + i] != 0) rhs[i] -= artificialSign_[i] * x_[n_ + i];
+		}
+		ftran(rhs);
+		for (int p = 0; p < m_; p++) x_[basis_[p]] = rhs[p];
+	}
+
+
+	// Basis factorization
+	/**
+	 * Factor the current basis and clear the eta file.  Columns are eliminated in order of increasing length, which puts the artificial
+	 * and exchange columns first and keeps fill low.
+	 *
+	 * @return False if the basis is singular
+	 */
+	private boolean factor() {
+		etas_.clear();
+
+		Integer[] order = new Integer[m_];
+		final int[] length = new int[m_];
+		for (int p = 0; p < m_; p++) {
+			order[p] = p;
+			int j = basis_[p];
+			length[p] = j < n_ ? colPtr_[j + 1] - colPtr_[j] : 1;
+		}
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return length[a] - length[b];
+			}
+		});
+
+		stepPosition_ = new int[m_];
+		stepRow_ = new int[m_];
+		lStart_ = new int[m_ + 1];
+		uStart_ = new int[m_ + 1];
+		uDiagonal_ = new double[m_];
+		IntList lRow = new IntList();
+		DoubleList lValue = new DoubleList();
+		IntList uStep = new IntList();
+		DoubleList uValue = new DoubleList();
+
+		// rowStep[i] is the step that eliminated row i, or -1. Rows and steps touched by the current column are marked with its step number
+		int[] rowStep = new int[m_];
+		Arrays.fill(rowStep, -1);
+		double[] work = new double[m_];
+		int[] rowMark = new int[m_];
+		int[] stepMark = new int[m_];
+		Arrays.fill(rowMark, -1);
+		Arrays.fill(stepMark, -1);
+		int[] pattern = new int[m_];
+		int[] topological = new int[m_];
+		int[] stack = new int[m_];
+		int[] stackNext = new int[m_];
+		for (int step = 0; step < m_; step++) {
+			int position = order[step];
+			int j = basis_[position];
+			int patternSize = 0;
+			if (j < n_) {
+				for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) {
+					work[rowIdx_[k]] = values_[k];
+					rowMark[rowIdx_[k]] = step;
+					pattern[patternSize++] = rowIdx_[k];
+				}
+			} else {
+				work[j - n_] = artificialSign_[j - n_];
+				rowMark[j - n_] = step;
+				pattern[patternSize++] = j - n_;
+			}
+
+			// The earlier steps this column depends on are those reachable from its rows through the columns of L.  A depth first search
+			// lists them in reverse topological order, so only they are visited rather than every earlier step
+			int reached = 0;
+			for (int start = 0; start < patternSize; start++) {
+				int first = rowStep[pattern[start]];
+				if (first == -1 || stepMark[first] == step) continue;
+				int depth = 0;
+				stack[0] = first;
+				stackNext[0] = lStart_[first];
+				stepMark[first] = step;
+				while (depth >= 0) {
+					int current = stack[depth];
+					int k = stackNext[depth];
+					while (k < lStart_[current + 1] && (rowStep[lRow.get(k)] == -1 || stepMark[rowStep[lRow.get(k)]] == step)) k++;
+					if (k < lStart_[current + 1]) {
+						int next = rowStep[lRow.get(k)];
+						stackNext[depth] = k + 1;
+						stepMark[next] = step;
+						stack[++depth] = next;
+						stackNext[depth] = lStart_[next];
+					} else {
+						topological[reached++] = current;
+						depth--;
+					}
+				}
+			}
+
+			// Apply the reached columns of L, in topological order
+			for (int t = reached - 1; t >= 0; t--) {
+				int earlier = topological[t];
+				double v = work[stepRow_[earlier]];
+				if (v == 0) continue;
+				uStep.add(earlier);
+				uValue.add(v);
+				work[stepRow_[earlier]] = 0;
+				for (int k = lStart_[earlier]; k < lStart_[earlier + 1]; k++) {
+					int row = lRow.get(k);
+					if (rowMark[row] != step) {
+						rowMark[row] = step;
+						pattern[patternSize++] = row;
+					}
+					work[row] -= lValue.get(k) * v;
+				}
+			}
+			uStart_[step + 1] = uStep.size();
+
+			// Partial pivoting over the rows of the column not yet eliminated
+			int pivotRow = -1;
+			double pivot = 0;
+			for (int t = 0; t < patternSize; t++) {
+				int i = pattern[t];
+				if (rowStep[i] == -1 && Math.abs(work[i]) > Math.abs(pivot)) {
+					pivot = work[i];
+					pivotRow = i;
+				}
+			}
+			if (pivotRow == -1 || Math.abs(pivot) < SINGULAR_TOLERANCE) {
+				for (int t = 0; t < patternSize; t++) work[pattern[t]] = 0;
+				return false;
+			}
+			stepPosition_[step] = position;
+			stepRow_[step] = pivotRow;
+			rowStep[pivotRow] = step;
+			uDiagonal_[step] = pivot;
+			work[pivotRow] = 0;
+			for (int t = 0; t < patternSize; t++) {
+				int i = pattern[t];
+				if (work[i] == 0) continue;
+				if (rowStep[i] == -1) {
+					lRow.add(i);
+					lValue.add(work[i] / pivot);
+				}
+				work[i] = 0;
+			}
+			lStart_[step + 1] = lRow.size();
+		}
+
+		lRow_ = lRow.toArray();
+		lValue_ = lValue.toArray();
+		uStep_ = uStep.toArray();
+		uValue_ = uValue.toArray();
+		return true;
+	}
+
+	/**
+	 * Solve B z = a in place.  On entry v holds a by row, on return z by basis position.
+	 */
+	private void ftran(double[] v) {
+		// L, from rows to elimination steps
+		double[] t = new double[m_];
+		for (int step = 0; step < m_; step++) {
+			double value = v[stepRow_[step]];
+			t[step] = value;
+			if (value == 0) continue;
+			for (int k = lStart_[step]; k < lStart_[step + 1]; k++) v[lRow_[k]] -= lValue_[k] * value;
+		}
+		// U, by columns from the last step
+		for (int step = m_ - 1; step >= 0; step--) {
+			if (t[step] == 0) continue;
+			t[step] /= uDiagonal_[step];
+			double value = t[step];
+			for (int k = uStart_[step]; k < uStart_[step + 1]; k++) t[uStep_[k]] -= uValue_[k] * value;
+		}
+		for (int step = 0; step < m_; step++) v[stepPosition_[step]] = t[step];
+		// Pivots since the factorization
+		for (Eta eta : etas_) eta.ftran(v);
+	}
+
+	/**
+	 * Solve B'y = c in place.  On entry v holds c by basis position, on return y by row.
+	 */
+	private void btran(double[] v) {
+		for (int e = etas_.size() - 1; e >= 0; e--) etas_.get(e).btran(v);
+		// U', from the first step
+		double[] t = new double[m_];
+		for (int step = 0; step < m_; step++) {
+			double value = v[stepPosition_[step]];
+			for (int k = uStart_[step]; k < uStart_[step + 1]; k++) value -= uValue_[k] * t[uStep_[k]];
+			t[step] = value / uDiagonal_[step];
+		}
+		// L', from the last step
+		for (int step = 0; step < m_; step++) v[stepRow_[step]] = t[step];
+		for (int step = m_ - 1; step >= 0; step--) {
+			double value = 0;
+			for (int k = lStart_[step]; k < lStart_[step + 1]; k++) value += lValue_[k] * v[lRow_[k]];
+			v[stepRow_[step]] -= value;
+		}
+	}
+
+	// Internal Classes
+	public enum Status {
+		OPTIMAL,
+		INFEASIBLE,
+		UNBOUNDED,
+		ITERATION_LIMIT,
+		NUMERICAL_ERROR
+	}
+
+	/**
+	 * Elementary matrix of one pivot.  Replacing the basis column at position with a column whose representation in the old basis is alpha
+	 * multiplies the inverse of the basis by this matrix.
+	 */
+	private static class Eta {
+		private int position_;
+		private double pivot_;
+		private int[] index_;
+		private double[] value_;
+
+		public Eta(int position, double[] alpha) {
+			this.position_ = position;
+			this.pivot_ = alpha[position];
+			int count = 0;
+			for (int p = 0; p < alpha.length; p++) if (alpha[p] != 0 && p != position) count++;
+			index_ = new int[count];
+			value_ = new double[count];
+			count = 0;
+			for (int p = 0; p < alpha.length; p++) {
+				if (alpha[p] != 0 && p != position) {
+					index_[count] = p;
+					value_[count++] = alpha[p];
+				}
+			}
+		}
+
+		public void ftran(double[] v) {
+			double value = v[position_];
+			if (value == 0) return;
+			value /= pivot_;
+			v[position_] = value;
+			for (int k = 0; k < index_.length; k++) v[index_[k]] -= value_[k] * value;
+		}
+
+		public void btran(double[] v) {
+			double value = v[position_];
+			for (int k = 0; k < index_.length; k++) value -= value_[k] * v[index_[k]];
+			v[position_] = value / pivot_;
+		}
+	}
+
+	private static class IntList {
+		private int[] values_ = new int[64];
+		private int size_ = 0;
+
+		public void add(int value) {
+			if (size_ == values_.length) values_ = Arrays.copyOf(values_, size_ * 2);
+			values_[size_++] = value;
+		}
+
+		public int get(int index) {
+			return values_[index];
+		}
+
+		public int size() {
+			return size_;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(values_, size_);
+		}
+	}
+
+	private static class DoubleList {
+		private double[] values_ = new double[64];
+		private int size_ = 0;
+
+		public void add(double value) {
+			if (size_ == values_.length) values_ = Arrays.copyOf(values_, size_ * 2);
+			values_[size_++] = value;
+		}
+
+		public double get(int index) {
+			return values_[index];
+		}
+
+		public double[] toArray() {
+			return Arrays.copyOf(values_, size_);
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package edu.iastate.cycmodeler.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+
+/**
+ * K-shortest route search between compounds, answering questions such as "how does the model get from glucose to this compound".  A route
+ * is a chain of compounds, each a reactant of a reaction which makes the next, in a direction the reaction can run.
+ *
+ * Routes are found with Yen's algorithm over a directed compound graph held in compressed adjacency arrays, built once from a NetworkGraph,
+ * so a search is one backwards Dijkstra run from the target followed by A* runs guided by it, all over int and double arrays.  Currency
+ * metabolites are left out of the graph unless they are the start or end of the search, otherwise most shortest routes would pass through
+ * ATP or water.
+ *
+ * Each step costs one, plus up to atomWeight when the two compounds differ in carbon count, scaled by how much they differ.  A step from
+ * glucose to glucose 6-phosphate costs one, while a step from glucose to carbon dioxide costs nearly 1 + atomWeight, which keeps routes
+ * on steps that carry the carbon backbone.  Steps involving a compound without a known formula cost 1 + atomWeight / 2.
+ *
+ * A RouteSearch is not safe for use by several threads at once.
+ *
+ * @author Jesse Walsh
+ */
+public class RouteSearch {
+	public static final double DEFAULT_ATOM_WEIGHT = 4;
+
+	private NetworkGraph graph_;
+	private boolean[] excluded_;
+
+	// Compound -> outgoing steps
+	private int[] stepStart_;
+	private int[] stepTarget_;
+	private int[] stepReaction_;
+	private double[] stepWeight_;
+
+	// Compound -> incoming steps
+	private int[] incomingStart_;
+	private int[] incomingSteps_;
+
+	// Search state, reused between searches. Only the entries of touched compounds are reset
+	private boolean[] removedSteps_;
+	private boolean[] removedCompounds_;
+	private double[] toTarget_;
+	private double[] distance_;
+	private int[] previousStep_;
+	private int[] heap_;
+	private int[] heapPosition_;
+	private double[] heapKey_;
+	private int[] touched_;
+	private int touchedCount_;
+
+	/**
+	 * @param graph Graph of the network to search
+	 * @param excludedMetaboliteIDs Compound frame IDs which routes may not pass through, such as currency metabolites. May be null
+	 * @param atomWeight Greatest extra cost of a step between compounds with different carbon counts, 0 to count steps only
+	 */
+	public RouteSearch(NetworkGraph graph, Set<String> excludedMetaboliteIDs, double atomWeight) {
+		this.graph_ = graph;
+		int compounds = graph.getMetaboliteCount();
+		this.excluded_ = new boolean[compounds];
+		if (excludedMetaboliteIDs != null) {
+			for (String metaboliteID : excludedMetaboliteIDs) {
+				int number = graph.getMetaboliteNumber(metaboliteID);
+				if (number != -1) excluded_[number] = true;
+			}
+		}
+
+		// Carbon count of each compound, from the first instance seen
+		int[] carbons = new int[compounds];
+		boolean[] known = new boolean[compounds];
+		int[] reactionStart = graph.getReactionStart();
+		int[] reactantEnd = graph.getReactantEnd();
+		int[] reactionMetabolites = graph.getReactionMetabolites();
+		for (int j = 0; j < graph.getReactionCount(); j++) {
+			AbstractReactionInstance reaction = graph.getReaction(j);
+			ArrayList<MetaboliteInstance> metabolites = reaction.getOrderedReactants();
+			metabolites.addAll(reaction.getOrderedProducts());
+			for (int k = reactionStart[j]; k < reactionStart[j + 1]; k++) {
+				int compound = reactionMetabolites[k];
+				if (known[compound]) continue;
+				known[compound] = true;
+				carbons[compound] = metabolites.get(k - reactionStart[j]).getCarbonCount();
+			}
+		}
+
+		// Steps from each reactant to each product, and back if the reaction is reversible, counted then filled
+		int[] outDegree = new int[compounds];
+		for (int pass = 0; pass < 2; pass++) {
+			int[] next = null;
+			if (pass == 1) {
+				stepStart_ = new int[compounds + 1];
+				for (int i = 0; i < compounds; i++) stepStart_[i + 1] = stepStart_[i] + outDegree[i];
+				int steps = stepStart_[compounds];
+				stepTarget_ = new int[steps];
+				stepReaction_ = new int[steps];
+				stepWeight_ = new double[steps];
+				next = Arrays.copyOf(stepStart_, compounds);
+			}
+			for (int j = 0; j < graph.getReactionCount(); j++) {
+				AbstractReactionInstance reaction = graph.getReaction(j);
+				boolean forward = reaction.getUpperBound() > 0;
+				boolean backward = reaction.getLowerBound() < 0;
+				for (int r = reactionStart[j]; r < reactantEnd[j]; r++) {
+					for (int p = reactantEnd[j]; p < reactionStart[j + 1]; p++) {
+						int reactant = reactionMetabolites[r];
+						int product = reactionMetabolites[p];
+						if (reactant == product) continue;
+						double weight = 1 + atomWeight * carbonDifference(carbons[reactant], carbons[product]);
+						if (forward) {
+							if (pass == 0) outDegree[reactant]++;
+							else addStep(next, reactant, product, j, weight);
+						}
+						if (backward) {
+							if (pass == 0) outDegree[product]++;
+							else addStep(next, product, reactant, j, weight);
+						}
+					}
+				}
+			}
+		}
+
+		// Incoming steps, by counting sort on the step targets
+		incomingStart_ = new int[compounds + 1];
+		for (int step = 0; step < stepTarget_.length; step++) incomingStart_[stepTarget_[step] + 1]++;
+		for (int i = 0; i < compounds; i++) incomingStart_[i + 1] += incomingStart_[i];
+		incomingSteps_ = new int[stepTarget_.length];
+		int[] next = Arrays.copyOf(incomingStart_, compounds);
+		for (int step = 0; step < stepTarget_.length; step++) incomingSteps_[next[stepTarget_[step]]++] = step;
+
+		removedSteps_ = new boolean[stepTarget_.length];
+		removedCompounds_ = new boolean[compounds];
+		toTarget_ = new double[compounds];
+		distance_ = new double[compounds];
+		previousStep_ = new int[compounds];
+		heap_ = new int[compounds];
+		heapPosition_ = new int[compounds];
+		heapKey_ = new double[compounds];
+		touched_ = new int[compounds];
+		Arrays.fill(distance_, Double.POSITIVE_INFINITY);
+		Arrays.fill(previousStep_, -1);
+		Arrays.fill(heapPosition_, -1);
+	}
+
+	private void addStep(int[] next, int from, int to, int reaction, double weight) {
+		int step = next[from]++;
+		stepTarget_[step] = to;
+		stepReaction_[step] = reaction;
+		stepWeight_[step] = weight;
+	}
+
+	/**
+	 * @return 0 for compounds with the same carbon count, up to 1 when one has none, 0.5 if either count is unknown
+	 */
+	private static double carbonDifference(int a, int b) {
+		if (a < 0 || b < 0) return 0.5;
+		if (a == b) return 0;
+		return 1 - (double) Math.min(a, b) / Math.max(a, b);
+	}
+
+	/**
+	 * Find up to k of the lowest cost routes between two compounds, cheapest first.  Routes never visit a compound twice.
+	 *
+	 * @param sourceMetaboliteID Frame ID of the compound to start from
+	 * @param targetMetaboliteID Frame ID of the compound to reach
+	 * @param k Greatest number of routes
+	 * @return Routes, empty if there is none or either compound is not in the network
+	 */
+	public ArrayList<Route> findRoutes(String sourceMetaboliteID, String targetMetaboliteID, int k) {
+		ArrayList<Route> routes = new ArrayList<Route>();
+		int source = graph_.getMetaboliteNumber(sourceMetaboliteID);
+		int target = graph_.getMetaboliteNumber(targetMetaboliteID);
+		if (source == -1 || target == -1 || source == target || k <= 0) return routes;
+
+		computeDistancesToTarget(target);
+		Route shortest = shortestRoute(source, target, new int[0], 0);
+		if (shortest == null) return routes;
+		routes.add(shortest);
+
+		PriorityQueue<Route> candidates = new PriorityQueue<Route>();
+		HashSet<String> seen = new HashSet<String>();
+		seen.add(Arrays.toString(shortest.steps_));
+		while (routes.size() < k) {
+			Route previous = routes.get(routes.size() - 1);
+			for (int i = 0; i < previous.steps_.length; i++) {
+				// Deviate from the previous route at its i-th compound, without repeating the start of any route found so far
+				for (Route route : routes) {
+					if (route.steps_.length > i && sharesPrefix(route, previous, i)) removedSteps_[route.steps_[i]] = true;
+				}
+				for (int c = 0; c < i; c++) removedCompounds_[previous.compounds_[c]] = true;
+				Route candidate = shortestRoute(previous.compounds_[i], target, previous.steps_, i);
+				for (Route route : routes) {
+					if (route.steps_.length > i) removedSteps_[route.steps_[i]] = false;
+				}
+				for (int c = 0; c < i; c++) removedCompounds_[previous.compounds_[c]] = false;
+				if (candidate != null && seen.add(Arrays.toString(candidate.steps_))) candidates.add(candidate);
+			}
+			if (candidates.isEmpty()) break;
+			routes.add(candidates.poll());
+		}
+		return routes;
+	}
+
+	private static boolean sharesPrefix(Route a, Route b, int length) {
+		for (int s = 0; s < length; s++) if (a.steps_[s] != b.steps_[s]) return false;
+		return true;
+	}
+
+	/**
+	 * Cost of the cheapest route from every compound to the target with nothing removed, by Dijkstra search backwards from the target.  It
+	 * is a lower bound on the cost once steps are removed, so it guides the searches of a query as an A* heuristic.
+	 */
+	private void computeDistancesToTarget(int target) {
+		int heapSize = 0;
+		distance_[target] = 0;
+		touch(target);
+		heapSize = push(target, 0, heapSize);
+		while (heapSize > 0) {
+			int compound = heap_[0];
+			heapSize = pop(heapSize);
+			if (excluded_[compound] && compound != target) continue;
+			for (int i = incomingStart_[compound]; i < incomingStart_[compound + 1]; i++) {
+				int step = incomingSteps_[i];
+				int previous = stepSource(step);
+				double distance = distance_[compound] + stepWeight_[step];
+				if (distance < distance_[previous]) {
+					if (distance_[previous] == Double.POSITIVE_INFINITY) touch(previous);
+					distance_[previous] = distance;
+					heapSize = update(previous, distance, heapSize);
+				}
+			}
+		}
+		System.arraycopy(distance_, 0, toTarget_, 0, distance_.length);
+		reset();
+	}
+
+	/**
+	 * A* search from a spur compound to the target, joined to the first rootLength steps of a root route.
+	 *
+	 * @return Joined route, or null if the target cannot be reached
+	 */
+	private Route shortestRoute(int spur, int target, int[] rootSteps, int rootLength) {
+		if (toTarget_[spur] == Double.POSITIVE_INFINITY) return null;
+		int heapSize = 0;
+		distance_[spur] = 0;
+		touch(spur);
+		heapSize = push(spur, toTarget_[spur], heapSize);
+		boolean found = false;
+		while (heapSize > 0) {
+			int compound = heap_[0];
+			heapSize = pop(heapSize);
+			if (compound == target) {
+				found = true;
+				break;
+			}
+			for (int s = stepStart_[compound]; s < stepStart_[compound + 1]; s++) {
+				int next = stepTarget_[s];
+				if (removedSteps_[s] || removedCompounds_[next] || toTarget_[next] == Double.POSITIVE_INFINITY || (excluded_[next] && next != target)) continue;
+				double distance = distance_[compound] + stepWeight_[s];
+				if (distance < distance_[next]) {
+					if (distance_[next] == Double.POSITIVE_INFINITY) touch(next);
+					distance_[next] = distance;
+					previousStep_[next] = s;
+					heapSize = update(next, distance + toTarget_[next], heapSize);
+				}
+			}
+		}
+		Route route = null;
+		if (found) {
+			// Walk back from the target
+			int spurLength = 0;
+			for (int c = target; c != spur; c = stepSource(previousStep_[c])) spurLength++;
+			int[] steps = new int[rootLength + spurLength];
+			System.arraycopy(rootSteps, 0, steps, 0, rootLength);
+			int position = steps.length;
+			for (int c = target; c != spur; c = stepSource(previousStep_[c])) steps[--position] = previousStep_[c];
+			route = new Route(steps);
+		}
+		reset();
+		return route;
+	}
+
+	private void touch(int compound) {
+		touched_[touchedCount_++] = compound;
+	}
+
+	/**
+	 * Clear the search state of every compound touched since the last reset.
+	 */
+	private void reset() {
+		for (int t = 0; t < touchedCount_; t++) {
+			int compound = touched_[t];
+			distance_[compound] = Double.POSITIVE_INFINITY;
+			previousStep_[compound] = -1;
+			heapPosition_[compound] = -1;
+		}
+		touchedCount_ = 0;
+	}
+
+	/**
+	 * Compound a step starts from, by binary search of the step offsets.
+	 */
+	private int stepSource(int step) {
+		int low = 0;
+		int high = stepStart_.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (stepStart_[middle] <= step) low = middle;
+			else high = middle - 1;
+		}
+		return low;
+	}
+
+	// Binary heap of compounds keyed on heapKey_. A popped compound has position -2 and is not pushed again
+	private int push(int compound, double key, int heapSize) {
+		heap_[heapSize] = compound;
+		heapKey_[compound] = key;
+		heapPosition_[compound] = heapSize;
+		siftUp(heapSize);
+		return heapSize + 1;
+	}
+
+	private int update(int compound, double key, int heapSize) {
+		if (heapPosition_[compound] == -1) return push(compound, key, heapSize);
+		if (heapPosition_[compound] >= 0) {
+			heapKey_[compound] = key;
+			siftUp(heapPosition_[compound]);
+		}
+		return heapSize;
+	}
+
+	private int pop(int heapSize) {
+		heapPosition_[heap_[0]] = -2;
+		heapSize--;
+		if (heapSize > 0) {
+			heap_[0] = heap_[heapSize];
+			heapPosition_[heap_[0]] = 0;
+			siftDown(0, heapSize);
+		}
+		return heapSize;
+	}
+
+	private void siftUp(int position) {
+		int compound = heap_[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (heapKey_[heap_[parent]] <= heapKey_[compound]) break;
+			heap_[position] = heap_[parent];
+			heapPosition_[heap_[position]] = position;
+			position = parent;
+		}
+		heap_[position] = compound;
+		heapPosition_[compound] = position;
+	}
+
+	private void siftDown(int position, int heapSize) {
+		int compound = heap_[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heapKey_[heap_[child + 1]] < heapKey_[heap_[child]]) child++;
+			if (heapKey_[heap_[child]] >= heapKey_[compound]) break;
+			heap_[position] = heap_[child];
+			heapPosition_[heap_[position]] = position;
+			position = child;
+		}
+		heap_[position] = compound;
+		heapPosition_[compound] = position;
+	}
+
+
+	// Getters and Setters
+	public NetworkGraph getGraph() {
+		return graph_;
+	}
+
+	// Internal Classes
+	/**
+	 * A route between two compounds, as the steps taken.  Each step is one reaction from one compound to the next.
+	 */
+	public class Route implements Comparable<Route> {
+		private int[] steps_;
+		private int[] compounds_;
+		private double cost_;
+
+		private Route(int[] steps) {
+			this.steps_ = steps;
+			this.compounds_ = new int[steps.length + 1];
+			this.cost_ = 0;
+			for (int s = 0; s < steps.length; s++) {
+				compounds_[s] = stepSource(steps[s]);
+				cost_ += stepWeight_[steps[s]];
+			}
+			compounds_[steps.length] = steps.length == 0 ? -1 : stepTarget_[steps[steps.length - 1]];
+		}
+
+		public int compareTo(Route other) {
+			if (cost_ != other.cost_) return cost_ < other.cost_ ? -1 : 1;
+			return steps_.length - other.steps_.length;
+		}
+
+		public double getCost() {
+			return cost_;
+		}
+
+		/**
+		 * @return Frame IDs of the compounds along the route, from start to end
+		 */
+		public ArrayList<String> getMetaboliteIDs() {
+			ArrayList<String> metaboliteIDs = new ArrayList<String>();
+			for (int compound : compounds_) metaboliteIDs.add(graph_.getMetaboliteID(compound));
+			return metaboliteIDs;
+		}
+
+		/**
+		 * @return Reactions taken, one per step
+		 */
+		public ArrayList<AbstractReactionInstance> getReactions() {
+			ArrayList<AbstractReactionInstance> reactions = new ArrayList<AbstractReactionInstance>();
+			for (int step : steps_) reactions.add(graph_.getReaction(stepReaction_[step]));
+			return reactions;
+		}
+
+		/**
+		 * @return The route as "A -[reaction]-> B -[reaction]-> C"
+		 */
+		@Override
+		public String toString() {
+			String route = graph_.getMetaboliteID(compounds_[0]);
+			for (int s = 0; s < steps_.length; s++) {
+				route += " -[" + graph_.getReaction(stepReaction_[steps_[s]]).generateReactionID() + "]-> " + graph_.getMetaboliteID(compounds_[s + 1]);
+			}
+			return route;
+		}
+	}
+}
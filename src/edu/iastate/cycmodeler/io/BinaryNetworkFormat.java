@@ -0,0 +1,256 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Constants and shared helpers for the binary reaction network format written by BinaryNetworkWriter and read by MappedReactionNetwork.
+ *
+ * All values are big-endian.  The file starts with a fixed header:
+ * <pre>
+ *   int magic ("CMNB")    int version
+ *   int stringCount       int compartmentCount    int speciesCount    int reactionCount    int nonZeroCount    int ruleCodeLength
+ *   int[SECTION_COUNT]    absolute offset of each section, in the order of the SECTION_ constants
+ * </pre>
+ * followed by the sections, each aligned to 8 bytes:
+ * <pre>
+ *   STRING_OFFSETS  int[stringCount + 1]      start of each string in STRING_DATA, the last entry is the length of STRING_DATA
+ *   STRING_DATA     byte[]                    UTF-8 string pool. String 0 is the empty string
+ *   COMPARTMENTS    int[compartmentCount]     string index of each compartment name
+ *   SPECIES         int[speciesCount][6]      species ID, metabolite frame ID, common name, compartment index, chemical formula, Kegg ID
+ *   REACTIONS       int[reactionCount][4]     reaction ID, name, location (-1 if none), reaction type
+ *   COL_PTR         int[reactionCount + 1]    compressed sparse column stoichiometry, see below
+ *   ROW_IDX         int[nonZeroCount]
+ *   VALUES          double[nonZeroCount]
+ *   LOWER_BOUNDS    double[reactionCount]
+ *   UPPER_BOUNDS    double[reactionCount]
+ *   FLAGS           byte[reactionCount]       FLAG_REVERSIBLE
+ *   RULE_PTR        int[reactionCount + 1]    start of each gene rule in RULE_CODE
+ *   RULE_CODE       byte[ruleCodeLength]      gene rules as postfix bytecode, see compileGeneRule
+ * </pre>
+ * The stoichiometry keeps the sides of a reaction apart: each column holds the reactants as negative entries, then the products as positive
+ * entries, each side by species index.  A species on both sides of a reaction therefore has two entries in the column, so the reaction is
+ * read back as it was written.  The net stoichiometric matrix is the sum of the entries of each species.  Version 1 files held the net
+ * matrix, one entry per species, and are still read.
+ *
+ * Readers must reject files with a different magic number or a newer version.
+ *
+ * @author Jesse Walsh
+ */
+public class BinaryNetworkFormat {
+	public static final int MAGIC = 0x434D4E42;
+	public static final int VERSION = 2;
+	public static final String FILE_SUFFIX = ".cmnb";
+
+	public static final int SECTION_STRING_OFFSETS = 0;
+	public static final int SECTION_STRING_DATA = 1;
+	public static final int SECTION_COMPARTMENTS = 2;
+	public static final int SECTION_SPECIES = 3;
+	public static final int SECTION_REACTIONS = 4;
+	public static final int SECTION_COL_PTR = 5;
+	public static final int SECTION_ROW_IDX = 6;
+	public static final int SECTION_VALUES = 7;
+	public static final int SECTION_LOWER_BOUNDS = 8;
+	public static final int SECTION_UPPER_BOUNDS = 9;
+	public static final int SECTION_FLAGS = 10;
+	public static final int SECTION_RULE_PTR = 11;
+	public static final int SECTION_RULE_CODE = 12;
+	public static final int SECTION_COUNT = 13;
+
+	public static final int HEADER_SIZE = 8 * 4 + SECTION_COUNT * 4;
+	public static final int SPECIES_RECORD_INTS = 6;
+	public static final int REACTION_RECORD_INTS = 4;
+
+	public static final byte FLAG_REVERSIBLE = 0x01;
+
+	// Gene rule opcodes
+	public static final byte OP_GENE = 0x01;
+	public static final byte OP_AND = 0x02;
+	public static final byte OP_OR = 0x03;
+	public static final byte OP_GROUP = 0x04;
+
+	/**
+	 * Compile a gene rule such as "(b0001 and b0002) or (b0003)" into postfix bytecode.  OP_GENE is followed by the 4 byte string index
+	 * of the gene, OP_AND and OP_OR combine the top two operands, and OP_GROUP marks a parenthesized operand so that the rule text can be
+	 * restored exactly.  An empty rule compiles to no bytes.
+	 *
+	 * @param rule Gene rule using "and", "or" and parentheses
+	 * @param pool String pool to add gene IDs to
+	 * @return Rule bytecode
+	 * @throws IllegalArgumentException if the rule cannot be parsed
+	 */
+	public static byte[] compileGeneRule(String rule, StringPool pool) {
+		if (rule == null || rule.trim().length() == 0) return new byte[0];
+		RuleParser parser = new RuleParser(tokenize(rule), pool);
+		parser.parseOr();
+		if (parser.position_ != parser.tokens_.size()) throw new IllegalArgumentException("Unexpected token in gene rule : " + rule);
+		ByteBuffer code = ByteBuffer.allocate(parser.code_.size());
+		for (Byte b : parser.code_) code.put(b);
+		return code.array();
+	}
+
+	/**
+	 * Restore the text of a gene rule from its bytecode.
+	 *
+	 * @param code Buffer holding the bytecode
+	 * @param start Absolute position of the first byte of the rule
+	 * @param end Absolute position after the last byte of the rule
+	 * @param strings Used to look up gene IDs by string index
+	 * @return Gene rule text, the empty string for an empty rule
+	 */
+	public static String decompileGeneRule(ByteBuffer code, int start, int end, StringTable strings) {
+		ArrayList<String> stack = new ArrayList<String>();
+		int position = start;
+		while (position < end) {
+			byte op = code.get(position++);
+			switch (op) {
+				case OP_GENE: {
+					stack.add(strings.getString(code.getInt(position)));
+					position += 4;
+				} break;
+				case OP_AND:
+				case OP_OR: {
+					String right = stack.remove(stack.size() - 1);
+					String left = stack.remove(stack.size() - 1);
+					stack.add(left + (op == OP_AND ? " and " : " or ") + right);
+				} break;
+				case OP_GROUP: {
+					stack.add("(" + stack.remove(stack.size() - 1) + ")");
+				} break;
+				default: throw new IllegalArgumentException("Unknown gene rule opcode : " + op);
+			}
+		}
+		if (stack.size() == 0) return "";
+		return stack.get(0);
+	}
+
+	private static ArrayList<String> tokenize(String rule) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		String token = "";
+		for (int i = 0; i < rule.length(); i++) {
+			char c = rule.charAt(i);
+			if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+				if (token.length() > 0) tokens.add(token);
+				token = "";
+				if (!Character.isWhitespace(c)) tokens.add(String.valueOf(c));
+			} else token += c;
+		}
+		if (token.length() > 0) tokens.add(token);
+		return tokens;
+	}
+
+	/**
+	 * Encode a string as UTF-8.
+	 */
+	public static byte[] toBytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Round a section offset up to the 8 byte alignment used by the format.
+	 */
+	public static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+
+	// Internal Classes
+	/**
+	 * Gives access to strings by index, implemented by the string pool on the writing side and by the mapped file on the reading side.
+	 */
+	public interface StringTable {
+		public String getString(int index);
+	}
+
+	/**
+	 * Pool of unique strings, each identified by the order in which it was first added.  The empty string is always index 0 and null is
+	 * stored as -1.
+	 */
+	public static class StringPool implements StringTable {
+		private HashMap<String, Integer> index_ = new HashMap<String, Integer>();
+		private ArrayList<String> strings_ = new ArrayList<String>();
+
+		public StringPool() {
+			add("");
+		}
+
+		public int add(String value) {
+			if (value == null) return -1;
+			Integer index = index_.get(value);
+			if (index == null) {
+				index = strings_.size();
+				strings_.add(value);
+				index_.put(value, index);
+			}
+			return index;
+		}
+
+		public String getString(int index) {
+			if (index < 0) return null;
+			return strings_.get(index);
+		}
+
+		public int size() {
+			return strings_.size();
+		}
+	}
+
+	/**
+	 * Recursive descent parser for gene rules, emitting postfix bytecode.  "and" binds tighter than "or".
+	 */
+	private static class RuleParser {
+		private ArrayList<String> tokens_;
+		private int position_;
+		private StringPool pool_;
+		private ArrayList<Byte> code_ = new ArrayList<Byte>();
+
+		public RuleParser(ArrayList<String> tokens, StringPool pool) {
+			this.tokens_ = tokens;
+			this.position_ = 0;
+			this.pool_ = pool;
+		}
+
+		private void parseOr() {
+			parseAnd();
+			while (position_ < tokens_.size() && tokens_.get(position_).equalsIgnoreCase("or")) {
+				position_++;
+				parseAnd();
+				code_.add(OP_OR);
+			}
+		}
+
+		private void parseAnd() {
+			parseOperand();
+			while (position_ < tokens_.size() && tokens_.get(position_).equalsIgnoreCase("and")) {
+				position_++;
+				parseOperand();
+				code_.add(OP_AND);
+			}
+		}
+
+		private void parseOperand() {
+			if (position_ >= tokens_.size()) throw new IllegalArgumentException("Gene rule ends unexpectedly");
+			String token = tokens_.get(position_++);
+			if (token.equals("(")) {
+				parseOr();
+				if (position_ >= tokens_.size() || !tokens_.get(position_++).equals(")")) throw new IllegalArgumentException("Unbalanced parentheses in gene rule");
+				code_.add(OP_GROUP);
+			} else if (token.equals(")") || token.equalsIgnoreCase("and") || token.equalsIgnoreCase("or")) {
+				throw new IllegalArgumentException("Unexpected token in gene rule : " + token);
+			} else {
+				int index = pool_.add(token);
+				code_.add(OP_GENE);
+				code_.add((byte) (index >>> 24));
+				code_.add((byte) (index >>> 16));
+				code_.add((byte) (index >>> 8));
+				code_.add((byte) index);
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Writes a ReactionNetwork in the binary format described in BinaryNetworkFormat.  Species common names and gene rules are resolved
+ * from the database while writing, so the connection must be open for networks built from the database.
+ *
+ * @author Jesse Walsh
+ */
+public class BinaryNetworkWriter {
+
+	/**
+	 * Write the network to a file in binary network format.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param fileName Path of the output file
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, String fileName) throws IOException {
+		ByteBuffer buffer = encode(reactionNetwork);
+		FileOutputStream out = new FileOutputStream(fileName);
+		try {
+			FileChannel channel = out.getChannel();
+			while (buffer.hasRemaining()) channel.write(buffer);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Encode the network in binary network format.
+	 *
+	 * @param reactionNetwork Network to encode
+	 * @return Buffer holding the complete file, positioned at 0
+	 */
+	public ByteBuffer encode(ReactionNetwork reactionNetwork) {
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		StoichiometricMatrix matrix = StoichiometricMatrix.fromNetwork(reactionNetwork);
+		BinaryNetworkFormat.StringPool pool = new BinaryNetworkFormat.StringPool();
+
+		// One representative metabolite for each species, for the species table
+		HashMap<String, MetaboliteInstance> speciesMetabolites = new HashMap<String, MetaboliteInstance>();
+		for (MetaboliteInstance metabolite : reactionNetwork.getOrderedSpecies()) speciesMetabolites.put(metabolite.generateSpeciesID(), metabolite);
+
+		// Species and compartments
+		String[] speciesIDs = matrix.getSpeciesIDs();
+		ArrayList<String> compartments = new ArrayList<String>();
+		HashMap<String, Integer> compartmentIndex = new HashMap<String, Integer>();
+		int[] speciesTable = new int[speciesIDs.length * BinaryNetworkFormat.SPECIES_RECORD_INTS];
+		for (int i = 0; i < speciesIDs.length; i++) {
+			MetaboliteInstance metabolite = speciesMetabolites.get(speciesIDs[i]);
+			Integer compartment = compartmentIndex.get(metabolite.compartment_);
+			if (compartment == null) {
+				compartment = compartments.size();
+				compartments.add(metabolite.compartment_);
+				compartmentIndex.put(metabolite.compartment_, compartment);
+			}
+			String commonName = metabolite.getMetaboliteID();
+			try {
+				commonName = metabolite.getMetaboliteFrame().getCommonName();
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+			int record = i * BinaryNetworkFormat.SPECIES_RECORD_INTS;
+			speciesTable[record] = pool.add(speciesIDs[i]);
+			speciesTable[record + 1] = pool.add(metabolite.getMetaboliteID());
+			speciesTable[record + 2] = pool.add(commonName);
+			speciesTable[record + 3] = compartment;
+			speciesTable[record + 4] = pool.add(metabolite.chemicalFormula_);
+			speciesTable[record + 5] = pool.add(metabolite.keggID_);
+		}
+		int[] compartmentTable = new int[compartments.size()];
+		for (int c = 0; c < compartments.size(); c++) compartmentTable[c] = pool.add(compartments.get(c));
+
+		// Reactions and gene rules
+		String[] reactionIDs = matrix.getReactionIDs();
+		int[] reactionTable = new int[reactions.size() * BinaryNetworkFormat.REACTION_RECORD_INTS];
+		byte[] flags = new byte[reactions.size()];
+		int[] rulePtr = new int[reactions.size() + 1];
+		ArrayList<byte[]> rules = new ArrayList<byte[]>();
+		for (int j = 0; j < reactions.size(); j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			int record = j * BinaryNetworkFormat.REACTION_RECORD_INTS;
+			reactionTable[record] = pool.add(reactionIDs[j]);
+			reactionTable[record + 1] = pool.add(reaction.name_);
+			reactionTable[record + 2] = pool.add(reaction.reactionLocation_);
+			reactionTable[record + 3] = pool.add(reaction.getReactionType());
+			if (reaction.reversible_) flags[j] |= BinaryNetworkFormat.FLAG_REVERSIBLE;
+
+			byte[] rule = new byte[0];
+			try {
+				rule = BinaryNetworkFormat.compileGeneRule(reaction.getGeneProteinReactionRule(), pool);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Could not compile gene rule of reaction " + reactionIDs[j] + " : " + e.getMessage());
+			}
+			rules.add(rule);
+			rulePtr[j + 1] = rulePtr[j] + rule.length;
+		}
+
+		// String pool, now that every string has been added
+		byte[][] strings = new byte[pool.size()][];
+		int[] stringOffsets = new int[pool.size() + 1];
+		for (int s = 0; s < pool.size(); s++) {
+			strings[s] = BinaryNetworkFormat.toBytes(pool.getString(s));
+			stringOffsets[s + 1] = stringOffsets[s] + strings[s].length;
+		}
+
+		// Stoichiometry, reactants and products as separate entries
+		int n = reactions.size();
+		int[] colPtr = new int[n + 1];
+		ArrayList<Integer> rowIdx = new ArrayList<Integer>();
+		ArrayList<Double> values = new ArrayList<Double>();
+		for (int j = 0; j < n; j++) {
+			addEntries(rowIdx, values, matrix, reactions.get(j).getOrderedReactants(), -1);
+			addEntries(rowIdx, values, matrix, reactions.get(j).getOrderedProducts(), 1);
+			colPtr[j + 1] = rowIdx.size();
+		}
+
+		// Section layout
+		int nnz = rowIdx.size();
+		int[] sectionSizes = new int[BinaryNetworkFormat.SECTION_COUNT];
+		sectionSizes[BinaryNetworkFormat.SECTION_STRING_OFFSETS] = stringOffsets.length * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_STRING_DATA] = stringOffsets[pool.size()];
+		sectionSizes[BinaryNetworkFormat.SECTION_COMPARTMENTS] = compartmentTable.length * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_SPECIES] = speciesTable.length * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_REACTIONS] = reactionTable.length * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_COL_PTR] = (n + 1) * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_ROW_IDX] = nnz * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_VALUES] = nnz * 8;
+		sectionSizes[BinaryNetworkFormat.SECTION_LOWER_BOUNDS] = n * 8;
+		sectionSizes[BinaryNetworkFormat.SECTION_UPPER_BOUNDS] = n * 8;
+		sectionSizes[BinaryNetworkFormat.SECTION_FLAGS] = n;
+		sectionSizes[BinaryNetworkFormat.SECTION_RULE_PTR] = (n + 1) * 4;
+		sectionSizes[BinaryNetworkFormat.SECTION_RULE_CODE] = rulePtr[n];
+
+		int[] sectionOffsets = new int[BinaryNetworkFormat.SECTION_COUNT];
+		int offset = BinaryNetworkFormat.align(BinaryNetworkFormat.HEADER_SIZE);
+		for (int section = 0; section < BinaryNetworkFormat.SECTION_COUNT; section++) {
+			sectionOffsets[section] = offset;
+			offset = BinaryNetworkFormat.align(offset + sectionSizes[section]);
+		}
+
+		// Header
+		ByteBuffer buffer = ByteBuffer.allocate(offset);
+		buffer.putInt(BinaryNetworkFormat.MAGIC);
+		buffer.putInt(BinaryNetworkFormat.VERSION);
+		buffer.putInt(pool.size());
+		buffer.putInt(compartmentTable.length);
+		buffer.putInt(speciesIDs.length);
+		buffer.putInt(n);
+		buffer.putInt(nnz);
+		buffer.putInt(rulePtr[n]);
+		for (int section = 0; section < BinaryNetworkFormat.SECTION_COUNT; section++) buffer.putInt(sectionOffsets[section]);
+
+		// Sections
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_STRING_OFFSETS]);
+		for (int value : stringOffsets) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_STRING_DATA]);
+		for (byte[] string : strings) buffer.put(string);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_COMPARTMENTS]);
+		for (int value : compartmentTable) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_SPECIES]);
+		for (int value : speciesTable) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_REACTIONS]);
+		for (int value : reactionTable) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_COL_PTR]);
+		for (int value : colPtr) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_ROW_IDX]);
+		for (int value : rowIdx) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_VALUES]);
+		for (double value : values) buffer.putDouble(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_LOWER_BOUNDS]);
+		for (double value : matrix.getLowerBounds()) buffer.putDouble(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_UPPER_BOUNDS]);
+		for (double value : matrix.getUpperBounds()) buffer.putDouble(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_FLAGS]);
+		buffer.put(flags);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_RULE_PTR]);
+		for (int value : rulePtr) buffer.putInt(value);
+		buffer.position(sectionOffsets[BinaryNetworkFormat.SECTION_RULE_CODE]);
+		for (byte[] rule : rules) buffer.put(rule);
+
+		buffer.position(0);
+		return buffer;
+	}
+
+	/**
+	 * Add the entries of one side of a reaction, ordered by species index.
+	 */
+	private static void addEntries(ArrayList<Integer> rowIdx, ArrayList<Double> values, StoichiometricMatrix matrix, ArrayList<MetaboliteInstance> metabolites, int sign) {
+		TreeMap<Integer, Double> side = new TreeMap<Integer, Double>();
+		for (MetaboliteInstance metabolite : metabolites) {
+			int row = matrix.getSpeciesIndex(metabolite.generateSpeciesID());
+			Double current = side.get(row);
+			side.put(row, (current == null ? 0 : current) + sign * metabolite.coefficient_);
+		}
+		for (Integer row : side.keySet()) {
+			rowIdx.add(row);
+			values.add(side.get(row));
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+import edu.iastate.cycmodeler.analysis.FluxBalanceAnalysis;
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Writes a ReactionNetwork as a COBRA JSON model, the format read by cobrapy's load_json_model and by Escher.  Each metabolite and reaction
+ * is written through a buffered writer as soon as it is visited rather than building the JSON document first, but the ordered reaction and
+ * species lists, the reaction IDs and the gene and compartment tables are held while writing, so memory still grows with the network.  The
+ * ObjectiveReaction, if one is set, gets an objective coefficient of 1.
+ *
+ * @author Jesse Walsh
+ */
+public class CobraJsonWriter {
+	public static final String FILE_SUFFIX = ".json";
+
+	/**
+	 * Write the network to a file as a COBRA JSON model.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param fileName Path of the output file
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+		try {
+			write(reactionNetwork, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the network to a stream as a COBRA JSON model.  The stream is flushed but not closed.
+	 */
+	public void write(ReactionNetwork reactionNetwork, OutputStream stream) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), 1 << 16);
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactions);
+		LinkedHashMap<String, String> compartments = new LinkedHashMap<String, String>();
+		TreeSet<String> genes = new TreeSet<String>();
+		String objectiveID = CycModeler.getParameters().ObjectiveReaction;
+		int objective = objectiveID.length() > 0 ? FluxBalanceAnalysis.findReaction(reactions, reactionIDs, objectiveID) : -1;
+
+		out.write("{\n");
+		out.write("\"id\": " + quote(CycModeler.getParameters().ModelName) + ",\n");
+		out.write("\"name\": " + quote("Generated from BioCyc Pathway/Genome Database") + ",\n");
+		out.write("\"version\": \"1\",\n");
+
+		// Metabolites
+		out.write("\"metabolites\": [");
+		boolean first = true;
+		for (MetaboliteInstance metabolite : reactionNetwork.getOrderedSpecies()) {
+			String compartmentID = CycModeler.convertToSBMLSafe(metabolite.compartment_);
+			if (!compartments.containsKey(compartmentID)) compartments.put(compartmentID, metabolite.compartment_);
+			String name = metabolite.getMetaboliteID();
+			try {
+				name = metabolite.getMetaboliteFrame().getCommonName();
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+
+			out.write(first ? "\n" : ",\n");
+			first = false;
+			out.write("{\"id\": " + quote(metabolite.generateSpeciesID()));
+			out.write(", \"name\": " + quote(name));
+			out.write(", \"compartment\": " + quote(compartmentID));
+			out.write(", \"formula\": " + quote(metabolite.chemicalFormula_));
+			LinkedHashMap<String, String> annotation = new LinkedHashMap<String, String>();
+			annotation.put("biocyc", quote(metabolite.getMetaboliteID()));
+			if (metabolite.keggID_ != null && metabolite.keggID_.length() > 0) annotation.put("kegg.compound", quote(metabolite.keggID_));
+			out.write(", \"annotation\": ");
+			writeObject(out, annotation);
+			out.write("}");
+		}
+		out.write("\n],\n");
+
+		// Reactions
+		out.write("\"reactions\": [");
+		for (int j = 0; j < reactions.size(); j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			String geneRule = reaction.getGeneProteinReactionRule();
+			if (geneRule == null) geneRule = "";
+			addGenes(geneRule, genes);
+
+			out.write(j == 0 ? "\n" : ",\n");
+			out.write("{\"id\": " + quote(reactionIDs.get(j)));
+			out.write(", \"name\": " + quote(reaction.name_));
+			out.write(", \"metabolites\": ");
+			writeObject(out, createStoichiometry(reaction));
+			out.write(", \"lower_bound\": " + formatNumber(reaction.getLowerBound()));
+			out.write(", \"upper_bound\": " + formatNumber(reaction.getUpperBound()));
+			out.write(", \"gene_reaction_rule\": " + quote(geneRule));
+			out.write(", \"objective_coefficient\": " + (j == objective ? "1.0" : "0.0"));
+			out.write("}");
+		}
+		out.write("\n],\n");
+
+		// Genes
+		out.write("\"genes\": [");
+		first = true;
+		for (String gene : genes) {
+			out.write(first ? "\n" : ",\n");
+			first = false;
+			out.write("{\"id\": " + quote(gene) + ", \"name\": " + quote(gene) + "}");
+		}
+		out.write("\n],\n");
+
+		// Compartments
+		out.write("\"compartments\": {");
+		first = true;
+		for (String compartmentID : compartments.keySet()) {
+			out.write((first ? "\n" : ",\n") + quote(compartmentID) + ": " + quote(compartments.get(compartmentID)));
+			first = false;
+		}
+		out.write("\n}\n");
+		out.write("}\n");
+		out.flush();
+	}
+
+	/**
+	 * Coefficients of a reaction by species ID.  COBRA models hold one coefficient per metabolite, so a species on both sides of the
+	 * reaction gets its net coefficient, and is left out if that is zero.
+	 *
+	 * @return Formatted coefficients by species ID, reactants first
+	 */
+	private static LinkedHashMap<String, String> createStoichiometry(AbstractReactionInstance reaction) {
+		LinkedHashMap<String, Double> coefficients = new LinkedHashMap<String, Double>();
+		for (MetaboliteInstance reactant : reaction.getOrderedReactants()) addCoefficient(coefficients, reactant.generateSpeciesID(), -reactant.coefficient_);
+		for (MetaboliteInstance product : reaction.getOrderedProducts()) addCoefficient(coefficients, product.generateSpeciesID(), product.coefficient_);
+		LinkedHashMap<String, String> stoichiometry = new LinkedHashMap<String, String>();
+		for (String speciesID : coefficients.keySet()) {
+			if (coefficients.get(speciesID) != 0) stoichiometry.put(speciesID, formatNumber(coefficients.get(speciesID)));
+		}
+		return stoichiometry;
+	}
+
+	private static void addCoefficient(LinkedHashMap<String, Double> coefficients, String speciesID, double coefficient) {
+		Double current = coefficients.get(speciesID);
+		coefficients.put(speciesID, current == null ? coefficient : current + coefficient);
+	}
+
+	/**
+	 * Write a JSON object from values which are already JSON.  Keys are unique, as they come from a map.
+	 */
+	private static void writeObject(Writer out, LinkedHashMap<String, String> values) throws IOException {
+		out.write("{");
+		boolean first = true;
+		for (String key : values.keySet()) {
+			out.write((first ? "" : ", ") + quote(key) + ": " + values.get(key));
+			first = false;
+		}
+		out.write("}");
+	}
+
+	private static void addGenes(String geneRule, TreeSet<String> genes) {
+		for (String token : geneRule.replace("(", " ").replace(")", " ").split("\\s+")) {
+			if (token.length() == 0 || token.equalsIgnoreCase("and") || token.equalsIgnoreCase("or")) continue;
+			genes.add(token);
+		}
+	}
+
+	/**
+	 * Format a number as a JSON number.  Whole numbers keep a trailing ".0", as cobrapy writes them.
+	 */
+	public static String formatNumber(double value) {
+		if (Double.isInfinite(value)) return value > 0 ? "1000000000.0" : "-1000000000.0";
+		return Double.toString(value);
+	}
+
+	/**
+	 * Quote and escape a string as a JSON string literal.
+	 */
+	public static String quote(String value) {
+		if (value == null) return "null";
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': quoted.append("\\\""); break;
+				case '\\': quoted.append("\\\\"); break;
+				case '\n': quoted.append("\\n"); break;
+				case '\r': quoted.append("\\r"); break;
+				case '\t': quoted.append("\\t"); break;
+				default: {
+					if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+					else quoted.append(c);
+				} break;
+			}
+		}
+		quoted.append('"');
+		return quoted.toString();
+	}
+}
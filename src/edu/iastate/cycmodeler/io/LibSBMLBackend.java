@@ -0,0 +1,349 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.sbml.libsbml.*;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * SBML backend which builds an SBMLDocument with libSBML and writes it out.  libSBML is a native library, loaded by loadLibrary the first
+ * time this backend is used rather than when the application starts, so runs using the pure Java SBMLStreamWriter work on hosts without
+ * the libSBML shared libraries.  Call loadLibrary before any other method of this class.
+ * 
+ * @author Jesse Walsh
+ */
+public class LibSBMLBackend implements SBMLBackend {
+	private static Boolean libraryLoaded_ = null;
+	
+	private String modelID_;
+	private int level_;
+	private int version_;
+	
+	/**
+	 * @param modelID ID of the written model
+	 * @param level SBML level of the written model
+	 * @param version SBML version of the written model
+	 */
+	public LibSBMLBackend(String modelID, int level, int version) {
+		this.modelID_ = modelID;
+		this.level_ = level;
+		this.version_ = version;
+	}
+	
+	/**
+	 * Load the libSBML native library and check that the libSBML jar is on the classpath.  Only the first call tries to load it, later calls
+	 * return the same result.
+	 * 
+	 * @return True if libSBML can be used
+	 */
+	public static synchronized boolean loadLibrary() {
+		if (libraryLoaded_ != null) return libraryLoaded_;
+		libraryLoaded_ = false;
+		
+	    String varname;
+	    String shlibname;
+	
+	    if (System.getProperty("mrj.version") != null) {
+	      varname = "DYLD_LIBRARY_PATH";    // We're on a Mac.
+	      shlibname = "libsbmlj.jnilib and/or libsbml.dylib";
+	    }
+	    else {
+	      varname = "LD_LIBRARY_PATH";      // We're not on a Mac.
+	      shlibname = "libsbmlj.so and/or libsbml.so";
+	    }
+	
+	    try {
+	      System.loadLibrary("sbmlj");
+	      // For extra safety, check that the jar file is in the classpath.
+	      Class.forName("org.sbml.libsbml.libsbml");
+	      libraryLoaded_ = true;
+	    }
+	    catch (UnsatisfiedLinkError e) {
+	      System.err.println("Error encountered while attempting to load libSBML:");
+	      e.printStackTrace();
+	      System.err.println("Please check the value of your " + varname +
+				 " environment variable and/or" +
+	                         " your 'java.library.path' system property" +
+	                         " (depending on which one you are using) to" +
+	                         " make sure it lists all the directories needed to" +
+	                         " find the " + shlibname + " library file and the" +
+	                         " libraries it depends upon (e.g., the XML parser).");
+	    }
+	    catch (ClassNotFoundException e) {
+	      e.printStackTrace();
+	      System.err.println("Error: unable to load the file libsbmlj.jar." +
+	                         " It is likely your -classpath option and/or" +
+	                         " CLASSPATH environment variable do not" +
+	                         " include the path to the file libsbmlj.jar.");
+	    }
+	    catch (SecurityException e) {
+	      System.err.println("Error encountered while attempting to load libSBML:");
+	      e.printStackTrace();
+	      System.err.println("Could not load the libSBML library files due to a"+
+	                         " security exception.\n");
+	    }
+	    return libraryLoaded_;
+	}
+	
+	/**
+	 * Write the network as an SBML model to a stream.  The libSBML Java binding can only write to a file or a string, so libSBML writes the
+	 * document to a temporary file which is then copied to the stream, rather than holding the whole model as one Java string.  The stream
+	 * is not closed.
+	 */
+	public void write(ReactionNetwork reactionNetwork, OutputStream out) throws IOException {
+		File file = File.createTempFile("cycmodeler", ".xml");
+		try {
+			if (!new SBMLWriter().writeSBMLToFile(createDocument(reactionNetwork), file.getPath())) throw new IOException("libSBML could not write " + file);
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Write the network as an SBML model to a file, letting libSBML write the file.
+	 * 
+	 * @param reactionNetwork Network to write
+	 * @param fileName Path of the output file
+	 */
+	public void write(ReactionNetwork reactionNetwork, String fileName) {
+		new SBMLWriter().writeSBML(createDocument(reactionNetwork), fileName);
+	}
+	
+	/**
+	 * @return SBMLDocument holding the network
+	 */
+	public SBMLDocument createDocument(ReactionNetwork reactionNetwork) {
+		System.out.println("Initiating blank model ...");
+		SBMLDocument doc = createBlankSBMLDocument(modelID_, level_, version_);
+		System.out.println("Generating SBML model ...");
+		return generateSBMLModel(doc, reactionNetwork);
+	}
+	
+	/**
+	 * Initialize a blank SBMLDocument object with default values set.  Creates the Model object and sets
+	 * the mmol_per_gDW_per_hr UnitDefinition.
+	 * @param modelID Name of model
+	 * @param SBMLLevel Create SBMLDocument to conform to this level
+	 * @param SBMLVersion Create SBMLDocument to conform to this version
+	 * @return Initialized SBMLDocument object with a blank Model
+	 */
+	public SBMLDocument createBlankSBMLDocument(String modelID, int SBMLLevel, int SBMLVersion) {
+		SBMLDocument doc = new SBMLDocument(SBMLLevel, SBMLVersion);
+		Model model = doc.createModel(modelID);
+		model.setName("Generated from BioCyc Pathway/Genome Database");
+		
+		UnitDefinition UD = model.createUnitDefinition();
+		UD.setId("mmol_per_gDW_per_hr");
+		Unit mole = UD.createUnit();
+		mole.setKind(libsbmlConstants.UNIT_KIND_MOLE);
+		mole.setScale(-3);
+		mole.setMultiplier(1);
+		mole.setOffset(0);
+		
+		Unit gram = UD.createUnit();
+		gram.setKind(libsbmlConstants.UNIT_KIND_GRAM);
+		gram.setExponent(-1);
+		gram.setMultiplier(1);
+		gram.setOffset(0);
+		
+		Unit second = UD.createUnit();
+		second.setKind(libsbmlConstants.UNIT_KIND_SECOND);
+		second.setExponent(-1);
+		second.setMultiplier(0.00027777);
+		second.setOffset(0);
+		
+		return doc;
+	}
+	
+	/**
+	 * Populate an SBMLDocument object with reaction, metabolite, and compartments.
+	 * 
+	 * @param doc Empty SBMLDocument with initialized Model object containing only a model name and unit definitions.
+	 * 
+	 * @param reactionInstances Reactions which represent the complete reaction set for the model.
+	 * @return SBMLDocument object with poplulated model.
+	 */
+	public SBMLDocument generateSBMLModel(SBMLDocument doc, ReactionNetwork reactionNetwork) {
+		Model model = doc.getModel();
+		ArrayList<String> metabolites = new ArrayList<String>();
+		ArrayList<String> compartments = new ArrayList<String>();
+		ArrayList<AbstractReactionInstance> reactionInstances = reactionNetwork.getOrderedReactions();
+		
+		try {
+			// Create compartment list
+			for (AbstractReactionInstance reaction : reactionInstances) {
+				ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
+				reactantsProducts.addAll(reaction.getOrderedReactants());
+				reactantsProducts.addAll(reaction.getOrderedProducts());
+				for (MetaboliteInstance species : reactantsProducts) {
+					if (!compartments.contains(species.compartment_)) {
+						Compartment compartment = model.createCompartment();
+						compartment.setId(CycModeler.convertToSBMLSafe(species.compartment_));
+						compartment.setName(species.compartment_);
+//						if (compartment.setId(CycModeler.convertToSBMLSafe(species.compartment)) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//						if (compartment.setName(species.compartment) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+						compartments.add(species.compartment_);
+					}
+				}
+			}
+			
+			// Create species list
+			for (AbstractReactionInstance reaction : reactionInstances) {
+				ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
+				reactantsProducts.addAll(reaction.getOrderedReactants());
+				reactantsProducts.addAll(reaction.getOrderedProducts());
+				for (MetaboliteInstance species : reactantsProducts) {
+					if (!metabolites.contains(species.generateSpeciesID())) {
+						Species newSpecies = model.createSpecies();
+						String sid = species.generateSpeciesID();
+						newSpecies.setId(sid);
+						newSpecies.setName(species.getMetaboliteFrame().getCommonName());
+						newSpecies.setCompartment(model.getCompartment(CycModeler.convertToSBMLSafe(species.compartment_)).getId());
+						newSpecies.setBoundaryCondition(false);
+//						if (newSpecies.setId(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//						if (newSpecies.setName(species.metabolite.getCommonName()) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//						if (newSpecies.setCompartment(model.getCompartment(CycModeler.convertToSBMLSafe(species.compartment)).getId()) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//						if (newSpecies.setBoundaryCondition(false) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+						metabolites.add(sid);
+						
+						// Append Notes
+						newSpecies.appendNotes("Palsson SID : \n"); //TODO does not exist except for ecoli
+						newSpecies.appendNotes("EcoCyc Frame ID : " + species.getMetaboliteID() + "\n");
+						newSpecies.appendNotes("Chemical Formula : " + "\n");
+					}
+				}
+			}
+			
+			// Create reaction list
+			ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactionInstances);
+			for (int i = 0; i < reactionInstances.size(); i++) {
+				AbstractReactionInstance reaction = reactionInstances.get(i);
+				org.sbml.libsbml.Reaction newReaction = model.createReaction();
+				
+//				ListOfReactions listOfReactions = model.getListOfReactions();
+//				for (int i = 0; i < listOfReactions.size(); i++) {
+//					org.sbml.libsbml.Reaction rxn = listOfReactions.get(i);
+//				}
+				
+				// Duplicate IDs are already given a suffix
+				newReaction.setId(reactionIDs.get(i));
+//				if (reaction.ReactionFrame != null) newReaction.setId(reaction.generateReactionID());
+//				else if (reaction.parentReaction_ != null) newReaction.setId(reaction.generateReactionID());
+//				else newReaction.setId(reaction.generateReactionID());
+				newReaction.setName(reaction.name_);
+				newReaction.setReversible(reaction.reversible_);
+//				if (reaction.thisReactionFrame != null) {
+//					if (newReaction.setId(CycModeler.convertToSBMLSafe(reaction.thisReactionFrame.getLocalID())) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//				} else if (reaction.parentReaction != null) {
+//					if (newReaction.setId(CycModeler.convertToSBMLSafe(reaction.parentReaction.getLocalID())) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//				} else {
+//					if (newReaction.setId(CycModeler.convertToSBMLSafe(reaction.name)) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//				}
+//				if (newReaction.setName(reaction.name) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+				
+				for (MetaboliteInstance reactant : reaction.getOrderedReactants()) {
+					String sid = reactant.generateSpeciesID();
+					SpeciesReference ref = newReaction.createReactant();
+					ref.setSpecies(sid);
+					ref.setStoichiometry(reactant.coefficient_);
+//					if (ref.setSpecies(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//					if (ref.setStoichiometry(reactant.stoichiometry) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//					if (newReaction.addReactant(ref) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+				}
+				for (MetaboliteInstance product : reaction.getOrderedProducts()) {
+					String sid = product.generateSpeciesID();
+					SpeciesReference ref = newReaction.createProduct();
+					ref.setSpecies(sid);
+					ref.setStoichiometry(product.coefficient_);
+//					if (ref.setSpecies(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//					if (ref.setStoichiometry(product.stoichiometry) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+//					if (newReaction.addProduct(ref) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+				}
+				
+				// Kinetic Law
+				ASTNode math = new ASTNode();
+				math.setName("FLUX_VALUE");
+				
+				KineticLaw kl = newReaction.createKineticLaw();
+				kl.setFormula("");
+				kl.setMath(math);
+				
+				Parameter lb = kl.createParameter();
+				lb.setId("LOWER_BOUND");
+				lb.setValue(reaction.getLowerBound());
+				lb.setUnits("mmol_per_gDW_per_hr");
+				
+				Parameter ub = kl.createParameter();
+				ub.setId("UPPER_BOUND");
+				ub.setValue(reaction.getUpperBound());
+				ub.setUnits("mmol_per_gDW_per_hr");
+				
+				Parameter obj = kl.createParameter();
+				obj.setId("OBJECTIVE_COEFFICIENT");
+				obj.setValue(0);
+				
+				Parameter flux = kl.createParameter();
+				flux.setId("FLUX_VALUE");
+				flux.setValue(0);
+				flux.setUnits("mmol_per_gDW_per_hr");
+				
+				// Append Notes
+//				if (map.containsKey(reaction.name)) {
+//					newReaction.appendNotes("Palsson Reaction ID : ");
+//					for (String s : map.get(reaction.name)) newReaction.appendNotes(s + ",");
+//					newReaction.appendNotes("\n");
+//				}
+				//TODO Palsson Reaction ID does not exist except for ecoli
+				for (Map.Entry<String, String> note : SBMLStreamWriter.createReactionNotes(reaction).entrySet()) {
+					newReaction.appendNotes(note.getKey() + " : " + note.getValue() + "\n");
+				}
+//				if (reaction.ReactionFrame != null) newReaction.appendNotes("Gene Rule : " + reaction.reactionGeneRule(false));//reactionGeneRule(reaction.thisReactionFrame.getLocalID(), false));
+//				else if (reaction.parentReaction_ != null) newReaction.appendNotes("Gene Rule : " + reaction.reactionGeneRule(false));//reaction.reactionGeneRule(reaction.parentReaction.getLocalID(), false));
+			}
+		} catch (PtoolsErrorException e) {
+			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return doc;
+	}
+
+	/**
+	 * Read an SBML file, catch any SBML and/or read errors. Return the SBMLDocument generated.
+	 * 
+	 * @param fileName
+	 * @return
+	 */
+	public SBMLDocument readSBML(String fileName) {
+		SBMLReader reader = new SBMLReader();
+		SBMLDocument doc  = reader.readSBML(fileName);
+
+		if (doc.getNumErrors() > 0) {
+		    if (doc.getError(0).getErrorId() == libsbmlConstants.XMLFileUnreadable) System.out.println("XMLFileUnreadable error occured."); 
+		    else if (doc.getError(0).getErrorId() == libsbmlConstants.XMLFileOperationError) System.out.println("XMLFileOperationError error occured.");  
+		    else System.out.println("Error occured in document read or document contains errors.");
+		}
+		
+		return doc;
+	}
+}
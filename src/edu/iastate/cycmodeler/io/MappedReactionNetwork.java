@@ -0,0 +1,262 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+
+/**
+ * Read-only view of a network file in the binary format described in BinaryNetworkFormat.  The file is memory mapped, and the accessors
+ * read straight from the mapping, so opening a file costs only the header check and several processes can share the same pages.  Strings
+ * are decoded on first access and then kept.
+ *
+ * Instances can be shared between threads once opened.
+ *
+ * @author Jesse Walsh
+ */
+public class MappedReactionNetwork implements BinaryNetworkFormat.StringTable {
+	private ByteBuffer buffer_;
+	private int stringCount_;
+	private int compartmentCount_;
+	private int speciesCount_;
+	private int reactionCount_;
+	private int nonZeroCount_;
+	private int[] sectionOffsets_;
+	private String[] strings_;
+
+	private MappedReactionNetwork(ByteBuffer buffer) throws IOException {
+		this.buffer_ = buffer;
+		if (buffer.limit() < BinaryNetworkFormat.HEADER_SIZE || buffer.getInt(0) != BinaryNetworkFormat.MAGIC) throw new IOException("Not a binary network file");
+		int version = buffer.getInt(4);
+		if (version > BinaryNetworkFormat.VERSION) throw new IOException("Unsupported binary network version : " + version);
+
+		stringCount_ = buffer.getInt(8);
+		compartmentCount_ = buffer.getInt(12);
+		speciesCount_ = buffer.getInt(16);
+		reactionCount_ = buffer.getInt(20);
+		nonZeroCount_ = buffer.getInt(24);
+		sectionOffsets_ = new int[BinaryNetworkFormat.SECTION_COUNT];
+		for (int section = 0; section < BinaryNetworkFormat.SECTION_COUNT; section++) {
+			sectionOffsets_[section] = buffer.getInt(32 + section * 4);
+			if (sectionOffsets_[section] < 0 || sectionOffsets_[section] > buffer.limit()) throw new IOException("Corrupt binary network file, bad section offset");
+		}
+		strings_ = new String[stringCount_];
+	}
+
+	/**
+	 * Map a binary network file.
+	 *
+	 * @param fileName Path of the file
+	 * @return Mapped network
+	 * @throws IOException if the file cannot be read or is not a binary network file
+	 */
+	public static MappedReactionNetwork open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(fileName), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return new MappedReactionNetwork(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			// The mapping stays valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Wrap a buffer holding a binary network, such as one returned by BinaryNetworkWriter.encode.
+	 */
+	public static MappedReactionNetwork wrap(ByteBuffer buffer) throws IOException {
+		return new MappedReactionNetwork(buffer.duplicate());
+	}
+
+	public synchronized String getString(int index) {
+		if (index < 0) return null;
+		if (strings_[index] == null) {
+			int offsets = sectionOffsets_[BinaryNetworkFormat.SECTION_STRING_OFFSETS];
+			int start = buffer_.getInt(offsets + index * 4);
+			int end = buffer_.getInt(offsets + (index + 1) * 4);
+			byte[] bytes = new byte[end - start];
+			ByteBuffer view = buffer_.duplicate();
+			view.position(sectionOffsets_[BinaryNetworkFormat.SECTION_STRING_DATA] + start);
+			view.get(bytes);
+			try {
+				strings_[index] = new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.toString());
+			}
+		}
+		return strings_[index];
+	}
+
+	private int getInt(int section, int index) {
+		return buffer_.getInt(sectionOffsets_[section] + index * 4);
+	}
+
+	private double getDouble(int section, int index) {
+		return buffer_.getDouble(sectionOffsets_[section] + index * 8);
+	}
+
+
+	// Species and compartments
+	public String getCompartment(int compartment) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_COMPARTMENTS, compartment));
+	}
+	public String getSpeciesID(int species) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS));
+	}
+	public String getMetaboliteID(int species) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS + 1));
+	}
+	public String getSpeciesName(int species) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS + 2));
+	}
+	public int getSpeciesCompartment(int species) {
+		return getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS + 3);
+	}
+	public String getChemicalFormula(int species) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS + 4));
+	}
+	public String getKeggID(int species) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_SPECIES, species * BinaryNetworkFormat.SPECIES_RECORD_INTS + 5));
+	}
+
+	// Reactions
+	public String getReactionID(int reaction) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_REACTIONS, reaction * BinaryNetworkFormat.REACTION_RECORD_INTS));
+	}
+	public String getReactionName(int reaction) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_REACTIONS, reaction * BinaryNetworkFormat.REACTION_RECORD_INTS + 1));
+	}
+	public String getReactionLocation(int reaction) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_REACTIONS, reaction * BinaryNetworkFormat.REACTION_RECORD_INTS + 2));
+	}
+	public String getReactionType(int reaction) {
+		return getString(getInt(BinaryNetworkFormat.SECTION_REACTIONS, reaction * BinaryNetworkFormat.REACTION_RECORD_INTS + 3));
+	}
+	public boolean isReversible(int reaction) {
+		return (buffer_.get(sectionOffsets_[BinaryNetworkFormat.SECTION_FLAGS] + reaction) & BinaryNetworkFormat.FLAG_REVERSIBLE) != 0;
+	}
+	public double getLowerBound(int reaction) {
+		return getDouble(BinaryNetworkFormat.SECTION_LOWER_BOUNDS, reaction);
+	}
+	public double getUpperBound(int reaction) {
+		return getDouble(BinaryNetworkFormat.SECTION_UPPER_BOUNDS, reaction);
+	}
+	public String getGeneRule(int reaction) {
+		int codeStart = sectionOffsets_[BinaryNetworkFormat.SECTION_RULE_CODE];
+		int start = getInt(BinaryNetworkFormat.SECTION_RULE_PTR, reaction);
+		int end = getInt(BinaryNetworkFormat.SECTION_RULE_PTR, reaction + 1);
+		return BinaryNetworkFormat.decompileGeneRule(buffer_, codeStart + start, codeStart + end, this);
+	}
+
+	// Stoichiometry
+	public int getColumnPointer(int reaction) {
+		return getInt(BinaryNetworkFormat.SECTION_COL_PTR, reaction);
+	}
+	public int getRowIndex(int entry) {
+		return getInt(BinaryNetworkFormat.SECTION_ROW_IDX, entry);
+	}
+	public double getValue(int entry) {
+		return getDouble(BinaryNetworkFormat.SECTION_VALUES, entry);
+	}
+
+	/**
+	 * Copy the stoichiometry and bounds into a StoichiometricMatrix.  The entries of a species on both sides of a reaction are summed, as the
+	 * matrix holds net stoichiometry, and species whose entries cancel out are left out of the column.
+	 */
+	public StoichiometricMatrix toStoichiometricMatrix() {
+		String[] reactionIDs = new String[reactionCount_];
+		double[] lowerBounds = new double[reactionCount_];
+		double[] upperBounds = new double[reactionCount_];
+		boolean[] reversible = new boolean[reactionCount_];
+		int[] colPtr = new int[reactionCount_ + 1];
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		ArrayList<Double> nets = new ArrayList<Double>();
+		for (int j = 0; j < reactionCount_; j++) {
+			reactionIDs[j] = getReactionID(j);
+			lowerBounds[j] = getLowerBound(j);
+			upperBounds[j] = getUpperBound(j);
+			reversible[j] = isReversible(j);
+			TreeMap<Integer, Double> column = new TreeMap<Integer, Double>();
+			for (int k = getColumnPointer(j); k < getColumnPointer(j + 1); k++) {
+				Double current = column.get(getRowIndex(k));
+				column.put(getRowIndex(k), (current == null ? 0 : current) + getValue(k));
+			}
+			for (Integer row : column.keySet()) {
+				if (column.get(row) == 0) continue;
+				rows.add(row);
+				nets.add(column.get(row));
+			}
+			colPtr[j + 1] = rows.size();
+		}
+
+		String[] speciesIDs = new String[speciesCount_];
+		for (int i = 0; i < speciesCount_; i++) speciesIDs[i] = getSpeciesID(i);
+
+		int[] rowIdx = new int[rows.size()];
+		double[] values = new double[nets.size()];
+		for (int k = 0; k < rowIdx.length; k++) {
+			rowIdx[k] = rows.get(k);
+			values[k] = nets.get(k);
+		}
+		return new StoichiometricMatrix(reactionIDs, speciesIDs, colPtr, rowIdx, values, lowerBounds, upperBounds, reversible);
+	}
+
+	/**
+	 * Build a ReactionNetwork of ImportedReactionInstances from this file.  Metabolites are detached, so the network can be used without
+	 * a connection.  Each reaction keeps the type it was written with, so it sorts, hashes and compares equal to the original reaction.  If
+	 * no parameters have been set, the default parameters are used.
+	 *
+	 * @return Network holding every reaction in the file
+	 */
+	public ReactionNetwork toReactionNetwork() {
+		ArrayList<AbstractReactionInstance> reactions = new ArrayList<AbstractReactionInstance>();
+		for (int j = 0; j < reactionCount_; j++) {
+			HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
+			HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
+			for (int k = getColumnPointer(j); k < getColumnPointer(j + 1); k++) {
+				int species = getRowIndex(k);
+				double value = getValue(k);
+				MetaboliteInstance metabolite = MetaboliteInstance.createDetached(getMetaboliteID(species), getSpeciesName(species), getCompartment(getSpeciesCompartment(species)), (int) Math.round(Math.abs(value)), getChemicalFormula(species), getKeggID(species), getSpeciesID(species));
+				if (value < 0) reactants.add(metabolite);
+				else products.add(metabolite);
+			}
+			ImportedReactionInstance reaction = new ImportedReactionInstance(getReactionID(j), getReactionName(j), isReversible(j), getReactionLocation(j), reactants, products, getLowerBound(j), getUpperBound(j), getGeneRule(j));
+			reaction.setReactionType(getReactionType(j));
+			reactions.add(reaction);
+		}
+
+		ReactionNetwork reactionNetwork = new ReactionNetwork();
+		reactionNetwork.addReactions(reactions);
+		return reactionNetwork;
+	}
+
+
+	// Getters and Setters
+	public int getStringCount() {
+		return stringCount_;
+	}
+	public int getCompartmentCount() {
+		return compartmentCount_;
+	}
+	public int getSpeciesCount() {
+		return speciesCount_;
+	}
+	public int getReactionCount() {
+		return reactionCount_;
+	}
+	public int getNonZeroCount() {
+		return nonZeroCount_;
+	}
+}
@@ -0,0 +1,385 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.iastate.cycmodeler.analysis.FluxBalanceAnalysis;
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.model.StoichiometricMatrix;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Writes a ReactionNetwork as a MATLAB Level 5 MAT-file holding a single COBRA Toolbox model struct.  The struct has the fields S (a native
+ * sparse matrix), lb, ub, c, b, rev, rxns, rxnNames, mets, metNames, grRules and description, and is named after the model.  c is 1 for
+ * the ObjectiveReaction, if one is set, and 0 for every other reaction.
+ *
+ * The size of every element is computed before it is written, so arrays are streamed straight from the StoichiometricMatrix without
+ * assembling the file in memory.  Data is written little-endian and uncompressed.
+ *
+ * @author Jesse Walsh
+ */
+public class MatFileWriter {
+	public static final String FILE_SUFFIX = ".mat";
+
+	// Data types
+	private static final int MI_INT8 = 1;
+	private static final int MI_UINT16 = 4;
+	private static final int MI_INT32 = 5;
+	private static final int MI_UINT32 = 6;
+	private static final int MI_DOUBLE = 9;
+	private static final int MI_MATRIX = 14;
+
+	// Array classes
+	private static final int MX_CELL_CLASS = 1;
+	private static final int MX_STRUCT_CLASS = 2;
+	private static final int MX_CHAR_CLASS = 4;
+	private static final int MX_SPARSE_CLASS = 5;
+	private static final int MX_DOUBLE_CLASS = 6;
+
+	private static final int FIELD_NAME_LENGTH = 32;
+
+	private ByteBuffer scratch_ = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private OutputStream out_;
+
+	/**
+	 * Write the network to a file as a MAT-file.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param fileName Path of the output file
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, String fileName) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+		try {
+			write(reactionNetwork, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the network to a stream as a MAT-file.  The stream is flushed but not closed.
+	 */
+	public void write(ReactionNetwork reactionNetwork, OutputStream out) throws IOException {
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<MetaboliteInstance> species = reactionNetwork.getOrderedSpecies();
+		StoichiometricMatrix matrix = StoichiometricMatrix.fromNetwork(reactionNetwork);
+		int m = matrix.getSpeciesCount();
+		int n = matrix.getReactionCount();
+
+		String[] rxnNames = new String[n];
+		String[] grRules = new String[n];
+		double[] rev = new double[n];
+		for (int j = 0; j < n; j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			rxnNames[j] = reaction.name_;
+			grRules[j] = reaction.getGeneProteinReactionRule();
+			rev[j] = reaction.reversible_ ? 1 : 0;
+		}
+		double[] c = new double[n];
+		String objectiveID = CycModeler.getParameters().ObjectiveReaction;
+		if (objectiveID.length() > 0) {
+			int objective = FluxBalanceAnalysis.findReaction(reactions, Arrays.asList(matrix.getReactionIDs()), objectiveID);
+			if (objective != -1) c[objective] = 1;
+		}
+		String[] metNames = new String[m];
+		for (int i = 0; i < m; i++) {
+			metNames[i] = species.get(i).getMetaboliteID();
+			try {
+				metNames[i] = species.get(i).getMetaboliteFrame().getCommonName();
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+		}
+
+		ArrayList<String> fieldNames = new ArrayList<String>();
+		ArrayList<MatArray> fields = new ArrayList<MatArray>();
+		fieldNames.add("S"); fields.add(new SparseArray(matrix));
+		fieldNames.add("lb"); fields.add(new DoubleArray(matrix.getLowerBounds()));
+		fieldNames.add("ub"); fields.add(new DoubleArray(matrix.getUpperBounds()));
+		fieldNames.add("c"); fields.add(new DoubleArray(c));
+		fieldNames.add("b"); fields.add(new DoubleArray(new double[m]));
+		fieldNames.add("rev"); fields.add(new DoubleArray(rev));
+		fieldNames.add("rxns"); fields.add(new CellArray(matrix.getReactionIDs()));
+		fieldNames.add("rxnNames"); fields.add(new CellArray(rxnNames));
+		fieldNames.add("mets"); fields.add(new CellArray(matrix.getSpeciesIDs()));
+		fieldNames.add("metNames"); fields.add(new CellArray(metNames));
+		fieldNames.add("grRules"); fields.add(new CellArray(grRules));
+		fieldNames.add("description"); fields.add(new CharArray(CycModeler.getParameters().ModelName));
+		StructArray model = new StructArray(fieldNames, fields);
+
+		out_ = out;
+		writeHeader();
+		writeMatrix(toVariableName(CycModeler.getParameters().ModelName), model);
+		flushScratch();
+		out.flush();
+		out_ = null;
+	}
+
+	/**
+	 * Convert a model name into a valid MATLAB variable name.
+	 */
+	public static String toVariableName(String name) {
+		String variable = "";
+		if (name != null) {
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				variable += (c < 128 && Character.isLetterOrDigit(c)) || c == '_' ? c : '_';
+			}
+		}
+		if (variable.length() == 0 || !Character.isLetter(variable.charAt(0))) variable = "model" + variable;
+		if (variable.length() > 63) variable = variable.substring(0, 63);
+		return variable;
+	}
+
+	private void writeHeader() throws IOException {
+		byte[] text = new byte[116];
+		byte[] description = BinaryNetworkFormat.toBytes("MATLAB 5.0 MAT-file, Platform: JAVA, Created by: CycModeler");
+		java.util.Arrays.fill(text, (byte) ' ');
+		System.arraycopy(description, 0, text, 0, description.length);
+		putBytes(text);
+		putBytes(new byte[8]);
+		putShort((short) 0x0100);
+		putBytes(new byte[] {'I', 'M'});
+	}
+
+
+	// Element writing
+	private void writeMatrix(String name, MatArray array) throws IOException {
+		putInt(MI_MATRIX);
+		putInt(array.size(name));
+		putInt(MI_UINT32);
+		putInt(8);
+		putInt(array.arrayClass());
+		putInt(array.nzmax());
+		int[] dimensions = array.dimensions();
+		putInt(MI_INT32);
+		putInt(dimensions.length * 4);
+		for (int dimension : dimensions) putInt(dimension);
+		pad(dimensions.length * 4);
+		byte[] nameBytes = BinaryNetworkFormat.toBytes(name);
+		putInt(MI_INT8);
+		putInt(nameBytes.length);
+		putBytes(nameBytes);
+		pad(nameBytes.length);
+		array.writeData();
+	}
+
+	private static int matrixSize(String name, MatArray array) {
+		int size = 16;
+		size += 8 + paddedLength(array.dimensions().length * 4);
+		size += 8 + paddedLength(BinaryNetworkFormat.toBytes(name).length);
+		return size + array.dataSize();
+	}
+
+	private static int paddedLength(int length) {
+		return (length + 7) & ~7;
+	}
+
+	private void pad(int length) throws IOException {
+		for (int i = length; i < paddedLength(length); i++) putByte((byte) 0);
+	}
+
+	private void putByte(byte value) throws IOException {
+		if (scratch_.remaining() < 1) flushScratch();
+		scratch_.put(value);
+	}
+
+	private void putShort(short value) throws IOException {
+		if (scratch_.remaining() < 2) flushScratch();
+		scratch_.putShort(value);
+	}
+
+	private void putInt(int value) throws IOException {
+		if (scratch_.remaining() < 4) flushScratch();
+		scratch_.putInt(value);
+	}
+
+	private void putDouble(double value) throws IOException {
+		if (scratch_.remaining() < 8) flushScratch();
+		scratch_.putDouble(value);
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		for (byte b : bytes) putByte(b);
+	}
+
+	private void flushScratch() throws IOException {
+		out_.write(scratch_.array(), 0, scratch_.position());
+		scratch_.clear();
+	}
+
+
+	// Internal Classes
+	/**
+	 * A MATLAB array, able to report its size before it is written.
+	 */
+	private abstract class MatArray {
+		public abstract int arrayClass();
+		public abstract int[] dimensions();
+		public int nzmax() {
+			return 0;
+		}
+		/**
+		 * Size in bytes of the class specific data elements, including their tags and padding
+		 */
+		public abstract int dataSize();
+		public abstract void writeData() throws IOException;
+
+		/**
+		 * Size in bytes of the contents of the miMATRIX element holding this array under the given name
+		 */
+		public int size(String name) {
+			return matrixSize(name, this);
+		}
+	}
+
+	private class DoubleArray extends MatArray {
+		private double[] values_;
+
+		public DoubleArray(double[] values) {
+			this.values_ = values;
+		}
+		public int arrayClass() {
+			return MX_DOUBLE_CLASS;
+		}
+		public int[] dimensions() {
+			return new int[] {values_.length, 1};
+		}
+		public int dataSize() {
+			return 8 + values_.length * 8;
+		}
+		public void writeData() throws IOException {
+			putInt(MI_DOUBLE);
+			putInt(values_.length * 8);
+			for (double value : values_) putDouble(value);
+		}
+	}
+
+	private class CharArray extends MatArray {
+		private String value_;
+
+		public CharArray(String value) {
+			this.value_ = value == null ? "" : value;
+		}
+		public int arrayClass() {
+			return MX_CHAR_CLASS;
+		}
+		public int[] dimensions() {
+			return new int[] {value_.length() == 0 ? 0 : 1, value_.length()};
+		}
+		public int dataSize() {
+			return 8 + paddedLength(value_.length() * 2);
+		}
+		public void writeData() throws IOException {
+			putInt(MI_UINT16);
+			putInt(value_.length() * 2);
+			for (int i = 0; i < value_.length(); i++) putShort((short) value_.charAt(i));
+			pad(value_.length() * 2);
+		}
+	}
+
+	private class CellArray extends MatArray {
+		private CharArray[] cells_;
+
+		public CellArray(String[] values) {
+			cells_ = new CharArray[values.length];
+			for (int i = 0; i < values.length; i++) cells_[i] = new CharArray(values[i]);
+		}
+		public int arrayClass() {
+			return MX_CELL_CLASS;
+		}
+		public int[] dimensions() {
+			return new int[] {cells_.length, 1};
+		}
+		public int dataSize() {
+			int size = 0;
+			for (CharArray cell : cells_) size += 8 + cell.size("");
+			return size;
+		}
+		public void writeData() throws IOException {
+			for (CharArray cell : cells_) writeMatrix("", cell);
+		}
+	}
+
+	private class SparseArray extends MatArray {
+		private StoichiometricMatrix matrix_;
+
+		public SparseArray(StoichiometricMatrix matrix) {
+			this.matrix_ = matrix;
+		}
+		public int arrayClass() {
+			return MX_SPARSE_CLASS;
+		}
+		public int[] dimensions() {
+			return new int[] {matrix_.getSpeciesCount(), matrix_.getReactionCount()};
+		}
+		public int nzmax() {
+			return Math.max(matrix_.getNonZeroCount(), 1);
+		}
+		public int dataSize() {
+			return 8 + paddedLength(nzmax() * 4) + 8 + paddedLength((matrix_.getReactionCount() + 1) * 4) + 8 + matrix_.getNonZeroCount() * 8;
+		}
+		public void writeData() throws IOException {
+			int nnz = matrix_.getNonZeroCount();
+			putInt(MI_INT32);
+			putInt(nzmax() * 4);
+			for (int row : matrix_.getRowIndices()) putInt(row);
+			if (nnz == 0) putInt(0);
+			pad(nzmax() * 4);
+			putInt(MI_INT32);
+			putInt((matrix_.getReactionCount() + 1) * 4);
+			for (int column : matrix_.getColumnPointers()) putInt(column);
+			pad((matrix_.getReactionCount() + 1) * 4);
+			putInt(MI_DOUBLE);
+			putInt(nnz * 8);
+			for (double value : matrix_.getValues()) putDouble(value);
+		}
+	}
+
+	private class StructArray extends MatArray {
+		private ArrayList<String> fieldNames_;
+		private ArrayList<MatArray> fields_;
+
+		public StructArray(ArrayList<String> fieldNames, ArrayList<MatArray> fields) {
+			this.fieldNames_ = fieldNames;
+			this.fields_ = fields;
+		}
+		public int arrayClass() {
+			return MX_STRUCT_CLASS;
+		}
+		public int[] dimensions() {
+			return new int[] {1, 1};
+		}
+		public int dataSize() {
+			int size = 8 + 8 + 8 + paddedLength(fieldNames_.size() * FIELD_NAME_LENGTH);
+			for (MatArray field : fields_) size += 8 + field.size("");
+			return size;
+		}
+		public void writeData() throws IOException {
+			putInt(MI_INT32);
+			putInt(4);
+			putInt(FIELD_NAME_LENGTH);
+			putInt(0);
+			putInt(MI_INT8);
+			putInt(fieldNames_.size() * FIELD_NAME_LENGTH);
+			for (String fieldName : fieldNames_) {
+				byte[] name = new byte[FIELD_NAME_LENGTH];
+				byte[] bytes = BinaryNetworkFormat.toBytes(fieldName);
+				System.arraycopy(bytes, 0, name, 0, Math.min(bytes.length, FIELD_NAME_LENGTH - 1));
+				putBytes(name);
+			}
+			pad(fieldNames_.size() * FIELD_NAME_LENGTH);
+			for (MatArray field : fields_) writeMatrix("", field);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream which gzip compresses its data on several threads.  Data is cut into fixed size blocks, and each block is deflated on a
+ * worker thread with the last 32K of the block before it as preset dictionary, so matches reaching back into the previous block are found
+ * as they would be by a single compressor.  Every block but the last ends with a sync flush, which leaves the deflate stream byte aligned,
+ * so the compressed blocks written one after another in order form a single deflate stream.  It is written as one gzip member, with the
+ * CRC computed on the writing thread, and can be read with gunzip, zcat, or java.util.zip.GZIPInputStream.
+ *
+ * At most two blocks per thread are held in memory at a time, the writing thread waits on the oldest block once that limit is reached.
+ *
+ * @author Jesse Walsh
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	private static final int DICTIONARY_SIZE = 32768;
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+	private OutputStream out_;
+	private ExecutorService executor_;
+	private ArrayDeque<Future<byte[]>> pending_;
+	private int maxPending_;
+	private byte[] block_;
+	private int blockLength_;
+	private byte[] dictionary_;
+	private CRC32 crc_;
+	private long totalLength_;
+	private boolean headerWritten_;
+	private boolean closed_;
+
+	/**
+	 * Constructor
+	 *
+	 * @param out Stream to write compressed data to.  It is closed when this stream is closed.
+	 * @param threads Number of compression threads
+	 * @param blockSize Number of uncompressed bytes in each deflate block
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize) {
+		if (threads < 1) threads = 1;
+		this.out_ = out;
+		this.executor_ = Executors.newFixedThreadPool(threads);
+		this.pending_ = new ArrayDeque<Future<byte[]>>();
+		this.maxPending_ = threads * 2;
+		this.block_ = new byte[blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE];
+		this.blockLength_ = 0;
+		this.dictionary_ = null;
+		this.crc_ = new CRC32();
+		this.totalLength_ = 0;
+		this.headerWritten_ = false;
+		this.closed_ = false;
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int threads) {
+		this(out, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		block_[blockLength_++] = (byte) b;
+		if (blockLength_ == block_.length) submitBlock(false);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			int count = Math.min(len, block_.length - blockLength_);
+			System.arraycopy(b, off, block_, blockLength_, count);
+			blockLength_ += count;
+			off += count;
+			len -= count;
+			if (blockLength_ == block_.length) submitBlock(false);
+		}
+	}
+
+	/**
+	 * Compress whatever is buffered as its own block and write out every block compressed so far.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (blockLength_ > 0) submitBlock(false);
+		while (!pending_.isEmpty()) writeOldest();
+		out_.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed_) return;
+		try {
+			submitBlock(true);
+			while (!pending_.isEmpty()) writeOldest();
+			writeTrailer();
+			out_.flush();
+		} finally {
+			closed_ = true;
+			executor_.shutdownNow();
+			out_.close();
+		}
+	}
+
+	/**
+	 * Queue the buffered data for compression.
+	 *
+	 * @param last If true, the block ends the deflate stream
+	 */
+	private void submitBlock(final boolean last) throws IOException {
+		final byte[] data = new byte[blockLength_];
+		System.arraycopy(block_, 0, data, 0, blockLength_);
+		blockLength_ = 0;
+		crc_.update(data);
+		totalLength_ += data.length;
+		final byte[] dictionary = dictionary_;
+		if (data.length >= DICTIONARY_SIZE) dictionary_ = Arrays.copyOfRange(data, data.length - DICTIONARY_SIZE, data.length);
+		else if (data.length > 0) dictionary_ = tail(dictionary_, data);
+
+		while (pending_.size() >= maxPending_) writeOldest();
+		pending_.add(executor_.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return deflate(data, dictionary, last);
+			}
+		}));
+	}
+
+	/**
+	 * Last DICTIONARY_SIZE bytes of previous followed by data.
+	 */
+	private static byte[] tail(byte[] previous, byte[] data) {
+		int keep = previous == null ? 0 : Math.min(previous.length, DICTIONARY_SIZE - data.length);
+		byte[] tail = new byte[keep + data.length];
+		if (keep > 0) System.arraycopy(previous, previous.length - keep, tail, 0, keep);
+		System.arraycopy(data, 0, tail, keep, data.length);
+		return tail;
+	}
+
+	/**
+	 * Deflate one block as part of a raw deflate stream.
+	 */
+	private static byte[] deflate(byte[] data, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dictionary != null) deflater.setDictionary(dictionary);
+			deflater.setInput(data);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+			byte[] buffer = new byte[65536];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) bytes.write(buffer, 0, deflater.deflate(buffer));
+			} else {
+				int length;
+				do {
+					length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					bytes.write(buffer, 0, length);
+				} while (length == buffer.length);
+			}
+			return bytes.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeTrailer() throws IOException {
+		writeInt((int) crc_.getValue());
+		writeInt((int) totalLength_);
+	}
+
+	private void writeInt(int value) throws IOException {
+		out_.write(value & 0xff);
+		out_.write((value >> 8) & 0xff);
+		out_.write((value >> 16) & 0xff);
+		out_.write((value >> 24) & 0xff);
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			if (!headerWritten_) {
+				out_.write(GZIP_HEADER);
+				headerWritten_ = true;
+			}
+			out_.write(pending_.removeFirst().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing output");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to compress output block", e.getCause());
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed_) throw new IOException("Stream closed");
+	}
+}
@@ -0,0 +1,24 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Writes a ReactionNetwork as an SBML model.  Selected by the SBMLWRITER parameter: STREAM for SBMLStreamWriter, which is pure Java, or
+ * LIBSBML for LibSBMLBackend, which needs the libSBML native library.  Builds started from the GUI default to LIBSBML, builds run without
+ * it (the command line, batch builds and the build service) to STREAM.
+ *
+ * @author Jesse Walsh
+ */
+public interface SBMLBackend {
+	/**
+	 * Write the network as an SBML model to a stream.  The stream is not closed.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param out Stream to write the model to
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, OutputStream out) throws IOException;
+}
@@ -0,0 +1,336 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+
+/**
+ * Reads an SBML model back into a ReactionNetwork using a StAX pull parser, without building a document in memory.  Only the compartment
+ * and species tables are held while reading, and each reaction becomes an ImportedReactionInstance as soon as its closing tag is
+ * seen. The reader understands the models written by CycModeler: notes of the form "Key : value", with the metabolite frame ID in
+ * "EcoCyc Frame ID", the gene rule in "Gene Rule" and the reaction location in "Reaction Location", and bounds given as LOWER_BOUND and
+ * UPPER_BOUND kinetic law parameters.  Models from other tools that use the COBRA "GENE_ASSOCIATION" note or give the reaction a compartment
+ * attribute are also read.
+ *
+ * Anything that does not make a valid model, such as a reaction referring to an unknown species, is recorded as a Problem with the line
+ * and column where it was found. The reader then continues, dropping or patching the offending element.
+ *
+ * @author Jesse Walsh
+ */
+public class SBMLStreamReader {
+	private XMLStreamReader xml_;
+	private ArrayList<Problem> problems_;
+
+	// Tables built while reading
+	private HashMap<String, String> compartmentNames_;
+	private HashMap<String, SpeciesRecord> species_;
+	private HashSet<String> reactionIDs_;
+	private ArrayList<AbstractReactionInstance> reactions_;
+	private String modelID_;
+
+	/**
+	 * Read an SBML file into a new ReactionNetwork.  Files ending in .gz are decompressed while reading.  Problems found in the file are
+	 * available from getProblems() afterwards.
+	 *
+	 * @param fileName Path of the SBML file
+	 * @return Network holding the reactions of the model
+	 * @throws IOException if the file cannot be read or is not well formed XML
+	 */
+	public ReactionNetwork read(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		try {
+			if (fileName.endsWith(CycModeler.GZIP_FILE_SUFFIX)) in = new GZIPInputStream(in, 1 << 16);
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read an SBML model from a stream into a new ReactionNetwork.  The stream is not closed.
+	 */
+	public ReactionNetwork read(InputStream in) throws IOException {
+		problems_ = new ArrayList<Problem>();
+		compartmentNames_ = new HashMap<String, String>();
+		species_ = new HashMap<String, SpeciesRecord>();
+		reactionIDs_ = new HashSet<String>();
+		reactions_ = new ArrayList<AbstractReactionInstance>();
+		modelID_ = null;
+
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			xml_ = factory.createXMLStreamReader(in);
+			try {
+				boolean foundModel = false;
+				while (xml_.hasNext()) {
+					if (xml_.next() != XMLStreamConstants.START_ELEMENT) continue;
+					String element = xml_.getLocalName();
+					if (element.equals("model")) {
+						foundModel = true;
+						modelID_ = xml_.getAttributeValue(null, "id");
+					} else if (element.equals("compartment")) readCompartment();
+					else if (element.equals("species")) readSpecies();
+					else if (element.equals("reaction")) readReaction();
+				}
+				if (!foundModel) problems_.add(new Problem(0, 0, "No model element found"));
+			} finally {
+				xml_.close();
+			}
+		} catch (XMLStreamException e) {
+			Location location = e.getLocation();
+			String message = "Malformed XML : " + e.getMessage();
+			if (location != null) message = "Malformed XML at line " + location.getLineNumber() + ", column " + location.getColumnNumber() + " : " + e.getMessage();
+			throw new IOException(message);
+		}
+
+		ReactionNetwork reactionNetwork = new ReactionNetwork();
+		reactionNetwork.addReactions(reactions_);
+		reactions_ = null;
+		return reactionNetwork;
+	}
+
+	private void readCompartment() {
+		String id = xml_.getAttributeValue(null, "id");
+		String name = xml_.getAttributeValue(null, "name");
+		if (id == null) {
+			addProblem("Compartment without an id");
+			return;
+		}
+		if (compartmentNames_.containsKey(id)) addProblem("Duplicate compartment id " + id);
+		compartmentNames_.put(id, name == null || name.length() == 0 ? id : name);
+	}
+
+	private void readSpecies() throws XMLStreamException {
+		int line = xml_.getLocation().getLineNumber();
+		int column = xml_.getLocation().getColumnNumber();
+		SpeciesRecord record = new SpeciesRecord();
+		record.id = xml_.getAttributeValue(null, "id");
+		record.name = xml_.getAttributeValue(null, "name");
+		String compartment = xml_.getAttributeValue(null, "compartment");
+
+		HashMap<String, String> notes = new HashMap<String, String>();
+		readChildren(notes, null);
+
+		if (record.id == null) {
+			problems_.add(new Problem(line, column, "Species without an id"));
+			return;
+		}
+		if (species_.containsKey(record.id)) problems_.add(new Problem(line, column, "Duplicate species id " + record.id));
+		if (compartment == null || !compartmentNames_.containsKey(compartment)) {
+			problems_.add(new Problem(line, column, "Species " + record.id + " is in unknown compartment " + compartment));
+			record.compartment = compartment;
+		} else record.compartment = compartmentNames_.get(compartment);
+
+		record.metaboliteID = nonEmpty(notes.get("EcoCyc Frame ID"), record.id);
+		record.chemicalFormula = nonEmpty(notes.get("Chemical Formula"), nonEmpty(notes.get("FORMULA"), ""));
+		record.keggID = nonEmpty(notes.get("KEGG ID"), "");
+		species_.put(record.id, record);
+	}
+
+	private void readReaction() throws XMLStreamException {
+		int line = xml_.getLocation().getLineNumber();
+		int column = xml_.getLocation().getColumnNumber();
+		String id = xml_.getAttributeValue(null, "id");
+		String name = xml_.getAttributeValue(null, "name");
+		String reversibleValue = xml_.getAttributeValue(null, "reversible");
+		String location = xml_.getAttributeValue(null, "compartment");
+		boolean reversible = reversibleValue == null || reversibleValue.equals("true") || reversibleValue.equals("1");
+
+		HashMap<String, String> notes = new HashMap<String, String>();
+		ReactionContents contents = new ReactionContents();
+		readChildren(notes, contents);
+
+		if (id == null) {
+			problems_.add(new Problem(line, column, "Reaction without an id"));
+			return;
+		}
+		if (!reactionIDs_.add(id)) {
+			problems_.add(new Problem(line, column, "Duplicate reaction id " + id));
+			return;
+		}
+		if (contents.reactants.isEmpty() && contents.products.isEmpty()) problems_.add(new Problem(line, column, "Reaction " + id + " has no reactants or products"));
+
+		double lowerBound = reversible ? CycModeler.getParameters().DefaultLowerBound : 0;
+		double upperBound = CycModeler.getParameters().DefaultUpperBound;
+		if (contents.parameters.containsKey("LOWER_BOUND")) lowerBound = contents.parameters.get("LOWER_BOUND");
+		else problems_.add(new Problem(line, column, "Reaction " + id + " has no LOWER_BOUND, using the default"));
+		if (contents.parameters.containsKey("UPPER_BOUND")) upperBound = contents.parameters.get("UPPER_BOUND");
+		else problems_.add(new Problem(line, column, "Reaction " + id + " has no UPPER_BOUND, using the default"));
+		if (lowerBound > upperBound) problems_.add(new Problem(line, column, "Reaction " + id + " has LOWER_BOUND " + lowerBound + " above UPPER_BOUND " + upperBound));
+		if (!reversible && lowerBound < 0) problems_.add(new Problem(line, column, "Irreversible reaction " + id + " has a negative LOWER_BOUND"));
+
+		String geneRule = nonEmpty(notes.get("Gene Rule"), nonEmpty(notes.get("GENE_ASSOCIATION"), ""));
+		notes.remove("Gene Rule");
+		notes.remove("GENE_ASSOCIATION");
+		String reactionLocation = nonEmpty(notes.remove("Reaction Location"), null);
+		if (reactionLocation == null && location != null) reactionLocation = nonEmpty(compartmentNames_.get(location), location);
+
+		ImportedReactionInstance reaction = new ImportedReactionInstance(id, name == null ? id : name, reversible, reactionLocation, contents.reactants, contents.products, lowerBound, upperBound, geneRule);
+		reaction.setNotes(notes);
+		reactions_.add(reaction);
+	}
+
+	/**
+	 * Read the children of the current element up to its end tag, collecting notes and, for reactions, the species references and kinetic
+	 * law parameters.
+	 */
+	private void readChildren(HashMap<String, String> notes, ReactionContents contents) throws XMLStreamException {
+		int depth = 1;
+		boolean inProducts = false;
+		while (depth > 0 && xml_.hasNext()) {
+			int event = xml_.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String element = xml_.getLocalName();
+				if (element.equals("notes")) {
+					readNotes(notes);
+					depth--;
+				} else if (contents != null && element.equals("listOfReactants")) inProducts = false;
+				else if (contents != null && element.equals("listOfProducts")) inProducts = true;
+				else if (contents != null && element.equals("speciesReference")) readSpeciesReference(contents, inProducts);
+				else if (contents != null && element.equals("parameter")) readParameter(contents);
+			} else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	/**
+	 * Collect "Key : value" lines from a notes element.  Each paragraph, or each line for plain text notes, holds one note.
+	 */
+	private void readNotes(HashMap<String, String> notes) throws XMLStreamException {
+		int depth = 1;
+		StringBuilder text = new StringBuilder();
+		while (depth > 0 && xml_.hasNext()) {
+			int event = xml_.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				text.append('\n');
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				text.append('\n');
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) text.append(xml_.getText());
+		}
+		for (String note : text.toString().split("\n")) {
+			int separator = note.indexOf(':');
+			if (separator <= 0) continue;
+			String key = note.substring(0, separator).trim();
+			String value = note.substring(separator + 1).trim();
+			if (key.length() > 0) notes.put(key, value);
+		}
+	}
+
+	private void readSpeciesReference(ReactionContents contents, boolean product) {
+		String speciesID = xml_.getAttributeValue(null, "species");
+		String stoichiometryValue = xml_.getAttributeValue(null, "stoichiometry");
+		SpeciesRecord record = species_.get(speciesID);
+		if (record == null) {
+			addProblem("Reference to unknown species " + speciesID);
+			return;
+		}
+
+		int coefficient = 1;
+		if (stoichiometryValue != null) {
+			try {
+				double stoichiometry = Double.parseDouble(stoichiometryValue);
+				coefficient = (int) Math.round(stoichiometry);
+				if (coefficient != stoichiometry || coefficient <= 0) addProblem("Stoichiometry " + stoichiometryValue + " of species " + speciesID + " is not a positive whole number, using " + coefficient);
+			} catch (NumberFormatException e) {
+				addProblem("Stoichiometry " + stoichiometryValue + " of species " + speciesID + " is not a number, using 1");
+			}
+		}
+
+		MetaboliteInstance metabolite = MetaboliteInstance.createDetached(record.metaboliteID, record.name, record.compartment, coefficient, record.chemicalFormula, record.keggID, record.id);
+		if (product) contents.products.add(metabolite);
+		else contents.reactants.add(metabolite);
+	}
+
+	private void readParameter(ReactionContents contents) {
+		String id = xml_.getAttributeValue(null, "id");
+		String value = xml_.getAttributeValue(null, "value");
+		if (id == null || value == null) return;
+		try {
+			contents.parameters.put(id, Double.parseDouble(value));
+		} catch (NumberFormatException e) {
+			addProblem("Parameter " + id + " has non-numeric value " + value);
+		}
+	}
+
+	private void addProblem(String message) {
+		problems_.add(new Problem(xml_.getLocation().getLineNumber(), xml_.getLocation().getColumnNumber(), message));
+	}
+
+	private static String nonEmpty(String value, String fallback) {
+		if (value == null || value.length() == 0) return fallback;
+		return value;
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Problems found by the last call to read, in file order
+	 */
+	public ArrayList<Problem> getProblems() {
+		return problems_;
+	}
+
+	/**
+	 * @return Id of the model element read by the last call to read
+	 */
+	public String getModelID() {
+		return modelID_;
+	}
+
+
+	// Internal Classes
+	/**
+	 * A validation problem found while reading, with the position in the file where it was found.
+	 */
+	public static class Problem {
+		public int line;
+		public int column;
+		public String message;
+
+		public Problem(int line, int column, String message) {
+			this.line = line;
+			this.column = column;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			return "Line " + line + ", column " + column + " : " + message;
+		}
+	}
+
+	private static class SpeciesRecord {
+		public String id;
+		public String name;
+		public String compartment;
+		public String metaboliteID;
+		public String chemicalFormula;
+		public String keggID;
+	}
+
+	private static class ReactionContents {
+		public HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
+		public HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
+		public HashMap<String, Double> parameters = new HashMap<String, Double>();
+	}
+}
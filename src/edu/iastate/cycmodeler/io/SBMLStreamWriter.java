@@ -0,0 +1,381 @@
+package edu.iastate.cycmodeler.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.LumpedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Writes a ReactionNetwork as an SBML Level 2 model without going through libSBML.  The model holds the same compartments, species,
+ * reactions, stoichiometry, bounds and notes as the model LibSBMLBackend writes, with reactions in canonical order, so that both read back
+ * as the same network.  The markup itself is not the same as libSBML's, attribute order, whitespace and the exact notes markup differ.
+ * Only Level 2 is written, other levels are rejected.
+ *
+ * The reaction list is split into ordered chunks which are rendered to byte buffers on a pool of worker threads, and the buffers are
+ * written to the output channel in order as they complete, using gather writes when the channel supports them.  Every value that needs
+ * the Pathway Tools connection (names, gene rules) is resolved on the calling thread before rendering starts, so the workers only build
+ * strings. The bytes written do not depend on the number of threads.
+ *
+ * @author Jesse Walsh
+ */
+public class SBMLStreamWriter implements SBMLBackend {
+	private static final String[] REACTION_NOTE_KEYS = {"Palsson Reaction ID", "EcoCyc Frame ID", "Abbreviation", "Synonyms", "EC Number", "SUBSYSTEM", "Equation", "Confidence Level"};
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+	private static final String ENCODING = "UTF-8";
+
+	private int threads_;
+	private int chunkSize_;
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads Number of worker threads used to render reactions. A value of 1 or less renders everything on the calling thread.
+	 * @param chunkSize Number of reactions rendered per chunk
+	 */
+	public SBMLStreamWriter(int threads, int chunkSize) {
+		this.threads_ = threads;
+		this.chunkSize_ = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Write the network as an SBML model to the given file.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param fileName Path of the output file
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+		try {
+			write(reactionNetwork, out.getChannel());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the network as an SBML model to a stream, through its channel when it is a file.  The stream is not closed.
+	 */
+	public void write(ReactionNetwork reactionNetwork, OutputStream out) throws IOException {
+		WritableByteChannel channel = (out instanceof FileOutputStream) ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+		write(reactionNetwork, channel);
+	}
+
+	/**
+	 * Write the network as an SBML model to an open channel.  The channel is not closed.
+	 *
+	 * @param reactionNetwork Network to write
+	 * @param channel Channel to write the model to
+	 * @throws IOException
+	 */
+	public void write(ReactionNetwork reactionNetwork, WritableByteChannel channel) throws IOException {
+		int level = CycModeler.getParameters().DefaultSBMLLevel;
+		if (level != 2) throw new IOException("The stream writer only writes SBML Level 2 models, DefaultSBMLLevel is " + level);
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactions);
+
+		// Resolve everything that needs the database on this thread, the connection is not thread safe
+		ArrayList<ReactionRecord> records = new ArrayList<ReactionRecord>();
+		for (int i = 0; i < reactions.size(); i++) {
+			records.add(new ReactionRecord(reactions.get(i), reactionIDs.get(i)));
+		}
+
+		writeBuffers(channel, new ByteBuffer[] {renderHeader(reactions)});
+
+		ArrayList<Callable<ByteBuffer>> chunks = new ArrayList<Callable<ByteBuffer>>();
+		for (int start = 0; start < records.size(); start += chunkSize_) {
+			chunks.add(new ChunkRenderer(records.subList(start, Math.min(start + chunkSize_, records.size()))));
+		}
+
+		if (threads_ <= 1) {
+			for (Callable<ByteBuffer> chunk : chunks) {
+				try {
+					writeBuffers(channel, new ByteBuffer[] {chunk.call()});
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e.toString());
+				}
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads_);
+			try {
+				ArrayList<Future<ByteBuffer>> futures = new ArrayList<Future<ByteBuffer>>();
+				for (Callable<ByteBuffer> chunk : chunks) futures.add(executor.submit(chunk));
+
+				// Write chunks in order, gathering every chunk that is already finished into a single write
+				int next = 0;
+				while (next < futures.size()) {
+					ArrayList<ByteBuffer> ready = new ArrayList<ByteBuffer>();
+					ready.add(futures.get(next++).get());
+					while (next < futures.size() && futures.get(next).isDone()) ready.add(futures.get(next++).get());
+					writeBuffers(channel, ready.toArray(new ByteBuffer[ready.size()]));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing SBML model");
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to render SBML reactions", e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		writeBuffers(channel, new ByteBuffer[] {renderFooter()});
+	}
+
+	private static void writeBuffers(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers) remaining += buffer.remaining();
+			while (remaining > 0) remaining -= ((GatheringByteChannel) channel).write(buffers);
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Render everything before the first reaction: the document header, unit definitions, compartments and species.
+	 */
+	private ByteBuffer renderHeader(ArrayList<AbstractReactionInstance> reactions) throws IOException {
+		int version = CycModeler.getParameters().DefaultSBMLVersion;
+		String namespace = "http://www.sbml.org/sbml/level2";
+		if (version > 1) namespace += "/version" + version;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Writer out = new OutputStreamWriter(bytes, ENCODING);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<sbml xmlns=\"" + namespace + "\" level=\"2\" version=\"" + version + "\">\n");
+		out.write("  <model id=\"" + escape(CycModeler.getParameters().ModelName) + "\" name=\"Generated from BioCyc Pathway/Genome Database\">\n");
+		out.write("    <listOfUnitDefinitions>\n");
+		out.write("      <unitDefinition id=\"mmol_per_gDW_per_hr\">\n");
+		out.write("        <listOfUnits>\n");
+		out.write("          <unit kind=\"mole\" scale=\"-3\"/>\n");
+		out.write("          <unit kind=\"gram\" exponent=\"-1\"/>\n");
+		out.write("          <unit kind=\"second\" exponent=\"-1\" multiplier=\"0.00027777\"/>\n");
+		out.write("        </listOfUnits>\n");
+		out.write("      </unitDefinition>\n");
+		out.write("    </listOfUnitDefinitions>\n");
+
+		// Compartments and species, in order of first appearance in the ordered reaction list
+		ArrayList<String> compartments = new ArrayList<String>();
+		ArrayList<MetaboliteInstance> species = new ArrayList<MetaboliteInstance>();
+		HashSet<String> speciesIDs = new HashSet<String>();
+		for (AbstractReactionInstance reaction : reactions) {
+			ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
+			reactantsProducts.addAll(reaction.getOrderedReactants());
+			reactantsProducts.addAll(reaction.getOrderedProducts());
+			for (MetaboliteInstance metabolite : reactantsProducts) {
+				if (!compartments.contains(metabolite.compartment_)) compartments.add(metabolite.compartment_);
+				if (speciesIDs.add(metabolite.generateSpeciesID())) species.add(metabolite);
+			}
+		}
+
+		out.write("    <listOfCompartments>\n");
+		for (String compartment : compartments) {
+			out.write("      <compartment id=\"" + escape(CycModeler.convertToSBMLSafe(compartment)) + "\" name=\"" + escape(compartment) + "\"/>\n");
+		}
+		out.write("    </listOfCompartments>\n");
+
+		out.write("    <listOfSpecies>\n");
+		for (MetaboliteInstance metabolite : species) {
+			String name = metabolite.getMetaboliteID();
+			try {
+				name = metabolite.getMetaboliteFrame().getCommonName();
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+			out.write("      <species id=\"" + escape(metabolite.generateSpeciesID()) + "\" name=\"" + escape(name) + "\" compartment=\"" + escape(CycModeler.convertToSBMLSafe(metabolite.compartment_)) + "\" boundaryCondition=\"false\">\n");
+			out.write("        <notes>\n");
+			out.write("          <body xmlns=\"http://www.w3.org/1999/xhtml\">\n");
+			writeNote(out, "Palsson SID", "");
+			writeNote(out, "EcoCyc Frame ID", metabolite.getMetaboliteID());
+			writeNote(out, "Chemical Formula", "");
+			out.write("          </body>\n");
+			out.write("        </notes>\n");
+			out.write("      </species>\n");
+		}
+		out.write("    </listOfSpecies>\n");
+		out.write("    <listOfReactions>\n");
+		out.close();
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	private ByteBuffer renderFooter() throws IOException {
+		return ByteBuffer.wrap(("    </listOfReactions>\n" + "  </model>\n" + "</sbml>\n").getBytes(ENCODING));
+	}
+
+	/**
+	 * Notes of a reaction, in the order they are written.  Both SBML backends write these notes, so that they produce the same model.
+	 * Values which come from a model read back in are kept, the rest of the standard notes are left empty.
+	 *
+	 * @return Note values by key, never null
+	 */
+	public static LinkedHashMap<String, String> createReactionNotes(AbstractReactionInstance reaction) {
+		HashMap<String, String> imported = reaction instanceof ImportedReactionInstance ? ((ImportedReactionInstance) reaction).getNotes() : new HashMap<String, String>();
+		LinkedHashMap<String, String> notes = new LinkedHashMap<String, String>();
+		for (String key : REACTION_NOTE_KEYS) notes.put(key, imported.containsKey(key) ? imported.get(key) : "");
+		String geneRule = reaction.getGeneProteinReactionRule();
+		notes.put("Gene Rule", geneRule == null ? "" : geneRule);
+		notes.put("Reaction Location", reaction.reactionLocation_ == null ? "" : reaction.reactionLocation_);
+		if (reaction instanceof LumpedReactionInstance) notes.put("Lumped Reactions", ((LumpedReactionInstance) reaction).describeMembers());
+		else if (imported.containsKey("Lumped Reactions")) notes.put("Lumped Reactions", imported.get("Lumped Reactions"));
+		return notes;
+	}
+
+	private static void writeNote(Writer out, String key, String value) throws IOException {
+		out.write("            <p>" + escape(key + " : " + (value == null ? "" : value)) + "</p>\n");
+	}
+
+	/**
+	 * Format a bound for an attribute value.  Whole numbers are written without a fraction, as the bounds from the parameters always are.
+	 */
+	private static String formatValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) return String.valueOf((long) value);
+		return String.valueOf(value);
+	}
+
+	/**
+	 * Escape a string for use in XML attribute values and text.
+	 */
+	public static String escape(String input) {
+		if (input == null) return "";
+		StringBuilder output = null;
+		for (int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+			String replacement = null;
+			switch (c) {
+				case '&': replacement = "&amp;"; break;
+				case '<': replacement = "&lt;"; break;
+				case '>': replacement = "&gt;"; break;
+				case '"': replacement = "&quot;"; break;
+				case '\'': replacement = "&apos;"; break;
+				default: break;
+			}
+			if (replacement != null && output == null) {
+				output = new StringBuilder(input.length() + 16);
+				output.append(input, 0, i);
+			}
+			if (output != null) {
+				if (replacement != null) output.append(replacement);
+				else output.append(c);
+			}
+		}
+		return output == null ? input : output.toString();
+	}
+
+
+	// Internal Classes
+	/**
+	 * Everything needed to render a single reaction, resolved ahead of time so that rendering does not touch the database.
+	 */
+	private static class ReactionRecord {
+		public String id;
+		public String name;
+		public boolean reversible;
+		public ArrayList<String> reactantIDs = new ArrayList<String>();
+		public ArrayList<Integer> reactantCoefficients = new ArrayList<Integer>();
+		public ArrayList<String> productIDs = new ArrayList<String>();
+		public ArrayList<Integer> productCoefficients = new ArrayList<Integer>();
+		public double lowerBound;
+		public double upperBound;
+		public LinkedHashMap<String, String> notes;
+
+		public ReactionRecord(AbstractReactionInstance reaction, String reactionID) {
+			this.id = reactionID;
+			this.name = reaction.name_;
+			this.reversible = reaction.reversible_;
+			this.lowerBound = reaction.getLowerBound();
+			this.upperBound = reaction.getUpperBound();
+			for (MetaboliteInstance reactant : reaction.getOrderedReactants()) {
+				reactantIDs.add(reactant.generateSpeciesID());
+				reactantCoefficients.add(reactant.coefficient_);
+			}
+			for (MetaboliteInstance product : reaction.getOrderedProducts()) {
+				productIDs.add(product.generateSpeciesID());
+				productCoefficients.add(product.coefficient_);
+			}
+			notes = createReactionNotes(reaction);
+		}
+	}
+
+	/**
+	 * Renders a chunk of reactions to a byte buffer.
+	 */
+	private static class ChunkRenderer implements Callable<ByteBuffer> {
+		private java.util.List<ReactionRecord> records_;
+
+		public ChunkRenderer(java.util.List<ReactionRecord> records) {
+			this.records_ = records;
+		}
+
+		public ByteBuffer call() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(records_.size() * 2048);
+			Writer out = new OutputStreamWriter(bytes, ENCODING);
+			for (ReactionRecord record : records_) renderReaction(out, record);
+			out.close();
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+
+		private void renderReaction(Writer out, ReactionRecord record) throws IOException {
+			out.write("      <reaction id=\"" + escape(record.id) + "\" name=\"" + escape(record.name) + "\" reversible=\"" + record.reversible + "\">\n");
+			out.write("        <notes>\n");
+			out.write("          <body xmlns=\"http://www.w3.org/1999/xhtml\">\n");
+			for (Map.Entry<String, String> note : record.notes.entrySet()) writeNote(out, note.getKey(), note.getValue());
+			out.write("          </body>\n");
+			out.write("        </notes>\n");
+			if (record.reactantIDs.size() > 0) {
+				out.write("        <listOfReactants>\n");
+				for (int i = 0; i < record.reactantIDs.size(); i++) {
+					out.write("          <speciesReference species=\"" + escape(record.reactantIDs.get(i)) + "\" stoichiometry=\"" + record.reactantCoefficients.get(i) + "\"/>\n");
+				}
+				out.write("        </listOfReactants>\n");
+			}
+			if (record.productIDs.size() > 0) {
+				out.write("        <listOfProducts>\n");
+				for (int i = 0; i < record.productIDs.size(); i++) {
+					out.write("          <speciesReference species=\"" + escape(record.productIDs.get(i)) + "\" stoichiometry=\"" + record.productCoefficients.get(i) + "\"/>\n");
+				}
+				out.write("        </listOfProducts>\n");
+			}
+			out.write("        <kineticLaw>\n");
+			out.write("          <math xmlns=\"http://www.w3.org/1998/Math/MathML\">\n");
+			out.write("            <ci> FLUX_VALUE </ci>\n");
+			out.write("          </math>\n");
+			out.write("          <listOfParameters>\n");
+			out.write("            <parameter id=\"LOWER_BOUND\" value=\"" + formatValue(record.lowerBound) + "\" units=\"mmol_per_gDW_per_hr\"/>\n");
+			out.write("            <parameter id=\"UPPER_BOUND\" value=\"" + formatValue(record.upperBound) + "\" units=\"mmol_per_gDW_per_hr\"/>\n");
+			out.write("            <parameter id=\"OBJECTIVE_COEFFICIENT\" value=\"0\"/>\n");
+			out.write("            <parameter id=\"FLUX_VALUE\" value=\"0\" units=\"mmol_per_gDW_per_hr\"/>\n");
+			out.write("          </listOfParameters>\n");
+			out.write("        </kineticLaw>\n");
+			out.write("      </reaction>\n");
+		}
+	}
+}
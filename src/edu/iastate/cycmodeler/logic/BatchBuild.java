@@ -0,0 +1,145 @@
+package edu.iastate.cycmodeler.logic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.iastate.cycmodeler.util.MyParameters;
+import edu.iastate.javacyco.JavacycConnection;
+
+/**
+ * Builds models for several organisms of the same Pathway Tools server in one JVM.  Each organism gets its own connection, parameters and
+ * network, and its output files are named after it, so builds do not share anything but the compound cache.  Compounds are mostly MetaCyc
+ * frames shared by all PGDBs on the server, so every organism after the first finds most of its compounds in the cache.
+ *
+ * With more than one thread the organisms are built concurrently, each build on its own thread.  The console output of concurrent builds
+ * is interleaved, lines are not prefixed with the organism.
+ *
+ * @author Jesse Walsh
+ */
+public class BatchBuild {
+	private String configFile_;
+	private String reactionConfigFile_;
+	private ArrayList<String> organisms_;
+	private int threads_;
+	private CompoundCache compoundCache_;
+
+	/**
+	 * @param configFile Path to configuration file, read again for each organism
+	 * @param reactionConfigFile Path to reaction configuration file
+	 * @param organisms Organism IDs to build models for, in order
+	 * @param threads Number of organisms to build at once
+	 */
+	public BatchBuild(String configFile, String reactionConfigFile, Collection<String> organisms, int threads) {
+		this.configFile_ = configFile;
+		this.reactionConfigFile_ = reactionConfigFile;
+		this.organisms_ = new ArrayList<String>(organisms);
+		this.threads_ = Math.max(1, Math.min(threads, organisms_.size()));
+		this.compoundCache_ = new CompoundCache();
+	}
+
+	/**
+	 * Build the model of every organism.  A failed build is reported and the batch moves on to the next organism.
+	 *
+	 * @return Organisms whose build failed
+	 */
+	public ArrayList<String> run() {
+		System.out.println("Building " + organisms_.size() + " organisms with " + threads_ + " threads ...");
+		long start = System.currentTimeMillis();
+		ArrayList<String> failed = new ArrayList<String>();
+
+		if (threads_ == 1) {
+			for (String organism : organisms_) {
+				if (!build(organism)) failed.add(organism);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads_);
+			try {
+				ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+				for (final String organism : organisms_) {
+					futures.add(executor.submit(new Callable<Boolean>() {
+						public Boolean call() {
+							return build(organism);
+						}
+					}));
+				}
+				for (int i = 0; i < organisms_.size(); i++) {
+					try {
+						if (!futures.get(i).get()) failed.add(organisms_.get(i));
+					} catch (ExecutionException e) {
+						e.printStackTrace();
+						failed.add(organisms_.get(i));
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+						Thread.currentThread().interrupt();
+						failed.add(organisms_.get(i));
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		long runtime = (System.currentTimeMillis() - start) / 1000;
+		System.out.println("Batch finished in " + runtime + " seconds, " + (organisms_.size() - failed.size()) + " built, " + failed.size() + " failed " + failed);
+		System.out.println("Compounds cached : " + compoundCache_.getSize() + ", loaded from cache : " + compoundCache_.getHits() + ", loaded from database : " + compoundCache_.getMisses());
+		QueryCoalescer queries = CycModeler.getQueryCoalescer();
+		System.out.println("Shared queries : " + queries.getRequests() + " asked, " + queries.getExecuted() + " sent to the server, " + queries.getCoalesced() + " merged with a running query");
+		return failed;
+	}
+
+	/**
+	 * Build the model of one organism on the calling thread.
+	 *
+	 * @return True if the build finished
+	 */
+	private boolean build(String organism) {
+		long start = System.currentTimeMillis();
+		System.out.println("Building " + organism + " ...");
+		JavacycConnection conn = null;
+		try {
+			MyParameters parameters = createParameters(organism);
+			conn = new JavacycConnection(parameters.Host, parameters.Port);
+			conn.selectOrganism(organism);
+
+			CycModeler modeler = new CycModeler(conn, parameters, compoundCache_);
+			if (!modeler.createModel(reactionConfigFile_)) {
+				System.err.println("Build of " + organism + " failed");
+				return false;
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			System.err.println("Build of " + organism + " failed");
+			return false;
+		} finally {
+			if (conn != null) conn.close();
+			CycModeler.clearCurrent();
+		}
+		System.out.println("Finished " + organism + " in " + (System.currentTimeMillis() - start) / 1000 + " seconds");
+		return true;
+	}
+
+	/**
+	 * Parameters of one organism's build: the configuration file with the organism replaced, and the organism prepended to the output file
+	 * name so that no two builds write to the same files.
+	 */
+	private MyParameters createParameters(String organism) {
+		MyParameters parameters = new MyParameters();
+		parameters.initHeadlessDefault();
+		parameters.initializeFromConfigFile(configFile_);
+		parameters.Organism = organism;
+		parameters.OutputFileName = organism + "_" + parameters.OutputFileName;
+		parameters.BatchOrganisms = new ArrayList<String>();
+		return parameters;
+	}
+
+
+	// Getters and Setters
+	public CompoundCache getCompoundCache() {
+		return compoundCache_;
+	}
+}
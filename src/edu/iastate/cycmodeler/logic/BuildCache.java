@@ -0,0 +1,328 @@
+package edu.iastate.cycmodeler.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import edu.iastate.cycmodeler.model.AbstractReactionInstance;
+import edu.iastate.cycmodeler.model.ImportedReactionInstance;
+import edu.iastate.cycmodeler.model.InstantiatedReactionInstance;
+import edu.iastate.cycmodeler.model.MetaboliteInstance;
+import edu.iastate.cycmodeler.model.ReactionNetwork;
+import edu.iastate.cycmodeler.util.MyParameters;
+import edu.iastate.javacyco.JavacycConnection;
+import edu.iastate.javacyco.PtoolsErrorException;
+import edu.iastate.javacyco.Reaction;
+
+/**
+ * Per-reaction results of a previous build, saved next to the model so that the next build only has to process reactions it has not
+ * seen before.  For each reaction frame the cache holds the reaction instances it contributed to the network after balance checking and
+ * generic instantiation (an empty list if it was dropped), with the generic and instantiation counts createModel reports for it, and for
+ * each metabolite the values the network needs without a connection: common name, chemical formula, Kegg ID and molecular weight.
+ *
+ * Cached reactions are rebuilt as ImportedReactionInstances with detached metabolites.  Diffusion and boundary reactions are not cached,
+ * they are recomputed from the species of the rebuilt network, which needs nothing from the database once the molecular weights are
+ * cached.  The whole cache is thrown away when any parameter that changes the per-reaction results is changed, or when the version of
+ * the organism's database on the server is not the one the cache was built from.  Edits to a database that do not change its version are
+ * not seen, delete the cache file (or clear the caches of the build service) after curating a database in place.
+ *
+ * @author Jesse Walsh
+ */
+public class BuildCache implements Serializable {
+	private static final long serialVersionUID = 2L;
+	public static final String FILE_SUFFIX = ".buildcache";
+
+	private String fingerprint_;
+	private HashMap<String, FrameRecord> reactions_;
+	private HashMap<String, MetaboliteRecord> metabolites_;
+	private transient int hits_;
+	private transient int misses_;
+
+	public BuildCache(String fingerprint) {
+		this.fingerprint_ = fingerprint;
+		this.reactions_ = new HashMap<String, FrameRecord>();
+		this.metabolites_ = new HashMap<String, MetaboliteRecord>();
+	}
+
+	/**
+	 * Read the cache saved by a previous build.  If there is no cache file, it cannot be read, it was saved with a different fingerprint,
+	 * or there is no fingerprint, an empty cache is returned.
+	 *
+	 * @param fileName Path of the cache file
+	 * @param fingerprint Fingerprint of the current parameters and database, as given by generateFingerprint
+	 * @return Cache to build from
+	 */
+	public static BuildCache load(String fileName, String fingerprint) {
+		if (!new File(fileName).exists()) return new BuildCache(fingerprint);
+		if (fingerprint == null) {
+			System.out.println("Database version is unknown, rebuilding all reactions ...");
+			return new BuildCache(fingerprint);
+		}
+
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+			BuildCache buildCache = (BuildCache) in.readObject();
+			if (buildCache.fingerprint_ != null && buildCache.fingerprint_.equals(fingerprint)) return buildCache;
+			System.out.println("Build cache was created with different settings, rebuilding all reactions ...");
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (ClassCastException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return new BuildCache(fingerprint);
+	}
+
+	/**
+	 * Write this cache to a file.
+	 *
+	 * @param fileName Path of the cache file
+	 * @throws IOException
+	 */
+	public void save(String fileName) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Version of the database of the organism conn has selected, as reported by the server.
+	 *
+	 * @param conn Connection to the database
+	 * @return Version of the database, or null if the server did not report one
+	 */
+	public static String queryKBVersion(JavacycConnection conn) {
+		try {
+			String version = conn.callFuncString("with-organism (:org-id '" + conn.getOrganismID() + ") (kb-version (current-kb))", false);
+			if (version != null && version.trim().length() > 0 && !version.trim().equals("NIL")) return version.trim();
+		} catch (PtoolsErrorException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Hash of the database version and every parameter that changes what a reaction contributes to the network.  The reaction config is
+	 * not included, as changing which reactions are chosen is exactly the case the cache is for.
+	 *
+	 * @param parameters Current parameters
+	 * @param kbVersion Version of the organism's database, as given by queryKBVersion
+	 * @return Hex encoded SHA-256 hash, or null if it could not be generated or the database version is unknown
+	 */
+	public static String generateFingerprint(MyParameters parameters, String kbVersion) {
+		if (kbVersion == null) return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ReactionNetwork.updateDigest(digest, String.valueOf(serialVersionUID));
+			ReactionNetwork.updateDigest(digest, kbVersion);
+			ReactionNetwork.updateDigest(digest, parameters.Host);
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.Port));
+			ReactionNetwork.updateDigest(digest, parameters.Organism);
+			ReactionNetwork.updateDigest(digest, parameters.DefaultCompartment);
+			ReactionNetwork.updateDigest(digest, parameters.ReactionPrefix);
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultLowerBound));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultUpperBound));
+			return ReactionNetwork.toHexString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Build the network for a list of chosen reactions.  Reactions found in the cache are rebuilt from it without touching the database.
+	 * The rest are processed with ReactionNetwork.generateReactionForms and added to the cache.  Every reaction, cached or not, enters the
+	 * network through the cache records, so a network built from a warm cache is identical to one built from a cold cache.  The generic and
+	 * instantiation statistics of the network's report are summed from the records, as the steps that count them are not run here.
+	 *
+	 * @param reactions Reactions chosen by the reaction config
+	 * @return Network of the chosen reactions, before diffusion and boundary reactions are added
+	 */
+	public ReactionNetwork buildNetwork(ArrayList<Reaction> reactions) {
+		hits_ = 0;
+		misses_ = 0;
+
+		int totalInitialReactions = 0;
+		int genericReactionsFound = 0;
+		int genericReactionsInstantiated = 0;
+		int instantiatedReactions = 0;
+		ArrayList<AbstractReactionInstance> reactionInstances = new ArrayList<AbstractReactionInstance>();
+		for (Reaction reaction : reactions) {
+			FrameRecord frameRecord = reactions_.get(reaction.getLocalID());
+			if (frameRecord == null) {
+				ReactionNetwork.ReactionForms reactionForms = ReactionNetwork.generateReactionForms(reaction);
+				frameRecord = new FrameRecord();
+				frameRecord.reactionInstances = reactionForms.reactionInstances;
+				frameRecord.genericReactionsFound = reactionForms.genericReactionsFound;
+				frameRecord.genericReactionsInstantiated = reactionForms.genericReactionsInstantiated;
+				for (AbstractReactionInstance reactionForm : reactionForms.reactions) frameRecord.records.add(createRecord(reaction.getLocalID(), reactionForm));
+				reactions_.put(reaction.getLocalID(), frameRecord);
+				misses_++;
+			} else hits_++;
+
+			totalInitialReactions += frameRecord.reactionInstances;
+			genericReactionsFound += frameRecord.genericReactionsFound;
+			genericReactionsInstantiated += frameRecord.genericReactionsInstantiated;
+			for (ReactionRecord record : frameRecord.records) {
+				if (record.instantiated) instantiatedReactions++;
+				reactionInstances.add(rebuildReaction(record));
+			}
+		}
+
+		ReactionNetwork reactionNetwork = new ReactionNetwork();
+		reactionNetwork.addReactions(reactionInstances);
+		reactionNetwork.setInstantiationStatistics(totalInitialReactions, genericReactionsFound, genericReactionsInstantiated, instantiatedReactions);
+		return reactionNetwork;
+	}
+
+	/**
+	 * @return Number of reactions found in the cache by the last call to buildNetwork
+	 */
+	public int getHits() {
+		return hits_;
+	}
+
+	/**
+	 * @return Number of reactions processed against the database by the last call to buildNetwork
+	 */
+	public int getMisses() {
+		return misses_;
+	}
+
+	private ReactionRecord createRecord(String frameID, AbstractReactionInstance reaction) {
+		ReactionRecord record = new ReactionRecord();
+		record.frameID = frameID;
+		record.instantiated = reaction instanceof InstantiatedReactionInstance;
+		record.reactionID = reaction.generateReactionID();
+		record.name = reaction.name_;
+		record.reactionType = reaction.getReactionType();
+		record.reversible = reaction.reversible_;
+		record.reactionLocation = reaction.reactionLocation_;
+		record.lowerBound = reaction.getLowerBound();
+		record.upperBound = reaction.getUpperBound();
+		record.geneProteinReactionRule = reaction.getGeneProteinReactionRule();
+		for (MetaboliteInstance reactant : reaction.getOrderedReactants()) record.reactants.add(createReference(reactant));
+		for (MetaboliteInstance product : reaction.getOrderedProducts()) record.products.add(createReference(product));
+		return record;
+	}
+
+	private MetaboliteReference createReference(MetaboliteInstance metabolite) {
+		String metaboliteID = metabolite.getMetaboliteID();
+		if (!metabolites_.containsKey(metaboliteID)) {
+			MetaboliteRecord record = new MetaboliteRecord();
+			record.commonName = metaboliteID;
+			record.chemicalFormula = metabolite.chemicalFormula_;
+			record.keggID = metabolite.keggID_;
+			record.molecularWeight = "";
+			try {
+				record.commonName = metabolite.getMetaboliteFrame().getCommonName();
+				String molecularWeight = metabolite.getMetaboliteFrame().getSlotValue("MOLECULAR-WEIGHT");
+				if (molecularWeight != null) record.molecularWeight = molecularWeight;
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+			metabolites_.put(metaboliteID, record);
+		}
+
+		MetaboliteReference reference = new MetaboliteReference();
+		reference.metaboliteID = metaboliteID;
+		reference.compartment = metabolite.compartment_;
+		reference.coefficient = metabolite.coefficient_;
+		return reference;
+	}
+
+	private AbstractReactionInstance rebuildReaction(ReactionRecord record) {
+		HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
+		for (MetaboliteReference reference : record.reactants) reactants.add(rebuildMetabolite(reference));
+		HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
+		for (MetaboliteReference reference : record.products) products.add(rebuildMetabolite(reference));
+
+		ImportedReactionInstance reaction = new ImportedReactionInstance(record.reactionID, record.name, record.reversible, record.reactionLocation, reactants, products, record.lowerBound, record.upperBound, record.geneProteinReactionRule);
+		reaction.setReactionType(record.reactionType);
+		reaction.setSource(record.frameID, record.instantiated);
+		return reaction;
+	}
+
+	private MetaboliteInstance rebuildMetabolite(MetaboliteReference reference) {
+		MetaboliteRecord record = metabolites_.get(reference.metaboliteID);
+		MetaboliteInstance metabolite = MetaboliteInstance.createDetached(reference.metaboliteID, record.commonName, reference.compartment, reference.coefficient, record.chemicalFormula, record.keggID, null);
+		// Detached frames must carry every slot read later, the molecular weight is read when adding diffusion reactions
+		metabolite.getMetaboliteFrame().putSlotValue("MOLECULAR-WEIGHT", record.molecularWeight);
+		return metabolite;
+	}
+
+
+	// Internal Classes
+	/**
+	 * Everything a reaction frame contributed to the network.
+	 */
+	private static class FrameRecord implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public int reactionInstances;
+		public int genericReactionsFound;
+		public int genericReactionsInstantiated;
+		public ArrayList<ReactionRecord> records = new ArrayList<ReactionRecord>();
+	}
+
+	/**
+	 * One reaction instance contributed to the network by a reaction frame.
+	 */
+	private static class ReactionRecord implements Serializable {
+		private static final long serialVersionUID = 2L;
+		public String frameID;
+		public boolean instantiated;
+		public String reactionID;
+		public String name;
+		public String reactionType;
+		public boolean reversible;
+		public String reactionLocation;
+		public double lowerBound;
+		public double upperBound;
+		public String geneProteinReactionRule;
+		public ArrayList<MetaboliteReference> reactants = new ArrayList<MetaboliteReference>();
+		public ArrayList<MetaboliteReference> products = new ArrayList<MetaboliteReference>();
+	}
+
+	/**
+	 * A metabolite as used by one reaction.
+	 */
+	private static class MetaboliteReference implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public String metaboliteID;
+		public String compartment;
+		public int coefficient;
+	}
+
+	/**
+	 * Database values of a metabolite, shared by every reaction that uses it.
+	 */
+	private static class MetaboliteRecord implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public String commonName;
+		public String chemicalFormula;
+		public String keggID;
+		public String molecularWeight;
+	}
+}
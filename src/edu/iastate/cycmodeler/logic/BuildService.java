@@ -0,0 +1,754 @@
+package edu.iastate.cycmodeler.logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.iastate.cycmodeler.io.CobraJsonWriter;
+import edu.iastate.cycmodeler.util.MyParameters;
+import edu.iastate.cycmodeler.util.ReactionIndex;
+import edu.iastate.javacyco.JavacycConnection;
+
+/**
+ * Local build service which keeps what builds of the same organism can share in memory between builds: an open connection and the
+ * reaction index for each organism, and one compound cache for all of them.  Builds run incrementally, so with the build cache on disk and
+ * the warm caches in memory a repeat build only does the work for what changed.
+ *
+ * Requests are made over HTTP on the loopback interface, with JSON bodies and responses:
+ *   GET    /status                          Queue and cache sizes, and counts of the queries merged by the query coalescer
+ *   POST   /builds                          Queue a build, returns its id. The body holds "settings" and "reactionConfig", the text of a
+ *                                           config file and a reaction config file, or "settingsFile" and "reactionConfigFile", paths to them
+ *   GET    /builds                          State of every build
+ *   GET    /builds/ID                       State of one build and the names of its artifacts
+ *   GET    /builds/ID/log                   Console output of the build, streamed until it finishes
+ *   GET    /builds/ID/artifacts/NAME        An output file of the build
+ *   DELETE /caches                          Close the organism connections, empty the caches and delete the build caches on disk
+ *
+ * At most threads builds run at once, builds of the same organism one at a time since they share a connection, and up to queueLimit more
+ * wait.  The model and other output of an organism are written to output/ORGANISM in the work directory, so that repeat builds find the
+ * build cache and output hash of the previous build, whatever OUTPUTDIRECTORY the settings give.
+ *
+ * The service keeps the last HISTORY_LIMIT finished builds, older ones are forgotten as new builds finish, although their output stays on
+ * disk.  Each build keeps the last LOG_LIMIT bytes of its log.
+ *
+ * Connections are opened through a ConnectionFactory, which the modeler also uses for the extra connections of parallel loading, so the
+ * service can be run against a stand-in knowledge base.  connectionsTo gives a factory for a server other than the one in the settings, such
+ * as a local Pathway Tools instance loaded with a test database, which is what Main --serve ... KBHOST:KBPORT uses.
+ *
+ * @author Jesse Walsh
+ */
+public class BuildService {
+	public static final int DEFAULT_PORT = 8642;
+	public static final int DEFAULT_QUEUE_LIMIT = 64;
+	public static final int HISTORY_LIMIT = 100;
+	public static final int LOG_LIMIT = 4 * 1024 * 1024;
+	private static final int LOG_POLL_MILLISECONDS = 1000;
+
+	private File workDirectory_;
+	private ConnectionFactory connectionFactory_;
+	private HttpServer server_;
+	private ThreadPoolExecutor executor_;
+	private volatile CompoundCache compoundCache_;
+	private ConcurrentHashMap<String, OrganismSession> sessions_;
+	private LinkedHashMap<String, Build> builds_;
+	private AtomicInteger nextBuildID_;
+	private PrintStream originalOut_;
+	private PrintStream originalErr_;
+
+	/**
+	 * @param port Port to listen on, on the loopback interface
+	 * @param threads Number of builds to run at once
+	 * @param queueLimit Number of builds which may wait for a thread
+	 * @param workDirectory Directory for build requests and output
+	 * @param connectionFactory Opens connections to the knowledge base, DEFAULT_CONNECTIONS for a Pathway Tools server
+	 * @throws IOException If the port cannot be bound
+	 */
+	public BuildService(int port, int threads, int queueLimit, File workDirectory, ConnectionFactory connectionFactory) throws IOException {
+		this.workDirectory_ = workDirectory;
+		this.connectionFactory_ = connectionFactory;
+		this.executor_ = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueLimit));
+		this.compoundCache_ = new CompoundCache();
+		this.sessions_ = new ConcurrentHashMap<String, OrganismSession>();
+		this.builds_ = new LinkedHashMap<String, Build>();
+		this.nextBuildID_ = new AtomicInteger(1);
+
+		server_ = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+		server_.createContext("/status", new StatusHandler());
+		server_.createContext("/builds", new BuildsHandler());
+		server_.createContext("/caches", new CachesHandler());
+		// Log streams stay open for the whole build, so they need threads of their own
+		server_.setExecutor(Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Start accepting requests.  From here on the console output of each build is captured for its log, as well as printed.
+	 */
+	public void start() {
+		workDirectory_.mkdirs();
+		originalOut_ = System.out;
+		originalErr_ = System.err;
+		System.setOut(new PrintStream(new BuildLogOutputStream(originalOut_), true));
+		System.setErr(new PrintStream(new BuildLogOutputStream(originalErr_), true));
+		server_.start();
+		System.out.println("Build service listening on " + server_.getAddress() + ", work directory " + workDirectory_.getAbsolutePath());
+	}
+
+	/**
+	 * Stop accepting requests, wait for running builds to finish and close the organism connections.
+	 */
+	public void stop() {
+		server_.stop(0);
+		executor_.shutdown();
+		try {
+			executor_.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		}
+		closeSessions();
+		compoundCache_ = new CompoundCache();
+		((ExecutorService) server_.getExecutor()).shutdownNow();
+		if (originalOut_ != null) System.setOut(originalOut_);
+		if (originalErr_ != null) System.setErr(originalErr_);
+	}
+
+	/**
+	 * Queue a build.
+	 *
+	 * @param settingsFile Path of the config file
+	 * @param reactionConfigFile Path of the reaction config file
+	 * @return The queued build
+	 * @throws RejectedExecutionException If the queue is full
+	 */
+	public Build submit(String settingsFile, String reactionConfigFile) {
+		return submit(String.valueOf(nextBuildID_.getAndIncrement()), settingsFile, reactionConfigFile);
+	}
+
+	private Build submit(String buildID, String settingsFile, String reactionConfigFile) {
+		final Build build = new Build(buildID, settingsFile, reactionConfigFile);
+		synchronized (builds_) {
+			builds_.put(build.id_, build);
+		}
+		try {
+			executor_.execute(new Runnable() {
+				public void run() {
+					runBuild(build);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (builds_) {
+				builds_.remove(build.id_);
+			}
+			throw e;
+		}
+		return build;
+	}
+
+	private void runBuild(Build build) {
+		currentLog_.set(build.log_);
+		build.setState(BuildState.RUNNING);
+		boolean built = false;
+		try {
+			MyParameters parameters = new MyParameters();
+			parameters.initHeadlessDefault();
+			parameters.initializeFromConfigFile(build.settingsFile_);
+			File outputDirectory = new File(new File(workDirectory_, "output"), parameters.Organism);
+			outputDirectory.mkdirs();
+			parameters.OutputDirectory = outputDirectory.getAbsolutePath() + File.separator;
+			parameters.IncrementalBuild = true;
+			build.organism_ = parameters.Organism;
+			build.outputDirectory_ = outputDirectory;
+			build.outputFileName_ = parameters.OutputFileName;
+
+			OrganismSession session = getSession(parameters);
+			session.lock.lock();
+			try {
+				if (session.conn == null) session.conn = connectionFactory_.open(parameters);
+				CycModeler modeler = new CycModeler(session.conn, parameters, compoundCache_);
+				modeler.setConnectionFactory(connectionFactory_);
+				modeler.setReactionIndex(session.reactionIndex);
+				built = modeler.createModel(build.reactionConfigFile_);
+				session.reactionIndex = modeler.getReactionIndex();
+			} finally {
+				if (!built && session.conn != null) {
+					// The connection may be left mid-query by the failure, the next build of the organism opens a new one
+					session.conn.close();
+					session.conn = null;
+					session.reactionIndex = null;
+				}
+				session.lock.unlock();
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			build.setState(built ? BuildState.SUCCEEDED : BuildState.FAILED);
+			build.log_.close();
+			pruneBuilds();
+			currentLog_.remove();
+			CycModeler.clearCurrent();
+		}
+	}
+
+	private OrganismSession getSession(MyParameters parameters) {
+		String key = parameters.Host + ":" + parameters.Port + ":" + parameters.Organism;
+		OrganismSession session = sessions_.get(key);
+		if (session == null) {
+			sessions_.putIfAbsent(key, new OrganismSession());
+			session = sessions_.get(key);
+		}
+		return session;
+	}
+
+	/**
+	 * Close the organism connections, drop the reaction indexes and compound cache and delete the build cache files of every organism, for
+	 * when the knowledge base has changed.  Waits for builds using a session to finish before closing it.  The next build of each organism
+	 * processes all of its reactions against the database again.
+	 */
+	public void clearCaches() {
+		closeSessions();
+		compoundCache_ = new CompoundCache();
+		File[] organismDirectories = new File(workDirectory_, "output").listFiles();
+		if (organismDirectories == null) return;
+		for (File organismDirectory : organismDirectories) {
+			File[] files = organismDirectory.listFiles();
+			if (files == null) continue;
+			for (File file : files) {
+				if (file.getName().endsWith(BuildCache.FILE_SUFFIX) && !file.delete()) System.err.println("Could not delete " + file.getPath());
+			}
+		}
+	}
+
+	private void closeSessions() {
+		for (String key : new ArrayList<String>(sessions_.keySet())) {
+			OrganismSession session = sessions_.remove(key);
+			session.lock.lock();
+			try {
+				if (session.conn != null) session.conn.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				session.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Forget the oldest finished builds beyond HISTORY_LIMIT.  Queued and running builds are always kept.
+	 */
+	private void pruneBuilds() {
+		synchronized (builds_) {
+			int finished = 0;
+			for (Build build : builds_.values()) if (build.isFinished()) finished++;
+			Iterator<Build> iterator = builds_.values().iterator();
+			while (finished > HISTORY_LIMIT && iterator.hasNext()) {
+				if (iterator.next().isFinished()) {
+					iterator.remove();
+					finished--;
+				}
+			}
+		}
+	}
+
+	private Build getBuild(String buildID) {
+		synchronized (builds_) {
+			return builds_.get(buildID);
+		}
+	}
+
+
+	// Request handlers
+	private class StatusHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				sendJson(exchange, 405, error("Use GET"));
+				return;
+			}
+			QueryCoalescer queries = CycModeler.getQueryCoalescer();
+			String json = "{\"queued\": " + executor_.getQueue().size() + ", \"running\": " + executor_.getActiveCount()
+					+ ", \"organisms\": " + sessions_.size() + ", \"compounds\": " + compoundCache_.getSize()
+					+ ", \"queries\": " + queries.getRequests() + ", \"queriesSent\": " + queries.getExecuted() + ", \"queriesMerged\": " + queries.getCoalesced() + "}";
+			sendJson(exchange, 200, json);
+		}
+	}
+
+	private class CachesHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			if (!exchange.getRequestMethod().equals("DELETE")) {
+				sendJson(exchange, 405, error("Use DELETE"));
+				return;
+			}
+			clearCaches();
+			sendJson(exchange, 200, "{\"cleared\": true}");
+		}
+	}
+
+	private class BuildsHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				String[] path = exchange.getRequestURI().getPath().substring("/builds".length()).replaceAll("^/+|/+$", "").split("/");
+				if (path.length == 1 && path[0].length() == 0) path = new String[0];
+
+				if (path.length == 0 && method.equals("POST")) queueBuild(exchange);
+				else if (path.length == 0 && method.equals("GET")) listBuilds(exchange);
+				else if (!method.equals("GET")) sendJson(exchange, 405, error("Use GET"));
+				else {
+					Build build = getBuild(path[0]);
+					if (build == null) sendJson(exchange, 404, error("No build " + path[0]));
+					else if (path.length == 1) sendJson(exchange, 200, build.toJson(true));
+					else if (path.length == 2 && path[1].equals("log")) streamLog(exchange, build);
+					else if (path.length == 3 && path[1].equals("artifacts")) sendArtifact(exchange, build, path[2]);
+					else sendJson(exchange, 404, error("Unknown resource " + exchange.getRequestURI().getPath()));
+				}
+			} catch (IllegalArgumentException e) {
+				sendJson(exchange, 400, error(e.getMessage()));
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void queueBuild(HttpExchange exchange) throws IOException {
+			HashMap<String, String> request = parseJsonObject(new String(readAll(exchange.getRequestBody()), "UTF-8"));
+			String buildID = String.valueOf(nextBuildID_.getAndIncrement());
+			File requestDirectory = new File(new File(workDirectory_, "requests"), buildID + "-" + System.currentTimeMillis());
+			String settingsFile = requestFile(request, "settings", requestDirectory);
+			String reactionConfigFile = requestFile(request, "reactionConfig", requestDirectory);
+			try {
+				sendJson(exchange, 202, submit(buildID, settingsFile, reactionConfigFile).toJson(false));
+			} catch (RejectedExecutionException e) {
+				sendJson(exchange, 503, error("Build queue is full"));
+			}
+		}
+
+		/**
+		 * Path of a file given in a request, either directly as nameFile or as the text of the file in name, which is saved to the request
+		 * directory.
+		 */
+		private String requestFile(HashMap<String, String> request, String name, File requestDirectory) throws IOException {
+			if (request.containsKey(name + "File")) {
+				String path = request.get(name + "File");
+				if (!new File(path).isFile()) throw new IllegalArgumentException("File not found : " + path);
+				return path;
+			}
+			if (!request.containsKey(name)) throw new IllegalArgumentException("Request needs " + name + " or " + name + "File");
+			requestDirectory.mkdirs();
+			File file = new File(requestDirectory, name);
+			FileWriter writer = new FileWriter(file);
+			try {
+				writer.write(request.get(name));
+			} finally {
+				writer.close();
+			}
+			return file.getPath();
+		}
+
+		private void listBuilds(HttpExchange exchange) throws IOException {
+			StringBuilder json = new StringBuilder("[");
+			synchronized (builds_) {
+				for (Build build : builds_.values()) {
+					if (json.length() > 1) json.append(", ");
+					json.append(build.toJson(false));
+				}
+			}
+			sendJson(exchange, 200, json.append("]").toString());
+		}
+
+		private void streamLog(HttpExchange exchange, Build build) throws IOException {
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = exchange.getResponseBody();
+			long[] offset = {0};
+			while (true) {
+				byte[] bytes = build.log_.read(offset, LOG_POLL_MILLISECONDS);
+				if (bytes == null) break;
+				if (bytes.length > 0) {
+					out.write(bytes);
+					out.flush();
+				}
+			}
+			out.close();
+		}
+
+		private void sendArtifact(HttpExchange exchange, Build build, String name) throws IOException {
+			if (!build.getArtifactNames().contains(name)) {
+				sendJson(exchange, 404, error("No artifact " + name));
+				return;
+			}
+			File file = new File(build.outputDirectory_, name);
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.sendResponseHeaders(200, file.length());
+			OutputStream out = exchange.getResponseBody();
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+			} finally {
+				in.close();
+				out.close();
+			}
+		}
+	}
+
+	private static String error(String message) {
+		return "{\"error\": " + CobraJsonWriter.quote(message) + "}";
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) bytes.write(buffer, 0, read);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Parse a JSON object whose values are strings, numbers, booleans or null.  Nested objects and arrays are not accepted.
+	 *
+	 * @param json Text of the object
+	 * @return Values by name. Numbers and booleans are kept as written, null values are left out
+	 * @throws IllegalArgumentException If the text is not such an object
+	 */
+	public static HashMap<String, String> parseJsonObject(String json) {
+		HashMap<String, String> values = new HashMap<String, String>();
+		int[] position = {skipWhitespace(json, 0)};
+		expect(json, position, '{');
+		if (peek(json, position) == '}') {
+			position[0]++;
+			return values;
+		}
+		while (true) {
+			String name = parseJsonString(json, position);
+			expect(json, position, ':');
+			String value;
+			if (peek(json, position) == '"') value = parseJsonString(json, position);
+			else {
+				int start = position[0];
+				while (position[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(position[0])) == -1) position[0]++;
+				value = json.substring(start, position[0]);
+				if (!value.matches("true|false|null|-?[0-9][0-9.eE+-]*")) throw new IllegalArgumentException("Unsupported JSON value for " + name);
+				if (value.equals("null")) value = null;
+				position[0] = skipWhitespace(json, position[0]);
+			}
+			if (value != null) values.put(name, value);
+			char next = peek(json, position);
+			position[0]++;
+			if (next == '}') break;
+			if (next != ',') throw new IllegalArgumentException("Expected , or } at " + (position[0] - 1));
+			position[0] = skipWhitespace(json, position[0]);
+		}
+		if (skipWhitespace(json, position[0]) != json.length()) throw new IllegalArgumentException("Text after JSON object");
+		return values;
+	}
+
+	private static String parseJsonString(String json, int[] position) {
+		expect(json, position, '"');
+		StringBuilder value = new StringBuilder();
+		while (true) {
+			if (position[0] >= json.length()) throw new IllegalArgumentException("Unterminated JSON string");
+			char c = json.charAt(position[0]++);
+			if (c == '"') break;
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			if (position[0] >= json.length()) throw new IllegalArgumentException("Unterminated JSON string");
+			char escaped = json.charAt(position[0]++);
+			switch (escaped) {
+				case 'n': value.append('\n'); break;
+				case 't': value.append('\t'); break;
+				case 'r': value.append('\r'); break;
+				case 'b': value.append('\b'); break;
+				case 'f': value.append('\f'); break;
+				case 'u': {
+					if (position[0] + 4 > json.length()) throw new IllegalArgumentException("Bad JSON escape");
+					value.append((char) Integer.parseInt(json.substring(position[0], position[0] + 4), 16));
+					position[0] += 4;
+				} break;
+				default: value.append(escaped); break;
+			}
+		}
+		position[0] = skipWhitespace(json, position[0]);
+		return value.toString();
+	}
+
+	private static void expect(String json, int[] position, char c) {
+		if (peek(json, position) != c) throw new IllegalArgumentException("Expected " + c + " at " + position[0]);
+		position[0] = skipWhitespace(json, position[0] + 1);
+	}
+
+	private static char peek(String json, int[] position) {
+		if (position[0] >= json.length()) throw new IllegalArgumentException("Unexpected end of JSON");
+		return json.charAt(position[0]);
+	}
+
+	private static int skipWhitespace(String json, int position) {
+		while (position < json.length() && Character.isWhitespace(json.charAt(position))) position++;
+		return position;
+	}
+
+
+	// Build output capture
+	/*
+	 * Log of the build running on the current thread, inherited by the threads the build starts, or null outside builds.
+	 */
+	private static final InheritableThreadLocal<BuildLog> currentLog_ = new InheritableThreadLocal<BuildLog>();
+
+	/**
+	 * Console stream which also copies what each build prints to that build's log.
+	 */
+	private static class BuildLogOutputStream extends OutputStream {
+		private OutputStream console_;
+
+		public BuildLogOutputStream(OutputStream console) {
+			this.console_ = console;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			console_.write(bytes, offset, length);
+			BuildLog log = currentLog_.get();
+			if (log != null) log.append(bytes, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			console_.flush();
+		}
+	}
+
+
+	// Internal Classes
+	/**
+	 * Opens a connection with the organism of the parameters selected.
+	 */
+	public interface ConnectionFactory {
+		public JavacycConnection open(MyParameters parameters);
+	}
+
+	/**
+	 * Connects to the Pathway Tools server given by the HOST and PORT parameters.
+	 */
+	public static final ConnectionFactory DEFAULT_CONNECTIONS = new ConnectionFactory() {
+		public JavacycConnection open(MyParameters parameters) {
+			JavacycConnection conn = new JavacycConnection(parameters.Host, parameters.Port);
+			conn.selectOrganism(parameters.Organism);
+			return conn;
+		}
+	};
+
+	/**
+	 * Connects to one server whatever the HOST and PORT parameters are, such as a stand-in knowledge base for trying out settings.
+	 *
+	 * @param host Host of the server
+	 * @param port Port of the server
+	 * @return Factory opening connections to the server, with the organism of the parameters selected
+	 */
+	public static ConnectionFactory connectionsTo(final String host, final int port) {
+		return new ConnectionFactory() {
+			public JavacycConnection open(MyParameters parameters) {
+				JavacycConnection conn = new JavacycConnection(host, port);
+				conn.selectOrganism(parameters.Organism);
+				return conn;
+			}
+		};
+	}
+
+	/**
+	 * What builds of one organism share: the connection and the reaction index loaded through it.
+	 */
+	private static class OrganismSession {
+		public ReentrantLock lock = new ReentrantLock();
+		public JavacycConnection conn;
+		public ReactionIndex reactionIndex;
+	}
+
+	public enum BuildState {
+		QUEUED, RUNNING, SUCCEEDED, FAILED
+	}
+
+	/**
+	 * A build request and its progress.
+	 */
+	public class Build {
+		private String id_;
+		private String settingsFile_;
+		private String reactionConfigFile_;
+		private volatile BuildState state_;
+		private volatile String organism_;
+		private volatile File outputDirectory_;
+		private volatile String outputFileName_;
+		private long queued_;
+		private volatile long started_;
+		private volatile long finished_;
+		private BuildLog log_;
+
+		private Build(String id, String settingsFile, String reactionConfigFile) {
+			this.id_ = id;
+			this.settingsFile_ = settingsFile;
+			this.reactionConfigFile_ = reactionConfigFile;
+			this.state_ = BuildState.QUEUED;
+			this.queued_ = System.currentTimeMillis();
+			this.log_ = new BuildLog();
+		}
+
+		private boolean isFinished() {
+			return state_ == BuildState.SUCCEEDED || state_ == BuildState.FAILED;
+		}
+
+		private void setState(BuildState state) {
+			if (state == BuildState.RUNNING) started_ = System.currentTimeMillis();
+			else if (state != BuildState.QUEUED) finished_ = System.currentTimeMillis();
+			state_ = state;
+		}
+
+		/**
+		 * @return Names of the files in the organism's output directory written for this build's output file name, empty until it is finished
+		 */
+		public ArrayList<String> getArtifactNames() {
+			ArrayList<String> names = new ArrayList<String>();
+			if (outputDirectory_ == null || state_ == BuildState.QUEUED || state_ == BuildState.RUNNING) return names;
+			File[] files = outputDirectory_.listFiles();
+			if (files == null) return names;
+			for (File file : files) {
+				if (file.isFile() && file.getName().startsWith(outputFileName_)) names.add(file.getName());
+			}
+			String[] sorted = names.toArray(new String[names.size()]);
+			Arrays.sort(sorted);
+			return new ArrayList<String>(Arrays.asList(sorted));
+		}
+
+		private String toJson(boolean withArtifacts) {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"id\": ").append(CobraJsonWriter.quote(id_));
+			json.append(", \"state\": ").append(CobraJsonWriter.quote(state_.toString()));
+			json.append(", \"organism\": ").append(organism_ == null ? "null" : CobraJsonWriter.quote(organism_));
+			json.append(", \"queued\": ").append(queued_);
+			json.append(", \"started\": ").append(started_);
+			json.append(", \"finished\": ").append(finished_);
+			json.append(", \"logBytes\": ").append(log_.size());
+			if (withArtifacts) {
+				json.append(", \"artifacts\": [");
+				ArrayList<String> names = getArtifactNames();
+				for (int i = 0; i < names.size(); i++) {
+					if (i > 0) json.append(", ");
+					json.append(CobraJsonWriter.quote(names.get(i)));
+				}
+				json.append("]");
+			}
+			return json.append("}").toString();
+		}
+
+		public String getID() {
+			return id_;
+		}
+
+		public BuildState getState() {
+			return state_;
+		}
+	}
+
+	/**
+	 * Console output of one build, of which the last LOG_LIMIT bytes are kept.  Offsets count every byte written, including those since
+	 * discarded.  Readers wait for more output until the build is finished.
+	 */
+	private static class BuildLog {
+		private byte[] bytes_ = new byte[8192];
+		private int length_ = 0;
+		private long discarded_ = 0;
+		private boolean closed_ = false;
+
+		public synchronized void append(byte[] bytes, int offset, int length) {
+			if (length >= LOG_LIMIT) {
+				discarded_ += length_ + length - LOG_LIMIT;
+				System.arraycopy(bytes, offset + length - LOG_LIMIT, bytes_ = new byte[LOG_LIMIT], 0, LOG_LIMIT);
+				length_ = LOG_LIMIT;
+				notifyAll();
+				return;
+			}
+			if (length_ + length > LOG_LIMIT) {
+				// Drop a quarter of the log at once, so a build printing steadily does not shift the buffer on every write
+				int drop = Math.min(length_, length_ + length - LOG_LIMIT + LOG_LIMIT / 4);
+				System.arraycopy(bytes_, drop, bytes_, 0, length_ - drop);
+				length_ -= drop;
+				discarded_ += drop;
+			}
+			if (length_ + length > bytes_.length) bytes_ = Arrays.copyOf(bytes_, Math.min(LOG_LIMIT, Math.max(length_ + length, bytes_.length * 2)));
+			System.arraycopy(bytes, offset, bytes_, length_, length);
+			length_ += length;
+			notifyAll();
+		}
+
+		public synchronized void close() {
+			closed_ = true;
+			notifyAll();
+		}
+
+		/**
+		 * @return Number of bytes written to the log
+		 */
+		public synchronized long size() {
+			return discarded_ + length_;
+		}
+
+		/**
+		 * Output written after offset[0], waiting up to timeout milliseconds for some if there is none yet.  Output after the offset which has
+		 * been discarded is skipped.  The offset is moved past the output returned.
+		 *
+		 * @return New output, possibly empty, or null if the build is finished and everything has been read
+		 */
+		public synchronized byte[] read(long[] offset, long timeout) {
+			if (size() <= offset[0] && !closed_) {
+				try {
+					wait(timeout);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			if (size() <= offset[0]) return closed_ ? null : new byte[0];
+			int start = (int) (Math.max(offset[0], discarded_) - discarded_);
+			offset[0] = size();
+			return Arrays.copyOfRange(bytes_, start, length_);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package edu.iastate.cycmodeler.logic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.iastate.javacyco.Frame;
+import edu.iastate.javacyco.JavacycConnection;
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Compound data which does not depend on the organism: common name, chemical formula, Kegg ID, molecular weight and whether the frame is
+ * a class.  Most compounds of a PGDB are MetaCyc frames shared by every PGDB on the server, so a cache shared between the builds of a batch
+ * only looks each compound up once.  Within a single build it saves looking a compound up again for every reaction it takes part in.
+ *
+ * Frames handed out by the cache belong to the connection they were asked for and have the class Frame.load gave the compound (Compound,
+ * or Frame for a class of compounds), with the cached slots already filled in, so slots which are not cached are still read from that
+ * organism's database.  The cache is safe for use by several builds at once, and builds on the same server which miss on the same compound
+ * at the same time load it from the server once, whichever organisms they are for.
+ *
+ * @author Jesse Walsh
+ */
+public class CompoundCache {
+	private static final String COMMON_NAME_SLOT = "COMMON-NAME";
+	private static final String CHEMICAL_FORMULA_SLOT = "CHEMICAL-FORMULA";
+	private static final String MOLECULAR_WEIGHT_SLOT = "MOLECULAR-WEIGHT";
+	private static final String[] CACHED_SLOTS = {COMMON_NAME_SLOT, CHEMICAL_FORMULA_SLOT, MOLECULAR_WEIGHT_SLOT};
+
+	private ConcurrentHashMap<String, Compound> compounds_;
+	private AtomicInteger hits_;
+	private AtomicInteger misses_;
+
+	public CompoundCache() {
+		this.compounds_ = new ConcurrentHashMap<String, Compound>();
+		this.hits_ = new AtomicInteger();
+		this.misses_ = new AtomicInteger();
+	}
+
+	/**
+	 * Load a compound frame.  Compounds seen before are not looked up again, the frame is created locally with the cached slots.
+	 *
+	 * @param conn Connection of the build the frame is for
+	 * @param compoundID Frame ID of the compound
+	 * @return Compound frame belonging to conn
+	 * @throws PtoolsErrorException
+	 */
+	public Frame loadFrame(JavacycConnection conn, String compoundID) throws PtoolsErrorException {
+		Compound compound = compounds_.get(compoundID);
+		if (compound == null) {
+			misses_.incrementAndGet();
+			return loadSharedFrame(conn, compoundID);
+		}
+		hits_.incrementAndGet();
+		Frame frame = newFrame(compound.frameClass, conn, compoundID);
+		putSlot(frame, COMMON_NAME_SLOT, compound.commonName);
+		frame.putSlotValues(CHEMICAL_FORMULA_SLOT, new ArrayList<Object>(compound.chemicalFormulaValues));
+		putSlot(frame, MOLECULAR_WEIGHT_SLOT, compound.molecularWeight);
+		return frame;
+	}
+
+	/**
+	 * Load a frame from the database, together with any other build on the same server asking for the same compound at the same time,
+	 * whatever its organism.  The build which loads the frame keeps it, the others are given a frame of the same class on their own
+	 * connection with a copy of the cached slots only, as on a cache hit, so slots which may differ between organisms are still read from
+	 * their own database.
+	 */
+	private static Frame loadSharedFrame(final JavacycConnection conn, final String compoundID) throws PtoolsErrorException {
+		final Frame[] loaded = new Frame[1];
+		Frame snapshot = CycModeler.getQueryCoalescer().call(CycModeler.getServerScope() + " compound " + compoundID, new QueryCoalescer.Query<Frame>() {
+			public Frame run() throws PtoolsErrorException {
+				loaded[0] = Frame.load(conn, compoundID);
+				return loaded[0] == null ? null : copySlots(loaded[0], newFrame(loaded[0].getClass(), conn, compoundID));
+			}
+		});
+		if (loaded[0] != null || snapshot == null) return loaded[0];
+		return copySlots(snapshot, newFrame(snapshot.getClass(), conn, compoundID));
+	}
+
+	/**
+	 * Create a frame of a given class without going to the server.  Frame classes have a (JavacycConnection, String) constructor, if one
+	 * does not a plain Frame is created.
+	 */
+	private static Frame newFrame(Class<? extends Frame> frameClass, JavacycConnection conn, String frameID) {
+		try {
+			return frameClass.getConstructor(JavacycConnection.class, String.class).newInstance(conn, frameID);
+		} catch (Exception e) {
+			return new Frame(conn, frameID);
+		}
+	}
+
+	/**
+	 * Copy the cached slots loaded into a frame onto another frame, the value lists are not shared.
+	 */
+	private static Frame copySlots(Frame from, Frame to) throws PtoolsErrorException {
+		Map<String, ?> slots = from.getLocalSlots();
+		for (String slot : CACHED_SLOTS) {
+			if (slots.containsKey(slot)) to.putSlotValues(slot, new ArrayList<Object>((Collection<?>) slots.get(slot)));
+		}
+		return to;
+	}
+
+	private static void putSlot(Frame frame, String slot, String value) {
+		if (value == null) frame.putSlotValues(slot, new ArrayList<Object>());
+		else frame.putSlotValue(slot, value);
+	}
+
+	/**
+	 * @param compoundID Frame ID of the compound
+	 * @return Cached data of the compound, or null if it has not been added
+	 */
+	public Compound get(String compoundID) {
+		return compounds_.get(compoundID);
+	}
+
+	/**
+	 * Add a compound from a frame loaded from the database.  If another build added the compound first, that entry is kept.
+	 *
+	 * @param frame Compound frame
+	 * @param chemicalFormula Display chemical formula
+	 * @param keggID Kegg ID, may be empty
+	 * @return Cached data of the compound
+	 */
+	@SuppressWarnings("unchecked")
+	public Compound add(Frame frame, String chemicalFormula, String keggID) {
+		Compound compound = compounds_.get(frame.getLocalID());
+		if (compound != null) return compound;
+
+		compound = new Compound();
+		compound.chemicalFormula = chemicalFormula;
+		compound.keggID = keggID;
+		compound.frameClass = frame.getClass();
+		compound.chemicalFormulaValues = new ArrayList<Object>();
+		try {
+			compound.commonName = frame.getSlotValue(COMMON_NAME_SLOT);
+			if (frame.hasSlot(CHEMICAL_FORMULA_SLOT)) compound.chemicalFormulaValues.addAll(frame.getSlotValues(CHEMICAL_FORMULA_SLOT));
+			compound.molecularWeight = frame.getSlotValue(MOLECULAR_WEIGHT_SLOT);
+			compound.classFrame = frame.isClassFrame();
+		} catch (PtoolsErrorException e) {
+			// Leave it out, it will be looked up again next time
+			e.printStackTrace();
+			return compound;
+		}
+		Compound previous = compounds_.putIfAbsent(frame.getLocalID(), compound);
+		return previous != null ? previous : compound;
+	}
+
+
+	// Getters and Setters
+	public int getSize() {
+		return compounds_.size();
+	}
+
+	public int getHits() {
+		return hits_.get();
+	}
+
+	public int getMisses() {
+		return misses_.get();
+	}
+
+
+	// Internal Classes
+	/**
+	 * Organism independent data of one compound.  Never changed once added.
+	 */
+	public static class Compound {
+		public String commonName;
+		public String chemicalFormula;
+		public String keggID;
+		public String molecularWeight;
+		public boolean classFrame;
+		private Class<? extends Frame> frameClass;
+		private ArrayList<Object> chemicalFormulaValues;
+	}
+}
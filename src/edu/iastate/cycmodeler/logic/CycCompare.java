@@ -8,11 +8,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import edu.iastate.cycmodeler.analysis.CurrencyMetabolites;
 import edu.iastate.cycmodeler.model.ReactionInstance;
+import edu.iastate.cycmodeler.util.PathwayLoader;
 import edu.iastate.javacyco.Compound;
 import edu.iastate.javacyco.Frame;
 import edu.iastate.javacyco.JavacycConnection;
@@ -555,42 +558,17 @@ public class CycCompare {
 		// All reactions of central carbon metabolism
 		TreeSet<String> reactionIDs = new TreeSet<String>();
 
-		ArrayList<String> biosynPwys = (ArrayList<String>)conn.getClassAllInstances("|Amino-Acid-Biosynthesis|");
-		Pathway glyoxalateCycle = loadPathway("GLYOXYLATE-BYPASS");
-		Pathway TCACycle = loadPathway("TCA");
-		Pathway glycolysisI = loadPathway("GLYCOLYSIS");
-		Pathway ppp = loadPathway("PENTOSE-P-PWY");
-		Pathway superPwy = loadPathway("GLYCOLYSIS-TCA-GLYOX-BYPASS");
-		Pathway ed = loadPathway("ENTNER-DOUDOROFF-PWY");
-		
-		reactionIDs.addAll(glyoxalateCycle.getReactionIDs());
-		reactionIDs.addAll(TCACycle.getReactionIDs());
-		reactionIDs.addAll(glycolysisI.getReactionIDs());
-		reactionIDs.addAll(ppp.getReactionIDs());
-		reactionIDs.addAll(superPwy.getReactionIDs());
-		reactionIDs.addAll(ed.getReactionIDs());
-		
-		for (String biosynPwy : biosynPwys) {
-			reactionIDs.addAll(loadPathway(biosynPwy).getReactionIDs());
-		}
+		ArrayList<String> pathwayIDs = new ArrayList<String>();
+		pathwayIDs.add("GLYOXYLATE-BYPASS");
+		pathwayIDs.add("TCA");
+		pathwayIDs.add("GLYCOLYSIS");
+		pathwayIDs.add("PENTOSE-P-PWY");
+		pathwayIDs.add("GLYCOLYSIS-TCA-GLYOX-BYPASS");
+		pathwayIDs.add("ENTNER-DOUDOROFF-PWY");
+		pathwayIDs.addAll((ArrayList<String>)conn.getClassAllInstances("|Amino-Acid-Biosynthesis|"));
 		
-		// Recursively get all reactions, as some "reactionIDs" may be pathways themselves
-		boolean done = false;
-		ArrayList<String> remove = new ArrayList<String>();
-		while (!done) {
-			done = true;
-			ArrayList<String> add = new ArrayList<String>();
-			for (String id : reactionIDs) {
-				Frame pwy = Frame.load(conn, id);
-				if (pwy.getGFPtype().equals(Pathway.GFPtype)) {
-					done = false;
-					add.addAll(((Pathway)pwy).getReactionIDs());
-					remove.add(id);
-				}
-			}
-			reactionIDs.addAll(add);
-			reactionIDs.removeAll(remove);
-		}
+		// Some "reactionIDs" of a pathway may be pathways themselves, the loader expands these
+		reactionIDs.addAll(new PathwayLoader(conn, 1).loadReactionIDs(pathwayIDs));
 		
 		return reactionIDs;
 	}
@@ -646,33 +624,7 @@ public class CycCompare {
 		}
 		
 		// Fill in neighbor reactions connected to important metabolites
-		ArrayList<String> commonMetExcludeList = new ArrayList<String>();
-		commonMetExcludeList.add("ADP");
-		commonMetExcludeList.add("AMP");
-		commonMetExcludeList.add("ATP");
-		commonMetExcludeList.add("NAD");
-		commonMetExcludeList.add("NADH");
-		commonMetExcludeList.add("NADP");
-		commonMetExcludeList.add("NADPH");
-		commonMetExcludeList.add("OXYGEN-MOLECULE");
-		commonMetExcludeList.add("PROTON");
-		commonMetExcludeList.add("|Pi|");
-		commonMetExcludeList.add("NAD-P-OR-NOP");
-		commonMetExcludeList.add("NADH-P-OR-NOP");
-		commonMetExcludeList.add("PROT-CYS");
-		commonMetExcludeList.add("|Charged-SEC-tRNAs|");
-		commonMetExcludeList.add("|Demethylated-methyl-acceptors|");
-		commonMetExcludeList.add("|L-seryl-SEC-tRNAs|");
-		commonMetExcludeList.add("|Methylated-methyl-acceptors|");
-		commonMetExcludeList.add("|Quinones|");
-		commonMetExcludeList.add("|Reduced-Quinones|");
-		commonMetExcludeList.add("|SEC-tRNAs|");
-		commonMetExcludeList.add("|Ubiquinols|");
-		commonMetExcludeList.add("|Ubiquinones|");
-		commonMetExcludeList.add("ENZYME-S-SULFANYLCYSTEINE");
-		commonMetExcludeList.add("WATER");
-		commonMetExcludeList.add("CARBON-DIOXIDE");
-		commonMetExcludeList.add("PPI");
+		Set<String> commonMetExcludeList = CurrencyMetabolites.DEFAULT_IDS;
 		
 		for (String m : metaboliteIDs) {
 			if (!commonMetExcludeList.contains(m)) {
@@ -1,20 +1,42 @@
 package edu.iastate.cycmodeler.logic;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
-import org.sbml.libsbml.*;
-
+import edu.iastate.cycmodeler.analysis.ConnectedComponents;
+import edu.iastate.cycmodeler.analysis.DeadEndAnalysis;
+import edu.iastate.cycmodeler.analysis.ElementaryFluxModes;
+import edu.iastate.cycmodeler.analysis.FluxBalanceAnalysis;
+import edu.iastate.cycmodeler.analysis.FluxVariabilityAnalysis;
+import edu.iastate.cycmodeler.analysis.NetworkCompression;
+import edu.iastate.cycmodeler.analysis.RevisedSimplex;
+import edu.iastate.cycmodeler.io.BinaryNetworkFormat;
+import edu.iastate.cycmodeler.io.BinaryNetworkWriter;
+import edu.iastate.cycmodeler.io.CobraJsonWriter;
+import edu.iastate.cycmodeler.io.LibSBMLBackend;
+import edu.iastate.cycmodeler.io.MappedReactionNetwork;
+import edu.iastate.cycmodeler.io.MatFileWriter;
+import edu.iastate.cycmodeler.io.ParallelGzipOutputStream;
+import edu.iastate.cycmodeler.io.SBMLBackend;
+import edu.iastate.cycmodeler.io.SBMLStreamReader;
+import edu.iastate.cycmodeler.io.SBMLStreamWriter;
 import edu.iastate.cycmodeler.model.AbstractReactionInstance;
-import edu.iastate.cycmodeler.model.InstantiatedReactionInstance;
 import edu.iastate.cycmodeler.model.MetaboliteInstance;
-import edu.iastate.cycmodeler.model.ReactionInstance;
 import edu.iastate.cycmodeler.model.ReactionNetwork;
 import edu.iastate.cycmodeler.util.MyParameters;
 import edu.iastate.cycmodeler.util.ReactionChooser;
+import edu.iastate.cycmodeler.util.ReactionIndex;
+import edu.iastate.cycmodeler.util.Report;
 import edu.iastate.javacyco.JavacycConnection;
 import edu.iastate.javacyco.PtoolsErrorException;
 import edu.iastate.javacyco.Reaction;
@@ -31,8 +53,27 @@ import edu.iastate.javacyco.Reaction;
  *
  */
 public class CycModeler {
-	public static JavacycConnection conn;
-	public static MyParameters parameters;
+	public static final String HASH_FILE_SUFFIX = ".hash";
+	public static final String GZIP_FILE_SUFFIX = ".gz";
+	
+	/*
+	 * The modeler whose connection and parameters the rest of the code uses.  Several builds can run at once in one JVM, so it is kept
+	 * per thread and inherited by the threads a build starts.  A thread outside any build has no modeler until it calls makeCurrent, it
+	 * sees the default parameters and no connection, and never the modeler of another build.
+	 */
+	private static final InheritableThreadLocal<CycModeler> current_ = new InheritableThreadLocal<CycModeler>();
+	private static final MyParameters defaultParameters_ = new MyParameters();
+	/*
+	 * Shared by every build in the JVM, so that builds on different connections to the same server can merge their queries.
+	 */
+	private static final QueryCoalescer queryCoalescer_ = new QueryCoalescer();
+	
+	private JavacycConnection conn;
+	private MyParameters parameters;
+	private CompoundCache compoundCache;
+	private ReactionIndex reactionIndex;
+	private BuildService.ConnectionFactory connectionFactory;
+	private Report report;
 	
 	/**
 	 * Constructor: sets internal JavacycConnection object and initializes several default settings for generating models.
@@ -42,8 +83,167 @@ public class CycModeler {
 	 * @param configFile Path to configuration file
 	 */
 	public CycModeler (JavacycConnection connection, MyParameters parameters) {
-		conn = connection;
+		this(connection, parameters, new CompoundCache());
+	}
+	
+	/**
+	 * Constructor for builds which share compound data with other builds, such as the organisms of a batch.  The new modeler becomes the
+	 * current modeler of the calling thread.
+	 * 
+	 * @param connection Initialized connection object
+	 * @param parameters
+	 * @param compoundCache Cache of compound data, may be shared with other modelers
+	 */
+	public CycModeler (JavacycConnection connection, MyParameters parameters, CompoundCache compoundCache) {
+		this.conn = connection;
 		this.parameters = parameters;
+		this.compoundCache = compoundCache;
+		this.connectionFactory = BuildService.DEFAULT_CONNECTIONS;
+		this.report = new Report();
+		current_.set(this);
+	}
+	
+	/**
+	 * Make this modeler the current modeler of the calling thread, for a thread which did not create it or inherit it from the thread that
+	 * did.
+	 */
+	public void makeCurrent() {
+		current_.set(this);
+	}
+	
+	/**
+	 * Forget the current modeler of the calling thread, for a pooled thread which has finished a build and may run another.
+	 */
+	public static void clearCurrent() {
+		current_.remove();
+	}
+	
+	private static CycModeler current() {
+		return current_.get();
+	}
+	
+	private static CycModeler requireCurrent() {
+		CycModeler modeler = current_.get();
+		if (modeler == null) throw new IllegalStateException("No modeler is current on thread " + Thread.currentThread().getName());
+		return modeler;
+	}
+	
+	/**
+	 * @return Connection of the current build, or null if the calling thread has no modeler
+	 */
+	public static JavacycConnection getConnection() {
+		CycModeler modeler = current();
+		return modeler == null ? null : modeler.conn;
+	}
+	
+	/**
+	 * @return Parameters of the current build, or the default parameters if the calling thread has no modeler, such as when reading a saved
+	 * model
+	 */
+	public static MyParameters getParameters() {
+		CycModeler modeler = current();
+		return modeler != null ? modeler.parameters : defaultParameters_;
+	}
+	
+	/**
+	 * @return Report of the current build, or null if the calling thread has no modeler
+	 */
+	public static Report getReport() {
+		CycModeler modeler = current();
+		return modeler == null ? null : modeler.report;
+	}
+	
+	/**
+	 * @return Compound cache of the current build, or null if the calling thread has no modeler
+	 */
+	public static CompoundCache getCompoundCache() {
+		CycModeler modeler = current();
+		return modeler == null ? null : modeler.compoundCache;
+	}
+	
+	/**
+	 * @return Query coalescer through which concurrent identical database queries are merged
+	 */
+	public static QueryCoalescer getQueryCoalescer() {
+		return queryCoalescer_;
+	}
+	
+	/**
+	 * Start of the key of a query whose result depends on the organism: the server of the current build and the organism conn has selected.
+	 * 
+	 * @param conn Connection the query is run on
+	 * @return Server and organism, to which the query and its arguments are appended
+	 */
+	public static String getQueryScope(JavacycConnection conn) {
+		return getServerScope() + ":" + conn.getOrganismID();
+	}
+	
+	/**
+	 * Start of the key of a query whose result is the same for every organism on the server, such as the MetaCyc data of a compound.
+	 * 
+	 * @return Server of the current build, to which the query and its arguments are appended
+	 */
+	public static String getServerScope() {
+		MyParameters parameters = getParameters();
+		return parameters.Host + ":" + parameters.Port;
+	}
+	
+	/**
+	 * Index of every reaction in the database of the current build.  It is loaded the first time it is asked for, unless one was given with
+	 * setReactionIndex, and kept for the rest of the build.
+	 * 
+	 * @return Reaction index of the current build
+	 * @throws PtoolsErrorException
+	 * @throws IllegalStateException If the calling thread has no modeler
+	 */
+	public static ReactionIndex loadReactionIndex() throws PtoolsErrorException {
+		CycModeler modeler = requireCurrent();
+		synchronized (modeler) {
+			if (modeler.reactionIndex == null) {
+				modeler.reactionIndex = new ReactionIndex(modeler.conn);
+				System.out.println("Indexed reactions : " + modeler.reactionIndex.size());
+			}
+			return modeler.reactionIndex;
+		}
+	}
+	
+	/**
+	 * Open another connection to the knowledge base of the current build, for work split between threads.  The connection is opened by
+	 * the connection factory of the build, and the caller must close it.
+	 * 
+	 * @return New connection with the organism of the current build selected
+	 * @throws IllegalStateException If the calling thread has no modeler
+	 */
+	public static JavacycConnection openConnection() {
+		CycModeler modeler = requireCurrent();
+		return modeler.connectionFactory.open(modeler.parameters);
+	}
+	
+	// Getters and Setters
+	/**
+	 * @return Reaction index loaded or given for this build, or null if none has been used
+	 */
+	public synchronized ReactionIndex getReactionIndex() {
+		return reactionIndex;
+	}
+	
+	/**
+	 * Use an index loaded by an earlier build of the same organism, which must have been loaded through the same connection.
+	 * 
+	 * @param reactionIndex Reaction index, or null to load it when needed
+	 */
+	public synchronized void setReactionIndex(ReactionIndex reactionIndex) {
+		this.reactionIndex = reactionIndex;
+	}
+	
+	/**
+	 * Set how openConnection opens connections, such as to a stand-in knowledge base.  By default connections are opened to the server given
+	 * by the HOST and PORT parameters.
+	 * 
+	 * @param connectionFactory Opens connections to the knowledge base
+	 */
+	public void setConnectionFactory(BuildService.ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
 	}
 	
 	// Test
@@ -56,18 +256,11 @@ public class CycModeler {
 		System.out.println("Instantiating generic reactions ...");
 		reactionNetwork.generateSpecificReactionsFromGenericReactions();
 		
-		// 5) Create blank model
-		System.out.println("Initiating blank model ...");
-		SBMLDocument doc = createBlankSBMLDocument("Test", 2, 1);
-				
-		// 6) Generate SBML model
-		System.out.println("Generating SBML model ...");
-		generateSBMLModel(doc, reactionNetwork);
-		
-		// 7) Write model.
-		System.out.println("Writing output ...");
-		SBMLWriter writer = new SBMLWriter();
-		writer.writeSBML(doc, "/home/jesse/Desktop/test_output_model.xml");
+		// 5-7) Generate and write model.
+		if (LibSBMLBackend.loadLibrary()) {
+			System.out.println("Writing output ...");
+			new LibSBMLBackend("Test", 2, 1).write(reactionNetwork, "/home/jesse/Desktop/test_output_model.xml");
+		}
 		
 		// Print statistics
 		reactionNetwork.printNetworkStatistics();
@@ -79,8 +272,14 @@ public class CycModeler {
 	/**
 	 * This method will create a new model from a Cyc database. Generic reactions are instantiated, and boundary reactions
 	 * are created for external metabolites. The model is then written to an SBML file.
+	 * 
+	 * @return True if the model and every other output file were written
+	 * @throws IllegalArgumentException If a line of the reaction config cannot be used
+	 * @throws IllegalStateException If no reactions were selected, or the selected SBML backend cannot be loaded
 	 */
-	public void createModel(String reactionConfigFile) {
+	public boolean createModel(String reactionConfigFile) {
+		boolean written = true;
+		
 		// 1) Load reaction config file
 		/*
 		 * Note that in this step all reactions requested are considered and placed in the reaction list. However, duplicate reactions are not
@@ -89,27 +288,53 @@ public class CycModeler {
 		 */
 		System.out.println("Loading reaction config file ...");
 		ReactionChooser reactionChooser = new ReactionChooser(reactionConfigFile);
-		ReactionNetwork reactionNetwork = new ReactionNetwork(reactionChooser.getReactionList());
-		
-		// 1.1) Remove reactions with the CANNOT-BALANCE flag set
-		reactionNetwork.removeCannotBalanceReactions();
-		
-		// 2.1) Remove any unbalance reactions
-		reactionNetwork.removeUnbalancedReactions();
-		
-		// 2) Find and instantiate generics
-		/*
-		 * Note that in this step all reactions are filtered between generic and non-generic reactions. Those that are generic are attempted to be
-		 * instantiated. Those that aren't are left alone. Generic reactions, whether instantiated or not, are removed from the reaction list.
-		 */
-		System.out.println("Instantiating generic reactions ...");
-		reactionNetwork.generateSpecificReactionsFromGenericReactions();
-		
-		// 2.1) Final filter for all non-balanced reactions
-		
-		// 2.2) Output network heatmap
-		String heatMap = reactionNetwork.generateHeatMap();
-		System.out.println(heatMap);
+		ReactionNetwork reactionNetwork;
+
+		if (parameters.IncrementalBuild) {
+			// 1-2) Balance check and instantiate only the reactions not seen by a previous build
+			/*
+			 * The results of steps 1.1 to 2 are kept per reaction in the build cache, so only reactions the cache has not seen are looked
+			 * up in the database. The cache is rebuilt when the version of the database changes. Diffusion and boundary reactions are
+			 * recomputed below from the species of the network.
+			 */
+			String buildCacheFileName = getOutputFileName() + BuildCache.FILE_SUFFIX;
+			BuildCache buildCache = BuildCache.load(buildCacheFileName, BuildCache.generateFingerprint(parameters, BuildCache.queryKBVersion(conn)));
+			reactionNetwork = buildCache.buildNetwork(reactionChooser.getReactionList());
+			System.out.println("Reactions from build cache : " + buildCache.getHits() + ", reactions processed : " + buildCache.getMisses());
+			if (buildCache.getMisses() > 0) {
+				try {
+					buildCache.save(buildCacheFileName);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+
+			// 2.2) Output network heatmap
+			String heatMap = reactionNetwork.generateHeatMap();
+			System.out.println(heatMap);
+		} else {
+			reactionNetwork = new ReactionNetwork(reactionChooser.getReactionList());
+
+			// 1.1) Remove reactions with the CANNOT-BALANCE flag set
+			reactionNetwork.removeCannotBalanceReactions();
+
+			// 2.1) Remove any unbalance reactions
+			reactionNetwork.removeUnbalancedReactions();
+
+			// 2) Find and instantiate generics
+			/*
+			 * Note that in this step all reactions are filtered between generic and non-generic reactions. Those that are generic are attempted to be
+			 * instantiated. Those that aren't are left alone. Generic reactions, whether instantiated or not, are removed from the reaction list.
+			 */
+			System.out.println("Instantiating generic reactions ...");
+			reactionNetwork.generateSpecificReactionsFromGenericReactions();
+
+			// 2.1) Final filter for all non-balanced reactions
+
+			// 2.2) Output network heatmap
+			String heatMap = reactionNetwork.generateHeatMap();
+			System.out.println(heatMap);
+		}
 		
 		// 3) Add diffusion reactions
 		System.out.println("Adding diffusion reactions ...");
@@ -119,251 +344,448 @@ public class CycModeler {
 		System.out.println("Adding boundary reactions ...");
 		reactionNetwork.addBoundaryReactionsByCompartment(parameters.ExternalCompartmentName);
 		
-		// 5) Create blank model
-		System.out.println("Initiating blank model ...");
-		SBMLDocument doc = createBlankSBMLDocument(parameters.ModelName, parameters.DefaultSBMLLevel, parameters.DefaultSBMLVersion);
-				
-		// 6) Generate SBML model
-		System.out.println("Generating SBML model ...");
-		generateSBMLModel(doc, reactionNetwork);
+		// 4.1) Skip output if nothing has changed since the last build
+		/*
+		 * The hash covers the network the analyses below start from and every parameter that affects a file written from here on. If each
+		 * of those files exists and was written from the same hash, none of them is regenerated or rewritten. The stored hash is removed
+		 * before any file is touched and written again only once every file has been written, so a build that fails part way is never taken
+		 * as current by the next one.
+		 */
+		String outputFileName = getOutputFileName();
+		String outputHash = generateOutputHash(reactionNetwork, reactionNetwork.generateContentHash());
+		boolean unchanged = outputHash != null && outputHash.equals(readStoredOutputHash(outputFileName)) && outputFilesExist();
+		if (unchanged) System.out.println("Model is unchanged since last build, skipping output ...");
+		else deleteStoredOutputHash(outputFileName);
 		
-		// 7) Write model.
-		System.out.println("Writing output ...");
-		SBMLWriter writer = new SBMLWriter();
-		writer.writeSBML(doc, parameters.OutputDirectory + parameters.OutputFileName);
+		// 4.2) Find dead ends
+		/*
+		 * Species that can only be produced or only be consumed, and the reactions they block. With REMOVEDEADENDS the blocked reactions are
+		 * dropped before the model is written, except for the objective reaction.
+		 */
+		System.out.println("Finding dead-end metabolites ...");
+		ArrayList<String> protectedReactionIDs = new ArrayList<String>();
+		if (parameters.ObjectiveReaction.length() > 0) protectedReactionIDs.add(parameters.ObjectiveReaction);
+		DeadEndAnalysis deadEnds = reactionNetwork.findDeadEnds(parameters.RemoveDeadEnds, protectedReactionIDs);
+		try {
+			if (!unchanged) deadEnds.write(parameters.OutputDirectory + parameters.OutputFileName + DeadEndAnalysis.FILE_SUFFIX);
+		} catch (IOException e) {
+			e.printStackTrace();
+			written = false;
+		}
+		
+		// 4.3) Connectivity
+		System.out.println("Finding connected components ...");
+		ConnectedComponents components = reactionNetwork.findConnectedComponents();
+		try {
+			if (!unchanged) components.write(parameters.OutputDirectory + parameters.OutputFileName + ConnectedComponents.FILE_SUFFIX);
+		} catch (IOException e) {
+			e.printStackTrace();
+			written = false;
+		}
+		
+		// 4.4) Compress the network
+		/*
+		 * Blocked reactions are removed and fully coupled reactions are lumped together. With COMPRESSNETWORK MODEL the compressed network is
+		 * written and analyzed in place of the full network, with MAP only the compression map is written. The map is written either way.
+		 * 
+		 * Steps 4.2 to 4.4 run even if the output is unchanged, as they take linear time and their counts go into the network statistics.
+		 */
+		if (!parameters.CompressNetwork.equals("NONE")) {
+			System.out.println("Compressing network ...");
+			int reactionsBefore = reactionNetwork.Reactions.size();
+			int speciesBefore = reactionNetwork.getOrderedSpecies().size();
+			NetworkCompression compression = reactionNetwork.compress(protectedReactionIDs, parameters.CompressNetwork.equals("MODEL"));
+			System.out.println("Compressed " + reactionsBefore + " reactions, " + speciesBefore + " species to " + compression.getReactions().size() + " reactions in " + compression.getPasses() + " passes");
+			try {
+				if (!unchanged) compression.write(parameters.OutputDirectory + parameters.OutputFileName + NetworkCompression.FILE_SUFFIX);
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
+		
+		// 5-12) Write the model and run the analyses that only feed output files
+		if (!unchanged) {
+			if (!writeOutput(reactionNetwork, outputFileName)) written = false;
+			if (written) writeStoredOutputHash(outputFileName, reactionNetwork.generateContentHash(), outputHash);
+		}
 		
 		// Print statistics
 		reactionNetwork.printNetworkStatistics();
 		
+		if (!written) System.err.println("Some output files could not be written!");
 		System.out.println("Done!");
+		return written;
 	}
 	
-	// SBML Document Methods
 	/**
-	 * Initialize a blank SBMLDocument object with default values set.  Creates the Model object and sets
-	 * the mmol_per_gDW_per_hr UnitDefinition.
-	 * @param modelID Name of model
-	 * @param SBMLLevel Create SBMLDocument to conform to this level
-	 * @param SBMLVersion Create SBMLDocument to conform to this version
-	 * @return Initialized SBMLDocument object with a blank Model
+	 * Steps 5 to 12 of createModel. Write the model with the selected SBML backend, the binary network and the other export formats, and
+	 * run the objective check, flux variability analysis and elementary flux mode enumeration.
+	 * 
+	 * @param reactionNetwork Network to write
+	 * @param outputFileName Path of the model file
+	 * @return True if every file was written
 	 */
-	public SBMLDocument createBlankSBMLDocument(String modelID, int SBMLLevel, int SBMLVersion) {
-		SBMLDocument doc = new SBMLDocument(SBMLLevel, SBMLVersion);
-		Model model = doc.createModel(modelID);
-		model.setName("Generated from BioCyc Pathway/Genome Database");
+	private boolean writeOutput(ReactionNetwork reactionNetwork, String outputFileName) {
+		boolean written = true;
+		
+		// 5-7) Generate and write the model with the selected SBML backend
+		SBMLBackend backend = createSBMLBackend();
+		System.out.println("Writing output ...");
+		OutputStream out = null;
+		try {
+			out = openModelOutputStream(outputFileName);
+			backend.write(reactionNetwork, out);
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			written = false;
+		} finally {
+			try {
+				if (out != null) out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
+		
+		// 8) Write binary network for analysis tools
+		if (parameters.WriteBinaryNetwork) {
+			System.out.println("Writing binary network ...");
+			try {
+				new BinaryNetworkWriter().write(reactionNetwork, parameters.OutputDirectory + parameters.OutputFileName + BinaryNetworkFormat.FILE_SUFFIX);
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
+		
+		// 9) Export to other model formats
+		for (String format : parameters.ExportFormats) {
+			try {
+				if (format.equals("JSON")) {
+					System.out.println("Writing COBRA JSON model ...");
+					new CobraJsonWriter().write(reactionNetwork, parameters.OutputDirectory + parameters.OutputFileName + CobraJsonWriter.FILE_SUFFIX);
+				} else if (format.equals("MAT")) {
+					System.out.println("Writing MAT-file model ...");
+					new MatFileWriter().write(reactionNetwork, parameters.OutputDirectory + parameters.OutputFileName + MatFileWriter.FILE_SUFFIX);
+				} else System.err.println("Unknown export format : " + format);
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
 		
-		UnitDefinition UD = model.createUnitDefinition();
-		UD.setId("mmol_per_gDW_per_hr");
-		Unit mole = UD.createUnit();
-		mole.setKind(libsbmlConstants.UNIT_KIND_MOLE);
-		mole.setScale(-3);
-		mole.setMultiplier(1);
-		mole.setOffset(0);
+		// 10) Check the model can carry flux through the objective reaction
+		if (parameters.ObjectiveReaction.length() > 0) {
+			System.out.println("Checking flux through " + parameters.ObjectiveReaction + " ...");
+			checkObjective(reactionNetwork, parameters.ObjectiveReaction);
+		}
 		
-		Unit gram = UD.createUnit();
-		gram.setKind(libsbmlConstants.UNIT_KIND_GRAM);
-		gram.setExponent(-1);
-		gram.setMultiplier(1);
-		gram.setOffset(0);
+		// 11) Flux variability analysis
+		if (parameters.FluxVariability) {
+			System.out.println("Running flux variability analysis ...");
+			String fvaFileName = parameters.OutputDirectory + parameters.OutputFileName + FluxVariabilityAnalysis.FILE_SUFFIX;
+			try {
+				long start = System.currentTimeMillis();
+				FluxVariabilityAnalysis.Results results = reactionNetwork.runFluxVariabilityAnalysis(parameters.ObjectiveReaction.length() > 0 ? parameters.ObjectiveReaction : null, parameters.FVAFraction, parameters.FVAThreads, fvaFileName);
+				if (results != null) {
+					FluxVariabilityAnalysis.writeBlockedReactions(results, fvaFileName + ".blocked");
+					FluxVariabilityAnalysis.writeUnsolvedReactions(results, fvaFileName + ".unsolved");
+					System.out.println("Blocked reactions : " + results.blockedReactionIDs.size() + ", unsolved : " + results.failed + " (" + (System.currentTimeMillis() - start) + " ms)");
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
 		
-		Unit second = UD.createUnit();
-		second.setKind(libsbmlConstants.UNIT_KIND_SECOND);
-		second.setExponent(-1);
-		second.setMultiplier(0.00027777);
-		second.setOffset(0);
+		// 12) Elementary flux modes
+		if (parameters.ElementaryModes) {
+			System.out.println("Enumerating elementary flux modes ...");
+			try {
+				long start = System.currentTimeMillis();
+				long modes = reactionNetwork.enumerateElementaryModes(parameters.EFMThreads, parameters.EFMMaxModes, parameters.OutputDirectory + parameters.OutputFileName + ElementaryFluxModes.FILE_SUFFIX);
+				if (modes >= 0) System.out.println("Elementary flux modes : " + modes + " (" + (System.currentTimeMillis() - start) + " ms)");
+			} catch (IOException e) {
+				e.printStackTrace();
+				written = false;
+			}
+		}
 		
-		return doc;
+		return written;
 	}
 	
 	/**
-	 * Populate an SBMLDocument object with reaction, metabolite, and compartments.
+	 * Maximize the flux through a reaction of a network with the embedded solver and print the result.  This is a quick check that a
+	 * model can grow before it is loaded into an external solver.
 	 * 
-	 * @param doc Empty SBMLDocument with initialized Model object containing only a model name and unit definitions.
+	 * @param reactionNetwork Network to check
+	 * @param objectiveReactionID Reaction ID or frame ID of the objective reaction, typically the biomass reaction
+	 * @return Optimal flux through the objective reaction, or 0 if the problem could not be solved
+	 */
+	public static double checkObjective(ReactionNetwork reactionNetwork, String objectiveReactionID) {
+		FluxBalanceAnalysis fba = new FluxBalanceAnalysis(reactionNetwork);
+		FluxBalanceAnalysis.Solution solution = fba.optimize(objectiveReactionID);
+		if (solution == null) {
+			System.err.println("Objective reaction " + objectiveReactionID + " is not in the network");
+			return 0;
+		}
+		if (solution.status != RevisedSimplex.Status.OPTIMAL) {
+			System.err.println("Flux balance problem is " + solution.status + " after " + solution.iterations + " iterations");
+			return 0;
+		}
+		System.out.println("Maximum flux through " + objectiveReactionID + " : " + solution.objectiveValue + " (" + solution.iterations + " iterations)");
+		if (solution.objectiveValue <= RevisedSimplex.FEASIBILITY_TOLERANCE) System.err.println("Model cannot carry flux through " + objectiveReactionID);
+		return solution.objectiveValue;
+	}
+	
+	/**
+	 * Load a saved model back into a ReactionNetwork without a connection to the database.  Files ending in .cmnb are read as binary
+	 * networks, anything else as SBML (gzip compressed if the name ends in .gz). Problems found in SBML files are printed with their line
+	 * numbers.
 	 * 
-	 * @param reactionInstances Reactions which represent the complete reaction set for the model.
-	 * @return SBMLDocument object with poplulated model.
-	 */
-	protected SBMLDocument generateSBMLModel(SBMLDocument doc, ReactionNetwork reactionNetwork) {
-		Model model = doc.getModel();
-		ArrayList<String> metabolites = new ArrayList<String>();
-		ArrayList<String> compartments = new ArrayList<String>();
-		HashSet<AbstractReactionInstance> reactionInstances = reactionNetwork.Reactions;
+	 * @param fileName Path of the saved model
+	 * @return Network read from the file, or null if the file could not be read
+	 */
+	public static ReactionNetwork readNetwork(String fileName) {
+		if (fileName.endsWith(BinaryNetworkFormat.FILE_SUFFIX)) return readBinaryNetwork(fileName);
 		
+		SBMLStreamReader reader = new SBMLStreamReader();
 		try {
-			// Create compartment list
-			for (AbstractReactionInstance reaction : reactionInstances) {
-				ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
-				reactantsProducts.addAll(reaction.reactants_);
-				reactantsProducts.addAll(reaction.products_);
-				for (MetaboliteInstance species : reactantsProducts) {
-					if (!compartments.contains(species.compartment_)) {
-						Compartment compartment = model.createCompartment();
-						compartment.setId(convertToSBMLSafe(species.compartment_));
-						compartment.setName(species.compartment_);
-//						if (compartment.setId(convertToSBMLSafe(species.compartment)) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//						if (compartment.setName(species.compartment) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-						compartments.add(species.compartment_);
-					}
+			ReactionNetwork reactionNetwork = reader.read(fileName);
+			for (SBMLStreamReader.Problem problem : reader.getProblems()) System.err.println(fileName + " : " + problem);
+			return reactionNetwork;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Load a network saved in binary network format.  The file is memory mapped, and the returned network does not need a connection.
+	 * 
+	 * @param fileName Path of the binary network file
+	 * @return Network read from the file, or null if the file could not be read
+	 */
+	public static ReactionNetwork readBinaryNetwork(String fileName) {
+		try {
+			return MappedReactionNetwork.open(fileName).toReactionNetwork();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	// Output file methods
+	/**
+	 * SBML backend selected by SBMLWRITER.  The libSBML native library is only loaded when LIBSBML is selected.
+	 * 
+	 * @return Backend to write the model with
+	 * @throws IllegalStateException If LIBSBML is selected and libSBML cannot be loaded
+	 */
+	public SBMLBackend createSBMLBackend() {
+		if (parameters.SBMLWriter.equals("LIBSBML")) {
+			if (!LibSBMLBackend.loadLibrary()) throw new IllegalStateException("libSBML could not be loaded, use SBMLWRITER STREAM to write models without it");
+			return new LibSBMLBackend(parameters.ModelName, parameters.DefaultSBMLLevel, parameters.DefaultSBMLVersion);
+		}
+		return new SBMLStreamWriter(parameters.WriterThreads, SBMLStreamWriter.DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Path of the model file to write.  When gzip compression is requested and OUTPUTFILENAME does not already end in .gz, the suffix
+	 * is added.
+	 * 
+	 * @return Path of the model file
+	 */
+	public String getOutputFileName() {
+		String outputFileName = parameters.OutputDirectory + parameters.OutputFileName;
+		if (isCompressedOutput() && !outputFileName.endsWith(GZIP_FILE_SUFFIX)) outputFileName += GZIP_FILE_SUFFIX;
+		return outputFileName;
+	}
+	
+	/**
+	 * @return True if the model should be written gzip compressed, either because OUTPUTCOMPRESSION is GZIP or because OUTPUTFILENAME
+	 * ends in .gz
+	 */
+	public boolean isCompressedOutput() {
+		return parameters.OutputCompression.equals("GZIP") || parameters.OutputFileName.endsWith(GZIP_FILE_SUFFIX);
+	}
+	
+	/**
+	 * Open a stream to the model file, compressing with a ParallelGzipOutputStream if compressed output is selected.
+	 * 
+	 * @param outputFileName Path of the model file
+	 * @return Stream to write the model to
+	 * @throws IOException
+	 */
+	protected OutputStream openModelOutputStream(String outputFileName) throws IOException {
+		OutputStream out = new FileOutputStream(outputFileName);
+		if (isCompressedOutput()) return new ParallelGzipOutputStream(out, parameters.CompressionThreads);
+		return out;
+	}
+	
+	/**
+	 * Paths of every file createModel writes after the network is built: the model, the dead-end, connectivity and compression reports,
+	 * and the binary network, exports and analysis results that are switched on.
+	 * 
+	 * @return Paths of the output files
+	 */
+	public ArrayList<String> getOutputFileNames() {
+		String baseFileName = parameters.OutputDirectory + parameters.OutputFileName;
+		ArrayList<String> outputFileNames = new ArrayList<String>();
+		outputFileNames.add(getOutputFileName());
+		outputFileNames.add(baseFileName + DeadEndAnalysis.FILE_SUFFIX);
+		outputFileNames.add(baseFileName + ConnectedComponents.FILE_SUFFIX);
+		if (!parameters.CompressNetwork.equals("NONE")) outputFileNames.add(baseFileName + NetworkCompression.FILE_SUFFIX);
+		if (parameters.WriteBinaryNetwork) outputFileNames.add(baseFileName + BinaryNetworkFormat.FILE_SUFFIX);
+		for (String format : parameters.ExportFormats) {
+			if (format.equals("JSON")) outputFileNames.add(baseFileName + CobraJsonWriter.FILE_SUFFIX);
+			else if (format.equals("MAT")) outputFileNames.add(baseFileName + MatFileWriter.FILE_SUFFIX);
+		}
+		if (parameters.FluxVariability) {
+			outputFileNames.add(baseFileName + FluxVariabilityAnalysis.FILE_SUFFIX);
+			outputFileNames.add(baseFileName + FluxVariabilityAnalysis.FILE_SUFFIX + ".blocked");
+			outputFileNames.add(baseFileName + FluxVariabilityAnalysis.FILE_SUFFIX + ".unsolved");
+		}
+		if (parameters.ElementaryModes) outputFileNames.add(baseFileName + ElementaryFluxModes.FILE_SUFFIX);
+		return outputFileNames;
+	}
+	
+	/**
+	 * @return True if every file given by getOutputFileNames() exists
+	 */
+	protected boolean outputFilesExist() {
+		for (String outputFileName : getOutputFileNames()) {
+			if (!new File(outputFileName).exists()) return false;
+		}
+		return true;
+	}
+	
+	
+	// Output hash methods
+	/**
+	 * Combine the content hash of a network with every parameter that affects how it is analyzed and written and the text the model takes
+	 * from the database when it is written, giving a hash that identifies the output files.  The species common names and reaction notes
+	 * are looked up here as the SBML backends look them up, so that a change to them in the database is written out even if the network is
+	 * unchanged.
+	 * 
+	 * @param reactionNetwork Network the output files are built from, before dead ends are removed and the network is compressed
+	 * @param networkHash Content hash of the network, as given by ReactionNetwork.generateContentHash()
+	 * @return Hex encoded SHA-256 hash identifying the output files, or null if the hash could not be generated
+	 */
+	protected String generateOutputHash(ReactionNetwork reactionNetwork, String networkHash) {
+		if (networkHash == null) return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ReactionNetwork.updateDigest(digest, networkHash);
+			HashSet<String> speciesIDs = new HashSet<String>();
+			for (AbstractReactionInstance reaction : reactionNetwork.getOrderedReactions()) {
+				ReactionNetwork.updateDigest(digest, reaction.name_);
+				for (Map.Entry<String, String> note : SBMLStreamWriter.createReactionNotes(reaction).entrySet()) {
+					ReactionNetwork.updateDigest(digest, note.getKey());
+					ReactionNetwork.updateDigest(digest, note.getValue());
 				}
-			}
-			
-			// Create species list
-			for (AbstractReactionInstance reaction : reactionInstances) {
 				ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
-				reactantsProducts.addAll(reaction.reactants_);
-				reactantsProducts.addAll(reaction.products_);
+				reactantsProducts.addAll(reaction.getOrderedReactants());
+				reactantsProducts.addAll(reaction.getOrderedProducts());
 				for (MetaboliteInstance species : reactantsProducts) {
-					if (!metabolites.contains(species.generateSpeciesID())) {
-						Species newSpecies = model.createSpecies();
-						String sid = species.generateSpeciesID();
-						newSpecies.setId(sid);
-						newSpecies.setName(species.getMetaboliteFrame().getCommonName());
-						newSpecies.setCompartment(model.getCompartment(convertToSBMLSafe(species.compartment_)).getId());
-						newSpecies.setBoundaryCondition(false);
-//						if (newSpecies.setId(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//						if (newSpecies.setName(species.metabolite.getCommonName()) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//						if (newSpecies.setCompartment(model.getCompartment(convertToSBMLSafe(species.compartment)).getId()) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//						if (newSpecies.setBoundaryCondition(false) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-						metabolites.add(sid);
-						
-						// Append Notes
-						newSpecies.appendNotes("Palsson SID : \n"); //TODO does not exist except for ecoli
-						newSpecies.appendNotes("EcoCyc Frame ID : " + species.getMetaboliteID() + "\n");
-						newSpecies.appendNotes("Chemical Formula : " + "\n");
-					}
-				}
-			}
-			
-			// Create reaction list
-			HashMap<String, Integer> reactionMap = new HashMap<String, Integer>();
-			for (AbstractReactionInstance reaction : reactionInstances) {
-				org.sbml.libsbml.Reaction newReaction = model.createReaction();
-				
-//				ListOfReactions listOfReactions = model.getListOfReactions();
-//				for (int i = 0; i < listOfReactions.size(); i++) {
-//					org.sbml.libsbml.Reaction rxn = listOfReactions.get(i);
-//				}
-				
-				// Handle duplicate IDs
-				String reactionID = reaction.generateReactionID();
-				if (reactionMap.containsKey(reactionID)) {
-					int value = reactionMap.get(reactionID) + 1;
-					reactionMap.put(reactionID, value);
-					reactionID += "_" + value;
-				} else reactionMap.put(reactionID, 0);
-				
-				newReaction.setId(reactionID);
-//				if (reaction.ReactionFrame != null) newReaction.setId(reaction.generateReactionID());
-//				else if (reaction.parentReaction_ != null) newReaction.setId(reaction.generateReactionID());
-//				else newReaction.setId(reaction.generateReactionID());
-				newReaction.setName(reaction.name_);
-				newReaction.setReversible(reaction.reversible_);
-//				if (reaction.thisReactionFrame != null) {
-//					if (newReaction.setId(convertToSBMLSafe(reaction.thisReactionFrame.getLocalID())) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//				} else if (reaction.parentReaction != null) {
-//					if (newReaction.setId(convertToSBMLSafe(reaction.parentReaction.getLocalID())) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//				} else {
-//					if (newReaction.setId(convertToSBMLSafe(reaction.name)) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//				}
-//				if (newReaction.setName(reaction.name) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-				
-				for (MetaboliteInstance reactant : reaction.reactants_) {
-					String sid = reactant.generateSpeciesID();
-					SpeciesReference ref = newReaction.createReactant();
-					ref.setSpecies(sid);
-					ref.setStoichiometry(reactant.coefficient_);
-//					if (ref.setSpecies(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//					if (ref.setStoichiometry(reactant.stoichiometry) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//					if (newReaction.addReactant(ref) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-				}
-				for (MetaboliteInstance product : reaction.products_) {
-					String sid = product.generateSpeciesID();
-					SpeciesReference ref = newReaction.createProduct();
-					ref.setSpecies(sid);
-					ref.setStoichiometry(product.coefficient_);
-//					if (ref.setSpecies(sid) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//					if (ref.setStoichiometry(product.stoichiometry) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
-//					if (newReaction.addProduct(ref) != libsbml.LIBSBML_OPERATION_SUCCESS) throw new Exception();
+					if (!speciesIDs.add(species.generateSpeciesID())) continue;
+					ReactionNetwork.updateDigest(digest, species.generateSpeciesID());
+					ReactionNetwork.updateDigest(digest, species.getMetaboliteFrame().getCommonName());
 				}
-				
-				// Kinetic Law
-				ASTNode math = new ASTNode();
-				math.setName("FLUX_VALUE");
-				
-				KineticLaw kl = newReaction.createKineticLaw();
-				kl.setFormula("");
-				kl.setMath(math);
-				
-				Parameter lb = kl.createParameter();
-				lb.setId("LOWER_BOUND");
-				if (newReaction.getReversible()) lb.setValue(parameters.DefaultLowerBound);
-				else lb.setValue(0);
-				lb.setUnits("mmol_per_gDW_per_hr");
-				
-				Parameter ub = kl.createParameter();
-				ub.setId("UPPER_BOUND");
-				ub.setValue(parameters.DefaultUpperBound);
-				ub.setUnits("mmol_per_gDW_per_hr");
-				
-				Parameter obj = kl.createParameter();
-				obj.setId("OBJECTIVE_COEFFICIENT");
-				obj.setValue(0);
-				
-				Parameter flux = kl.createParameter();
-				flux.setId("FLUX_VALUE");
-				flux.setValue(0);
-				flux.setUnits("mmol_per_gDW_per_hr");
-				
-				// Append Notes
-//				if (map.containsKey(reaction.name)) {
-//					newReaction.appendNotes("Palsson Reaction ID : ");
-//					for (String s : map.get(reaction.name)) newReaction.appendNotes(s + ",");
-//					newReaction.appendNotes("\n");
-//				}
-				newReaction.appendNotes("Palsson Reaction ID : \n");//TODO does not exist except for ecoli
-				newReaction.appendNotes("EcoCyc Frame ID : \n");
-				newReaction.appendNotes("Abbreviation : \n");
-				newReaction.appendNotes("Synonyms : \n");
-				newReaction.appendNotes("EC Number : \n");
-				newReaction.appendNotes("SUBSYSTEM : \n");
-				newReaction.appendNotes("Equation : \n");
-				newReaction.appendNotes("Confidence Level : \n");
-//				if (reaction.ReactionFrame != null) newReaction.appendNotes("Gene Rule : " + reaction.reactionGeneRule(false));//reactionGeneRule(reaction.thisReactionFrame.getLocalID(), false));
-//				else if (reaction.parentReaction_ != null) newReaction.appendNotes("Gene Rule : " + reaction.reactionGeneRule(false));//reaction.reactionGeneRule(reaction.parentReaction.getLocalID(), false));
-				if (reaction instanceof ReactionInstance) newReaction.appendNotes("Gene Rule : " + ((ReactionInstance)reaction).reactionGeneRule(false));
-				else if (reaction instanceof InstantiatedReactionInstance) newReaction.appendNotes("Gene Rule : " + ((InstantiatedReactionInstance)reaction).reactionGeneRule(false));
-				else newReaction.appendNotes("Gene Rule : ");
 			}
+			ReactionNetwork.updateDigest(digest, parameters.ModelName);
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultSBMLLevel));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultSBMLVersion));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultLowerBound));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.DefaultUpperBound));
+			ReactionNetwork.updateDigest(digest, parameters.SBMLWriter);
+			ReactionNetwork.updateDigest(digest, String.valueOf(isCompressedOutput()));
+			ReactionNetwork.updateDigest(digest, parameters.CompressNetwork);
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.RemoveDeadEnds));
+			ReactionNetwork.updateDigest(digest, parameters.ObjectiveReaction);
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.WriteBinaryNetwork));
+			ReactionNetwork.updateDigest(digest, parameters.ExportFormats.toString());
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.FluxVariability));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.FVAFraction));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.ElementaryModes));
+			ReactionNetwork.updateDigest(digest, String.valueOf(parameters.EFMMaxModes));
+			return ReactionNetwork.toHexString(digest.digest());
 		} catch (PtoolsErrorException e) {
 			e.printStackTrace();
-		} catch (Exception e) {
+		} catch (NoSuchAlgorithmException e) {
 			e.printStackTrace();
 		}
+		return null;
+	}
+	
+	/**
+	 * Read the output hash stored next to a model file by a previous build.
+	 * 
+	 * @param outputFileName Path of the model file
+	 * @return The stored output hash, or null if there is no readable hash file
+	 */
+	protected String readStoredOutputHash(String outputFileName) {
+		File hashFile = new File(outputFileName + HASH_FILE_SUFFIX);
+		if (!hashFile.exists()) return null;
 		
-		return doc;
+		String outputHash = null;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(hashFile));
+			String text = null;
+			while ((text = reader.readLine()) != null) {
+				if (text.startsWith("output ")) outputHash = text.substring(text.indexOf(" ")+1).trim();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (reader != null) reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return outputHash;
 	}
 	
+	/**
+	 * Remove the output hash stored next to a model file, so that output files that are about to be overwritten are not taken as current
+	 * if the build stops before they are all written.
+	 * 
+	 * @param outputFileName Path of the model file
+	 */
+	protected void deleteStoredOutputHash(String outputFileName) {
+		File hashFile = new File(outputFileName + HASH_FILE_SUFFIX);
+		if (hashFile.exists() && !hashFile.delete()) System.err.println("Could not delete " + hashFile.getPath());
+	}
 	
-	// Helper functions
 	/**
-	 * Read an SBML file, catch any SBML and/or read errors. Return the SBMLDocument generated.
+	 * Store the hashes of a newly written model next to the model file. The network hash is the content hash of the written network alone
+	 * and can be used as a key by downstream caches, the output hash also covers output parameters and is used to decide if the output
+	 * files need to be rewritten.
 	 * 
-	 * @param fileName
-	 * @return
+	 * @param outputFileName Path of the model file
+	 * @param networkHash Content hash of the network
+	 * @param outputHash Hash of the network and output parameters
 	 */
-	public SBMLDocument readSBML(String fileName) {
-		SBMLReader reader = new SBMLReader();
-		SBMLDocument doc  = reader.readSBML(fileName);
-
-		if (doc.getNumErrors() > 0) {
-		    if (doc.getError(0).getErrorId() == libsbmlConstants.XMLFileUnreadable) System.out.println("XMLFileUnreadable error occured."); 
-		    else if (doc.getError(0).getErrorId() == libsbmlConstants.XMLFileOperationError) System.out.println("XMLFileOperationError error occured.");  
-		    else System.out.println("Error occured in document read or document contains errors.");
+	protected void writeStoredOutputHash(String outputFileName, String networkHash, String outputHash) {
+		if (networkHash == null || outputHash == null) return;
+		PrintStream o = null;
+		try {
+			o = new PrintStream(new File(outputFileName + HASH_FILE_SUFFIX));
+			o.println("network " + networkHash);
+			o.println("output " + outputHash);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (o != null) o.close();
 		}
-		
-		return doc;
 	}
 	
+	// Helper functions
 	/**
 	 * Replace characters that are commonly used in EcoCyc with characters safe to use in SBML names and IDs.
 	 * 
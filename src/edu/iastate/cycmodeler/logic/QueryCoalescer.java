@@ -0,0 +1,137 @@
+package edu.iastate.cycmodeler.logic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * Merges identical database queries made at the same time.  The first thread to ask runs the query, threads asking the same query before
+ * it returns wait for it and are handed the same result, or the same exception.  Nothing is kept once the query returns, a query asked
+ * again afterwards goes to the server again.
+ *
+ * Queries are identified by key, which must name everything the result depends on: the server, the organism if the query depends on it,
+ * the query and its arguments.  Results are shared between threads, so callers must copy them before changing them.
+ *
+ * Compound loads are keyed by server only, so concurrent builds of different organisms, such as those of a BatchBuild, share them.  Queries
+ * keyed by organism, such as the instances of a class, are only merged between concurrent builds of the same organism.
+ *
+ * @author Jesse Walsh
+ */
+public class QueryCoalescer {
+	private ConcurrentHashMap<String, Flight> inFlight_;
+	private AtomicLong requests_;
+	private AtomicLong executed_;
+	private AtomicLong coalesced_;
+
+	public QueryCoalescer() {
+		this.inFlight_ = new ConcurrentHashMap<String, Flight>();
+		this.requests_ = new AtomicLong();
+		this.executed_ = new AtomicLong();
+		this.coalesced_ = new AtomicLong();
+	}
+
+	/**
+	 * Run a query, or wait for the result of the same query already running.
+	 *
+	 * @param key Identifies the query
+	 * @param query Runs the query on the calling thread's connection
+	 * @return Result of the query, shared with every thread that asked for key while it ran
+	 * @throws PtoolsErrorException If the query failed, or the thread was interrupted while waiting
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T call(String key, Query<T> query) throws PtoolsErrorException {
+		requests_.incrementAndGet();
+		Flight flight = new Flight();
+		Flight running = inFlight_.putIfAbsent(key, flight);
+		if (running != null) {
+			coalesced_.incrementAndGet();
+			return (T) running.await();
+		}
+
+		executed_.incrementAndGet();
+		Object result = null;
+		Throwable error = new IllegalStateException("Query failed : " + key);
+		try {
+			result = query.run();
+			error = null;
+			return (T) result;
+		} catch (PtoolsErrorException e) {
+			error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			inFlight_.remove(key, flight);
+			flight.finish(result, error);
+		}
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Number of queries asked
+	 */
+	public long getRequests() {
+		return requests_.get();
+	}
+
+	/**
+	 * @return Number of queries sent to the server
+	 */
+	public long getExecuted() {
+		return executed_.get();
+	}
+
+	/**
+	 * @return Number of queries answered by a query already running, which would otherwise have been sent to the server again
+	 */
+	public long getCoalesced() {
+		return coalesced_.get();
+	}
+
+	/**
+	 * @return Number of queries running now
+	 */
+	public int getInFlight() {
+		return inFlight_.size();
+	}
+
+
+	// Internal Classes
+	public interface Query<T> {
+		public T run() throws PtoolsErrorException;
+	}
+
+	/**
+	 * A running query, and its outcome once it returns.
+	 */
+	private static class Flight {
+		private boolean finished_ = false;
+		private Object result_;
+		private Throwable error_;
+
+		public synchronized void finish(Object result, Throwable error) {
+			this.result_ = result;
+			this.error_ = error;
+			this.finished_ = true;
+			notifyAll();
+		}
+
+		public synchronized Object await() throws PtoolsErrorException {
+			while (!finished_) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new PtoolsErrorException("Interrupted while waiting for a query");
+				}
+			}
+			if (error_ instanceof PtoolsErrorException) throw (PtoolsErrorException) error_;
+			if (error_ instanceof RuntimeException) throw (RuntimeException) error_;
+			if (error_ != null) throw new PtoolsErrorException(error_.getMessage(), error_);
+			return result_;
+		}
+	}
+}
@@ -1,8 +1,13 @@
 package edu.iastate.cycmodeler.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 
+import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.cycmodeler.util.MyParameters;
 import edu.iastate.javacyco.PtoolsErrorException;
 
@@ -119,10 +124,10 @@ public abstract class AbstractReactionInstance {
 	protected boolean isReactionGeneric() {
 		try {
 			for (MetaboliteInstance reactant : reactants_) {
-				if (reactant.getMetaboliteFrame().isClassFrame()) return true;
+				if (reactant.isClassFrame()) return true;
 			}
 			for (MetaboliteInstance product : products_) {
-				if (product.getMetaboliteFrame().isClassFrame()) return true;
+				if (product.isClassFrame()) return true;
 			}
 		} catch (PtoolsErrorException e) {
 			e.printStackTrace();
@@ -130,6 +135,104 @@ public abstract class AbstractReactionInstance {
 		return false;
 	}
 	
+	/**
+	 * Flux lower bound of this reaction.  Reversible reactions take the default lower bound from the parameters, irreversible reactions
+	 * cannot carry negative flux.
+	 * 
+	 * @return Lower bound on the flux through this reaction
+	 */
+	public double getLowerBound() {
+		return reversible_ ? CycModeler.getParameters().DefaultLowerBound : 0;
+	}
+	
+	/**
+	 * @return Upper bound on the flux through this reaction, the default upper bound from the parameters
+	 */
+	public double getUpperBound() {
+		return CycModeler.getParameters().DefaultUpperBound;
+	}
+	
+	/**
+	 * Generate a signature for this reaction that is stable from run to run.  The signature is built from the same properties used by
+	 * equals() (the reaction type, location, reactants and products), with the metabolites on each side sorted so that the iteration order
+	 * of the underlying sets does not matter.  Two reactions in a ReactionNetwork can therefore never share a signature.
+	 * 
+	 * @return Canonical signature of this reaction
+	 */
+	public String generateReactionSignature() {
+		String signature = getReactionType() + "|" + reactionLocation_ + "|";
+		signature += metaboliteSignature(reactants_) + " => " + metaboliteSignature(products_);
+		return signature;
+	}
+	
+	/**
+	 * The type of reaction this is, used by equals() and by the reaction signature.  This is the simple class name, except for reactions
+	 * rebuilt from saved data which report the type of the reaction they were saved from.
+	 * 
+	 * @return Reaction type name
+	 */
+	public String getReactionType() {
+		return getClass().getSimpleName();
+	}
+	
+	/**
+	 * @return Reactants of this reaction, sorted by metabolite ID, compartment and coefficient
+	 */
+	public ArrayList<MetaboliteInstance> getOrderedReactants() {
+		return orderMetabolites(reactants_);
+	}
+	
+	/**
+	 * @return Products of this reaction, sorted by metabolite ID, compartment and coefficient
+	 */
+	public ArrayList<MetaboliteInstance> getOrderedProducts() {
+		return orderMetabolites(products_);
+	}
+	
+	/**
+	 * Sort a list of reactions by their reaction signature.  Used to give the reactions of a network a canonical order, independent of
+	 * the order in which they were created or stored.
+	 * 
+	 * @param reactions Reactions to sort in place
+	 */
+	public static void sortBySignature(ArrayList<? extends AbstractReactionInstance> reactions) {
+		final IdentityHashMap<AbstractReactionInstance, String> signatures = new IdentityHashMap<AbstractReactionInstance, String>();
+		for (AbstractReactionInstance reaction : reactions) signatures.put(reaction, reaction.generateReactionSignature());
+		
+		Collections.sort(reactions, new Comparator<AbstractReactionInstance>() {
+			public int compare(AbstractReactionInstance r1, AbstractReactionInstance r2) {
+				int result = signatures.get(r1).compareTo(signatures.get(r2));
+				if (result == 0 && r1.name_ != null && r2.name_ != null) result = r1.name_.compareTo(r2.name_);
+				return result;
+			}
+		});
+	}
+	
+	private static String metaboliteKey(MetaboliteInstance metabolite) {
+		return metabolite.getMetaboliteID() + "[" + metabolite.compartment_ + "]*" + metabolite.coefficient_;
+	}
+	
+	private static String metaboliteSignature(HashSet<MetaboliteInstance> metabolites) {
+		String signature = "";
+		for (MetaboliteInstance metabolite : orderMetabolites(metabolites)) {
+			if (signature.length() > 0) signature += " + ";
+			signature += metaboliteKey(metabolite);
+		}
+		return signature;
+	}
+	
+	private static ArrayList<MetaboliteInstance> orderMetabolites(HashSet<MetaboliteInstance> metabolites) {
+		ArrayList<MetaboliteInstance> ordered = new ArrayList<MetaboliteInstance>();
+		if (metabolites == null) return ordered;
+		ordered.addAll(metabolites);
+		Collections.sort(ordered, new Comparator<MetaboliteInstance>() {
+			public int compare(MetaboliteInstance m1, MetaboliteInstance m2) {
+				return metaboliteKey(m1).compareTo(metaboliteKey(m2));
+			}
+		});
+		return ordered;
+	}
+	
 	@Override
 	public int hashCode() {
 		return new HashCodeBuilder(17, 31).
@@ -145,11 +248,12 @@ public abstract class AbstractReactionInstance {
 			return false;
 		if (obj == this)
 			return true;
-		if (obj.getClass() != getClass())
+		if (!(obj instanceof AbstractReactionInstance))
 			return false;
 
 		AbstractReactionInstance other = (AbstractReactionInstance) obj;
 		return new EqualsBuilder().
+				append(this.getReactionType(), other.getReactionType()).
 				append(this.reactants_, other.reactants_).
 				append(this.products_, other.products_).
 				append(this.reactionLocation_, other.reactionLocation_).
@@ -38,8 +38,8 @@ public class DiffusionReactionInstance extends AbstractReactionInstance {
 		//FIXME need to add correct suffix to names here!!!!!
 		String baseID = name_;
 
-		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
-		else return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
+		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
+		else return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
 	}
 
 	@Override
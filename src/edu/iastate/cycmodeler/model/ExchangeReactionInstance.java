@@ -28,7 +28,7 @@ public class ExchangeReactionInstance extends AbstractReactionInstance {
 		HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
 		reactants.add(new MetaboliteInstance(metabolite, compartment, 1));
 		HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
-		products.add(new MetaboliteInstance(metabolite, CycModeler.parameters.BoundaryCompartmentName, 1));
+		products.add(new MetaboliteInstance(metabolite, CycModeler.getParameters().BoundaryCompartmentName, 1));
 		this.reactants_ = reactants;
 		this.products_ = products;
 		
@@ -40,15 +40,32 @@ public class ExchangeReactionInstance extends AbstractReactionInstance {
 //		super.Reactants = reactants;
 //		super.Products = products;
 	}
-	
+
+	/**
+	 * Creates the exchange reaction from a metabolite instance already in the network, copying it rather than loading the metabolite
+	 * from the database again.
+	 */
+	public ExchangeReactionInstance(String reactionName, MetaboliteInstance metabolite, String compartment) {
+		this.name_ = reactionName;
+		this.reversible_ = true;
+		this.reactionLocation_ = compartment;
+
+		HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
+		reactants.add(metabolite.inCompartment(compartment, 1));
+		HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
+		products.add(metabolite.inCompartment(CycModeler.getParameters().BoundaryCompartmentName, 1));
+		this.reactants_ = reactants;
+		this.products_ = products;
+	}
+
 	/**
 	 * The convention in the iAF1260 model is to add the suffix "_LPAREN_e_RPAREN_" to the end of reaction IDs for exchange reactions.
 	 */
 	public String generateReactionID() {
 		String baseID = name_;
 		
-		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
-		else return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
+		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
+		else return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
 	}
 	
 	/**
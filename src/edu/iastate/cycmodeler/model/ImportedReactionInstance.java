@@ -0,0 +1,127 @@
+package edu.iastate.cycmodeler.model;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Imported reactions are reactions read back from a saved model rather than built from the database.  They keep the ID, bounds and gene
+ * rule they were saved with, and their metabolites are detached MetaboliteInstances, so nothing about them requires a connection.
+ *
+ * @author Jesse Walsh
+ */
+public class ImportedReactionInstance extends AbstractReactionInstance {
+	private String reactionID_;
+	private String geneProteinReactionRule_;
+	private double lowerBound_;
+	private double upperBound_;
+	private HashMap<String, String> notes_;
+	private String reactionType_;
+	private String sourceFrameID_;
+	private boolean instantiated_;
+
+	public ImportedReactionInstance(String reactionID, String name, boolean reversible, String reactionLocation, HashSet<MetaboliteInstance> reactants, HashSet<MetaboliteInstance> products, double lowerBound, double upperBound, String geneProteinReactionRule) {
+		this.reactionID_ = reactionID;
+		this.name_ = name;
+		this.reversible_ = reversible;
+		this.reactionLocation_ = reactionLocation;
+		this.reactants_ = reactants;
+		this.products_ = products;
+		this.lowerBound_ = lowerBound;
+		this.upperBound_ = upperBound;
+		this.geneProteinReactionRule_ = geneProteinReactionRule == null ? "" : geneProteinReactionRule;
+		this.notes_ = new HashMap<String, String>();
+		this.reactionType_ = null;
+		this.sourceFrameID_ = null;
+		this.instantiated_ = false;
+	}
+
+	/**
+	 * Imported reactions keep the ID they were saved with.
+	 */
+	public String generateReactionID() {
+		return reactionID_;
+	}
+
+	@Override
+	public double getLowerBound() {
+		return lowerBound_;
+	}
+
+	@Override
+	public double getUpperBound() {
+		return upperBound_;
+	}
+
+	@Override
+	public String getGeneProteinReactionRule() {
+		return geneProteinReactionRule_;
+	}
+
+	/**
+	 * Notes the reaction was saved with, such as "EC Number" or "SUBSYSTEM", keyed by note name.
+	 */
+	public HashMap<String, String> getNotes() {
+		return notes_;
+	}
+	
+	public void setNotes(HashMap<String, String> notes) {
+		this.notes_ = notes == null ? new HashMap<String, String>() : notes;
+	}
+
+	/**
+	 * Imported reactions report the type they were saved as when it is known, so that a reaction rebuilt from a build cache sorts, hashes
+	 * and compares equal to the reaction it was saved from.
+	 */
+	@Override
+	public String getReactionType() {
+		if (reactionType_ != null) return reactionType_;
+		return super.getReactionType();
+	}
+	
+	public void setReactionType(String reactionType) {
+		this.reactionType_ = reactionType;
+	}
+
+	/**
+	 * Frame ID of the database reaction this reaction was made from, when known, as for reactions rebuilt from a build cache.  Instantiated
+	 * reactions give the frame ID of their generic parent reaction.
+	 */
+	public String getSourceFrameID() {
+		return sourceFrameID_;
+	}
+	
+	/**
+	 * True if this reaction was saved from an instantiation of a generic reaction.
+	 */
+	public boolean isInstantiated() {
+		return instantiated_;
+	}
+	
+	public void setSource(String sourceFrameID, boolean instantiated) {
+		this.sourceFrameID_ = sourceFrameID;
+		this.instantiated_ = instantiated;
+	}
+
+	@Override
+	protected void addReactant(MetaboliteInstance reactant) {
+		reactants_.add(reactant);
+	}
+
+	@Override
+	protected void addProduct(MetaboliteInstance product) {
+		products_.add(product);
+	}
+
+	@Override
+	public String printReaction() {
+		String printString = "";
+		printString += "ImportedReactionInstance" + "\t" + this.name_ + "\t" + this.reactionID_ + "\t";
+		for (MetaboliteInstance reactant : reactants_) {
+			printString += reactant.getMetaboliteID() + "\t";
+		}
+		for (MetaboliteInstance product : products_) {
+			printString += product.getMetaboliteID() + "\t";
+		}
+		return printString;
+	}
+}
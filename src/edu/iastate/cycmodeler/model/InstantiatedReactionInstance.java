@@ -17,6 +17,7 @@ import edu.iastate.javacyco.Reaction;
  */
 public class InstantiatedReactionInstance extends AbstractReactionInstance {
 	protected Reaction parentReactionFrame_;
+	private String geneProteinReactionRule_;
 
 	public static ArrayList<AbstractReactionInstance> getInstantiatedReactions(ReactionInstance reaction) {
 		//TODO
@@ -38,8 +39,12 @@ public class InstantiatedReactionInstance extends AbstractReactionInstance {
 		if (parentReactionFrame_ != null) baseID = parentReactionFrame_.getLocalID();
 		else baseID = name_;
 		
-		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
-		else return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
+		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "" + baseID + "_LPAREN_e_RPAREN_");
+		else return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "_" + baseID + "_LPAREN_e_RPAREN_");
+	}
+
+	public Reaction getParentReactionFrame() {
+		return parentReactionFrame_;
 	}
 
 	@Override
@@ -54,15 +59,29 @@ public class InstantiatedReactionInstance extends AbstractReactionInstance {
 		
 	}
 
-	public String reactionGeneRule(boolean b) {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * Instantiated reactions are catalyzed by the same enzymes as their parent reaction, so they share its gene rule.
+	 */
+	public String reactionGeneRule(boolean asBNumber) throws PtoolsErrorException {
+		if (parentReactionFrame_ == null) return "";
+		return ReactionInstance.reactionGeneRule(parentReactionFrame_, asBNumber);
 	}
 
+	/**
+	 * Gene rule of the parent reaction using gene frame IDs, as given by reactionGeneRule(false).  Fetched from the database on the first
+	 * call only.
+	 */
 	@Override
 	public String getGeneProteinReactionRule() {
-		// TODO Auto-generated method stub
-		return null;
+		if (geneProteinReactionRule_ == null) {
+			try {
+				geneProteinReactionRule_ = reactionGeneRule(false);
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+				return "";
+			}
+		}
+		return geneProteinReactionRule_;
 	}
 
 	@Override
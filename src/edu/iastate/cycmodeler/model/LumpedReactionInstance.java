@@ -0,0 +1,160 @@
+package edu.iastate.cycmodeler.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+
+/**
+ * Lumped reactions stand in for a set of reactions whose fluxes are fully coupled, such as the steps of an unbranched pathway, and are created
+ * by network compression.  The flux through each member reaction is a fixed multiple of the flux through the lumped reaction, so any flux
+ * distribution of a compressed network maps back onto the original reactions.  A negative multiple means the member runs backwards when the
+ * lumped reaction runs forwards.
+ *
+ * @author Jesse Walsh
+ */
+public class LumpedReactionInstance extends AbstractReactionInstance {
+	public static final String ID_SUFFIX = "_LUMPED";
+
+	private String reactionID_;
+	private double lowerBound_;
+	private double upperBound_;
+	private ArrayList<AbstractReactionInstance> members_;
+	private ArrayList<Double> scales_;
+	private String geneProteinReactionRule_;
+
+	/**
+	 * @param reactionID ID of the lumped reaction
+	 * @param reactionLocation
+	 * @param reactants
+	 * @param products
+	 * @param lowerBound
+	 * @param upperBound
+	 * @param members Original reactions making up this reaction. Never other lumped reactions
+	 * @param scales Flux through each member per unit flux through this reaction
+	 */
+	public LumpedReactionInstance(String reactionID, String reactionLocation, HashSet<MetaboliteInstance> reactants, HashSet<MetaboliteInstance> products, double lowerBound, double upperBound, ArrayList<AbstractReactionInstance> members, ArrayList<Double> scales) {
+		this.reactionID_ = reactionID;
+		this.name_ = reactionID;
+		this.reversible_ = lowerBound < 0;
+		this.reactionLocation_ = reactionLocation;
+		this.reactants_ = reactants;
+		this.products_ = products;
+		this.lowerBound_ = lowerBound;
+		this.upperBound_ = upperBound;
+		this.members_ = members;
+		this.scales_ = scales;
+		this.geneProteinReactionRule_ = null;
+	}
+
+	/**
+	 * The ID of the first member with ID_SUFFIX appended, so the ID of a lumped reaction is stable as long as its first member is.
+	 */
+	public String generateReactionID() {
+		return reactionID_;
+	}
+
+	@Override
+	public double getLowerBound() {
+		return lowerBound_;
+	}
+
+	@Override
+	public double getUpperBound() {
+		return upperBound_;
+	}
+
+	/**
+	 * Every member reaction must be able to run, so the rule is the conjunction of the rules of the members which have one.
+	 */
+	@Override
+	public String getGeneProteinReactionRule() {
+		if (geneProteinReactionRule_ == null) {
+			String rule = "";
+			int rules = 0;
+			for (AbstractReactionInstance member : members_) {
+				String memberRule = member.getGeneProteinReactionRule();
+				if (memberRule == null || memberRule.trim().length() == 0) continue;
+				if (rule.length() > 0) rule += " and ";
+				rule += "(" + memberRule.trim() + ")";
+				rules++;
+			}
+			if (rules == 1) rule = rule.substring(1, rule.length() - 1);
+			geneProteinReactionRule_ = rule;
+		}
+		return geneProteinReactionRule_;
+	}
+
+	/**
+	 * @return Member reaction IDs with the flux of each per unit flux through this reaction, as "ID*scale" separated by spaces
+	 */
+	public String describeMembers() {
+		String description = "";
+		for (int i = 0; i < members_.size(); i++) {
+			if (description.length() > 0) description += " ";
+			description += members_.get(i).generateReactionID() + "*" + scales_.get(i);
+		}
+		return description;
+	}
+
+	/**
+	 * Two lumped reactions with the same stoichiometry stand for different parallel routes, so the ID is part of equality.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!super.equals(obj)) return false;
+		return reactionID_.equals(((LumpedReactionInstance) obj).reactionID_);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode() * 31 + reactionID_.hashCode();
+	}
+
+	@Override
+	protected void addReactant(MetaboliteInstance reactant) {
+		reactants_.add(reactant);
+	}
+
+	@Override
+	protected void addProduct(MetaboliteInstance product) {
+		products_.add(product);
+	}
+
+	@Override
+	public String printReaction() {
+		String printString = "";
+		printString += "LumpedReactionInstance" + "\t" + this.name_ + "\t" + this.reactionID_ + "\t";
+		for (MetaboliteInstance reactant : reactants_) {
+			printString += reactant.getMetaboliteID() + "\t";
+		}
+		for (MetaboliteInstance product : products_) {
+			printString += product.getMetaboliteID() + "\t";
+		}
+		return printString;
+	}
+
+
+	// Getters and Setters
+	/**
+	 * @return Original reactions making up this reaction
+	 */
+	public ArrayList<AbstractReactionInstance> getMembers() {
+		return members_;
+	}
+
+	/**
+	 * @return Flux through each member per unit flux through this reaction, in the order of getMembers
+	 */
+	public ArrayList<Double> getScales() {
+		return scales_;
+	}
+
+	/**
+	 * @param reaction An original reaction
+	 * @return ID of the lumped reaction to use for it, the first member's ID with ID_SUFFIX
+	 */
+	public static String generateLumpedID(AbstractReactionInstance reaction) {
+		return CycModeler.convertToSBMLSafe(reaction.generateReactionID() + ID_SUFFIX);
+	}
+}
@@ -6,9 +6,11 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 
+import edu.iastate.cycmodeler.logic.CompoundCache;
 import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.cycmodeler.util.MyParameters;
 import edu.iastate.javacyco.Frame;
+import edu.iastate.javacyco.JavacycConnection;
 import edu.iastate.javacyco.PtoolsErrorException;
 
 /**
@@ -17,7 +19,13 @@ import edu.iastate.javacyco.PtoolsErrorException;
  * @author Jesse Walsh
  */
 public class MetaboliteInstance {
+	/**
+	 * Connection used by detached metabolite frames.  It is never opened, detached frames carry every slot they are asked for.
+	 */
+	private static final JavacycConnection DETACHED_CONNECTION = new JavacycConnection();
+	
 	private Frame metaboliteFrame_;
+	private String speciesID_;
 	public String compartment_;
 	public int coefficient_;
 	public String chemicalFormula_;
@@ -34,11 +42,92 @@ public class MetaboliteInstance {
 		metaboliteFrame_ = metabolite;
 		compartment_ = compartment;
 		coefficient_ = coefficient;
-		chemicalFormula_ = fetchChemicalFormula();
-		keggID_ = fetchKeggID();
+		
+		// Compound data does not depend on the organism, so it is fetched once per compound cache
+		CompoundCache compoundCache = CycModeler.getCompoundCache();
+		CompoundCache.Compound compound = compoundCache == null ? null : compoundCache.get(metabolite.getLocalID());
+		if (compound != null) {
+			chemicalFormula_ = compound.chemicalFormula;
+			keggID_ = compound.keggID;
+		} else {
+			chemicalFormula_ = fetchChemicalFormula();
+			keggID_ = fetchKeggID();
+			if (compoundCache != null) compoundCache.add(metabolite, chemicalFormula_, keggID_);
+		}
 	}
 	
 	
+	/**
+	 * Constructor for metabolites that are not backed by the database, such as those read back from a saved model.  Nothing is fetched
+	 * from the database. The metabolite frame is a local frame holding only the common name.
+	 * 
+	 * @param metaboliteID Frame ID of the metabolite
+	 * @param commonName Common name of the metabolite
+	 * @param compartment
+	 * @param coefficient
+	 * @param chemicalFormula Display chemical formula, may be empty
+	 * @param keggID Kegg ID, may be empty
+	 * @param speciesID SBML species ID to use instead of generating one, or null to generate it
+	 * @return Metabolite instance with a detached frame
+	 */
+	public static MetaboliteInstance createDetached(String metaboliteID, String commonName, String compartment, int coefficient, String chemicalFormula, String keggID, String speciesID) {
+		Frame frame = new Frame(DETACHED_CONNECTION, metaboliteID);
+		// Slot values are stored quoted, as they come from the database, since getCommonName strips the quotes
+		frame.putSlotValue("COMMON-NAME", "\"" + (commonName == null ? metaboliteID : commonName) + "\"");
+		return new MetaboliteInstance(frame, compartment, coefficient, chemicalFormula, keggID, speciesID);
+	}
+	
+	private MetaboliteInstance(Frame metabolite, String compartment, int coefficient, String chemicalFormula, String keggID, String speciesID) {
+		metaboliteFrame_ = metabolite;
+		compartment_ = compartment;
+		coefficient_ = coefficient;
+		chemicalFormula_ = chemicalFormula == null ? "" : chemicalFormula;
+		keggID_ = keggID == null ? "" : keggID;
+		speciesID_ = speciesID;
+	}
+	
+	/**
+	 * Copy of this metabolite in another compartment.  The frame, chemical formula and Kegg ID are shared rather than fetched again, so
+	 * this also works for detached metabolites.
+	 *
+	 * @param compartment Compartment of the copy
+	 * @param coefficient Coefficient of the copy
+	 * @return New metabolite instance
+	 */
+	public MetaboliteInstance inCompartment(String compartment, int coefficient) {
+		return new MetaboliteInstance(metaboliteFrame_, compartment, coefficient, chemicalFormula_, keggID_, null);
+	}
+
+	/**
+	 * Copy of this metabolite with another coefficient.  Unlike inCompartment, the copy keeps any species ID this metabolite was given.
+	 *
+	 * @param coefficient Coefficient of the copy
+	 * @return New metabolite instance
+	 */
+	public MetaboliteInstance withCoefficient(int coefficient) {
+		return new MetaboliteInstance(metaboliteFrame_, compartment_, coefficient, chemicalFormula_, keggID_, speciesID_);
+	}
+
+	/**
+	 * Whether the metabolite is a class of compounds, such as "an alcohol", rather than a specific compound.
+	 *
+	 * @return True if the metabolite frame is a class frame
+	 * @throws PtoolsErrorException
+	 */
+	public boolean isClassFrame() throws PtoolsErrorException {
+		CompoundCache compoundCache = CycModeler.getCompoundCache();
+		CompoundCache.Compound compound = compoundCache == null ? null : compoundCache.get(getMetaboliteID());
+		if (compound != null) return compound.classFrame;
+		return metaboliteFrame_.isClassFrame();
+	}
+
+	/**
+	 * @return True if this metabolite was created with createDetached and has no connection to the database
+	 */
+	public boolean isDetached() {
+		return metaboliteFrame_.getConnection() == DETACHED_CONNECTION;
+	}
+	
 	/**
 	 * Gets the chemical formula from EcoCyc of given compound. Intended for use as a display string, not for elemental balancing.
 	 * 
@@ -77,6 +166,24 @@ public class MetaboliteInstance {
 		return chemicalFormula;
 	}
 	
+	/**
+	 * Number of carbon atoms in the chemical formula.  Symbols such as Co, Cl and Cu are not carbon.
+	 *
+	 * @return Number of carbon atoms, or -1 if the formula is not known
+	 */
+	public int getCarbonCount() {
+		if (chemicalFormula_ == null || chemicalFormula_.length() == 0) return -1;
+		int carbons = 0;
+		for (int i = 0; i < chemicalFormula_.length(); i++) {
+			if (chemicalFormula_.charAt(i) != 'C') continue;
+			if (i + 1 < chemicalFormula_.length() && Character.isLowerCase(chemicalFormula_.charAt(i + 1))) continue;
+			int end = i + 1;
+			while (end < chemicalFormula_.length() && Character.isDigit(chemicalFormula_.charAt(end))) end++;
+			carbons += end == i + 1 ? 1 : Integer.parseInt(chemicalFormula_.substring(i + 1, end));
+		}
+		return carbons;
+	}
+
 	/**
 	 * Gets the Kegg ID of the compound.
 	 * 
@@ -114,9 +221,10 @@ public class MetaboliteInstance {
 	 * @return
 	 */
 	public String generateSpeciesID() {
+		if (speciesID_ != null) return speciesID_;
 		String baseID = metaboliteFrame_.getLocalID();
-		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.parameters.SpeciesPrefix + "" + baseID + "_" + CycModeler.parameters.CompartmentAbrevs.get(compartment_));
-		else return CycModeler.convertToSBMLSafe(CycModeler.parameters.SpeciesPrefix + "_" + baseID + "_" + CycModeler.parameters.CompartmentAbrevs.get(compartment_));
+		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.getParameters().SpeciesPrefix + "" + baseID + "_" + CycModeler.getParameters().CompartmentAbrevs.get(compartment_));
+		else return CycModeler.convertToSBMLSafe(CycModeler.getParameters().SpeciesPrefix + "_" + baseID + "_" + CycModeler.getParameters().CompartmentAbrevs.get(compartment_));
 	}
 	
 //	@Override
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 
+import edu.iastate.cycmodeler.logic.CompoundCache;
 import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.cycmodeler.util.ListCombinations;
 import edu.iastate.cycmodeler.util.MyParameters;
@@ -24,6 +25,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 	public Reaction reactionFrame_;
 	public String reactantSlot_;
 	public String productSlot_;
+	private String geneProteinReactionRule_;
 	
 	// Initializes the reactants and products to the values in the biocyc database for the given reactionFrame
 	public ReactionInstance(Reaction reactionFrame, String name, boolean reversible, String specificLocation) {
@@ -65,29 +67,29 @@ public class ReactionInstance extends AbstractReactionInstance {
 		
 		try {
 			if (reactionFrame_ == null) {
-				Report.instantiation.add("Reaction without a reaction frame.");
+				reportInstantiation("Reaction without a reaction frame.");
 				return null;
 			}
 			
 			//If reaction has specific forms, then assume those forms are already in the model //TODO get these explicitly, don't assume already in
-			if (CycModeler.conn.specificFormsOfReaction(reactionFrame_.getLocalID()).size() > 0) {
-				Report.instantiation.add("Reaction " + reactionFrame_.getLocalID() + " reports having reaction instances, skipping.");
+			if (CycModeler.getConnection().specificFormsOfReaction(reactionFrame_.getLocalID()).size() > 0) {
+				reportInstantiation("Reaction " + reactionFrame_.getLocalID() + " reports having reaction instances, skipping.");
 				return null;//TODO should not assume these reactions are already there.  try to add them, and if they are duplicates they will not be added
 			}
 			
 			// If reaction cannot be balanced then it cannot be instantiated
 			if (reactionFrame_.hasSlot("CANNOT-BALANCE?") && reactionFrame_.getSlotValue("CANNOT-BALANCE?") != null) {
-				Report.instantiation.add("Reaction " + reactionFrame_.getLocalID() + " reports that it cannot be balanced, skipping.");
+				reportInstantiation("Reaction " + reactionFrame_.getLocalID() + " reports that it cannot be balanced, skipping.");
 				return null;
 			}
 			
 			// Sort generic from non-generic reactants and products.
 			for (MetaboliteInstance reactant : reactants_) {
-				if (CycModeler.conn.getFrameType(reactant.getMetaboliteID()).toUpperCase().equals(":CLASS")) genericReactants.add(reactant);
+				if (reactant.isClassFrame()) genericReactants.add(reactant);
 				else reactants.add(reactant);
 			}
 			for (MetaboliteInstance product : products_) {
-				if (CycModeler.conn.getFrameType(product.getMetaboliteID()).toUpperCase().equals(":CLASS")) genericProducts.add(product);
+				if (product.isClassFrame()) genericProducts.add(product);
 				else products.add(product);
 			}
 			
@@ -117,7 +119,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 //					if (!listSet.contains(namedList)) listSet.add(namedList);
 //				}
 				
-				ListCombinations termCombinations = ListCombinations.listCombinations(CycModeler.conn, genericReactants, genericProducts);
+				ListCombinations termCombinations = ListCombinations.listCombinations(CycModeler.getConnection(), genericReactants, genericProducts);
 				
 				if (termCombinations == null) return null; // ie no instances of generic metabolite available
 				
@@ -135,22 +137,22 @@ public class ReactionInstance extends AbstractReactionInstance {
 
 					// Generic metabolites -- Create a new MetaboliteInstance by replacing the generic metabolite object with an instance metabolite object while keeping the compartment and stoichiometry the same 
 					for (MetaboliteInstance genericReactant : genericReactants) {
-						Frame newMetaboliteFrame = Frame.load(CycModeler.conn, combinationSet.get(termCombinations.nameList.indexOf(genericReactant.getMetaboliteID())));
+						Frame newMetaboliteFrame = loadCompound(CycModeler.getConnection(), combinationSet.get(termCombinations.nameList.indexOf(genericReactant.getMetaboliteID())));
 						MetaboliteInstance newMetabolite = new MetaboliteInstance(newMetaboliteFrame, genericReactant.compartment_, genericReactant.coefficient_);
 						newReaction.reactants_.add(newMetabolite);
 					}
 					for (MetaboliteInstance genericProduct : genericProducts) {
-						Frame newMetaboliteFrame = Frame.load(CycModeler.conn, combinationSet.get(termCombinations.nameList.indexOf(genericProduct.getMetaboliteID())));
+						Frame newMetaboliteFrame = loadCompound(CycModeler.getConnection(), combinationSet.get(termCombinations.nameList.indexOf(genericProduct.getMetaboliteID())));
 						MetaboliteInstance newMetabolite = new MetaboliteInstance(newMetaboliteFrame, genericProduct.compartment_, genericProduct.coefficient_);
 						newReaction.products_.add(newMetabolite);
 					}
 					
 					// If the chosen metabolite instances result in a balanced elemental equation, include it in the new reactionInstances to be returned.
 //					if (newReaction.isReactionGeneric()) {  //TODO simply having it be generic does not mean it cannot be balanced.  some generics have formulae
-//						Report.instantiation.add("Attempt to instantiate " + reactionFrame_.getLocalID() + " resulted in another generic reaction. This should not happen.");
+//						reportInstantiation("Attempt to instantiate " + reactionFrame_.getLocalID() + " resulted in another generic reaction. This should not happen.");
 //					} else 
 					if (!newReaction.isReactionBalanced()) {
-						Report.instantiation.add("Attempt to instantiate " + reactionFrame_.getLocalID() + " resulted in unbalanced equation.");
+						reportInstantiation("Attempt to instantiate " + reactionFrame_.getLocalID() + " resulted in unbalanced equation.");
 					} else {
 						newReaction.name_ = newReaction.parentReactionFrame_.getCommonName();
 						newReactions.add(newReaction);
@@ -197,8 +199,8 @@ public class ReactionInstance extends AbstractReactionInstance {
 		if (reactionFrame_ != null) baseID = reactionFrame_.getLocalID();
 		else baseID = name_;
 		
-		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "" + baseID);
-		else return CycModeler.convertToSBMLSafe(CycModeler.parameters.ReactionPrefix + "_" + baseID);
+		if (baseID.startsWith("_")) return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "" + baseID);
+		else return CycModeler.convertToSBMLSafe(CycModeler.getParameters().ReactionPrefix + "_" + baseID);
 	}
 	
 	
@@ -224,8 +226,21 @@ public class ReactionInstance extends AbstractReactionInstance {
 	 * @throws PtoolsErrorException
 	 */
 	public String reactionGeneRule(boolean asBNumber) throws PtoolsErrorException {
-		String reactionID = reactionFrame_.getLocalID();
-		JavacycConnection conn = reactionFrame_.getConnection();
+		return reactionGeneRule(reactionFrame_, asBNumber);
+	}
+	
+	/**
+	 * Gene rule of a reaction frame, as described for reactionGeneRule(boolean).  Shared with instantiated reactions, which take the rule of
+	 * their parent reaction.
+	 * 
+	 * @param reactionFrame Reaction frame
+	 * @param asBNumber If true, return string with gene b#'s instead of gene frame IDs
+	 * @return String of gene-reaction associations
+	 * @throws PtoolsErrorException
+	 */
+	public static String reactionGeneRule(Reaction reactionFrame, boolean asBNumber) throws PtoolsErrorException {
+		String reactionID = reactionFrame.getLocalID();
+		JavacycConnection conn = reactionFrame.getConnection();
 		
 		String orRule = "";
 		for (Object enzyme : conn.enzymesOfReaction(reactionID)) {
@@ -250,6 +265,23 @@ public class ReactionInstance extends AbstractReactionInstance {
 		return orRule;
 	}
 	
+	/**
+	 * Note a reaction which could not be instantiated in the report of the current build, if there is one.
+	 */
+	private static void reportInstantiation(String message) {
+		Report report = CycModeler.getReport();
+		if (report != null) report.addInstantiation(message);
+	}
+	
+	/**
+	 * Load a compound frame through the compound cache of the current build, if there is one.
+	 */
+	private static Frame loadCompound(JavacycConnection conn, String compoundID) throws PtoolsErrorException {
+		CompoundCache compoundCache = CycModeler.getCompoundCache();
+		if (compoundCache == null) return Frame.load(conn, compoundID);
+		return compoundCache.loadFrame(conn, compoundID);
+	}
+	
 	/**
 	 * Overwrite existing reactants_ and products_ by looking up reactionFrame_ in the biocyc database and creating MetaboliteInstances for all
 	 * reactants and products found there for this reaction.
@@ -263,7 +295,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 			
 			ArrayList<String> reactantIDs = reactionFrame_.getSlotValues(reactantSlot_);
 			for (String reactantID : reactantIDs) {
-				Frame metabolite = Frame.load(conn, reactantID);
+				Frame metabolite = loadCompound(conn, reactantID);
 				String compartment = getCompartmentOfMetabolite(reactantID, reactantSlot_);
 				int coeficient = 1;
 				try {
@@ -276,7 +308,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 			
 			ArrayList<String> productIDs = reactionFrame_.getSlotValues(productSlot_);
 			for (String productID : productIDs) {
-				Frame metabolite = Frame.load(conn, productID);
+				Frame metabolite = loadCompound(conn, productID);
 				String compartment = getCompartmentOfMetabolite(productID, productSlot_);
 				int coeficient = 1;
 				try {
@@ -309,7 +341,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 			ArrayList<String> locations = reaction.getSlotValues("RXN-LOCATIONS");
 
 			if (locations.isEmpty()) {
-				compartment = CycModeler.parameters.DefaultCompartment;
+				compartment = CycModeler.getParameters().DefaultCompartment;
 			} else if (locations.size() == 1) {
 				boolean isSpace;
 				try { 
@@ -365,7 +397,7 @@ public class ReactionInstance extends AbstractReactionInstance {
 		// this may not always be correct, it helps more problems than it causes.  In particular, with electron transfer reactions, the actual location
 		// of the metabolite may be in the membrane, but we assume the cytoplasm for network connectivity reasons.
 		if (compartment == null || compartment.equalsIgnoreCase("")) {
-			compartment = CycModeler.parameters.DefaultCompartment;
+			compartment = CycModeler.getParameters().DefaultCompartment;
 //			System.err.println("Null compartment here, assuming default compartment: " + reaction.getLocalID());
 		}
 		return compartment;
@@ -382,10 +414,21 @@ public class ReactionInstance extends AbstractReactionInstance {
 		// TODO Auto-generated method stub
 		
 	}
+	/**
+	 * Gene rule of this reaction using gene frame IDs, as given by reactionGeneRule(false).  The rule is fetched from the database on the
+	 * first call only, as it is needed both for the content hash of the network and for the SBML notes.
+	 */
 	@Override
 	public String getGeneProteinReactionRule() {
-		// TODO Auto-generated method stub
-		return null;
+		if (geneProteinReactionRule_ == null) {
+			try {
+				geneProteinReactionRule_ = reactionGeneRule(false);
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+				return "";
+			}
+		}
+		return geneProteinReactionRule_;
 	}
 	@Override
 	public String printReaction() {
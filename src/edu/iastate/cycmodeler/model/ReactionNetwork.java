@@ -1,11 +1,27 @@
 package edu.iastate.cycmodeler.model;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 
+import edu.iastate.cycmodeler.analysis.ConnectedComponents;
+import edu.iastate.cycmodeler.analysis.CurrencyMetabolites;
+import edu.iastate.cycmodeler.analysis.DeadEndAnalysis;
+import edu.iastate.cycmodeler.analysis.ElementaryFluxModes;
+import edu.iastate.cycmodeler.analysis.FluxVariabilityAnalysis;
+import edu.iastate.cycmodeler.analysis.NetworkCompression;
+import edu.iastate.cycmodeler.analysis.NetworkGraph;
+import edu.iastate.cycmodeler.analysis.RouteSearch;
 import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.util.PathwayLoader;
 import edu.iastate.cycmodeler.util.Report;
 import edu.iastate.javacyco.Frame;
 import edu.iastate.javacyco.JavacycConnection;
@@ -23,6 +39,16 @@ public class ReactionNetwork {
 	// Network modification statistics
 	private Report report;
 	
+	/**
+	 * Creates an empty network.  Reactions are added with addReactions, for example by a reader of a saved model.
+	 */
+	public ReactionNetwork () {
+		this.Reactions = new HashSet<AbstractReactionInstance>();
+		
+		report = new Report();
+		report.setTotalInitialReactionsCount(0);
+	}
+	
 	public ReactionNetwork (ArrayList<Reaction> reactions) {
 		this.Reactions = new HashSet<AbstractReactionInstance>();
 		importJavacycReactions(reactions);
@@ -39,35 +65,33 @@ public class ReactionNetwork {
 	 * @return Exchange reactions created
 	 */
 	public ArrayList<AbstractReactionInstance> addBoundaryReactionsByCompartment(String compartment) {
-		ArrayList<Frame> exchangeMetabolites = new ArrayList<Frame>();
-		ArrayList<String> exchangeMetaboliteIDs = new ArrayList<String>();
+		ArrayList<MetaboliteInstance> exchangeMetabolites = new ArrayList<MetaboliteInstance>();
+		HashSet<String> exchangeMetaboliteIDs = new HashSet<String>();
 		
 		assert Reactions != null;
 		
 		// For each reaction, check for reactants or products which are consumed or produced in boundary compartment
 		for (AbstractReactionInstance reaction : Reactions) {
 			for (MetaboliteInstance reactant : reaction.reactants_) {
-				if (reactant.compartment_.equalsIgnoreCase(compartment) && !exchangeMetaboliteIDs.contains(reactant.getMetaboliteID())) {
-					exchangeMetabolites.add(reactant.getMetaboliteFrame());
-					exchangeMetaboliteIDs.add(reactant.getMetaboliteID());
+				if (reactant.compartment_.equalsIgnoreCase(compartment) && exchangeMetaboliteIDs.add(reactant.getMetaboliteID())) {
+					exchangeMetabolites.add(reactant);
 				}
 			}
 			for (MetaboliteInstance product : reaction.products_) {
-				if (product.compartment_.equalsIgnoreCase(compartment) && !exchangeMetaboliteIDs.contains(product.getMetaboliteID())) {
-					exchangeMetabolites.add(product.getMetaboliteFrame());
-					exchangeMetaboliteIDs.add(product.getMetaboliteID());
+				if (product.compartment_.equalsIgnoreCase(compartment) && exchangeMetaboliteIDs.add(product.getMetaboliteID())) {
+					exchangeMetabolites.add(product);
 				}
 			}
 		}
 		
 		// Generate exchange reactions
 		ArrayList<AbstractReactionInstance> exchangeReactions = new ArrayList<AbstractReactionInstance>();
-		for (Frame metabolite : exchangeMetabolites) {
+		for (MetaboliteInstance metabolite : exchangeMetabolites) {
 //			ArrayList<MetaboliteInstance> reactants = new ArrayList<MetaboliteInstance>();
 //			reactants.add(new MetaboliteInstance(metabolite, compartment, 1));
 //			ArrayList<MetaboliteInstance> products = new ArrayList<MetaboliteInstance>();
 //			products.add(new MetaboliteInstance(metabolite, CycModeler.BoundaryCompartmentName, 1));
-			exchangeReactions.add(new ExchangeReactionInstance(metabolite.getLocalID() + "_" + CycModeler.parameters.ExchangeReactionSuffix, metabolite, compartment));
+			exchangeReactions.add(new ExchangeReactionInstance(metabolite.getMetaboliteID() + "_" + CycModeler.getParameters().ExchangeReactionSuffix, metabolite, compartment));
 		}
 		
 		addReactionsToNetwork(exchangeReactions);
@@ -86,7 +110,7 @@ public class ReactionNetwork {
 	 * @return
 	 */
 	public ArrayList<AbstractReactionInstance> addPassiveDiffusionReactions(String compartment1, String compartment2, float maxSize) {
-		ArrayList<Frame> diffusionMetabolites = new ArrayList<Frame>();
+		ArrayList<MetaboliteInstance> diffusionMetabolites = new ArrayList<MetaboliteInstance>();
 		ArrayList<String> diffusionMetaboliteIDs = new ArrayList<String>();
 		
 		assert Reactions != null;
@@ -108,7 +132,7 @@ public class ReactionNetwork {
 						}
 					}
 					if (weight <= maxSize) {
-						diffusionMetabolites.add(reactant.getMetaboliteFrame());
+						diffusionMetabolites.add(reactant);
 						diffusionMetaboliteIDs.add(reactant.getMetaboliteID());
 					}
 				}
@@ -128,7 +152,7 @@ public class ReactionNetwork {
 						}
 					}
 					if (weight <= maxSize) {
-						diffusionMetabolites.add(product.getMetaboliteFrame());
+						diffusionMetabolites.add(product);
 						diffusionMetaboliteIDs.add(product.getMetaboliteID());
 					}
 				}
@@ -137,13 +161,13 @@ public class ReactionNetwork {
 		
 		// Generate diffusion reactions
 		ArrayList<AbstractReactionInstance> diffusionReactions = new ArrayList<AbstractReactionInstance>();
-		for (Frame metabolite : diffusionMetabolites) {
+		for (MetaboliteInstance metabolite : diffusionMetabolites) {
 			HashSet<MetaboliteInstance> reactants = new HashSet<MetaboliteInstance>();
-			reactants.add(new MetaboliteInstance(metabolite, compartment1, 1));
+			reactants.add(metabolite.inCompartment(compartment1, 1));
 			HashSet<MetaboliteInstance> products = new HashSet<MetaboliteInstance>();
-			products.add(new MetaboliteInstance(metabolite, compartment2, 1));
+			products.add(metabolite.inCompartment(compartment2, 1));
 //			diffusionReactions.add(new ReactionInstance(null, null, metabolite.getLocalID() + "_" + "passiveDiffusionReaction", true, null, reactants, products));
-			diffusionReactions.add(new DiffusionReactionInstance(metabolite.getLocalID() + "_" + "passiveDiffusionReaction", compartment1, compartment2, reactants, products));
+			diffusionReactions.add(new DiffusionReactionInstance(metabolite.getMetaboliteID() + "_" + "passiveDiffusionReaction", compartment1, compartment2, reactants, products));
 		}
 		
 		addReactionsToNetwork(diffusionReactions);
@@ -222,6 +246,128 @@ public class ReactionNetwork {
 		return instantiationResults;
 	}
 	
+	/**
+	 * Returns the reactions of this network in canonical order, sorted by their reaction signature.  Reactions is a HashSet, so iterating it
+	 * directly gives an order that can change from run to run. Anything that writes the network out should use this ordering instead so that
+	 * identical networks produce identical output.
+	 * 
+	 * @return Reactions in this network, sorted by signature
+	 */
+	public ArrayList<AbstractReactionInstance> getOrderedReactions() {
+		ArrayList<AbstractReactionInstance> orderedReactions = new ArrayList<AbstractReactionInstance>(Reactions);
+		AbstractReactionInstance.sortBySignature(orderedReactions);
+		return orderedReactions;
+	}
+	
+	/**
+	 * One metabolite instance for each species in this network, in order of first appearance in the ordered reaction list (reactants before
+	 * products).  This is the row order of StoichiometricMatrix.fromNetwork.
+	 * 
+	 * @return Representative metabolite instance of each species
+	 */
+	public ArrayList<MetaboliteInstance> getOrderedSpecies() {
+		ArrayList<MetaboliteInstance> species = new ArrayList<MetaboliteInstance>();
+		HashSet<String> speciesIDs = new HashSet<String>();
+		for (AbstractReactionInstance reaction : getOrderedReactions()) {
+			for (MetaboliteInstance reactant : reaction.getOrderedReactants()) if (speciesIDs.add(reactant.generateSpeciesID())) species.add(reactant);
+			for (MetaboliteInstance product : reaction.getOrderedProducts()) if (speciesIDs.add(product.generateSpeciesID())) species.add(product);
+		}
+		return species;
+	}
+	
+	/**
+	 * Species IDs of the metabolites in the boundary compartment.  These are the far side of the exchange reactions, and are buffered rather
+	 * than held at steady state, so analyses of the network leave them unconstrained.
+	 * 
+	 * @return Boundary species IDs
+	 */
+	public HashSet<String> getBoundarySpeciesIDs() {
+		HashSet<String> speciesIDs = new HashSet<String>();
+		for (AbstractReactionInstance reaction : Reactions) {
+			for (MetaboliteInstance reactant : reaction.reactants_) if (reactant.compartment_.equals(CycModeler.getParameters().BoundaryCompartmentName)) speciesIDs.add(reactant.generateSpeciesID());
+			for (MetaboliteInstance product : reaction.products_) if (product.compartment_.equals(CycModeler.getParameters().BoundaryCompartmentName)) speciesIDs.add(product.generateSpeciesID());
+		}
+		return speciesIDs;
+	}
+	
+	/**
+	 * Generate the SBML reaction IDs for a list of reactions.  Reactions which would otherwise share an ID are given a numbered suffix
+	 * (_1, _2, ...) in list order, so the list should be in canonical order for the IDs to be stable.
+	 * 
+	 * @param orderedReactions Reactions in the order they will be written
+	 * @return Unique reaction IDs, matching the order of orderedReactions
+	 */
+	public static ArrayList<String> generateUniqueReactionIDs(ArrayList<AbstractReactionInstance> orderedReactions) {
+		ArrayList<String> reactionIDs = new ArrayList<String>();
+		HashMap<String, Integer> reactionMap = new HashMap<String, Integer>();
+		for (AbstractReactionInstance reaction : orderedReactions) {
+			String reactionID = reaction.generateReactionID();
+			if (reactionMap.containsKey(reactionID)) {
+				int value = reactionMap.get(reactionID) + 1;
+				reactionMap.put(reactionID, value);
+				reactionID += "_" + value;
+			} else reactionMap.put(reactionID, 0);
+			reactionIDs.add(reactionID);
+		}
+		return reactionIDs;
+	}
+	
+	/**
+	 * Generates a SHA-256 hash over the normalized content of this network.  Reactions are visited in canonical order, and for each reaction
+	 * the signature, generated ID, name, reversibility, gene rule and species (ID, chemical formula and Kegg ID) are hashed.  Species names
+	 * are left out, since they would take a database request per species, so a change to nothing but the common name of a compound does not
+	 * change the hash.  Otherwise two networks with the same hash will generate the same model, so the hash can be used as a cache key for
+	 * anything derived from the network.
+	 * 
+	 * @return Hex encoded SHA-256 hash of this network
+	 */
+	public String generateContentHash() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (AbstractReactionInstance reaction : getOrderedReactions()) {
+				updateDigest(digest, reaction.generateReactionSignature());
+				updateDigest(digest, reaction.generateReactionID());
+				updateDigest(digest, reaction.name_);
+				updateDigest(digest, String.valueOf(reaction.reversible_));
+				updateDigest(digest, reaction.getGeneProteinReactionRule());
+				
+				ArrayList<MetaboliteInstance> reactantsProducts = new ArrayList<MetaboliteInstance>();
+				reactantsProducts.addAll(reaction.getOrderedReactants());
+				reactantsProducts.addAll(reaction.getOrderedProducts());
+				for (MetaboliteInstance species : reactantsProducts) {
+					updateDigest(digest, species.generateSpeciesID());
+					updateDigest(digest, species.chemicalFormula_);
+					updateDigest(digest, species.keggID_);
+				}
+			}
+			return toHexString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Add a string field to a digest.  Each field is terminated with a separator so that adjacent fields cannot run together.
+	 */
+	public static void updateDigest(MessageDigest digest, String value) {
+		try {
+			if (value != null) digest.update(value.getBytes("UTF-8"));
+			digest.update((byte) 0);
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public static String toHexString(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+	
 	public void printNetworkStatistics() {
 		report.setTransportReactions(countTransportReactions());
 		report.setTotalReactions(Reactions.size());
@@ -245,7 +391,7 @@ public class ReactionNetwork {
 		ArrayList<String> list;
 		int transportReactionCount = 0;
 		try {
-			list = (ArrayList<String>)CycModeler.conn.getClassAllInstances("|Transport-Reactions|");
+			list = (ArrayList<String>)CycModeler.getConnection().getClassAllInstances("|Transport-Reactions|");
 			for (AbstractReactionInstance reaction : Reactions) {
 				if (reaction instanceof ReactionInstance) {
 					if (list.contains(((ReactionInstance)reaction).reactionFrame_.getLocalID())) transportReactionCount++;
@@ -253,6 +399,10 @@ public class ReactionNetwork {
 				else if (reaction instanceof InstantiatedReactionInstance) {
 					if (list.contains(((InstantiatedReactionInstance)reaction).parentReactionFrame_.getLocalID())) transportReactionCount++;
 				}
+				else if (reaction instanceof ImportedReactionInstance) {
+					String frameID = ((ImportedReactionInstance)reaction).getSourceFrameID();
+					if (frameID != null && list.contains(frameID)) transportReactionCount++;
+				}
 			}
 		} catch (PtoolsErrorException e) {
 			e.printStackTrace();
@@ -304,6 +454,62 @@ public class ReactionNetwork {
 		System.out.println(Reactions.size());
 	}
 	
+	/**
+	 * Find dead-end species and the reactions they block, and record the counts in the network statistics.  Protected reactions are never
+	 * removed, a blocked protected reaction is kept with a warning.
+	 * 
+	 * @param remove If true, the blocked reactions are removed from this network
+	 * @param protectedReactionIDs Reaction IDs or frame IDs of reactions which must not be removed, such as the objective. May be null
+	 * @return Results of the analysis
+	 */
+	public DeadEndAnalysis findDeadEnds(boolean remove, Collection<String> protectedReactionIDs) {
+		DeadEndAnalysis deadEnds = new DeadEndAnalysis(this);
+		report.setDeadEndMetabolites(deadEnds.getDeadEndSpeciesIDs().size());
+		report.setBlockedReactions(deadEnds.getBlockedReactions().size());
+		if (remove) {
+			ArrayList<AbstractReactionInstance> removedReactions = new ArrayList<AbstractReactionInstance>();
+			for (AbstractReactionInstance reaction : deadEnds.getBlockedReactions()) {
+				if (protectedReactionIDs != null && (protectedReactionIDs.contains(reaction.generateReactionID()) || protectedReactionIDs.contains(NetworkGraph.getFrameID(reaction)))) {
+					System.err.println("Protected reaction is blocked by dead ends, keeping it : " + reaction.generateReactionID());
+				} else removedReactions.add(reaction);
+			}
+			Reactions.removeAll(removedReactions);
+			report.setBlockedReactionsRemoved(removedReactions.size());
+		}
+		return deadEnds;
+	}
+	
+	/**
+	 * Find the connected components of this network, not joining reactions through the currency metabolites detected in the network or
+	 * listed in CurrencyMetabolites.DEFAULT_IDS, and record the counts in the network statistics.
+	 * 
+	 * @return Results of the analysis
+	 */
+	public ConnectedComponents findConnectedComponents() {
+		ConnectedComponents components = new ConnectedComponents(this, CurrencyMetabolites.detect(this).getCurrencyIDsWithDefaults());
+		report.setConnectedComponents(components.getComponentCount());
+		report.setLargestComponentReactions(components.getComponentCount() == 0 ? 0 : components.getComponents().get(0).reactionIDs.size());
+		report.setIsolatedReactions(components.getIsolatedReactionCount());
+		return components;
+	}
+	
+	/**
+	 * Compress this network by removing blocked reactions and lumping fully coupled reactions, and record the counts in the network
+	 * statistics.
+	 * 
+	 * @param protectedReactionIDs Reaction IDs or frame IDs of reactions which must keep their IDs, such as the objective. May be null
+	 * @param apply If true, replace the reactions of this network with the compressed reactions
+	 * @return Results of the compression, including the map back to the original reactions
+	 */
+	public NetworkCompression compress(Collection<String> protectedReactionIDs, boolean apply) {
+		NetworkCompression compression = new NetworkCompression(this, protectedReactionIDs);
+		report.setLumpedReactions(compression.getLumpedReactions().size());
+		report.setReactionsLumped(compression.getLumpedMemberCount());
+		report.setCompressionRemovedReactions(compression.getRemovedReactions().size());
+		if (apply) this.Reactions = new HashSet<AbstractReactionInstance>(compression.getReactions());
+		return compression;
+	}
+	
 	private void importJavacycReactions(ArrayList<Reaction> reactions) {
 		addReactionsToNetwork(reactionListToReactionInstances(reactions));
 	}
@@ -325,6 +531,9 @@ public class ReactionNetwork {
 				} else {
 					heatMap.put(reactionID, new Integer(-10));
 				}
+			} else if (reaction instanceof ImportedReactionInstance && ((ImportedReactionInstance) reaction).getSourceFrameID() != null) {
+				String reactionID = ((ImportedReactionInstance) reaction).getSourceFrameID();
+				heatMap.put(reactionID, Integer.valueOf(((ImportedReactionInstance) reaction).isInstantiated() ? -10 : 10));
 			}
 		}
 		
@@ -361,13 +570,165 @@ public class ReactionNetwork {
 		return reactionInstances;
 	}
 	
+	/**
+	 * Runs a single reaction through the same steps createModel applies to the whole network: one reaction instance is made per location,
+	 * instances with CANNOT-BALANCE? set are dropped, non-generic instances are kept only if balanced, and generic instances are replaced
+	 * by their balanced instantiated forms.  Since no step looks at any other reaction, the result depends only on this reaction and the
+	 * database, which is what lets the build cache store it.
+	 *
+	 * @param reaction Reaction to process
+	 * @return Reaction instances this reaction contributes to the network, empty if it contributes none, and the counts createModel
+	 * reports for them
+	 */
+	public static ReactionForms generateReactionForms(Reaction reaction) {
+		ArrayList<Reaction> reactions = new ArrayList<Reaction>();
+		reactions.add(reaction);
+
+		ReactionForms reactionForms = new ReactionForms();
+		for (AbstractReactionInstance reactionInstance : reactionListToReactionInstances(reactions)) {
+			reactionForms.reactionInstances++;
+			try {
+				if (reaction.getSlotValue("CANNOT-BALANCE?") != null) continue;
+			} catch (PtoolsErrorException e) {
+				e.printStackTrace();
+			}
+
+			if (reactionInstance.isReactionGeneric()) {
+				reactionForms.genericReactionsFound++;
+				ArrayList<InstantiatedReactionInstance> instantiatedReactions = ((ReactionInstance) reactionInstance).generateInstantiatedReactions();
+				if (instantiatedReactions != null && instantiatedReactions.size() > 0) {
+					reactionForms.genericReactionsInstantiated++;
+					reactionForms.reactions.addAll(instantiatedReactions);
+				}
+			} else if (reactionInstance.isReactionBalanced()) {
+				reactionForms.reactions.add(reactionInstance);
+			}
+		}
+		return reactionForms;
+	}
+	
+	/**
+	 * Set the statistics of the steps createModel skips for a network rebuilt from a build cache, so that the report of an incremental
+	 * build matches that of a full build of the same reactions.
+	 * 
+	 * @param totalInitialReactions Reaction instances made from the chosen reactions, before balance checking
+	 * @param genericReactionsFound Generic reaction instances found
+	 * @param genericReactionsInstantiated Generic reaction instances with at least one instantiated form
+	 * @param instantiatedReactions Instantiated reactions added to the network
+	 */
+	public void setInstantiationStatistics(int totalInitialReactions, int genericReactionsFound, int genericReactionsInstantiated, int instantiatedReactions) {
+		report.setTotalInitialReactionsCount(totalInitialReactions);
+		report.setGenericReactionsFound(genericReactionsFound);
+		report.setGenericReactionsInstantiated(genericReactionsInstantiated);
+		report.setInstantiatedReactions(instantiatedReactions);
+	}
+
+	/**
+	 * Extract a core sub-model around some reactions: the seed reactions, plus every reaction within a number of hops of them through
+	 * shared metabolites.  The sub-network shares its reaction instances with this network.
+	 * 
+	 * A NetworkGraph is built for each call. To extract many sub-models from the same network, build the NetworkGraph once and call expand
+	 * on it directly.
+	 * 
+	 * @param seedReactionIDs Reaction IDs, or frame IDs of database reactions, to start from
+	 * @param hops Number of reaction-metabolite-reaction steps to expand by
+	 * @param excludedMetaboliteIDs Compound frame IDs not to expand through, such as CurrencyMetabolites.DEFAULT_IDS. May be null
+	 * @return New network holding the seeds and their neighborhood
+	 */
+	public ReactionNetwork extractSubNetwork(Collection<String> seedReactionIDs, int hops, Set<String> excludedMetaboliteIDs) {
+		NetworkGraph graph = new NetworkGraph(this);
+		BitSet seeds = graph.findReactions(seedReactionIDs);
+		return graph.toReactionNetwork(graph.expand(seeds, hops, excludedMetaboliteIDs));
+	}
+	
+	/**
+	 * Extract a core sub-model around some reactions, not expanding through the currency metabolites detected in this network.
+	 * 
+	 * @param seedReactionIDs Reaction IDs, or frame IDs of database reactions, to start from
+	 * @param hops Number of reaction-metabolite-reaction steps to expand by
+	 * @return New network holding the seeds and their neighborhood
+	 */
+	public ReactionNetwork extractSubNetwork(Collection<String> seedReactionIDs, int hops) {
+		NetworkGraph graph = new NetworkGraph(this);
+		Set<String> currencyIDs = new CurrencyMetabolites(graph, CycModeler.getParameters().CurrencyMinDegree, CycModeler.getParameters().CurrencyMinFraction).getCurrencyIDs();
+		return graph.toReactionNetwork(graph.expand(graph.findReactions(seedReactionIDs), hops, currencyIDs));
+	}
+	
+	/**
+	 * Extract a core sub-model around some pathways.  The reactions of each pathway, including those of its sub-pathways, are the seeds.
+	 * 
+	 * @param pathwayIDs Pathway frame IDs to start from
+	 * @param hops Number of reaction-metabolite-reaction steps to expand by
+	 * @param excludedMetaboliteIDs Compound frame IDs not to expand through. May be null
+	 * @return New network holding the pathway reactions and their neighborhood
+	 * @throws PtoolsErrorException
+	 */
+	public ReactionNetwork extractPathwaySubNetwork(Collection<String> pathwayIDs, int hops, Set<String> excludedMetaboliteIDs) throws PtoolsErrorException {
+		return extractSubNetwork(new PathwayLoader(CycModeler.getConnection(), 1).loadReactionIDs(pathwayIDs), hops, excludedMetaboliteIDs);
+	}
+	
+	/**
+	 * Run flux variability analysis over this network, streaming the minimum and maximum flux of each reaction to a file.
+	 * 
+	 * @param objectiveReactionID Objective reaction to constrain, or null for the unconstrained flux space
+	 * @param fractionOfOptimum Least fraction of the optimal objective flux to keep
+	 * @param threads Number of workers
+	 * @param outputFileName File to write results to, or null
+	 * @return Results, or null if the objective could not be optimized
+	 * @throws IOException
+	 */
+	public FluxVariabilityAnalysis.Results runFluxVariabilityAnalysis(String objectiveReactionID, double fractionOfOptimum, int threads, String outputFileName) throws IOException {
+		return new FluxVariabilityAnalysis(this, threads).run(objectiveReactionID, fractionOfOptimum, outputFileName);
+	}
+	
+	/**
+	 * Find the k lowest cost routes from one compound to another, avoiding the currency metabolites detected in the network or listed in
+	 * CurrencyMetabolites.DEFAULT_IDS, with steps weighted by the change in carbon count.
+	 * 
+	 * The search structures are built for each call. To answer many route queries on the same network, build a RouteSearch once and call
+	 * findRoutes on it.
+	 * 
+	 * @param sourceMetaboliteID Frame ID of the compound to start from
+	 * @param targetMetaboliteID Frame ID of the compound to reach
+	 * @param k Greatest number of routes
+	 * @return Routes, cheapest first
+	 */
+	public ArrayList<RouteSearch.Route> findRoutes(String sourceMetaboliteID, String targetMetaboliteID, int k) {
+		NetworkGraph graph = new NetworkGraph(this);
+		RouteSearch search = new RouteSearch(graph, new CurrencyMetabolites(graph, CycModeler.getParameters().CurrencyMinDegree, CycModeler.getParameters().CurrencyMinFraction).getCurrencyIDsWithDefaults(), RouteSearch.DEFAULT_ATOM_WEIGHT);
+		return search.findRoutes(sourceMetaboliteID, targetMetaboliteID, k);
+	}
+	
+	/**
+	 * Enumerate the elementary flux modes of this network.  Only practical for small networks, such as one from extractSubNetwork.
+	 * 
+	 * @param threads Number of workers
+	 * @param maxModes Largest number of intermediate modes to keep before giving up
+	 * @param outputFileName File to stream modes to
+	 * @return Number of modes, or -1 if there were too many
+	 * @throws IOException
+	 */
+	public long enumerateElementaryModes(int threads, int maxModes, String outputFileName) throws IOException {
+		return new ElementaryFluxModes(this, threads, maxModes).enumerate(outputFileName, false);
+	}
+	
+	/**
+	 * Add reactions to this network.  Reactions which duplicate a reaction already in the network are not added.
+	 * 
+	 * @param reactions Reactions to add
+	 */
+	public void addReactions(ArrayList<AbstractReactionInstance> reactions) {
+		addReactionsToNetwork(reactions);
+	}
+	
 	private void addReactionsToNetwork(ArrayList<AbstractReactionInstance> reactions) {
 		for (AbstractReactionInstance reaction : reactions) {
 			if (Reactions.contains(reaction)) {
 				for (AbstractReactionInstance aReaction : Reactions) {
 					if (aReaction.equals(reaction) && !aReaction.name_.equalsIgnoreCase(reaction.name_)) {
 						//TODO Detect and handle duplicates. In particular, do we ever want to merge duplicates? Sometimes they may have different gene associations
-						System.err.println("Duplicate Reaction: " + ((ReactionInstance)aReaction).reactionFrame_.getLocalID() + " = " + ((ReactionInstance)reaction).reactionFrame_.getLocalID());
+						if (aReaction instanceof ReactionInstance && reaction instanceof ReactionInstance) System.err.println("Duplicate Reaction: " + ((ReactionInstance)aReaction).reactionFrame_.getLocalID() + " = " + ((ReactionInstance)reaction).reactionFrame_.getLocalID());
+						else System.err.println("Duplicate Reaction: " + aReaction.name_ + " = " + reaction.name_);
 						break;
 					}
 				}
@@ -410,4 +771,17 @@ public class ReactionNetwork {
 			this.removedList = removedList;
 		}
 	}
+	
+	/**
+	 * Reaction instances a single reaction contributes to the network, as returned by generateReactionForms, with the counts of the
+	 * steps that produced them.
+	 * 
+	 * @author Jesse Walsh
+	 */
+	public static class ReactionForms {
+		public ArrayList<AbstractReactionInstance> reactions = new ArrayList<AbstractReactionInstance>();
+		public int reactionInstances = 0;
+		public int genericReactionsFound = 0;
+		public int genericReactionsInstantiated = 0;
+	}
 }
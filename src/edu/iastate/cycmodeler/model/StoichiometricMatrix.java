@@ -0,0 +1,274 @@
+package edu.iastate.cycmodeler.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sparse stoichiometric matrix of a reaction network, with one row per species and one column per reaction.  The matrix is stored in
+ * compressed sparse column form (colPtr, rowIdx, values), with row indices sorted within each column.  A compressed sparse row copy is built
+ * on first use for algorithms which walk the matrix by species.
+ *
+ * Reactions are in the canonical order of ReactionNetwork.getOrderedReactions(), and species are in order of first appearance in that
+ * reaction list, the same order in which the SBML writers list them.  Reactants have negative coefficients and products positive ones.
+ *
+ * @author Jesse Walsh
+ */
+public class StoichiometricMatrix {
+	private String[] reactionIDs_;
+	private String[] speciesIDs_;
+	private int[] colPtr_;
+	private int[] rowIdx_;
+	private double[] values_;
+	private double[] lowerBounds_;
+	private double[] upperBounds_;
+	private boolean[] reversible_;
+
+	// Built on demand
+	private int[] rowPtr_;
+	private int[] colIdx_;
+	private double[] rowValues_;
+	private HashMap<String, Integer> speciesIndex_;
+	private HashMap<String, Integer> reactionIndex_;
+
+	/**
+	 * Constructor from already compressed arrays.  The arrays are used as given, not copied.
+	 */
+	public StoichiometricMatrix(String[] reactionIDs, String[] speciesIDs, int[] colPtr, int[] rowIdx, double[] values, double[] lowerBounds, double[] upperBounds, boolean[] reversible) {
+		assert colPtr.length == reactionIDs.length + 1;
+		assert rowIdx.length == values.length;
+		this.reactionIDs_ = reactionIDs;
+		this.speciesIDs_ = speciesIDs;
+		this.colPtr_ = colPtr;
+		this.rowIdx_ = rowIdx;
+		this.values_ = values;
+		this.lowerBounds_ = lowerBounds;
+		this.upperBounds_ = upperBounds;
+		this.reversible_ = reversible;
+	}
+
+	/**
+	 * Build the stoichiometric matrix of a network.
+	 *
+	 * @param reactionNetwork Network to build the matrix from
+	 * @return Matrix with reactions in canonical order
+	 */
+	public static StoichiometricMatrix fromNetwork(ReactionNetwork reactionNetwork) {
+		ArrayList<AbstractReactionInstance> reactions = reactionNetwork.getOrderedReactions();
+		ArrayList<String> reactionIDs = ReactionNetwork.generateUniqueReactionIDs(reactions);
+		ArrayList<String> speciesIDs = new ArrayList<String>();
+		HashMap<String, Integer> speciesIndex = new HashMap<String, Integer>();
+
+		int n = reactions.size();
+		int[] colPtr = new int[n + 1];
+		ArrayList<Integer> rowIdx = new ArrayList<Integer>();
+		ArrayList<Double> values = new ArrayList<Double>();
+		double[] lowerBounds = new double[n];
+		double[] upperBounds = new double[n];
+		boolean[] reversible = new boolean[n];
+
+		for (int j = 0; j < n; j++) {
+			AbstractReactionInstance reaction = reactions.get(j);
+			TreeMap<Integer, Double> column = new TreeMap<Integer, Double>();
+			for (MetaboliteInstance reactant : reaction.getOrderedReactants()) addEntry(column, speciesIDs, speciesIndex, reactant.generateSpeciesID(), -reactant.coefficient_);
+			for (MetaboliteInstance product : reaction.getOrderedProducts()) addEntry(column, speciesIDs, speciesIndex, product.generateSpeciesID(), product.coefficient_);
+			for (Integer row : column.keySet()) {
+				double value = column.get(row);
+				if (value == 0) continue;
+				rowIdx.add(row);
+				values.add(value);
+			}
+			colPtr[j + 1] = rowIdx.size();
+			lowerBounds[j] = reaction.getLowerBound();
+			upperBounds[j] = reaction.getUpperBound();
+			reversible[j] = reaction.reversible_;
+		}
+
+		int[] rowIdxArray = new int[rowIdx.size()];
+		double[] valuesArray = new double[values.size()];
+		for (int k = 0; k < rowIdxArray.length; k++) {
+			rowIdxArray[k] = rowIdx.get(k);
+			valuesArray[k] = values.get(k);
+		}
+
+		StoichiometricMatrix matrix = new StoichiometricMatrix(reactionIDs.toArray(new String[n]), speciesIDs.toArray(new String[speciesIDs.size()]), colPtr, rowIdxArray, valuesArray, lowerBounds, upperBounds, reversible);
+		matrix.speciesIndex_ = speciesIndex;
+		return matrix;
+	}
+
+	private static void addEntry(TreeMap<Integer, Double> column, ArrayList<String> speciesIDs, HashMap<String, Integer> speciesIndex, String speciesID, double value) {
+		Integer row = speciesIndex.get(speciesID);
+		if (row == null) {
+			row = speciesIDs.size();
+			speciesIDs.add(speciesID);
+			speciesIndex.put(speciesID, row);
+		}
+		Double current = column.get(row);
+		column.put(row, current == null ? value : current + value);
+	}
+
+	/**
+	 * Copy of this matrix without some species rows, such as the species of the boundary compartment, which are not held at steady state.
+	 * Reactions are unchanged and the remaining species keep their order.
+	 *
+	 * @param speciesIDs Species to drop
+	 * @return New matrix
+	 */
+	public StoichiometricMatrix withoutSpecies(Set<String> speciesIDs) {
+		int[] newRow = new int[speciesIDs_.length];
+		ArrayList<String> keptSpeciesIDs = new ArrayList<String>();
+		for (int i = 0; i < speciesIDs_.length; i++) {
+			if (speciesIDs.contains(speciesIDs_[i])) newRow[i] = -1;
+			else {
+				newRow[i] = keptSpeciesIDs.size();
+				keptSpeciesIDs.add(speciesIDs_[i]);
+			}
+		}
+
+		int[] colPtr = new int[colPtr_.length];
+		int nonZeros = 0;
+		for (int k = 0; k < rowIdx_.length; k++) if (newRow[rowIdx_[k]] != -1) nonZeros++;
+		int[] rowIdx = new int[nonZeros];
+		double[] values = new double[nonZeros];
+		int position = 0;
+		for (int j = 0; j < reactionIDs_.length; j++) {
+			for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) {
+				if (newRow[rowIdx_[k]] == -1) continue;
+				rowIdx[position] = newRow[rowIdx_[k]];
+				values[position++] = values_[k];
+			}
+			colPtr[j + 1] = position;
+		}
+		return new StoichiometricMatrix(reactionIDs_, keptSpeciesIDs.toArray(new String[keptSpeciesIDs.size()]), colPtr, rowIdx, values, lowerBounds_, upperBounds_, reversible_);
+	}
+
+	/**
+	 * Build the compressed sparse row copy of the matrix.
+	 */
+	private synchronized void buildRowIndex() {
+		if (rowPtr_ != null) return;
+		int m = speciesIDs_.length;
+		int[] rowPtr = new int[m + 1];
+		int[] colIdx = new int[rowIdx_.length];
+		double[] rowValues = new double[values_.length];
+
+		for (int k = 0; k < rowIdx_.length; k++) rowPtr[rowIdx_[k] + 1]++;
+		for (int i = 0; i < m; i++) rowPtr[i + 1] += rowPtr[i];
+		int[] next = new int[m];
+		System.arraycopy(rowPtr, 0, next, 0, m);
+		for (int j = 0; j < reactionIDs_.length; j++) {
+			for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) {
+				int position = next[rowIdx_[k]]++;
+				colIdx[position] = j;
+				rowValues[position] = values_[k];
+			}
+		}
+
+		colIdx_ = colIdx;
+		rowValues_ = rowValues;
+		rowPtr_ = rowPtr;
+	}
+
+	/**
+	 * Coefficient of a species in a reaction.
+	 *
+	 * @param row Species index
+	 * @param column Reaction index
+	 * @return Stoichiometric coefficient, 0 if the species does not take part in the reaction
+	 */
+	public double get(int row, int column) {
+		for (int k = colPtr_[column]; k < colPtr_[column + 1]; k++) {
+			if (rowIdx_[k] == row) return values_[k];
+			if (rowIdx_[k] > row) break;
+		}
+		return 0;
+	}
+
+	/**
+	 * Multiply the matrix by a flux vector.
+	 *
+	 * @param flux Flux through each reaction
+	 * @return Net production of each species
+	 */
+	public double[] multiply(double[] flux) {
+		double[] result = new double[speciesIDs_.length];
+		for (int j = 0; j < reactionIDs_.length; j++) {
+			if (flux[j] == 0) continue;
+			for (int k = colPtr_[j]; k < colPtr_[j + 1]; k++) result[rowIdx_[k]] += values_[k] * flux[j];
+		}
+		return result;
+	}
+
+	/**
+	 * @return Index of the species with this ID, or -1 if it is not in the matrix
+	 */
+	public synchronized int getSpeciesIndex(String speciesID) {
+		if (speciesIndex_ == null) {
+			speciesIndex_ = new HashMap<String, Integer>();
+			for (int i = 0; i < speciesIDs_.length; i++) speciesIndex_.put(speciesIDs_[i], i);
+		}
+		Integer index = speciesIndex_.get(speciesID);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return Index of the reaction with this ID, or -1 if it is not in the matrix
+	 */
+	public synchronized int getReactionIndex(String reactionID) {
+		if (reactionIndex_ == null) {
+			reactionIndex_ = new HashMap<String, Integer>();
+			for (int j = 0; j < reactionIDs_.length; j++) reactionIndex_.put(reactionIDs_[j], j);
+		}
+		Integer index = reactionIndex_.get(reactionID);
+		return index == null ? -1 : index;
+	}
+
+
+	// Getters and Setters
+	public int getSpeciesCount() {
+		return speciesIDs_.length;
+	}
+	public int getReactionCount() {
+		return reactionIDs_.length;
+	}
+	public int getNonZeroCount() {
+		return values_.length;
+	}
+	public String[] getReactionIDs() {
+		return reactionIDs_;
+	}
+	public String[] getSpeciesIDs() {
+		return speciesIDs_;
+	}
+	public int[] getColumnPointers() {
+		return colPtr_;
+	}
+	public int[] getRowIndices() {
+		return rowIdx_;
+	}
+	public double[] getValues() {
+		return values_;
+	}
+	public double[] getLowerBounds() {
+		return lowerBounds_;
+	}
+	public double[] getUpperBounds() {
+		return upperBounds_;
+	}
+	public boolean[] getReversible() {
+		return reversible_;
+	}
+	public int[] getRowPointers() {
+		buildRowIndex();
+		return rowPtr_;
+	}
+	public int[] getColumnIndices() {
+		buildRowIndex();
+		return colIdx_;
+	}
+	public double[] getRowValues() {
+		buildRowIndex();
+		return rowValues_;
+	}
+}
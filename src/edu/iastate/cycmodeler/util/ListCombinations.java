@@ -2,6 +2,8 @@ package edu.iastate.cycmodeler.util;
 
 import java.util.ArrayList;
 
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.cycmodeler.logic.QueryCoalescer;
 import edu.iastate.cycmodeler.model.MetaboliteInstance;
 import edu.iastate.javacyco.Frame;
 import edu.iastate.javacyco.JavacycConnection;
@@ -21,9 +23,7 @@ public class ListCombinations {
 		ArrayList<NamedList> listSet = new ArrayList<NamedList>();
 		for (MetaboliteInstance genericTerm : genericReactants) {
 			ArrayList<String> instancesOfGenericTerm = new ArrayList<String>();
-			for (Object instance : conn.getClassAllInstances(genericTerm.getMetaboliteID())) {
-				if (!Frame.load(conn, (String) instance).isClassFrame()) instancesOfGenericTerm.add(instance.toString());
-			}
+			instancesOfGenericTerm.addAll(getNonClassInstances(conn, genericTerm.getMetaboliteID()));
 			if (genericTerm.chemicalFormula_ != null && !genericTerm.chemicalFormula_.equalsIgnoreCase("")) {
 				System.err.println(genericTerm.getMetaboliteID() + " " + genericTerm.chemicalFormula_);
 				instancesOfGenericTerm.add(genericTerm.getMetaboliteID());//Failsafe, if the "CLASS" metabolite has a proper chemical formula, it can be balanced
@@ -38,9 +38,7 @@ public class ListCombinations {
 		
 		for (MetaboliteInstance genericTerm : genericProducts) {
 			ArrayList<String> instancesOfGenericTerm = new ArrayList<String>();
-			for (Object instance : conn.getClassAllInstances(genericTerm.getMetaboliteID())) {
-				if (!Frame.load(conn, (String) instance).isClassFrame()) instancesOfGenericTerm.add(instance.toString());
-			}
+			instancesOfGenericTerm.addAll(getNonClassInstances(conn, genericTerm.getMetaboliteID()));
 			if (genericTerm.chemicalFormula_ != null && !genericTerm.chemicalFormula_.equalsIgnoreCase("")) {
 				System.err.println(genericTerm.getMetaboliteID() + " " + genericTerm.chemicalFormula_);
 				instancesOfGenericTerm.add(genericTerm.getMetaboliteID());//Failsafe, if the "CLASS" metabolite has a proper chemical formula, it can be balanced
@@ -55,6 +53,26 @@ public class ListCombinations {
 		
 		return listCombinations(listSet);
 	}
+	/**
+	 * Instances of a class which are not classes themselves.  Generic reactions of an organism share few classes, such as |Acceptor|, so
+	 * concurrent instantiations asking for the same class share one query.  The instances of a class differ between PGDBs, so only
+	 * instantiations for the same organism share it.
+	 * 
+	 * @return Instance IDs, a new list the caller may change
+	 */
+	private static ArrayList<String> getNonClassInstances(final JavacycConnection conn, final String classID) throws PtoolsErrorException {
+		ArrayList<String> instances = CycModeler.getQueryCoalescer().call(CycModeler.getQueryScope(conn) + " non-class instances " + classID, new QueryCoalescer.Query<ArrayList<String>>() {
+			public ArrayList<String> run() throws PtoolsErrorException {
+				ArrayList<String> instances = new ArrayList<String>();
+				for (Object instance : conn.getClassAllInstances(classID)) {
+					if (!Frame.load(conn, (String) instance).isClassFrame()) instances.add(instance.toString());
+				}
+				return instances;
+			}
+		});
+		return new ArrayList<String>(instances);
+	}
+	
 	/**
 	 * "All possible combinations from a list of sublists problem"
 	 * 
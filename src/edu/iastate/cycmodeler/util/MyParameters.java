@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 public class MyParameters {
@@ -31,6 +32,27 @@ public class MyParameters {
 	public float DiffusionSize;
 	public int DefaultUpperBound;
 	public int DefaultLowerBound;
+	public String SBMLWriter;
+	public int WriterThreads;
+	public String OutputCompression;
+	public int CompressionThreads;
+	public boolean WriteBinaryNetwork;
+	public ArrayList<String> ExportFormats;
+	public boolean IncrementalBuild;
+	public int LoaderThreads;
+	public int CurrencyMinDegree;
+	public float CurrencyMinFraction;
+	public String ObjectiveReaction;
+	public boolean FluxVariability;
+	public float FVAFraction;
+	public int FVAThreads;
+	public boolean RemoveDeadEnds;
+	public String CompressNetwork;
+	public boolean ElementaryModes;
+	public int EFMMaxModes;
+	public int EFMThreads;
+	public ArrayList<String> BatchOrganisms;
+	public int BatchThreads;
 	
 	
 	public MyParameters() {
@@ -59,6 +81,36 @@ public class MyParameters {
 		DiffusionSize = (float) 0;
 		DefaultUpperBound = 9999;
 		DefaultLowerBound = -9999;
+		SBMLWriter = "LIBSBML";
+		WriterThreads = 1;
+		OutputCompression = "NONE";
+		CompressionThreads = Runtime.getRuntime().availableProcessors();
+		WriteBinaryNetwork = false;
+		ExportFormats = new ArrayList<String>();
+		IncrementalBuild = false;
+		LoaderThreads = 4;
+		CurrencyMinDegree = 20;
+		CurrencyMinFraction = (float) 0.02;
+		ObjectiveReaction = "";
+		FluxVariability = false;
+		FVAFraction = (float) 0;
+		FVAThreads = Runtime.getRuntime().availableProcessors();
+		RemoveDeadEnds = false;
+		CompressNetwork = "NONE";
+		ElementaryModes = false;
+		EFMMaxModes = 500000;
+		EFMThreads = Runtime.getRuntime().availableProcessors();
+		BatchOrganisms = new ArrayList<String>();
+		BatchThreads = 1;
+	}
+	
+	/**
+	 * Defaults for builds run without the GUI: the command line, job files, batch builds and the build service.  These write SBML with the
+	 * pure Java STREAM writer, so models can be built on hosts without the libSBML native library, while the GUI keeps LIBSBML.  Call
+	 * before initializeFromConfigFile, so that SBMLWRITER in the config file still takes precedence.
+	 */
+	public void initHeadlessDefault() {
+		SBMLWriter = "STREAM";
 	}
 	
 	public void initializeFromConfigFile(String fileName) {
@@ -100,6 +152,35 @@ public class MyParameters {
 					case DIFFUSIONSIZE: DiffusionSize = Float.parseFloat(value); break;
 					case DEFAULTUPPERBOUND: DefaultUpperBound = Integer.parseInt(value); break;
 					case DEFAULTLOWERBOUND: DefaultLowerBound = Integer.parseInt(value); break;
+					case SBMLWRITER: SBMLWriter = value.trim().toUpperCase(); break;
+					case WRITERTHREADS: WriterThreads = Integer.parseInt(value.trim()); break;
+					case OUTPUTCOMPRESSION: OutputCompression = value.trim().toUpperCase(); break;
+					case COMPRESSIONTHREADS: CompressionThreads = Integer.parseInt(value.trim()); break;
+					case WRITEBINARYNETWORK: WriteBinaryNetwork = Boolean.parseBoolean(value.trim()); break;
+					case INCREMENTALBUILD: IncrementalBuild = Boolean.parseBoolean(value.trim()); break;
+					case LOADERTHREADS: LoaderThreads = Integer.parseInt(value.trim()); break;
+					case CURRENCYMINDEGREE: CurrencyMinDegree = Integer.parseInt(value.trim()); break;
+					case CURRENCYMINFRACTION: CurrencyMinFraction = Float.parseFloat(value.trim()); break;
+					case OBJECTIVEREACTION: ObjectiveReaction = value.trim(); break;
+					case FLUXVARIABILITY: FluxVariability = Boolean.parseBoolean(value.trim()); break;
+					case FVAFRACTION: FVAFraction = Float.parseFloat(value.trim()); break;
+					case FVATHREADS: FVAThreads = Integer.parseInt(value.trim()); break;
+					case REMOVEDEADENDS: RemoveDeadEnds = Boolean.parseBoolean(value.trim()); break;
+					case COMPRESSNETWORK: CompressNetwork = value.trim().toUpperCase(); break;
+					case ELEMENTARYMODES: ElementaryModes = Boolean.parseBoolean(value.trim()); break;
+					case EFMMAXMODES: EFMMaxModes = Integer.parseInt(value.trim()); break;
+					case EFMTHREADS: EFMThreads = Integer.parseInt(value.trim()); break;
+					case BATCHTHREADS: BatchThreads = Integer.parseInt(value.trim()); break;
+					case BATCHORGANISMS: {
+						for (String organism : value.split(",")) {
+							if (organism.trim().length() > 0) BatchOrganisms.add(organism.trim());
+						}
+					} break;
+					case EXPORTFORMATS: {
+						for (String format : value.split(",")) {
+							if (format.trim().length() > 0) ExportFormats.add(format.trim().toUpperCase());
+						}
+					} break;
 					default: {
 						System.err.println("Unknown config command : " + command);
 					} break;
@@ -127,6 +208,20 @@ public class MyParameters {
 			assert DiffusionSize >= (float) 0;
 			assert DefaultUpperBound >= DefaultLowerBound;
 			assert DefaultLowerBound <= DefaultUpperBound;
+			assert SBMLWriter.equals("LIBSBML") || SBMLWriter.equals("STREAM");
+			assert WriterThreads > 0;
+			assert OutputCompression.equals("NONE") || OutputCompression.equals("GZIP");
+			assert CompressionThreads > 0;
+			assert LoaderThreads > 0;
+			assert CurrencyMinDegree >= 0;
+			assert CurrencyMinFraction >= (float) 0 && CurrencyMinFraction <= (float) 1;
+			assert ObjectiveReaction != null;
+			assert FVAFraction >= (float) 0 && FVAFraction <= (float) 1;
+			assert FVAThreads > 0;
+			assert CompressNetwork.equals("NONE") || CompressNetwork.equals("MODEL") || CompressNetwork.equals("MAP");
+			assert EFMMaxModes > 0;
+			assert EFMThreads > 0;
+			assert BatchThreads > 0;
 			
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -171,6 +266,27 @@ public class MyParameters {
 		DIFFUSIONSIZE,
 		DEFAULTUPPERBOUND,
 		DEFAULTLOWERBOUND,
+		SBMLWRITER,
+		WRITERTHREADS,
+		OUTPUTCOMPRESSION,
+		COMPRESSIONTHREADS,
+		WRITEBINARYNETWORK,
+		EXPORTFORMATS,
+		INCREMENTALBUILD,
+		LOADERTHREADS,
+		CURRENCYMINDEGREE,
+		CURRENCYMINFRACTION,
+		OBJECTIVEREACTION,
+		FLUXVARIABILITY,
+		FVAFRACTION,
+		FVATHREADS,
+		REMOVEDEADENDS,
+		COMPRESSNETWORK,
+		ELEMENTARYMODES,
+		EFMMAXMODES,
+		EFMTHREADS,
+		BATCHORGANISMS,
+		BATCHTHREADS,
 		NOVALUE;
 
 	    public static Setting value(String setting) {
@@ -0,0 +1,216 @@
+package edu.iastate.cycmodeler.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.javacyco.Frame;
+import edu.iastate.javacyco.JavacycConnection;
+import edu.iastate.javacyco.PtoolsErrorException;
+import edu.iastate.javacyco.Reaction;
+
+/**
+ * Loads the reactions of a set of pathways.  The pathway graph is expanded breadth first: the REACTION-LIST of every pathway in the
+ * current level is fetched, reactions are collected, and sub-pathways not visited before make up the next level.  Each reaction and each
+ * pathway is therefore fetched once, no matter how many super-pathways contain it.
+ *
+ * JavacycConnection holds a single socket and cannot be shared between threads, so with more than one thread each worker opens its own
+ * connection through CycModeler.openConnection and the work of a level is split into batches between them.  Workers classify reaction
+ * frames, which is what Frame.load asks the server for, and the frames returned are made again on the main connection with the same
+ * class (Reaction, EnzymeReaction, TransportReaction, ...), so they can be used after the workers close.  Frame.load loads no slots, so
+ * there are none to copy, slots are fetched through the main connection when first read, as they are when loading with one thread.
+ *
+ * @author Jesse Walsh
+ */
+public class PathwayLoader {
+	public static final int DEFAULT_BATCH_SIZE = 32;
+
+	private JavacycConnection conn_;
+	private int threads_;
+	private int batchSize_;
+	private HashSet<String> pathwayIDs_;
+
+	/**
+	 * @param conn Connection used when loading with one thread, and to which all returned frames belong
+	 * @param threads Number of connections to load with
+	 */
+	public PathwayLoader(JavacycConnection conn, int threads) {
+		this(conn, threads, DEFAULT_BATCH_SIZE);
+	}
+
+	public PathwayLoader(JavacycConnection conn, int threads, int batchSize) {
+		this.conn_ = conn;
+		this.threads_ = Math.max(1, threads);
+		this.batchSize_ = Math.max(1, batchSize);
+		this.pathwayIDs_ = null;
+	}
+
+	/**
+	 * Reactions of every pathway in the database.
+	 *
+	 * @return Reaction frames, each once
+	 * @throws PtoolsErrorException
+	 */
+	public ArrayList<Reaction> loadAllPathwayReactions() throws PtoolsErrorException {
+		return loadReactions(loadReactionIDs(getPathwayIDs()));
+	}
+
+	/**
+	 * IDs of the reactions of some pathways, including the reactions of all their sub-pathways.
+	 *
+	 * @param pathwayIDs Pathways to start from
+	 * @return Reaction IDs, each once, in the order they were found
+	 * @throws PtoolsErrorException
+	 */
+	public LinkedHashSet<String> loadReactionIDs(Collection<String> pathwayIDs) throws PtoolsErrorException {
+		HashSet<String> allPathwayIDs = getPathwayIDs();
+		LinkedHashSet<String> reactionIDs = new LinkedHashSet<String>();
+		HashSet<String> visited = new HashSet<String>();
+		ArrayList<String> level = new ArrayList<String>();
+		for (String pathwayID : pathwayIDs) {
+			if (visited.add(pathwayID)) level.add(pathwayID);
+		}
+
+		while (!level.isEmpty()) {
+			Map<String, ArrayList<String>> reactionLists = run(level, new BatchTask<ArrayList<String>>() {
+				@SuppressWarnings("unchecked")
+				public ArrayList<String> load(JavacycConnection conn, String pathwayID) throws PtoolsErrorException {
+					ArrayList<String> members = new ArrayList<String>();
+					for (Object member : conn.getSlotValues(pathwayID, "REACTION-LIST")) members.add(member.toString());
+					return members;
+				}
+			});
+
+			ArrayList<String> nextLevel = new ArrayList<String>();
+			for (String pathwayID : level) {
+				for (String member : reactionLists.get(pathwayID)) {
+					if (allPathwayIDs.contains(member)) {
+						if (visited.add(member)) nextLevel.add(member);
+					} else reactionIDs.add(member);
+				}
+			}
+			level = nextLevel;
+		}
+		return reactionIDs;
+	}
+
+	/**
+	 * Load reaction frames by ID.
+	 *
+	 * @param reactionIDs IDs of the reactions to load
+	 * @return Reaction frames on the main connection, in the order of reactionIDs. IDs which are not reactions are skipped
+	 * @throws PtoolsErrorException
+	 */
+	public ArrayList<Reaction> loadReactions(Collection<String> reactionIDs) throws PtoolsErrorException {
+		ArrayList<String> ids = new ArrayList<String>(reactionIDs);
+		Map<String, Frame> frames = run(ids, new BatchTask<Frame>() {
+			public Frame load(JavacycConnection conn, String reactionID) throws PtoolsErrorException {
+				return Frame.load(conn, reactionID);
+			}
+		});
+
+		ArrayList<Reaction> reactions = new ArrayList<Reaction>();
+		for (String reactionID : ids) {
+			Frame frame = frames.get(reactionID);
+			if (frame == null) continue;
+			if (frame instanceof Reaction && frame.getConnection() == conn_) reactions.add((Reaction) frame);
+			else if (frame instanceof Reaction) reactions.add((Reaction) onMainConnection(frame));
+		}
+		return reactions;
+	}
+
+	/**
+	 * Make a frame loaded by a worker again on the main connection, with the class the worker found for it, so that slots are fetched
+	 * through a connection that stays open.  Frame classes are made with their (JavacycConnection, String) constructor, which does not
+	 * go to the server, if a class has none the frame is loaded again on the main connection.
+	 */
+	private Frame onMainConnection(Frame frame) throws PtoolsErrorException {
+		try {
+			return frame.getClass().getConstructor(JavacycConnection.class, String.class).newInstance(conn_, frame.getLocalID());
+		} catch (Exception e) {
+			return Frame.load(conn_, frame.getLocalID());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private HashSet<String> getPathwayIDs() throws PtoolsErrorException {
+		if (pathwayIDs_ == null) {
+			pathwayIDs_ = new HashSet<String>();
+			for (Object pathwayID : conn_.allPathways()) pathwayIDs_.add(pathwayID.toString());
+		}
+		return pathwayIDs_;
+	}
+
+	/**
+	 * Run a task for each ID, on the main connection when loading with one thread, otherwise in batches on worker connections.
+	 */
+	private <T> Map<String, T> run(List<String> ids, final BatchTask<T> task) throws PtoolsErrorException {
+		final HashMap<String, T> results = new HashMap<String, T>();
+		if (threads_ == 1 || ids.size() <= batchSize_) {
+			for (String id : ids) results.put(id, task.load(conn_, id));
+			return results;
+		}
+
+		int workers = Math.min(threads_, (ids.size() + batchSize_ - 1) / batchSize_);
+		// Every opened connection is closed at the end, including one still held by a task that is running after a failure
+		final BlockingQueue<JavacycConnection> connections = new ArrayBlockingQueue<JavacycConnection>(workers);
+		ArrayList<JavacycConnection> opened = new ArrayList<JavacycConnection>();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int i = 0; i < workers; i++) {
+				JavacycConnection conn = openWorkerConnection();
+				opened.add(conn);
+				connections.add(conn);
+			}
+
+			ArrayList<Future<HashMap<String, T>>> futures = new ArrayList<Future<HashMap<String, T>>>();
+			for (int start = 0; start < ids.size(); start += batchSize_) {
+				final List<String> batch = ids.subList(start, Math.min(start + batchSize_, ids.size()));
+				futures.add(executor.submit(new Callable<HashMap<String, T>>() {
+					public HashMap<String, T> call() throws Exception {
+						JavacycConnection conn = connections.take();
+						try {
+							HashMap<String, T> batchResults = new HashMap<String, T>();
+							for (String id : batch) batchResults.put(id, task.load(conn, id));
+							return batchResults;
+						} finally {
+							connections.put(conn);
+						}
+					}
+				}));
+			}
+			for (Future<HashMap<String, T>> future : futures) results.putAll(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PtoolsErrorException("Interrupted while loading pathways");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PtoolsErrorException) throw (PtoolsErrorException) e.getCause();
+			throw new PtoolsErrorException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (JavacycConnection conn : opened) conn.close();
+		}
+		return results;
+	}
+
+	private static JavacycConnection openWorkerConnection() {
+		return CycModeler.openConnection();
+	}
+
+	// Internal Classes
+	private interface BatchTask<T> {
+		public T load(JavacycConnection conn, String id) throws PtoolsErrorException;
+	}
+}
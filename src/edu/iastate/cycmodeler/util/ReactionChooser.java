@@ -8,18 +8,21 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 
 import edu.iastate.cycmodeler.logic.CycModeler;
 import edu.iastate.javacyco.Frame;
-import edu.iastate.javacyco.Pathway;
 import edu.iastate.javacyco.PtoolsErrorException;
 import edu.iastate.javacyco.Reaction;
 
 public class ReactionChooser {
 	ArrayList<Reaction> reactions_;
+	private ReactionIndex reactionIndex_;
 	
 	public ReactionChooser (String reactionConfigFile) {
 		this.reactions_ = new ArrayList<Reaction>();
+		this.reactionIndex_ = null;
 		loadConfigFile(reactionConfigFile);
 	}
 	
@@ -27,6 +30,7 @@ public class ReactionChooser {
 		ArrayList<String> classToFilter = new ArrayList<String>();
 		ArrayList<String> metaboliteClassToFilter = new ArrayList<String>();
 		ArrayList<String> reactionsToFilter = new ArrayList<String>();
+		ArrayList<ReactionSelection> selectionsToFilter = new ArrayList<ReactionSelection>();
 		
 		File configFile = new File(fileName);
 		BufferedReader reader = null;
@@ -34,9 +38,11 @@ public class ReactionChooser {
 		try {
 			reader = new BufferedReader(new FileReader(configFile));
 			String text = null;
+			int lineNumber = 0;
 			
 			// Parse settings from file
 			while ((text = reader.readLine()) != null) {
+				lineNumber++;
 				try {
 					text = text.substring(0, text.indexOf("%"));
 				} catch (Exception e) {
@@ -57,26 +63,30 @@ public class ReactionChooser {
 				command = command.trim();
 				value = value.trim();
 				
-				switch (ReactionSetting.value(command)) {
-					case INCLUDE: {
-						System.err.println("Not implemented"); break;//TODO
+				// A line that cannot be used fails the whole config, rather than silently dropping it and every line after it
+				try {
+					switch (ReactionSetting.value(command)) {
+						case INCLUDE: includeSelection(ReactionSelection.compile(value)); break;
+						case EXCLUDE: selectionsToFilter.add(ReactionSelection.compile(value)); break;
+						case INCLUDE_ALL_REACTIONS: getAllReactions(); break;
+						case INCLUDE_ALL_PATHWAYS: getAllPathwayReactions(); break;
+						case EXCLUDE_REACTION_CLASS: classToFilter.add(value); break;
+						case EXCLUDE_METABOLITE_CLASS: metaboliteClassToFilter.add(value); break;
+						case EXCLUDE_REACTION: reactionsToFilter.add(value); break;
+						default: {
+							System.err.println("Unknown config command : " + command);
+						} break;
 					}
-					case INCLUDE_ALL_REACTIONS: getAllReactions(); break;
-					case INCLUDE_ALL_PATHWAYS: getAllPathwayReactions(); break;
-					case EXCLUDE_REACTION_CLASS: classToFilter.add(value); break;
-					case EXCLUDE_METABOLITE_CLASS: metaboliteClassToFilter.add(value); break;
-					case EXCLUDE_REACTION: reactionsToFilter.add(value); break;
-					default: {
-						System.err.println("Unknown config command : " + command);
-					} break;
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(fileName + " line " + lineNumber + " : " + e.getMessage(), e);
+				} catch (PtoolsErrorException e) {
+					throw new IllegalStateException(fileName + " line " + lineNumber + " : " + e.getMessage(), e);
 				}
 			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
 		finally {
 			try {
@@ -94,133 +104,127 @@ public class ReactionChooser {
 		
 		if (reactions_ == null || reactions_.size() == 0) {
 			System.err.println("No reactions have been selected!");
-			System.exit(-1);
+			throw new IllegalStateException("No reactions have been selected by " + fileName);
 		}
 		
 		try {
-			removeReactionsByClass(classToFilter);
-			removeReactionsByMetaboliteClass(metaboliteClassToFilter);
-			removeSpecificReactions(reactionsToFilter);
+			removeExcludedReactions(classToFilter, metaboliteClassToFilter, reactionsToFilter);
+			if (selectionsToFilter.size() > 0) removeSelectedReactions(selectionsToFilter);
 		} catch (PtoolsErrorException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void getAllReactions() throws PtoolsErrorException {
-		this.reactions_ = Reaction.all(CycModeler.conn);
-		
-		System.out.println("ReactionList : " + this.reactions_.size());
-	}
-	
-	private void getAllPathwayReactions() throws PtoolsErrorException {
-		ArrayList<String> pathwayLabels = CycModeler.conn.allPathways();
-		for (String pathwayLabel : pathwayLabels) {
-			Pathway pwy = (Pathway) Pathway.load(CycModeler.conn, pathwayLabel);
-			this.reactions_.addAll(pwy.getReactions());
-		}
+	/**
+	 * Index of every reaction in the database, loaded the first time a selection expression is used.  The index is kept by the modeler, so
+	 * a modeler given the index of an earlier build does not load it again.
+	 */
+	private ReactionIndex getReactionIndex() throws PtoolsErrorException {
+		if (reactionIndex_ == null) reactionIndex_ = CycModeler.loadReactionIndex();
+		return reactionIndex_;
 	}
 	
-	private void getAllGenericReactions() throws PtoolsErrorException {
-		ArrayList<Reaction> reactions = new ArrayList<Reaction>();
-		for (Reaction reaction : Reaction.all(CycModeler.conn)) {
-			boolean isGeneric = false;
-			for (Frame reactant : reaction.getReactants()) {
-				if (reactant.isClassFrame()) isGeneric = true;
-			}
-			for (Frame product : reaction.getProducts()) {
-				if (product.isClassFrame()) isGeneric = true;
-			}
-			
-			if (isGeneric) {
-				reactions.add(reaction);
+	/**
+	 * Add the reactions chosen by an INCLUDE selection.  Reactions already chosen are not added again.
+	 */
+	private void includeSelection(ReactionSelection selection) throws PtoolsErrorException {
+		HashSet<String> chosenReactionIDs = new HashSet<String>();
+		for (Reaction reaction : reactions_) chosenReactionIDs.add(reaction.getLocalID());
+		
+		int added = 0;
+		for (Reaction reaction : getReactionIndex().getReactions(selection.evaluate(getReactionIndex()))) {
+			if (chosenReactionIDs.add(reaction.getLocalID())) {
+				reactions_.add(reaction);
+				added++;
 			}
 		}
+		System.out.println("Included by selection \"" + selection + "\" : " + added);
 	}
 	
-	private ArrayList<Reaction> removeSpecificReactions(ArrayList<String> reactionIDs) {
+	/**
+	 * Remove the reactions matched by any EXCLUDE selection.  Removed reactions are written to the "selection" file.
+	 */
+	private void removeSelectedReactions(ArrayList<ReactionSelection> selections) throws PtoolsErrorException {
+		BitSet excluded = new BitSet(getReactionIndex().size());
+		for (ReactionSelection selection : selections) excluded.or(selection.evaluate(getReactionIndex()));
+		
 		ArrayList<Reaction> newReactionList = new ArrayList<Reaction>();
 		ArrayList<Reaction> removedReactions = new ArrayList<Reaction>();
 		for (Reaction reaction : reactions_) {
-			if (!reactionIDs.contains(reaction.getLocalID())) {
-				newReactionList.add(reaction);
-			} else {
-				removedReactions.add(reaction);
-			}
+			int reactionNumber = getReactionIndex().getReactionNumber(reaction.getLocalID());
+			if (reactionNumber != -1 && excluded.get(reactionNumber)) removedReactions.add(reaction);
+			else newReactionList.add(reaction);
 		}
-		
 		this.reactions_ = newReactionList;
 		
-		System.out.println("Removed by specific reaction : " + removedReactions.size());
+		System.out.println("Removed by selection : " + removedReactions.size());
 		System.out.println("ReactionList : " + this.reactions_.size());
 		
-		print(arrayToString(removedReactions), "specific");
-		
-		return removedReactions;
+		print(arrayToString(removedReactions), "selection");
 	}
 	
-	private ArrayList<Reaction> removeReactionsByClass(ArrayList<String> classIDs) throws PtoolsErrorException {
-		ArrayList<Reaction> newReactionList = new ArrayList<Reaction>();
-		ArrayList<Reaction> removedReactions = new ArrayList<Reaction>();
+	private void getAllReactions() throws PtoolsErrorException {
+		HashSet<String> chosenReactionIDs = new HashSet<String>();
+		for (Reaction reaction : reactions_) chosenReactionIDs.add(reaction.getLocalID());
 		
-		for (Reaction reaction : reactions_) {
-			boolean remove = false;
-			for (String classID : classIDs) {
-				if (reaction.isGFPClass(classID)) {
-					remove = true;
-				}
-			}
-			
-			if (!remove) {
-				newReactionList.add(reaction);
-			} else {
-				removedReactions.add(reaction);
-			}
+		for (Reaction reaction : Reaction.all(CycModeler.getConnection())) {
+			if (chosenReactionIDs.add(reaction.getLocalID())) this.reactions_.add(reaction);
 		}
 		
-		this.reactions_ = newReactionList;
-		
-		System.out.println("Removed by class : " + removedReactions.size());
 		System.out.println("ReactionList : " + this.reactions_.size());
+	}
+	
+	private void getAllPathwayReactions() throws PtoolsErrorException {
+		HashSet<String> chosenReactionIDs = new HashSet<String>();
+		for (Reaction reaction : reactions_) chosenReactionIDs.add(reaction.getLocalID());
 		
-		print(arrayToString(removedReactions), "by_class");
+		PathwayLoader loader = new PathwayLoader(CycModeler.getConnection(), CycModeler.getParameters().LoaderThreads);
+		for (Reaction reaction : loader.loadAllPathwayReactions()) {
+			if (chosenReactionIDs.add(reaction.getLocalID())) this.reactions_.add(reaction);
+		}
 		
-		return removedReactions;
+		System.out.println("ReactionList : " + this.reactions_.size());
 	}
 	
-	private ArrayList<Reaction> removeReactionsByMetaboliteClass(ArrayList<String> classIDs) throws PtoolsErrorException {
-		ArrayList<Reaction> newReactionList = new ArrayList<Reaction>();
-		ArrayList<Reaction> removedReactions = new ArrayList<Reaction>();
-		
-		for (Reaction reaction : reactions_) {
-			
-			ArrayList<Frame> metabolites = new ArrayList<Frame>();
-			metabolites.addAll(reaction.getReactants());
-			metabolites.addAll(reaction.getProducts());
-			
-			boolean remove = false;
-			for (String classID : classIDs) {
-				for (Frame metabolite : metabolites) {
-					if (metabolite.isGFPClass(classID)) {
-						remove = true;
-					}
-				}
+	private void getAllGenericReactions() throws PtoolsErrorException {
+		ArrayList<Reaction> reactions = new ArrayList<Reaction>();
+		for (Reaction reaction : Reaction.all(CycModeler.getConnection())) {
+			boolean isGeneric = false;
+			for (Frame reactant : reaction.getReactants()) {
+				if (reactant.isClassFrame()) isGeneric = true;
+			}
+			for (Frame product : reaction.getProducts()) {
+				if (product.isClassFrame()) isGeneric = true;
 			}
 			
-			if (!remove) {
-				newReactionList.add(reaction);
-			} else {
-				removedReactions.add(reaction);
+			if (isGeneric) {
+				reactions.add(reaction);
 			}
 		}
+	}
+	
+	/**
+	 * Remove every reaction matched by an EXCLUDE_* rule.  Classes are expanded in bulk when the filter is built, after which the reaction
+	 * list is filtered in memory in one pass, with the metabolites of each reaction taken from the reaction index.  Removed reactions are
+	 * written to the "by_class", "metabolite_class" and "specific" files, prefixed with the output file name.
+	 */
+	private void removeExcludedReactions(ArrayList<String> classIDs, ArrayList<String> metaboliteClassIDs, ArrayList<String> reactionIDs) throws PtoolsErrorException {
+		ReactionFilter filter = new ReactionFilter(CycModeler.getConnection(), metaboliteClassIDs.isEmpty() ? null : getReactionIndex());
+		for (String classID : classIDs) filter.excludeReactionClass(classID);
+		for (String classID : metaboliteClassIDs) filter.excludeMetaboliteClass(classID);
+		for (String reactionID : reactionIDs) filter.excludeReaction(reactionID);
 		
-		this.reactions_ = newReactionList;
+		ReactionFilter.FilterResults results = filter.filter(reactions_);
+		this.reactions_ = results.keepList;
 		
-		System.out.println("Removed by metabolite class : " + removedReactions.size());
+		System.out.println("Removed by class : " + results.removedByClass.size());
+		System.out.println("Removed by metabolite class : " + results.removedByMetaboliteClass.size());
+		System.out.println("Removed by specific reaction : " + results.removedSpecific.size());
 		System.out.println("ReactionList : " + this.reactions_.size());
 		
-		print(arrayToString(removedReactions), "metabolite_class");
-		
-		return removedReactions;
+		print(arrayToString(results.removedByClass), "by_class");
+		print(arrayToString(results.removedByMetaboliteClass), "metabolite_class");
+		print(arrayToString(results.removedSpecific), "specific");
 	}
 	
 	public ArrayList<Reaction> getReactionList() {
@@ -228,27 +232,28 @@ public class ReactionChooser {
 	}
 	
 	private static String arrayToString(ArrayList<Reaction> reactions) {
-		String printString = "";
+		StringBuilder printString = new StringBuilder();
 		for (Reaction rxn : reactions) {
 			try {
-				printString += rxn.getLocalID() + "\t" + rxn.getCommonName()  + "\t";
-				for (Frame met : rxn.getReactants()) {
-					printString += met.getLocalID() + "\t";
+				printString.append(rxn.getLocalID() + "\t" + rxn.getCommonName()  + "\t");
+				for (Object met : rxn.getSlotValues("LEFT")) {
+					printString.append(met + "\t");
 				}
-				for (Frame met : rxn.getProducts()) {
-					printString += met.getLocalID() + "\t";
+				for (Object met : rxn.getSlotValues("RIGHT")) {
+					printString.append(met + "\t");
 				}
-				printString += "\n";
+				printString.append("\n");
 			} catch (PtoolsErrorException e) {
 				e.printStackTrace();
 			}
 		}
-		return printString;
+		return printString.toString();
 	}
 	
 	private static void print(String printString, String fileName) {
 		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(CycModeler.parameters.OutputDirectory + fileName));
+			MyParameters parameters = CycModeler.getParameters();
+			BufferedWriter out = new BufferedWriter(new FileWriter(parameters.OutputDirectory + parameters.OutputFileName + "_" + fileName));
 			out.write(printString);
 			out.close();
 		} catch (IOException e) {
@@ -259,7 +264,7 @@ public class ReactionChooser {
 	// Internal Classes
 	private enum ReactionSetting	{
 		INCLUDE, INCLUDE_ALL_REACTIONS, INCLUDE_ALL_PATHWAYS,
-		EXCLUDE_REACTION_CLASS, EXCLUDE_METABOLITE_CLASS, EXCLUDE_REACTION,
+		EXCLUDE, EXCLUDE_REACTION_CLASS, EXCLUDE_METABOLITE_CLASS, EXCLUDE_REACTION,
 		NOVALUE;
 
 	    public static ReactionSetting value(String setting) {
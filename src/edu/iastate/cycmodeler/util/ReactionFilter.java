@@ -0,0 +1,118 @@
+package edu.iastate.cycmodeler.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+
+import edu.iastate.javacyco.JavacycConnection;
+import edu.iastate.javacyco.PtoolsErrorException;
+import edu.iastate.javacyco.Reaction;
+
+/**
+ * The EXCLUDE_* rules of a reaction config, compiled into hash sets so that a reaction list can be filtered in memory.  Each class named by
+ * an EXCLUDE_REACTION_CLASS or EXCLUDE_METABOLITE_CLASS rule is expanded once, when it is added, into every frame it matches (all of its
+ * instances and subclasses, and the class itself).  Reactions with a metabolite in an excluded class are looked up in the metabolite index
+ * of a ReactionIndex, which holds the LEFT and RIGHT slots of every reaction, so filtering makes no further calls to the server.  Only
+ * reactions missing from the index have their slots read one at a time.
+ *
+ * Reactions are tested against the rules in the same order ReactionChooser always used: reaction class, then metabolite class, then
+ * specific reaction. A reaction matched by more than one rule is reported under the first.
+ *
+ * @author Jesse Walsh
+ */
+public class ReactionFilter {
+	private JavacycConnection conn_;
+	private ReactionIndex reactionIndex_;
+	private HashSet<String> excludedReactionIDs_;
+	private HashSet<String> excludedReactionClassMembers_;
+	private HashSet<String> excludedMetaboliteClassMembers_;
+
+	/**
+	 * @param conn Connection used to expand classes
+	 * @param reactionIndex Index to look up the metabolites of reactions in. May be null if no metabolite class is excluded
+	 */
+	public ReactionFilter(JavacycConnection conn, ReactionIndex reactionIndex) {
+		this.conn_ = conn;
+		this.reactionIndex_ = reactionIndex;
+		this.excludedReactionIDs_ = new HashSet<String>();
+		this.excludedReactionClassMembers_ = new HashSet<String>();
+		this.excludedMetaboliteClassMembers_ = new HashSet<String>();
+	}
+
+	/**
+	 * Exclude a reaction by frame ID.
+	 */
+	public void excludeReaction(String reactionID) {
+		excludedReactionIDs_.add(reactionID);
+	}
+
+	/**
+	 * Exclude every reaction which is an instance of a reaction class.
+	 */
+	public void excludeReactionClass(String classID) throws PtoolsErrorException {
+		addClassMembers(classID, excludedReactionClassMembers_);
+	}
+
+	/**
+	 * Exclude every reaction with a reactant or product which is an instance or subclass of a compound class.
+	 */
+	public void excludeMetaboliteClass(String classID) throws PtoolsErrorException {
+		addClassMembers(classID, excludedMetaboliteClassMembers_);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addClassMembers(String classID, HashSet<String> members) throws PtoolsErrorException {
+		members.add(classID);
+		for (Object instance : conn_.getClassAllInstances(classID)) members.add(instance.toString());
+		for (Object subclass : conn_.getClassAllSubs(classID)) members.add(subclass.toString());
+	}
+
+	/**
+	 * Sort reactions into those kept and those removed by each kind of rule, in a single pass over the list.
+	 *
+	 * @param reactions Reactions to filter
+	 * @return Results of the filter
+	 * @throws PtoolsErrorException
+	 */
+	public FilterResults filter(ArrayList<Reaction> reactions) throws PtoolsErrorException {
+		BitSet excludedByMetabolite = new BitSet();
+		if (!excludedMetaboliteClassMembers_.isEmpty()) excludedByMetabolite = reactionIndex_.selectAny("metabolite", excludedMetaboliteClassMembers_);
+
+		FilterResults results = new FilterResults();
+		for (Reaction reaction : reactions) {
+			if (excludedReactionClassMembers_.contains(reaction.getLocalID())) results.removedByClass.add(reaction);
+			else if (hasMetaboliteIn(reaction, excludedByMetabolite)) results.removedByMetaboliteClass.add(reaction);
+			else if (excludedReactionIDs_.contains(reaction.getLocalID())) results.removedSpecific.add(reaction);
+			else results.keepList.add(reaction);
+		}
+		return results;
+	}
+
+	private boolean hasMetaboliteIn(Reaction reaction, BitSet excludedByMetabolite) {
+		if (excludedMetaboliteClassMembers_.isEmpty()) return false;
+		int reactionNumber = reactionIndex_.getReactionNumber(reaction.getLocalID());
+		if (reactionNumber != -1) return excludedByMetabolite.get(reactionNumber);
+		try {
+			for (Object reactant : reaction.getSlotValues("LEFT")) {
+				if (excludedMetaboliteClassMembers_.contains(reactant.toString())) return true;
+			}
+			for (Object product : reaction.getSlotValues("RIGHT")) {
+				if (excludedMetaboliteClassMembers_.contains(product.toString())) return true;
+			}
+		} catch (PtoolsErrorException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	// Internal Classes
+	/**
+	 * Reactions kept by the filter, and reactions removed by each kind of rule.
+	 */
+	public static class FilterResults {
+		public ArrayList<Reaction> keepList = new ArrayList<Reaction>();
+		public ArrayList<Reaction> removedByClass = new ArrayList<Reaction>();
+		public ArrayList<Reaction> removedByMetaboliteClass = new ArrayList<Reaction>();
+		public ArrayList<Reaction> removedSpecific = new ArrayList<Reaction>();
+	}
+}
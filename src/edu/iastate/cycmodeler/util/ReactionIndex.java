@@ -0,0 +1,268 @@
+package edu.iastate.cycmodeler.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import edu.iastate.cycmodeler.logic.CycModeler;
+import edu.iastate.javacyco.JavacycConnection;
+import edu.iastate.javacyco.PtoolsErrorException;
+import edu.iastate.javacyco.Reaction;
+
+/**
+ * Every reaction in the database, numbered, with bitset indexes over the attributes a reaction selection can test.  Reactions are loaded
+ * once with Reaction.all.  Each attribute index is built the first time a selection uses it, from slots of the loaded reactions where
+ * possible, and then kept, so evaluating a selection afterwards is done with bitset operations in memory.
+ *
+ * Attributes:
+ *   reaction    - reaction frame ID
+ *   pathway     - pathway frame ID, or a pathway class. Reactions of sub-pathways count as reactions of the super-pathway
+ *   ec          - EC number or EC prefix, such as 1.1.1 (with or without the EC- prefix)
+ *   compartment - a location in RXN-LOCATIONS, reactions without a location are in DEFAULTCOMPARTMENT
+ *   gene        - gene frame ID
+ *   class       - reaction class, matching all of its instances
+ *   metabolite  - compound frame ID, or a compound class, matching reactions with the compound on either side
+ *
+ * @author Jesse Walsh
+ */
+public class ReactionIndex {
+	public static final String[] ATTRIBUTES = {"reaction", "pathway", "ec", "compartment", "gene", "class", "metabolite"};
+	
+	private JavacycConnection conn_;
+	private ArrayList<Reaction> reactions_;
+	private HashMap<String, Integer> reactionNumbers_;
+	private HashMap<String, HashMap<String, BitSet>> attributeIndexes_;
+	private HashMap<String, BitSet> selectionCache_;
+
+	/**
+	 * Load every reaction in the database.
+	 *
+	 * @param conn Connection to the database
+	 * @throws PtoolsErrorException
+	 */
+	public ReactionIndex(JavacycConnection conn) throws PtoolsErrorException {
+		this.conn_ = conn;
+		this.reactions_ = Reaction.all(conn);
+		this.reactionNumbers_ = new HashMap<String, Integer>();
+		for (int i = 0; i < reactions_.size(); i++) reactionNumbers_.put(reactions_.get(i).getLocalID(), i);
+		this.attributeIndexes_ = new HashMap<String, HashMap<String, BitSet>>();
+		this.selectionCache_ = new HashMap<String, BitSet>();
+	}
+
+	/**
+	 * Reactions matching a single attribute test.
+	 *
+	 * @param attribute One of reaction, pathway, ec, compartment, gene, class or metabolite
+	 * @param value Value to test for
+	 * @return Numbers of the matching reactions. The returned set must not be modified
+	 * @throws PtoolsErrorException
+	 */
+	public BitSet select(String attribute, String value) throws PtoolsErrorException {
+		attribute = attribute.toLowerCase();
+		String key = attribute + ":" + value;
+		BitSet selection = selectionCache_.get(key);
+		if (selection != null) return selection;
+
+		if (attribute.equals("reaction")) selection = selectValue(getIndex(attribute), value);
+		else if (attribute.equals("pathway")) selection = selectWithClass(getIndex(attribute), value, false);
+		else if (attribute.equals("ec")) selection = selectECPrefix(value);
+		else if (attribute.equals("compartment")) selection = selectValue(getIndex(attribute), value);
+		else if (attribute.equals("gene")) selection = selectGene(value);
+		else if (attribute.equals("class")) selection = selectClass(value);
+		else if (attribute.equals("metabolite")) selection = selectWithClass(getIndex(attribute), value, true);
+		else throw new IllegalArgumentException("Unknown reaction attribute : " + attribute);
+
+		selectionCache_.put(key, selection);
+		return selection;
+	}
+
+	/**
+	 * Reactions matching any of a list of attribute values.  Values are matched exactly, classes are not expanded, so this is for values
+	 * the caller has already expanded.
+	 *
+	 * @param attribute One of reaction, compartment or metabolite
+	 * @param values Values to test for
+	 * @return A new set holding the numbers of the matching reactions
+	 * @throws PtoolsErrorException
+	 */
+	public BitSet selectAny(String attribute, Iterable<String> values) throws PtoolsErrorException {
+		HashMap<String, BitSet> index = getIndex(attribute.toLowerCase());
+		BitSet selection = new BitSet(reactions_.size());
+		for (String value : values) selection.or(selectValue(index, value));
+		return selection;
+	}
+
+	/**
+	 * @return True if attribute is one of ATTRIBUTES, ignoring case
+	 */
+	public static boolean isAttribute(String attribute) {
+		for (String known : ATTRIBUTES) {
+			if (known.equalsIgnoreCase(attribute)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return A new set holding every reaction
+	 */
+	public BitSet all() {
+		BitSet all = new BitSet(reactions_.size());
+		all.set(0, reactions_.size());
+		return all;
+	}
+
+	public int size() {
+		return reactions_.size();
+	}
+
+	public Reaction getReaction(int reactionNumber) {
+		return reactions_.get(reactionNumber);
+	}
+
+	/**
+	 * @return Number of the reaction with this frame ID, or -1 if the reaction is not in the index
+	 */
+	public int getReactionNumber(String reactionID) {
+		Integer reactionNumber = reactionNumbers_.get(reactionID);
+		return reactionNumber == null ? -1 : reactionNumber;
+	}
+
+	/**
+	 * @return Reactions in a set, in index order
+	 */
+	public ArrayList<Reaction> getReactions(BitSet selection) {
+		ArrayList<Reaction> reactions = new ArrayList<Reaction>(selection.cardinality());
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) reactions.add(reactions_.get(i));
+		return reactions;
+	}
+
+
+	// Attribute selections
+	private static BitSet selectValue(HashMap<String, BitSet> index, String value) {
+		BitSet selection = index.get(value);
+		return selection == null ? new BitSet() : selection;
+	}
+
+	/**
+	 * Select by a frame ID, which when the frame is a class also matches all its instances and subclasses.
+	 */
+	@SuppressWarnings("unchecked")
+	private BitSet selectWithClass(HashMap<String, BitSet> index, String value, boolean includeSubclasses) throws PtoolsErrorException {
+		BitSet selection = (BitSet) selectValue(index, value).clone();
+		if (!conn_.getFrameType(value).toUpperCase().equals(":CLASS")) return selection;
+
+		for (Object instance : conn_.getClassAllInstances(value)) selection.or(selectValue(index, instance.toString()));
+		if (includeSubclasses) {
+			for (Object subclass : conn_.getClassAllSubs(value)) selection.or(selectValue(index, subclass.toString()));
+		}
+		return selection;
+	}
+
+	private BitSet selectECPrefix(String value) throws PtoolsErrorException {
+		String prefix = normalizeECNumber(value);
+		while (prefix.endsWith(".") || prefix.endsWith("*")) prefix = prefix.substring(0, prefix.length() - 1);
+
+		BitSet selection = new BitSet(reactions_.size());
+		HashMap<String, BitSet> index = getIndex("ec");
+		for (String ecNumber : index.keySet()) {
+			if (ecNumber.equals(prefix) || ecNumber.startsWith(prefix + ".")) selection.or(index.get(ecNumber));
+		}
+		return selection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private BitSet selectGene(String value) throws PtoolsErrorException {
+		BitSet selection = new BitSet(reactions_.size());
+		for (Object reactionID : conn_.reactionsOfGene(value)) {
+			int reactionNumber = getReactionNumber(reactionID.toString());
+			if (reactionNumber != -1) selection.set(reactionNumber);
+		}
+		return selection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private BitSet selectClass(String value) throws PtoolsErrorException {
+		BitSet selection = new BitSet(reactions_.size());
+		for (Object reactionID : conn_.getClassAllInstances(value)) {
+			int reactionNumber = getReactionNumber(reactionID.toString());
+			if (reactionNumber != -1) selection.set(reactionNumber);
+		}
+		return selection;
+	}
+
+	private static String normalizeECNumber(String ecNumber) {
+		ecNumber = ecNumber.trim();
+		if (ecNumber.toUpperCase().startsWith("EC-")) return ecNumber.substring(3);
+		return ecNumber;
+	}
+
+
+	// Index construction
+	private HashMap<String, BitSet> getIndex(String attribute) throws PtoolsErrorException {
+		HashMap<String, BitSet> index = attributeIndexes_.get(attribute);
+		if (index != null) return index;
+
+		index = new HashMap<String, BitSet>();
+		if (attribute.equals("reaction")) {
+			for (int i = 0; i < reactions_.size(); i++) addToIndex(index, reactions_.get(i).getLocalID(), i);
+		} else if (attribute.equals("pathway")) {
+			buildPathwayIndex(index);
+		} else {
+			for (int i = 0; i < reactions_.size(); i++) {
+				Reaction reaction = reactions_.get(i);
+				if (attribute.equals("ec")) {
+					for (Object ecNumber : reaction.getSlotValues("EC-NUMBER")) addToIndex(index, normalizeECNumber(ecNumber.toString()), i);
+				} else if (attribute.equals("compartment")) {
+					ArrayList<?> locations = reaction.getSlotValues("RXN-LOCATIONS");
+					if (locations.isEmpty()) addToIndex(index, CycModeler.getParameters().DefaultCompartment, i);
+					for (Object location : locations) addToIndex(index, location.toString(), i);
+				} else if (attribute.equals("metabolite")) {
+					for (Object reactant : reaction.getSlotValues("LEFT")) addToIndex(index, reactant.toString(), i);
+					for (Object product : reaction.getSlotValues("RIGHT")) addToIndex(index, product.toString(), i);
+				}
+			}
+		}
+		attributeIndexes_.put(attribute, index);
+		return index;
+	}
+
+	/**
+	 * Index reactions by pathway.  REACTION-LIST of a super-pathway holds its sub-pathways as well as reactions, the sub-pathways are
+	 * expanded so that a super-pathway selects every reaction below it.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buildPathwayIndex(HashMap<String, BitSet> index) throws PtoolsErrorException {
+		HashMap<String, ArrayList<String>> reactionLists = new HashMap<String, ArrayList<String>>();
+		for (Object pathwayID : conn_.allPathways()) {
+			ArrayList<String> reactionList = new ArrayList<String>();
+			for (Object member : conn_.getSlotValues(pathwayID.toString(), "REACTION-LIST")) reactionList.add(member.toString());
+			reactionLists.put(pathwayID.toString(), reactionList);
+		}
+		for (String pathwayID : reactionLists.keySet()) {
+			index.put(pathwayID, collectPathwayReactions(pathwayID, reactionLists, index, new HashSet<String>()));
+		}
+	}
+
+	private BitSet collectPathwayReactions(String pathwayID, HashMap<String, ArrayList<String>> reactionLists, HashMap<String, BitSet> index, HashSet<String> visited) {
+		if (index.containsKey(pathwayID)) return index.get(pathwayID);
+		BitSet selection = new BitSet(reactions_.size());
+		if (!visited.add(pathwayID)) return selection;
+
+		for (String member : reactionLists.get(pathwayID)) {
+			int reactionNumber = getReactionNumber(member);
+			if (reactionNumber != -1) selection.set(reactionNumber);
+			else if (reactionLists.containsKey(member)) selection.or(collectPathwayReactions(member, reactionLists, index, visited));
+		}
+		return selection;
+	}
+
+	private void addToIndex(HashMap<String, BitSet> index, String value, int reactionNumber) {
+		BitSet selection = index.get(value);
+		if (selection == null) {
+			selection = new BitSet(reactions_.size());
+			index.put(value, selection);
+		}
+		selection.set(reactionNumber);
+	}
+}
@@ -0,0 +1,188 @@
+package edu.iastate.cycmodeler.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import edu.iastate.javacyco.PtoolsErrorException;
+
+/**
+ * A compiled reaction selection expression, as used by the INCLUDE and EXCLUDE commands of a reaction config.  An expression combines
+ * attribute tests with AND, OR, NOT and parentheses, for example
+ *
+ *   INCLUDE pathway:GLYCOLYSIS OR (ec:1.1.1 AND compartment:CCO-CYTOSOL)
+ *   EXCLUDE metabolite:|Proteins| OR NOT gene:EG10702
+ *
+ * Each test is written attribute:value with one of the attributes listed in ReactionIndex, and * selects every reaction. NOT binds
+ * tighter than AND, which binds tighter than OR. Operators are not case sensitive.  Evaluating the expression against a ReactionIndex
+ * gives the set of selected reactions as a bitset.
+ *
+ * @author Jesse Walsh
+ */
+public class ReactionSelection {
+	private Node root_;
+	private String expression_;
+
+	private ReactionSelection(String expression, Node root) {
+		this.expression_ = expression;
+		this.root_ = root;
+	}
+
+	/**
+	 * Parse a selection expression.
+	 *
+	 * @param expression Expression to parse
+	 * @return Compiled selection
+	 * @throws IllegalArgumentException If the expression cannot be parsed
+	 */
+	public static ReactionSelection compile(String expression) {
+		Parser parser = new Parser(tokenize(expression));
+		Node root = parser.parseOr();
+		if (parser.hasNext()) throw new IllegalArgumentException("Unexpected \"" + parser.peek() + "\" in selection : " + expression);
+		return new ReactionSelection(expression, root);
+	}
+
+	/**
+	 * Evaluate this selection.
+	 *
+	 * @param index Index of the reactions to select from
+	 * @return Numbers of the selected reactions in the index
+	 * @throws PtoolsErrorException
+	 */
+	public BitSet evaluate(ReactionIndex index) throws PtoolsErrorException {
+		return root_.evaluate(index);
+	}
+
+	public String toString() {
+		return expression_;
+	}
+
+	private static ArrayList<String> tokenize(String expression) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+			if (Character.isWhitespace(c) || c == '(' || c == ')') {
+				if (token.length() > 0) tokens.add(token.toString());
+				token.setLength(0);
+				if (c == '(' || c == ')') tokens.add(String.valueOf(c));
+			} else token.append(c);
+		}
+		if (token.length() > 0) tokens.add(token.toString());
+		return tokens;
+	}
+
+	// Internal Classes
+	/**
+	 * Recursive descent parser over the tokens of an expression.
+	 */
+	private static class Parser {
+		private ArrayList<String> tokens_;
+		private int position_;
+
+		public Parser(ArrayList<String> tokens) {
+			this.tokens_ = tokens;
+			this.position_ = 0;
+		}
+
+		public boolean hasNext() {
+			return position_ < tokens_.size();
+		}
+
+		public String peek() {
+			return tokens_.get(position_);
+		}
+
+		private boolean accept(String keyword) {
+			if (hasNext() && peek().equalsIgnoreCase(keyword)) {
+				position_++;
+				return true;
+			}
+			return false;
+		}
+
+		public Node parseOr() {
+			Node node = parseAnd();
+			while (accept("OR")) node = new Operator(Operator.OR, node, parseAnd());
+			return node;
+		}
+
+		private Node parseAnd() {
+			Node node = parseNot();
+			while (accept("AND")) node = new Operator(Operator.AND, node, parseNot());
+			return node;
+		}
+
+		private Node parseNot() {
+			if (accept("NOT")) return new Operator(Operator.NOT, parseNot(), null);
+			return parsePrimary();
+		}
+
+		private Node parsePrimary() {
+			if (!hasNext()) throw new IllegalArgumentException("Selection ended early");
+			if (accept("(")) {
+				Node node = parseOr();
+				if (!accept(")")) throw new IllegalArgumentException("Missing \")\" in selection");
+				return node;
+			}
+
+			String token = tokens_.get(position_++);
+			if (token.equals("*")) return new Term(null, null);
+			int separator = token.indexOf(':');
+			if (separator <= 0 || separator == token.length() - 1) throw new IllegalArgumentException("Expected attribute:value but found \"" + token + "\"");
+			if (!ReactionIndex.isAttribute(token.substring(0, separator))) throw new IllegalArgumentException("Unknown reaction attribute \"" + token.substring(0, separator) + "\"");
+			return new Term(token.substring(0, separator), token.substring(separator + 1));
+		}
+	}
+
+	private static abstract class Node {
+		public abstract BitSet evaluate(ReactionIndex index) throws PtoolsErrorException;
+	}
+
+	/**
+	 * A single attribute test, or every reaction when the attribute is null.
+	 */
+	private static class Term extends Node {
+		private String attribute_;
+		private String value_;
+
+		public Term(String attribute, String value) {
+			this.attribute_ = attribute;
+			this.value_ = value;
+		}
+
+		public BitSet evaluate(ReactionIndex index) throws PtoolsErrorException {
+			if (attribute_ == null) return index.all();
+			return (BitSet) index.select(attribute_, value_).clone();
+		}
+	}
+
+	private static class Operator extends Node {
+		public static final int AND = 0;
+		public static final int OR = 1;
+		public static final int NOT = 2;
+
+		private int operator_;
+		private Node left_;
+		private Node right_;
+
+		public Operator(int operator, Node left, Node right) {
+			this.operator_ = operator;
+			this.left_ = left;
+			this.right_ = right;
+		}
+
+		public BitSet evaluate(ReactionIndex index) throws PtoolsErrorException {
+			BitSet selection = left_.evaluate(index);
+			switch (operator_) {
+				case AND: selection.and(right_.evaluate(index)); break;
+				case OR: selection.or(right_.evaluate(index)); break;
+				case NOT: {
+					BitSet all = index.all();
+					all.andNot(selection);
+					selection = all;
+				} break;
+			}
+			return selection;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package edu.iastate.cycmodeler.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Report {
 	private int totalInitialReactionsCount;
@@ -15,8 +17,17 @@ public class Report {
 	private int newReactionsFromReactionsSplitByLocation;
 	private int transportReactions;
 	private int totalReactions;
+	private int deadEndMetabolites;
+	private int blockedReactions;
+	private int blockedReactionsRemoved;
+	private int connectedComponents;
+	private int largestComponentReactions;
+	private int isolatedReactions;
+	private int lumpedReactions;
+	private int reactionsLumped;
+	private int compressionRemovedReactions;
 	
-	public static ArrayList<String> instantiation;
+	private List<String> instantiation;
 	
 	public Report() {
 		initDefault();
@@ -35,8 +46,30 @@ public class Report {
 		newReactionsFromReactionsSplitByLocation = 0;
 		transportReactions = 0;
 		totalReactions = 0;
+		deadEndMetabolites = 0;
+		blockedReactions = 0;
+		blockedReactionsRemoved = 0;
+		connectedComponents = 0;
+		largestComponentReactions = 0;
+		isolatedReactions = 0;
+		lumpedReactions = 0;
+		reactionsLumped = 0;
+		compressionRemovedReactions = 0;
 		
-		instantiation = new ArrayList<String>();
+		instantiation = Collections.synchronizedList(new ArrayList<String>());
+	}
+	
+	/**
+	 * Note why a generic reaction could not be instantiated.  Safe to call from several threads of the same build.
+	 * 
+	 * @param message Reason the reaction was skipped
+	 */
+	public void addInstantiation(String message) {
+		instantiation.add(message);
+	}
+	
+	public List<String> getInstantiation() {
+		return instantiation;
 	}
 	
 	public void setTotalInitialReactionsCount(int totalStartingReactionsCount) {
@@ -82,6 +115,42 @@ public class Report {
 	public void setTotalReactions(int i) {
 		totalReactions = i;
 	}
+
+	public void setDeadEndMetabolites(int i) {
+		deadEndMetabolites = i;
+	}
+
+	public void setBlockedReactions(int i) {
+		blockedReactions = i;
+	}
+
+	public void setBlockedReactionsRemoved(int i) {
+		blockedReactionsRemoved = i;
+	}
+
+	public void setConnectedComponents(int i) {
+		connectedComponents = i;
+	}
+
+	public void setLargestComponentReactions(int i) {
+		largestComponentReactions = i;
+	}
+
+	public void setIsolatedReactions(int i) {
+		isolatedReactions = i;
+	}
+
+	public void setLumpedReactions(int i) {
+		lumpedReactions = i;
+	}
+
+	public void setReactionsLumped(int i) {
+		reactionsLumped = i;
+	}
+
+	public void setCompressionRemovedReactions(int i) {
+		compressionRemovedReactions = i;
+	}
 	
 	public String report() {
 		String reportString = "Writing statistics ...\n";
@@ -95,6 +164,14 @@ public class Report {
 		reportString += "Boundary metabolites found : " + boundaryMetabolitesFound + "\n";
 		reportString += "Exchange reactions added : " + boundaryReactionsAdded + "\n";
 		reportString += "Total transport reactions in network (excluding exchange and diffusion): " + transportReactions + "\n";
+		reportString += "Dead-end metabolites found : " + deadEndMetabolites + "\n";
+		reportString += "Reactions blocked by dead ends : " + blockedReactions + "\n";
+		reportString += "Blocked reactions removed : " + blockedReactionsRemoved + "\n";
+		reportString += "Connected components (excluding currency metabolites) : " + connectedComponents + "\n";
+		reportString += "Reactions in largest component : " + largestComponentReactions + "\n";
+		reportString += "Isolated reactions : " + isolatedReactions + "\n";
+		reportString += "Lumped reactions from compression : " + lumpedReactions + " (replacing " + reactionsLumped + " reactions)\n";
+		reportString += "Blocked reactions removed by compression : " + compressionRemovedReactions + "\n";
 		reportString += "Total reactions in network: " + totalReactions + "\n";
 		return reportString;
 //		System.out.println("Writing statistics ...");